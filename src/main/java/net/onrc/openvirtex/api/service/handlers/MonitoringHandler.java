@@ -21,6 +21,9 @@ package net.onrc.openvirtex.api.service.handlers;
 
 import java.util.HashMap;
 
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetFlowQuota;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetIOStatistics;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetIngressStatistics;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalFlowtable;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalHosts;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalTopology;
@@ -78,6 +81,9 @@ public class MonitoringHandler extends AbstractHandler implements
             this.put("getVirtualFlowtable", new GetVirtualFlowtable());
             this.put("getPhysicalFlowtable", new GetPhysicalFlowtable());
             this.put("getVirtualAddressMapping", new GetVirtualAddressMapping());
+            this.put("getIOStatistics", new GetIOStatistics());
+            this.put("getIngressStatistics", new GetIngressStatistics());
+            this.put("getFlowQuota", new GetFlowQuota());
         }
     };
 
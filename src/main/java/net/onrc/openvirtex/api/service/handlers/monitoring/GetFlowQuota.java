@@ -0,0 +1,76 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.FlowQuota;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the flow entries a virtual network holds against its limits, in
+ * total and on each physical switch it uses.
+ *
+ * @return map of usage names to values
+ */
+public class GetFlowQuota extends ApiHandler<Map<String, Object>> {
+
+    private JSONRPC2Response resp = null;
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        try {
+            final Number tid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.TENANT, params, true, null);
+            final Map<String, Object> res = FlowQuota.getUsage(OVXMap
+                    .getInstance().getVirtualNetwork(tid.intValue()));
+            res.put(MonitoringHandler.TENANT, tid.intValue());
+            this.resp = new JSONRPC2Response(res, 0);
+
+        } catch (ClassCastException | MissingRequiredField e) {
+            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                    + ": Unable to fetch flow quota : "
+                    + e.getMessage()), 0);
+        } catch (final NetworkMappingException e) {
+            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                    + ": Unable to fetch flow quota : "
+                    + e.getMessage()), 0);
+        }
+
+        return this.resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
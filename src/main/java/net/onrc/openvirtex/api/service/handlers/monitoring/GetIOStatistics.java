@@ -0,0 +1,76 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.core.io.ControllerConnector;
+import net.onrc.openvirtex.core.io.LaneDispatcher;
+import net.onrc.openvirtex.core.io.OVXChannelWriter;
+import net.onrc.openvirtex.core.io.OVXMessageDecoder;
+import net.onrc.openvirtex.core.io.OVXMessageEncoder;
+import net.onrc.openvirtex.elements.datapath.BarrierAggregator;
+import net.onrc.openvirtex.elements.datapath.CookieAllocator;
+import net.onrc.openvirtex.elements.datapath.FlowInstaller;
+import net.onrc.openvirtex.elements.datapath.FlowModCache;
+import net.onrc.openvirtex.elements.datapath.FlowQuota;
+import net.onrc.openvirtex.elements.datapath.FlowShadow;
+import net.onrc.openvirtex.elements.datapath.PacketBufferStore;
+import net.onrc.openvirtex.elements.datapath.PacketInCache;
+import net.onrc.openvirtex.elements.datapath.XidTranslator;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the counters of the OpenFlow channel I/O layer.
+ *
+ * @return map of I/O component names to their counters
+ */
+public class GetIOStatistics extends ApiHandler<Object> {
+
+    @Override
+    public JSONRPC2Response process(final Object params) {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("writer", OVXChannelWriter.getGlobalStatistics());
+        stats.put("encoder", OVXMessageEncoder.getStatistics());
+        stats.put("decoder", OVXMessageDecoder.getStatistics());
+        stats.put("lanes", LaneDispatcher.getStatistics());
+        stats.put("connector", ControllerConnector.getStatistics());
+        stats.put("xid", XidTranslator.getGlobalStatistics());
+        stats.put("packetBuffers", PacketBufferStore.getGlobalStatistics());
+        stats.put("installer", FlowInstaller.getStatistics());
+        stats.put("barriers", BarrierAggregator.getStatistics());
+        stats.put("shadow", FlowShadow.getStatistics());
+        stats.put("flowModCache", FlowModCache.getStatistics());
+        stats.put("cookies", CookieAllocator.getStatistics());
+        stats.put("quota", FlowQuota.getStatistics());
+        stats.put("packetInCache", PacketInCache.getStatistics());
+        return new JSONRPC2Response(stats, 0);
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.NO_PARAMS;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.exceptions.InvalidDPIDException;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the ingress rate limiting counters of one or all physical switches.
+ *
+ * @return map of counter names to values, keyed by switch name if no
+ *         datapath ID is given
+ */
+public class GetIngressStatistics extends ApiHandler<Map<String, Object>> {
+
+    private JSONRPC2Response resp = null;
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        try {
+            final Number dpid = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.DPID, params, false, -1);
+
+            if (dpid.longValue() == -1) {
+                final Map<String, Object> res = new HashMap<String, Object>();
+                for (PhysicalSwitch sw : PhysicalNetwork.getInstance()
+                        .getSwitches()) {
+                    res.put(sw.getSwitchName(), sw.getIngressStatistics());
+                }
+                this.resp = new JSONRPC2Response(res, 0);
+            } else {
+                final PhysicalSwitch sw = PhysicalNetwork.getInstance()
+                        .getSwitch(dpid.longValue());
+                this.resp = new JSONRPC2Response(sw.getIngressStatistics(), 0);
+            }
+
+        } catch (ClassCastException | MissingRequiredField e) {
+            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                    + ": Unable to fetch ingress statistics : "
+                    + e.getMessage()), 0);
+        } catch (final InvalidDPIDException e) {
+            this.resp = new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                    + ": Unable to fetch ingress statistics : "
+                    + e.getMessage()), 0);
+        }
+
+        return this.resp;
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
@@ -27,7 +27,7 @@ import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
 import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
-import net.onrc.openvirtex.exceptions.AddressMappingException;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
@@ -53,18 +53,16 @@ public class GetVirtualAddressMapping extends ApiHandler<Map<String, Object>> {
              * for (PhysicalLink link : map.getPhysicalLinks(vlink))
              * list.add(link.getLinkId()); res.put(vlink.getLinkId(), list); }
              */
-            for (CharSequence vip : map.getAllKeys()) {
-                String ip = vip.toString().replace("OVXIPAddress[", "")
-                        .replace("]", "");
-                res.put(ip,
-                        map.getPhysicalIP(new OVXIPAddress(ip, tid.intValue()),
-                                tid.intValue()).toSimpleString());
+            for (Map.Entry<Integer, Integer> ip : map.getPhysicalIPs(
+                    tid.intValue()).entrySet()) {
+                res.put(new OVXIPAddress(tid.intValue(), ip.getKey())
+                        .toSimpleString(), new PhysicalIPAddress(ip.getValue())
+                        .toSimpleString());
             }
 
             resp = new JSONRPC2Response(res, 0);
 
-        } catch (ClassCastException | MissingRequiredField
-                | AddressMappingException e) {
+        } catch (ClassCastException | MissingRequiredField e) {
             resp = new JSONRPC2Response(new JSONRPC2Error(
                     JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
                     + ": Unable to fetch virtual topology : "
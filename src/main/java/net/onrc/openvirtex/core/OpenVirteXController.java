@@ -28,9 +28,19 @@ import java.util.concurrent.TimeUnit;
 import net.onrc.openvirtex.api.server.JettyServer;
 import net.onrc.openvirtex.core.cmd.CmdLineSettings;
 import net.onrc.openvirtex.core.io.ClientChannelPipeline;
+import net.onrc.openvirtex.core.io.ControllerConnector;
+import net.onrc.openvirtex.core.io.IngressRateLimiter;
+import net.onrc.openvirtex.core.io.LaneDispatcher;
+import net.onrc.openvirtex.core.io.OVXChannelWriter;
+import net.onrc.openvirtex.core.io.OVXMessageDecoder;
+import net.onrc.openvirtex.core.io.OVXMessageEncoder;
 import net.onrc.openvirtex.core.io.SwitchChannelPipeline;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.FlowInstaller;
+import net.onrc.openvirtex.elements.datapath.FlowModCache;
+import net.onrc.openvirtex.elements.datapath.FlowQuota;
+import net.onrc.openvirtex.elements.datapath.PacketBufferStore;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
@@ -40,14 +50,9 @@ import net.onrc.openvirtex.util.BitSetIndex.IndexType;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 //import org.openflow.vendor.nicira.OFNiciraVendorExtensions;
@@ -69,9 +74,6 @@ public class OpenVirteXController implements Runnable {
     private Boolean dbClear = null;
     Thread server;
 
-    private final NioClientSocketChannelFactory clientSockets = new NioClientSocketChannelFactory(
-            Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
-
     private ThreadPoolExecutor clientThreads = null;
     private ThreadPoolExecutor serverThreads = null;
 
@@ -80,6 +82,7 @@ public class OpenVirteXController implements Runnable {
 
     private SwitchChannelPipeline pfact = null;
     private ClientChannelPipeline cfact = null;
+    private ControllerConnector connector = null;
 
     private int maxVirtual = 0;
     private OVXLinkField ovxLinkField;
@@ -103,6 +106,22 @@ public class OpenVirteXController implements Runnable {
         this.nClientThreads = settings.getClientThreads();
         this.nServerThreads = settings.getServerThreads();
         this.useBDDP = settings.getUseBDDP();
+        OVXChannelWriter.configure(settings.getBatchSize(),
+                settings.getBatchDelay());
+        OVXMessageEncoder.configure(settings.getEncodeMode(),
+                settings.getDirectBuffers());
+        OVXMessageDecoder.configure(!settings.getEagerDecode());
+        IngressRateLimiter.configure(settings.getPacketInRate(),
+                settings.getPacketInBurst(), settings.getControlRate(),
+                settings.getControlBurst(), settings.getOverflowPolicy());
+        LaneDispatcher.configure(settings.getLaneCapacity(),
+                settings.getChannelBacklog());
+        PacketBufferStore.configure(settings.getBufferBytes(),
+                settings.getBufferTimeout());
+        FlowInstaller.configure(settings.getBarrierTimeout());
+        FlowModCache.configure(settings.getFlowModCache());
+        FlowQuota.configure(settings.getTenantFlows(),
+                settings.getSwitchFlows(), settings.getEvictIdle());
         // by default, use Mac addresses to store vLinks informations
         this.ovxLinkField = OVXLinkField.MAC_ADDRESS;
         this.clientThreads = new OrderedMemoryAwareThreadPoolExecutor(
@@ -110,6 +129,10 @@ public class OpenVirteXController implements Runnable {
         this.serverThreads = new OrderedMemoryAwareThreadPoolExecutor(
                 nServerThreads, 1048576, 1048576, 5, TimeUnit.SECONDS);
         this.pfact = new SwitchChannelPipeline(this, this.serverThreads);
+        this.cfact = new ClientChannelPipeline(this, this.clientThreads);
+        this.connector = new ControllerConnector(this.cfact, this.cg,
+                PhysicalNetwork.getTimer(), settings.getClientIOThreads(),
+                settings.getConnectRate(), settings.getMaxPendingConnects());
         OpenVirteXController.instance = this;
         OpenVirteXController.tenantIdCounter = new BitSetIndex(
                 IndexType.TENANT_ID);
@@ -146,35 +169,9 @@ public class OpenVirteXController implements Runnable {
         String[] ctrlParts = null;
         for (String ctrl : ctrls) {
             ctrlParts = ctrl.split(":");
-            final ClientBootstrap clientBootStrap = this
-                    .createClientBootStrap();
-            this.setClientBootStrapParams(clientBootStrap);
             final InetSocketAddress remoteAddr = new InetSocketAddress(
                     ctrlParts[1], Integer.parseInt(ctrlParts[2]));
-            clientBootStrap.setOption("remoteAddress", remoteAddr);
-
-            this.cfact = new ClientChannelPipeline(this, this.cg,
-                    this.clientThreads, clientBootStrap, sw);
-            clientBootStrap.setPipelineFactory(this.cfact);
-
-            final ChannelFuture cf = clientBootStrap.connect();
-
-            cf.addListener(new ChannelFutureListener() {
-
-                @Override
-                public void operationComplete(final ChannelFuture e)
-                        throws Exception {
-                    if (e.isSuccess()) {
-                        final Channel chan = e.getChannel();
-                        sw.setChannel(chan);
-                        OpenVirteXController.this.cg.add(chan);
-                    } else {
-                        OpenVirteXController.this.log
-                                .error("Failed to connect to controller {} for switch {}",
-                                        remoteAddr, sw.getSwitchName());
-                    }
-                }
-            });
+            this.connector.connect(sw, remoteAddr);
         }
     }
 
@@ -202,19 +199,6 @@ public class OpenVirteXController implements Runnable {
 
     }
 
-    private void setClientBootStrapParams(final ClientBootstrap bootstrap) {
-        bootstrap.setOption("reuseAddr", true);
-        bootstrap.setOption("child.keepAlive", true);
-        bootstrap.setOption("child.tcpNoDelay", true);
-        bootstrap.setOption("child.sendBufferSize",
-                OpenVirteXController.SEND_BUFFER_SIZE);
-
-    }
-
-    private ClientBootstrap createClientBootStrap() {
-        return new ClientBootstrap(this.clientSockets);
-    }
-
     private ServerBootstrap createServerBootStrap() {
         return new ServerBootstrap(new NioServerSocketChannelFactory(
                 Executors.newCachedThreadPool(),
@@ -251,6 +235,10 @@ public class OpenVirteXController implements Runnable {
         if (this.cfact != null) {
             this.cfact.releaseExternalResources();
         }
+        if (this.connector != null) {
+            this.connector.shutDown();
+        }
+        OVXChannelWriter.shutDown();
 
         this.log.info("Shutting down database connection");
         DBManager.getInstance().close();
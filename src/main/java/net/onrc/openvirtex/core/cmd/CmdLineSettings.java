@@ -19,6 +19,16 @@
  */
 package net.onrc.openvirtex.core.cmd;
 
+import net.onrc.openvirtex.core.io.ControllerConnector;
+import net.onrc.openvirtex.core.io.IngressRateLimiter;
+import net.onrc.openvirtex.core.io.IngressRateLimiter.OverflowPolicy;
+import net.onrc.openvirtex.core.io.LaneDispatcher;
+import net.onrc.openvirtex.core.io.OVXChannelWriter;
+import net.onrc.openvirtex.core.io.OVXMessageEncoder.EncodeMode;
+import net.onrc.openvirtex.elements.datapath.FlowInstaller;
+import net.onrc.openvirtex.elements.datapath.FlowModCache;
+import net.onrc.openvirtex.elements.datapath.FlowQuota;
+import net.onrc.openvirtex.elements.datapath.PacketBufferStore;
 import net.onrc.openvirtex.util.OVXUtil;
 
 import org.kohsuke.args4j.Option;
@@ -70,6 +80,98 @@ public class CmdLineSettings {
      * Default value if BDDP is used for discovery.
      */
     public static final Boolean DEFAULT_USE_BDDP = false;
+    /**
+     * Default maximum number of OpenFlow messages written per flush.
+     */
+    public static final Integer DEFAULT_BATCH_SIZE = OVXChannelWriter.DEFAULT_MAX_BATCH_SIZE;
+    /**
+     * Default time (in milliseconds) outbound messages are held for batching.
+     */
+    public static final Integer DEFAULT_BATCH_DELAY = OVXChannelWriter.DEFAULT_MAX_DELAY;
+    /**
+     * Default buffer allocation strategy of the OpenFlow message encoder.
+     */
+    public static final EncodeMode DEFAULT_ENCODE_MODE = EncodeMode.EXACT;
+    /**
+     * Default value if the OpenFlow message encoder emits direct buffers.
+     */
+    public static final Boolean DEFAULT_DIRECT_BUFFERS = false;
+    /**
+     * Default value if inbound OpenFlow messages are fully parsed on arrival.
+     */
+    public static final Boolean DEFAULT_EAGER_DECODE = false;
+    /**
+     * Default packet-in rate limit (messages per second) per physical switch;
+     * 0 means unlimited.
+     */
+    public static final Integer DEFAULT_PACKET_IN_RATE = IngressRateLimiter.DEFAULT_PACKET_IN_RATE;
+    /**
+     * Default packet-in burst size per physical switch.
+     */
+    public static final Integer DEFAULT_PACKET_IN_BURST = IngressRateLimiter.DEFAULT_PACKET_IN_BURST;
+    /**
+     * Default rate limit of other messages per physical switch.
+     */
+    public static final Integer DEFAULT_CONTROL_RATE = IngressRateLimiter.DEFAULT_CONTROL_RATE;
+    /**
+     * Default burst size of other messages per physical switch.
+     */
+    public static final Integer DEFAULT_CONTROL_BURST = IngressRateLimiter.DEFAULT_CONTROL_BURST;
+    /**
+     * Default handling of messages over the ingress rate limit.
+     */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = IngressRateLimiter.DEFAULT_OVERFLOW_POLICY;
+    /**
+     * Default maximum number of messages waiting in each bounded dispatch lane.
+     */
+    public static final Integer DEFAULT_LANE_CAPACITY = LaneDispatcher.DEFAULT_LANE_CAPACITY;
+    /**
+     * Default maximum number of messages of one switch waiting over all
+     * dispatch lanes.
+     */
+    public static final Integer DEFAULT_CHANNEL_BACKLOG = LaneDispatcher.DEFAULT_CHANNEL_BACKLOG;
+    /**
+     * Default number of I/O threads serving controller connections.
+     */
+    public static final Integer DEFAULT_CLIENT_IO_THREADS = ControllerConnector.DEFAULT_IO_THREADS;
+    /**
+     * Default number of controller connection attempts started per second.
+     */
+    public static final Integer DEFAULT_CONNECT_RATE = ControllerConnector.DEFAULT_CONNECT_RATE;
+    /**
+     * Default maximum number of controller connection attempts in flight.
+     */
+    public static final Integer DEFAULT_MAX_PENDING_CONNECTS = ControllerConnector.DEFAULT_MAX_PENDING;
+    /**
+     * Default maximum bytes of buffered packet-ins per virtual switch.
+     */
+    public static final Integer DEFAULT_BUFFER_BYTES = PacketBufferStore.DEFAULT_MAX_BYTES;
+    /**
+     * Default time (in milliseconds) a buffered packet-in stays usable.
+     */
+    public static final Integer DEFAULT_BUFFER_TIMEOUT = PacketBufferStore.DEFAULT_TIMEOUT;
+    /**
+     * Default time (in milliseconds) ingress flow mods wait for barrier
+     * replies from the switches on their path.
+     */
+    public static final Integer DEFAULT_BARRIER_TIMEOUT = FlowInstaller.DEFAULT_TIMEOUT;
+    /**
+     * Default number of devirtualized flow mods cached per virtual switch.
+     */
+    public static final Integer DEFAULT_FLOWMOD_CACHE = FlowModCache.DEFAULT_ENTRIES;
+    /**
+     * Default number of flow entries per virtual network.
+     */
+    public static final Integer DEFAULT_TENANT_FLOWS = FlowQuota.DEFAULT_TENANT_FLOWS;
+    /**
+     * Default number of flow entries per virtual network on each physical
+     * switch.
+     */
+    public static final Integer DEFAULT_SWITCH_FLOWS = FlowQuota.DEFAULT_SWITCH_FLOWS;
+    /**
+     * Default time (in seconds) a flow entry must be idle to be evicted.
+     */
+    public static final Integer DEFAULT_EVICT_IDLE = FlowQuota.DEFAULT_EVICT_IDLE;
 
     @Option(name = "-p", aliases = "--of-port", metaVar = "INT", usage = "OpenVirteX OpenFlow listen port")
     private Integer ofPort = CmdLineSettings.DEFAULT_OF_PORT;
@@ -101,6 +203,72 @@ public class CmdLineSettings {
     @Option(name = "--ub", aliases = "--use-bddp", usage = "Use BDDP for network discovery; only use if you know what you are doing.")
     private Boolean useBDDP = CmdLineSettings.DEFAULT_USE_BDDP;
 
+    @Option(name = "--batch-size", metaVar = "INT", usage = "Maximum number of OpenFlow messages written to a channel at once")
+    private Integer batchSize = CmdLineSettings.DEFAULT_BATCH_SIZE;
+
+    @Option(name = "--batch-delay", metaVar = "INT", usage = "Maximum time (ms) outbound messages are held for batching; 0 disables the delay")
+    private Integer batchDelay = CmdLineSettings.DEFAULT_BATCH_DELAY;
+
+    @Option(name = "--encode-mode", metaVar = "EXACT|DYNAMIC", usage = "Buffer allocation strategy used to encode outbound OpenFlow messages")
+    private EncodeMode encodeMode = CmdLineSettings.DEFAULT_ENCODE_MODE;
+
+    @Option(name = "--direct-buffers", usage = "Encode outbound OpenFlow messages into direct buffers")
+    private Boolean directBuffers = CmdLineSettings.DEFAULT_DIRECT_BUFFERS;
+
+    @Option(name = "--eager-decode", usage = "Fully parse every inbound OpenFlow message on arrival instead of on first access")
+    private Boolean eagerDecode = CmdLineSettings.DEFAULT_EAGER_DECODE;
+
+    @Option(name = "--pktin-rate", metaVar = "INT", usage = "Maximum packet-ins per second accepted from each physical switch; 0 disables the limit")
+    private Integer packetInRate = CmdLineSettings.DEFAULT_PACKET_IN_RATE;
+
+    @Option(name = "--pktin-burst", metaVar = "INT", usage = "Packet-in burst size accepted from each physical switch")
+    private Integer packetInBurst = CmdLineSettings.DEFAULT_PACKET_IN_BURST;
+
+    @Option(name = "--control-rate", metaVar = "INT", usage = "Maximum unsolicited messages other than packet-ins per second accepted from each physical switch; replies, flow removed and port status are never limited; 0 disables the limit")
+    private Integer controlRate = CmdLineSettings.DEFAULT_CONTROL_RATE;
+
+    @Option(name = "--control-burst", metaVar = "INT", usage = "Burst size of unsolicited messages other than packet-ins accepted from each physical switch")
+    private Integer controlBurst = CmdLineSettings.DEFAULT_CONTROL_BURST;
+
+    @Option(name = "--overflow-policy", metaVar = "DROP|SAMPLE|DROP_RULE", usage = "Handling of messages over the ingress rate limit")
+    private OverflowPolicy overflowPolicy = CmdLineSettings.DEFAULT_OVERFLOW_POLICY;
+
+    @Option(name = "--lane-capacity", metaVar = "INT", usage = "Switch messages waiting in each topology and data dispatch lane past which packet-ins are dropped; 0 disables the bound")
+    private Integer laneCapacity = CmdLineSettings.DEFAULT_LANE_CAPACITY;
+
+    @Option(name = "--channel-backlog", metaVar = "INT", usage = "Switch messages waiting over all dispatch lanes past which reads from the switch are suspended; 0 disables the bound")
+    private Integer channelBacklog = CmdLineSettings.DEFAULT_CHANNEL_BACKLOG;
+
+    @Option(name = "--client-io-threads", metaVar = "INT", usage = "Number of I/O threads serving all controller connections")
+    private Integer clientIOThreads = CmdLineSettings.DEFAULT_CLIENT_IO_THREADS;
+
+    @Option(name = "--connect-rate", metaVar = "INT", usage = "Maximum controller connection attempts started per second; 0 disables the limit")
+    private Integer connectRate = CmdLineSettings.DEFAULT_CONNECT_RATE;
+
+    @Option(name = "--max-pending-connects", metaVar = "INT", usage = "Maximum controller connection attempts in flight")
+    private Integer maxPendingConnects = CmdLineSettings.DEFAULT_MAX_PENDING_CONNECTS;
+
+    @Option(name = "--buffer-bytes", metaVar = "INT", usage = "Maximum bytes of packet-ins buffered per virtual switch for controller packet-outs")
+    private Integer bufferBytes = CmdLineSettings.DEFAULT_BUFFER_BYTES;
+
+    @Option(name = "--buffer-timeout", metaVar = "INT", usage = "Time (in milliseconds) a buffered packet-in can be referred to by buffer ID")
+    private Integer bufferTimeout = CmdLineSettings.DEFAULT_BUFFER_TIMEOUT;
+
+    @Option(name = "--barrier-timeout", metaVar = "INT", usage = "Time (in milliseconds) an ingress flow mod waits for the switches on its path to confirm their flow mods")
+    private Integer barrierTimeout = CmdLineSettings.DEFAULT_BARRIER_TIMEOUT;
+
+    @Option(name = "--flowmod-cache", metaVar = "INT", usage = "Number of devirtualized flow mods cached per virtual switch, 0 to disable")
+    private Integer flowModCache = CmdLineSettings.DEFAULT_FLOWMOD_CACHE;
+
+    @Option(name = "--tenant-flows", metaVar = "INT", usage = "Number of flow entries per virtual network, 0 for no limit")
+    private Integer tenantFlows = CmdLineSettings.DEFAULT_TENANT_FLOWS;
+
+    @Option(name = "--switch-flows", metaVar = "INT", usage = "Number of flow entries per virtual network on each physical switch, 0 for no limit")
+    private Integer switchFlows = CmdLineSettings.DEFAULT_SWITCH_FLOWS;
+
+    @Option(name = "--evict-idle", metaVar = "INT", usage = "Time (in seconds) a flow entry must be idle to be evicted when a flow limit is reached, 0 to never evict")
+    private Integer evictIdle = CmdLineSettings.DEFAULT_EVICT_IDLE;
+
     /**
      * Gets the host OVX is running on.
      *
@@ -193,4 +361,207 @@ public class CmdLineSettings {
         return this.useBDDP;
     }
 
+    /**
+     * Gets the maximum number of OpenFlow messages written to a channel in
+     * one flush.
+     *
+     * @return the maximum batch size
+     */
+    public Integer getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Gets the maximum time (in milliseconds) outbound messages are held
+     * before being flushed.
+     *
+     * @return the maximum batch delay
+     */
+    public Integer getBatchDelay() {
+        return this.batchDelay;
+    }
+
+    /**
+     * Gets the buffer allocation strategy of the OpenFlow message encoder.
+     *
+     * @return the encode mode
+     */
+    public EncodeMode getEncodeMode() {
+        return this.encodeMode;
+    }
+
+    /**
+     * Checks if the OpenFlow message encoder emits direct buffers.
+     *
+     * @return true if direct buffers are used, false otherwise
+     */
+    public Boolean getDirectBuffers() {
+        return this.directBuffers;
+    }
+
+    /**
+     * Checks if inbound OpenFlow messages are fully parsed on arrival.
+     *
+     * @return true if decoding is eager, false if it is deferred
+     */
+    public Boolean getEagerDecode() {
+        return this.eagerDecode;
+    }
+
+    /**
+     * Gets the packet-in rate limit per physical switch.
+     *
+     * @return packet-ins per second, 0 if unlimited
+     */
+    public Integer getPacketInRate() {
+        return this.packetInRate;
+    }
+
+    /**
+     * Gets the packet-in burst size per physical switch.
+     *
+     * @return the burst size
+     */
+    public Integer getPacketInBurst() {
+        return this.packetInBurst;
+    }
+
+    /**
+     * Gets the rate limit of other messages per physical switch.
+     *
+     * @return messages per second, 0 if unlimited
+     */
+    public Integer getControlRate() {
+        return this.controlRate;
+    }
+
+    /**
+     * Gets the burst size of other messages per physical switch.
+     *
+     * @return the burst size
+     */
+    public Integer getControlBurst() {
+        return this.controlBurst;
+    }
+
+    /**
+     * Gets the handling of messages over the ingress rate limit.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * Gets the maximum number of messages waiting in each bounded dispatch
+     * lane.
+     *
+     * @return the lane capacity, 0 if unbounded
+     */
+    public Integer getLaneCapacity() {
+        return this.laneCapacity;
+    }
+
+    /**
+     * Gets the maximum number of messages of one switch waiting over all
+     * dispatch lanes.
+     *
+     * @return the channel backlog, 0 if unbounded
+     */
+    public Integer getChannelBacklog() {
+        return this.channelBacklog;
+    }
+
+    /**
+     * Gets the number of I/O threads serving controller connections.
+     *
+     * @return number of threads
+     */
+    public Integer getClientIOThreads() {
+        return this.clientIOThreads;
+    }
+
+    /**
+     * Gets the number of controller connection attempts started per second.
+     *
+     * @return attempts per second, 0 if unlimited
+     */
+    public Integer getConnectRate() {
+        return this.connectRate;
+    }
+
+    /**
+     * Gets the maximum number of controller connection attempts in flight.
+     *
+     * @return maximum pending attempts
+     */
+    public Integer getMaxPendingConnects() {
+        return this.maxPendingConnects;
+    }
+
+    /**
+     * Gets the maximum bytes of packet-ins buffered per virtual switch.
+     *
+     * @return the byte budget
+     */
+    public Integer getBufferBytes() {
+        return this.bufferBytes;
+    }
+
+    /**
+     * Gets the time a buffered packet-in stays usable.
+     *
+     * @return the timeout in milliseconds
+     */
+    public Integer getBufferTimeout() {
+        return this.bufferTimeout;
+    }
+
+    /**
+     * Gets the time ingress flow mods wait for barrier replies.
+     *
+     * @return the timeout in milliseconds
+     */
+    public Integer getBarrierTimeout() {
+        return this.barrierTimeout;
+    }
+
+    /**
+     * Gets the number of devirtualized flow mods cached per virtual switch.
+     *
+     * @return the number of cached flow mods
+     */
+    public Integer getFlowModCache() {
+        return this.flowModCache;
+    }
+
+    /**
+     * Gets the number of flow entries per virtual network.
+     *
+     * @return the number of flow entries, 0 for no limit
+     */
+    public Integer getTenantFlows() {
+        return this.tenantFlows;
+    }
+
+    /**
+     * Gets the number of flow entries per virtual network on each physical
+     * switch.
+     *
+     * @return the number of flow entries, 0 for no limit
+     */
+    public Integer getSwitchFlows() {
+        return this.switchFlows;
+    }
+
+    /**
+     * Gets the time a flow entry must be idle to be evicted.
+     *
+     * @return the idle time in seconds, 0 to never evict
+     */
+    public Integer getEvictIdle() {
+        return this.evictIdle;
+    }
+
 }
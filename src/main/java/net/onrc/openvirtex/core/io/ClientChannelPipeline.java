@@ -19,49 +19,59 @@
  */
 package net.onrc.openvirtex.core.io;
 
+import java.net.InetSocketAddress;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 
-import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 
+/**
+ * Builds the pipelines of controller channels. One instance serves every
+ * virtual switch; the stateless handlers are shared between channels.
+ * Unlike switch channels, each pipeline is bound to a virtual switch and a
+ * controller address, so this is not a Netty ChannelPipelineFactory.
+ */
 public class ClientChannelPipeline extends OpenflowChannelPipeline {
 
-    private ClientBootstrap bootstrap = null;
-    private OVXSwitch sw = null;
-    private final ChannelGroup cg;
+    private final ExecutionHandler eh;
 
     public ClientChannelPipeline(
             final OpenVirteXController openVirteXController,
-            final ChannelGroup cg, final ThreadPoolExecutor pipelineExecutor,
-            final ClientBootstrap bootstrap, final OVXSwitch sw) {
+            final ThreadPoolExecutor pipelineExecutor) {
         super();
         this.ctrl = openVirteXController;
         this.pipelineExecutor = pipelineExecutor;
         this.timer = PhysicalNetwork.getTimer();
         this.idleHandler = new IdleStateHandler(this.timer, 20, 25, 0);
         this.readTimeoutHandler = new ReadTimeoutHandler(this.timer, 30);
-        this.bootstrap = bootstrap;
-        this.sw = sw;
-        this.cg = cg;
+        this.eh = new ExecutionHandler(this.pipelineExecutor);
     }
 
-    @Override
-    public ChannelPipeline getPipeline() throws Exception {
+    /**
+     * Builds the pipeline of a channel connecting a virtual switch to one of
+     * its controllers.
+     *
+     * @param sw the virtual switch
+     * @param connector the connector used to reconnect the channel
+     * @param remoteAddr the controller address
+     * @return the channel pipeline
+     */
+    public ChannelPipeline getPipeline(final OVXSwitch sw,
+                                       final ControllerConnector connector,
+                                       final InetSocketAddress remoteAddr) {
         final ControllerChannelHandler handler = new ControllerChannelHandler(
-                this.ctrl, this.sw);
+                this.ctrl, sw);
 
         final ChannelPipeline pipeline = Channels.pipeline();
-        pipeline.addLast("reconnect", new ReconnectHandler(this.sw,
-                this.bootstrap, this.timer, 15, this.cg));
+        pipeline.addLast("reconnect", new ReconnectHandler(sw, connector,
+                remoteAddr, this.timer, ControllerConnector.MAX_BACK_OFF));
         pipeline.addLast("ofmessagedecoder", new OVXMessageDecoder());
         pipeline.addLast("ofmessageencoder", new OVXMessageEncoder());
         pipeline.addLast("idle", this.idleHandler);
@@ -69,8 +79,7 @@ public class ClientChannelPipeline extends OpenflowChannelPipeline {
         pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
                 handler, this.timer, 15));
 
-        pipeline.addLast("pipelineExecutor", new ExecutionHandler(
-                this.pipelineExecutor));
+        pipeline.addLast("pipelineExecutor", this.eh);
         pipeline.addLast("handler", handler);
         return pipeline;
     }
@@ -21,7 +21,6 @@ package net.onrc.openvirtex.core.io;
 
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -30,6 +29,7 @@ import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.exceptions.ControllerStateException;
 import net.onrc.openvirtex.exceptions.HandshakeTimeoutException;
+import net.onrc.openvirtex.exceptions.MessageDecodeException;
 import net.onrc.openvirtex.exceptions.SwitchStateException;
 import net.onrc.openvirtex.messages.OVXMessage;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
@@ -134,7 +134,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
                 //h.log.info(" After Xid = " + reply.getXid());
 
 
-                h.channel.write(Collections.singletonList(reply));
+                OVXChannelWriter.write(h.channel, reply);
                 h.log.info("Connected dpid {} to controller {}",
                         h.sw.getSwitchName(), h.channel.getRemoteAddress());
                 h.sw.setConnected(true);
@@ -164,7 +164,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
                 reply = reply.createBuilder().setXid(m.getOFMessage().getXid()).build();
                 h.sw.setPortDescReply(reply);
 
-                h.channel.write(Collections.singletonList(reply));
+                OVXChannelWriter.write(h.channel, reply);
                 h.log.info("Send Port Descriptions to dpid {}", h.channel.getRemoteAddress());
 
                 h.setState(ACTIVE);
@@ -218,7 +218,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
             void processOFMessage(final ControllerChannelHandler h,
                                   final OVXMessage m) throws IOException {
 
-                switch (m.getOFMessage().getType()) {
+                switch (m.getType()) {
                     case HELLO:
                         this.processOFHello(h, m);
                         break;
@@ -232,14 +232,18 @@ public class ControllerChannelHandler extends OFChannelHandler {
                         this.processOFFeaturesRequest(h, m);
                         break;
                     case BARRIER_REQUEST:
-                        // TODO: actually implement barrier contract
+                        // answered once the physical switches are done
+                        final Channel channel = h.channel;
                         final OFBarrierReply ofBarrierReply = OFFactories.getFactory(m.getOFMessage().getVersion())
                                 .buildBarrierReply()
                                 .setXid(m.getOFMessage().getXid())
                                 .build();
-
-
-                        h.channel.write(Collections.singletonList(ofBarrierReply));
+                        ((OVXSwitch) h.sw).getBarrierAggregator().barrier(new Runnable() {
+                            @Override
+                            public void run() {
+                                OVXChannelWriter.write(channel, ofBarrierReply);
+                            }
+                        });
                         break;
                     case SET_CONFIG:
                     case ERROR:
@@ -305,7 +309,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
             return String.format(
                     "Controller: [%s], State: [%s], received: [%s]"
                             + ", details: %s", h.getSwitchInfoString(),
-                    this.toString(), m.getOFMessage().getType().toString(), details);
+                    this.toString(), m.getType().toString(), details);
         }
 
         /**
@@ -340,20 +344,20 @@ public class ControllerChannelHandler extends OFChannelHandler {
         protected void unhandledMessageReceived(
                 final ControllerChannelHandler h, final OVXMessage m) {
 
-            if (m.getOFMessage().getType() == OFType.EXPERIMENTER) {
+            if (m.getType() == OFType.EXPERIMENTER) {
                 h.log.warn(
                         "Received unhandled VENDOR message, sending unsupported error: {}",
                         m);
                 OVXMessage e = OVXMessageUtil.makeErrorMsg(
                         OFBadRequestCode.BAD_EXPERIMENTER, m);
-                h.channel.write(Collections.singletonList(e.getOFMessage()));
+                OVXChannelWriter.write(h.channel, e.getOFMessage());
             } else {
                 h.log.warn(
                         "Received unhandled message, sending bad type error: {}",
                         m);
                 OVXMessage e = OVXMessageUtil.makeErrorMsg(
                         OFBadRequestCode.BAD_TYPE, m);
-                h.channel.write(Collections.singletonList(e.getOFMessage()));
+                OVXChannelWriter.write(h.channel, e.getOFMessage());
             }
         }
 
@@ -384,7 +388,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
             //h.log.info("processOFMessage");
             //h.log.info(m.getOFMessage().toString());
 
-            switch (m.getOFMessage().getType()) {
+            switch (m.getType()) {
                 case HELLO:
                     this.processOFHello(h, m);
                     break;
@@ -479,19 +483,24 @@ public class ControllerChannelHandler extends OFChannelHandler {
         void processOFEchoRequest(final ControllerChannelHandler h,
                                   final OVXMessage m) throws IOException {
 
+            if (!m.isDecoded()) {
+                OVXChannelWriter.write(h.channel,
+                        OVXMessageUtil.makeRawEchoReply(m.getRawMessage()));
+                return;
+            }
             final OFEchoReply reply = OFFactories.getFactory(m.getOFMessage().getVersion()).buildEchoReply()
                     .setXid(m.getOFMessage().getXid())
                     .setData(((OFEchoRequest)m.getOFMessage()).getData())
                     .build();
 
-            h.channel.write(Collections.singletonList(reply));
+            OVXChannelWriter.write(h.channel, reply);
         }
 
         void processOFFeaturesRequest(final ControllerChannelHandler h,
                                       final OVXMessage m) {
             OFFeaturesReply fr = h.sw.getFeaturesReply();
             fr = fr.createBuilder().setXid(m.getOFMessage().getXid()).build();
-            h.channel.write(Collections.singletonList(fr));
+            OVXChannelWriter.write(h.channel, fr);
         }
 
         void processOFEchoReply(final ControllerChannelHandler h,
@@ -600,7 +609,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
         OFHello ofHello = this.ofFactory.buildHello()
                 .setXid(this.handshakeTransactionIds--)
                 .build();
-        this.channel.write(Collections.singletonList(ofHello));
+        OVXChannelWriter.write(this.channel, ofHello);
     }
 
     @Override
@@ -618,47 +627,56 @@ public class ControllerChannelHandler extends OFChannelHandler {
             @SuppressWarnings("unchecked")
             final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
 
-            for (final OVXMessage ofm : msglist) {
+            OVXChannelWriter.beginEvent();
+            try {
+                this.processMessageList(ctx, msglist);
+            } finally {
+                OVXChannelWriter.endEvent();
+            }
+        } else {
+            Channels.fireExceptionCaught(this.channel, new AssertionError(
+                    "Message received from Channel is not a list"));
+        }
+    }
+
+    private void processMessageList(final ChannelHandlerContext ctx,
+                                    final List<OVXMessage> msglist) {
+        for (final OVXMessage ofm : msglist) {
 
-                try {
-                    switch (ofm.getOFMessage().getType()) {
-                        case PACKET_OUT:
-                        /*
-                         * Is this packet a packet out? If yes is it an lldp?
-                         * then send it to the OVXNetwork.
-                         */
-                            final byte[] data = ((OFPacketOut) ofm.getOFMessage()).getData();
-                            if (data.length >= 14) {
+            try {
+                switch (ofm.getType()) {
+                    case PACKET_OUT:
+                    /*
+                     * Is this packet a packet out? If yes is it an lldp?
+                     * then send it to the OVXNetwork.
+                     */
+                        final byte[] data = ((OFPacketOut) ofm.getOFMessage()).getData();
+                        if (data.length >= 14) {
 
-                                final int tenantId = ((OVXSwitch) this.sw)
-                                        .getTenantId();
+                            final int tenantId = ((OVXSwitch) this.sw)
+                                    .getTenantId();
 
-                                if (OVXLLDP.isLLDP(data)) {
+                            if (OVXLLDP.isLLDP(data)) {
 //                                    this.log.info("tenantId = " + tenantId);
 
-                                    OVXMap.getInstance()
-                                            .getVirtualNetwork(tenantId)
-                                            .handleLLDP(ofm, this.sw);
-                                    break;
-                                }
+                                OVXMap.getInstance()
+                                        .getVirtualNetwork(tenantId)
+                                        .handleLLDP(ofm, this.sw);
+                                break;
                             }
-                        default:
-                            // Process all non-packet-ins
-                            this.state.processOFMessage(this, ofm);
-                            break;
-                    }
-
-                } catch (final Exception ex) {
-                    // We are the last handler in the stream, so run the
-                    // exception through the channel again by passing in
-                    // ctx.getChannel().
-                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
+                        }
+                    default:
+                        // Process all non-packet-ins
+                        this.state.processOFMessage(this, ofm);
+                        break;
                 }
-            }
 
-        } else {
-            Channels.fireExceptionCaught(this.channel, new AssertionError(
-                    "Message received from Channel is not a list"));
+            } catch (final Exception ex) {
+                // We are the last handler in the stream, so run the
+                // exception through the channel again by passing in
+                // ctx.getChannel().
+                Channels.fireExceptionCaught(ctx.getChannel(), ex);
+            }
         }
     }
 
@@ -668,7 +686,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
 
         OFEchoRequest m = this.ofFactory.buildEchoRequest().build();
 
-        e.getChannel().write(Collections.singletonList(m));
+        OVXChannelWriter.write(e.getChannel(), m);
     }
 
     /*
@@ -707,6 +725,11 @@ public class ControllerChannelHandler extends OFChannelHandler {
             this.log.error("Disconnecting ctrl {} due to switch state error",
                     this.getSwitchInfoString(), e.getCause());
             ctx.getChannel().close();
+        } else if (e.getCause() instanceof MessageDecodeException) {
+            this.log.error(
+                    "Disconnecting ctrl {} due to message parse failure",
+                    this.getSwitchInfoString(), e.getCause());
+            ctx.getChannel().close();
         } else if (e.getCause() instanceof RejectedExecutionException) {
             this.log.error("Could not process message: queue full",
                     e.getCause());
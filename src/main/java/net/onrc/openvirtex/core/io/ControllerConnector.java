@@ -0,0 +1,326 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Opens the connections from virtual switches to their tenant controllers.
+ *
+ * All controller channels share one NIO client factory with a fixed number
+ * of I/O threads and one pipeline factory. Connection attempts, including
+ * reconnects, are queued and started at a bounded rate with a bounded number
+ * in flight, so registering thousands of virtual switches at once does not
+ * flood the controllers or the local stack with SYNs.
+ */
+public class ControllerConnector {
+
+    private static Logger log = LogManager.getLogger(ControllerConnector.class
+            .getName());
+
+    /**
+     * Default number of I/O threads serving controller channels.
+     */
+    public static final int DEFAULT_IO_THREADS = Runtime.getRuntime()
+            .availableProcessors() * 2;
+    /**
+     * Default number of connection attempts started per second.
+     */
+    public static final int DEFAULT_CONNECT_RATE = 200;
+    /**
+     * Default maximum number of connection attempts in flight.
+     */
+    public static final int DEFAULT_MAX_PENDING = 64;
+    /**
+     * Longest wait (in seconds) before connecting to a controller again.
+     */
+    public static final int MAX_BACK_OFF = 15;
+
+    private static final int SEND_BUFFER_SIZE = 1024 * 1024;
+
+    /*
+     * Upper bounds (in milliseconds) of the connect latency histogram
+     * buckets.
+     */
+    private static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000,
+            Long.MAX_VALUE};
+
+    private static final AtomicLong ATTEMPTS = new AtomicLong();
+    private static final AtomicLong SUCCESSES = new AtomicLong();
+    private static final AtomicLong FAILURES = new AtomicLong();
+    private static final AtomicLong LATENCY_TOTAL = new AtomicLong();
+    private static final AtomicLong LATENCY_MAX = new AtomicLong();
+    private static final AtomicLongArray HISTOGRAM = new AtomicLongArray(
+            BUCKETS.length);
+    private static final AtomicInteger QUEUED = new AtomicInteger();
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    private final NioClientSocketChannelFactory sockets;
+    private final ClientChannelPipeline pipelineFactory;
+    private final ChannelGroup cg;
+    private final Timer timer;
+    private final Map<String, Object> options;
+    private final int connectRate;
+    private final int maxPending;
+
+    private final ConcurrentLinkedQueue<PendingConnect> queue = new ConcurrentLinkedQueue<PendingConnect>();
+    // guarded by this
+    private double tokens;
+    private long lastRefill;
+    private boolean pumpScheduled = false;
+
+    /**
+     * A connection waiting to be started.
+     */
+    private static final class PendingConnect {
+        private final OVXSwitch sw;
+        private final InetSocketAddress remoteAddr;
+
+        private PendingConnect(final OVXSwitch sw,
+                               final InetSocketAddress remoteAddr) {
+            this.sw = sw;
+            this.remoteAddr = remoteAddr;
+        }
+    }
+
+    /**
+     * Creates the connector.
+     *
+     * @param pipelineFactory the shared controller channel pipeline factory
+     * @param cg the group connected channels are added to
+     * @param timer the timer used to pace connection attempts
+     * @param ioThreads number of I/O threads
+     * @param connectRate connection attempts started per second; 0 for no
+     *            limit
+     * @param maxPending maximum number of connection attempts in flight
+     */
+    public ControllerConnector(final ClientChannelPipeline pipelineFactory,
+                               final ChannelGroup cg, final Timer timer,
+                               final int ioThreads, final int connectRate,
+                               final int maxPending) {
+        this.sockets = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool(), Math.max(1, ioThreads));
+        this.pipelineFactory = pipelineFactory;
+        this.cg = cg;
+        this.timer = timer;
+        this.connectRate = Math.max(0, connectRate);
+        this.maxPending = Math.max(1, maxPending);
+        this.tokens = this.burst();
+        this.lastRefill = System.nanoTime();
+
+        this.options = new HashMap<String, Object>();
+        this.options.put("reuseAddress", true);
+        this.options.put("keepAlive", true);
+        this.options.put("tcpNoDelay", true);
+        this.options.put("sendBufferSize", ControllerConnector.SEND_BUFFER_SIZE);
+    }
+
+    /**
+     * Queues a connection from a virtual switch to a controller. Once
+     * connected the channel is set on the switch; if the attempt fails the
+     * channel's reconnect handler retries it, and if no channel could be
+     * created at all the connector retries it after the same back-off.
+     *
+     * @param sw the virtual switch
+     * @param remoteAddr the controller address
+     */
+    public void connect(final OVXSwitch sw, final InetSocketAddress remoteAddr) {
+        this.queue.add(new PendingConnect(sw, remoteAddr));
+        QUEUED.incrementAndGet();
+        this.pump();
+    }
+
+    /*
+     * Starts as many queued attempts as the rate and in-flight limits allow;
+     * if the rate limit is hit, tries again once a token is available.
+     */
+    private synchronized void pump() {
+        while (IN_FLIGHT.get() < this.maxPending && !this.queue.isEmpty()) {
+            if (this.connectRate > 0 && !this.takeToken()) {
+                if (!this.pumpScheduled) {
+                    this.pumpScheduled = true;
+                    final long wait = TimeUnit.SECONDS.toNanos(1)
+                            / this.connectRate;
+                    this.timer.newTimeout(new TimerTask() {
+                        @Override
+                        public void run(final Timeout timeout) {
+                            synchronized (ControllerConnector.this) {
+                                ControllerConnector.this.pumpScheduled = false;
+                            }
+                            ControllerConnector.this.pump();
+                        }
+                    }, wait, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+            final PendingConnect pc = this.queue.poll();
+            QUEUED.decrementAndGet();
+            IN_FLIGHT.incrementAndGet();
+            this.start(pc);
+        }
+    }
+
+    private boolean takeToken() {
+        final long now = System.nanoTime();
+        this.tokens = Math.min(this.burst(), this.tokens
+                + (now - this.lastRefill) * this.connectRate
+                / (double) TimeUnit.SECONDS.toNanos(1));
+        this.lastRefill = now;
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    // allow catching up on timer ticks that fire late
+    private double burst() {
+        return Math.max(1, this.connectRate / 10);
+    }
+
+    private void start(final PendingConnect pc) {
+        final Channel chan;
+        try {
+            final ChannelPipeline pipeline = this.pipelineFactory.getPipeline(
+                    pc.sw, this, pc.remoteAddr);
+            chan = this.sockets.newChannel(pipeline);
+        } catch (final Exception e) {
+            IN_FLIGHT.decrementAndGet();
+            FAILURES.incrementAndGet();
+            log.error("Could not create channel to controller {} for switch {}",
+                    pc.remoteAddr, pc.sw.getSwitchName(), e);
+            this.retry(pc);
+            return;
+        }
+        chan.getConfig().setOptions(this.options);
+
+        ATTEMPTS.incrementAndGet();
+        final long start = System.nanoTime();
+        chan.connect(pc.remoteAddr).addListener(new ChannelFutureListener() {
+
+            @Override
+            public void operationComplete(final ChannelFuture e)
+                    throws Exception {
+                IN_FLIGHT.decrementAndGet();
+                if (e.isSuccess()) {
+                    ControllerConnector.record(System.nanoTime() - start);
+                    pc.sw.setChannel(chan);
+                    ControllerConnector.this.cg.add(chan);
+                } else {
+                    FAILURES.incrementAndGet();
+                    log.error("Failed to connect to controller {} for switch {}",
+                            pc.remoteAddr, pc.sw.getSwitchName());
+                }
+                ControllerConnector.this.pump();
+            }
+        });
+    }
+
+    /*
+     * Queues the attempt again after backing off, as the reconnect handler
+     * does for a channel that could not connect.
+     */
+    private void retry(final PendingConnect pc) {
+        if (!pc.sw.isActive()) {
+            return;
+        }
+        final int backOff = Math.min(1 << pc.sw.incrementBackOff(),
+                ControllerConnector.MAX_BACK_OFF);
+        this.timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(final Timeout timeout) {
+                ControllerConnector.this.connect(pc.sw, pc.remoteAddr);
+            }
+        }, backOff, TimeUnit.SECONDS);
+        log.error("Backing off {} for controller {}", backOff, pc.remoteAddr);
+    }
+
+    private static void record(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        SUCCESSES.incrementAndGet();
+        LATENCY_TOTAL.addAndGet(nanos);
+        long max = LATENCY_MAX.get();
+        while (nanos > max && !LATENCY_MAX.compareAndSet(max, nanos)) {
+            max = LATENCY_MAX.get();
+        }
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (millis <= BUCKETS[i]) {
+                HISTOGRAM.incrementAndGet(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the connection counters and connect latency distribution.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final long successes = SUCCESSES.get();
+        stats.put("attempts", ATTEMPTS.get());
+        stats.put("successes", successes);
+        stats.put("failures", FAILURES.get());
+        stats.put("queued", QUEUED.get());
+        stats.put("inFlight", IN_FLIGHT.get());
+        stats.put("avgConnectMillis", successes == 0 ? 0.0
+                : LATENCY_TOTAL.get() / 1e6 / successes);
+        stats.put("maxConnectMillis", LATENCY_MAX.get() / 1e6);
+        final Map<String, Long> latencies = new HashMap<String, Long>();
+        for (int i = 0; i < BUCKETS.length; i++) {
+            final String key = i == BUCKETS.length - 1 ? ">"
+                    + BUCKETS[i - 1] + "ms" : "<=" + BUCKETS[i] + "ms";
+            latencies.put(key, HISTOGRAM.get(i));
+        }
+        stats.put("connectLatency", latencies);
+        return stats;
+    }
+
+    /**
+     * Releases the I/O threads. Channels must have been closed first.
+     */
+    public void shutDown() {
+        this.sockets.releaseExternalResources();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.OVXMessage;
+import net.onrc.openvirtex.messages.OVXMessageUtil;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Rate limits the messages a physical switch sends to OpenVirteX.
+ *
+ * Each switch channel gets two token buckets, one for packet-ins and one for
+ * other unsolicited traffic. Handshake and keepalive messages, LLDP
+ * packet-ins, replies to OVX's own requests and the messages that keep its
+ * state in step with the switch (flow removed, port status) are never
+ * limited, as dropping them would stall barriers and reconciliation and
+ * leave flow entries and the topology stale. Both limits are off by default, so
+ * nothing is discarded unless a rate is configured. The limiter sits in front of the
+ * execution handler, so messages over the limit are discarded on the I/O
+ * thread before they can take up room in the executor shared by all switches.
+ */
+public class IngressRateLimiter extends SimpleChannelUpstreamHandler {
+
+    private static Logger log = LogManager.getLogger(IngressRateLimiter.class
+            .getName());
+
+    /**
+     * What to do with a message that finds its bucket empty.
+     */
+    public enum OverflowPolicy {
+        /** Discard the message. */
+        DROP,
+        /** Let one in every few messages through, discard the others. */
+        SAMPLE,
+        /**
+         * Discard the message; for packet-ins also install a short-lived
+         * rule on the switch dropping the offending traffic at the source.
+         */
+        DROP_RULE
+    }
+
+    /**
+     * Default packet-in rate (messages per second) per switch; 0 means
+     * unlimited.
+     */
+    public static final int DEFAULT_PACKET_IN_RATE = 0;
+    /**
+     * Default packet-in burst size per switch.
+     */
+    public static final int DEFAULT_PACKET_IN_BURST = 10000;
+    /**
+     * Default rate of unsolicited messages other than packet-ins per switch;
+     * 0 means unlimited.
+     */
+    public static final int DEFAULT_CONTROL_RATE = 0;
+    /**
+     * Default burst size of unsolicited messages other than packet-ins per
+     * switch.
+     */
+    public static final int DEFAULT_CONTROL_BURST = 1000;
+    /**
+     * Default handling of messages over the limit.
+     */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP;
+    /**
+     * Under the SAMPLE policy, one in this many excess messages is kept.
+     */
+    public static final int SAMPLE_RATE = 100;
+    /**
+     * Hard timeout (in seconds) of rules installed by the DROP_RULE policy.
+     */
+    public static final int DROP_RULE_TIMEOUT = 5;
+    /**
+     * Priority of rules installed by the DROP_RULE policy.
+     */
+    public static final int DROP_RULE_PRIORITY = 0xffff;
+
+    private static volatile int packetInRate = DEFAULT_PACKET_IN_RATE;
+    private static volatile int packetInBurst = DEFAULT_PACKET_IN_BURST;
+    private static volatile int controlRate = DEFAULT_CONTROL_RATE;
+    private static volatile int controlBurst = DEFAULT_CONTROL_BURST;
+    private static volatile OverflowPolicy policy = DEFAULT_OVERFLOW_POLICY;
+
+    /*
+     * Buckets are only touched from the channel's I/O thread; the counters
+     * are also read by the API.
+     */
+    private final TokenBucket packetIns = new TokenBucket();
+    private final TokenBucket control = new TokenBucket();
+    private final AtomicLong dropRules = new AtomicLong();
+    // in_port/eth_src pairs with a drop rule installed, mapped to its expiry
+    private final Map<String, Long> dropRuleExpiry = new HashMap<String, Long>();
+
+    /**
+     * A token bucket refilled lazily from the elapsed time.
+     */
+    private static final class TokenBucket {
+        private double tokens = -1;
+        private long lastRefill = System.nanoTime();
+        private int overLimit = 0;
+
+        private final AtomicLong passed = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong sampled = new AtomicLong();
+
+        private boolean tryAcquire(final int rate, final int burst) {
+            final long now = System.nanoTime();
+            if (this.tokens < 0) {
+                this.tokens = burst;
+            } else {
+                this.tokens = Math.min(burst, this.tokens + (now - this.lastRefill)
+                        * rate / (double) TimeUnit.SECONDS.toNanos(1));
+            }
+            this.lastRefill = now;
+            if (this.tokens >= 1) {
+                this.tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean sample() {
+            if (++this.overLimit >= SAMPLE_RATE) {
+                this.overLimit = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private Map<String, Object> getStatistics() {
+            final Map<String, Object> stats = new HashMap<String, Object>();
+            stats.put("passed", this.passed.get());
+            stats.put("dropped", this.dropped.get());
+            stats.put("sampled", this.sampled.get());
+            return stats;
+        }
+    }
+
+    /**
+     * Sets the ingress limits applied to every switch.
+     *
+     * @param pktInRate packet-ins per second; 0 disables the limit
+     * @param pktInBurst maximum packet-in burst
+     * @param ctrlRate other messages per second; 0 disables the limit
+     * @param ctrlBurst maximum burst of other messages
+     * @param overflow what to do with messages over the limit
+     */
+    public static void configure(final int pktInRate, final int pktInBurst,
+                                 final int ctrlRate, final int ctrlBurst,
+                                 final OverflowPolicy overflow) {
+        IngressRateLimiter.packetInRate = Math.max(0, pktInRate);
+        IngressRateLimiter.packetInBurst = Math.max(1, pktInBurst);
+        IngressRateLimiter.controlRate = Math.max(0, ctrlRate);
+        IngressRateLimiter.controlBurst = Math.max(1, ctrlBurst);
+        IngressRateLimiter.policy = overflow;
+        log.info("Ingress limits per switch: packet-in {}/s (burst {}), "
+                + "control {}/s (burst {}), overflow {}",
+                IngressRateLimiter.packetInRate,
+                IngressRateLimiter.packetInBurst,
+                IngressRateLimiter.controlRate,
+                IngressRateLimiter.controlBurst, overflow);
+    }
+
+    /**
+     * Gets the ingress counters of a switch channel.
+     *
+     * @param channel the switch channel
+     * @return map of counter names to values, or null if the channel has no
+     *         rate limiter
+     */
+    public static Map<String, Object> getStatistics(final Channel channel) {
+        if (channel == null) {
+            return null;
+        }
+        final IngressRateLimiter limiter = channel.getPipeline().get(
+                IngressRateLimiter.class);
+        return limiter == null ? null : limiter.getStatistics();
+    }
+
+    /**
+     * Gets the ingress counters of this channel.
+     *
+     * @return map of counter names to values
+     */
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("packetIn", this.packetIns.getStatistics());
+        stats.put("control", this.control.getStatistics());
+        stats.put("dropRules", this.dropRules.get());
+        return stats;
+    }
+
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx,
+                                final MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof List)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
+        final List<OVXMessage> admitted = new ArrayList<OVXMessage>(
+                msglist.size());
+        for (final OVXMessage m : msglist) {
+            if (this.admit(ctx.getChannel(), m)) {
+                admitted.add(m);
+            }
+        }
+
+        if (admitted.size() == msglist.size()) {
+            ctx.sendUpstream(e);
+        } else if (!admitted.isEmpty()) {
+            Channels.fireMessageReceived(ctx, admitted, e.getRemoteAddress());
+        }
+    }
+
+    private boolean admit(final Channel channel, final OVXMessage m) {
+        final OFType type = m.getType();
+        final TokenBucket bucket;
+        final int rate;
+        final int burst;
+        switch (type) {
+            case HELLO:
+            case ECHO_REQUEST:
+            case ECHO_REPLY:
+            case FEATURES_REPLY:
+            case ERROR:
+            case BARRIER_REPLY:
+            case STATS_REPLY:
+            case GET_CONFIG_REPLY:
+            case QUEUE_GET_CONFIG_REPLY:
+            case ROLE_REPLY:
+            case GET_ASYNC_REPLY:
+            case FLOW_REMOVED:
+            case PORT_STATUS:
+                return true;
+            case PACKET_IN:
+                if (OVXMessageUtil.isLLDPPacketIn(m)) {
+                    return true;
+                }
+                bucket = this.packetIns;
+                rate = IngressRateLimiter.packetInRate;
+                burst = IngressRateLimiter.packetInBurst;
+                break;
+            default:
+                bucket = this.control;
+                rate = IngressRateLimiter.controlRate;
+                burst = IngressRateLimiter.controlBurst;
+                break;
+        }
+
+        if (rate == 0 || bucket.tryAcquire(rate, burst)) {
+            bucket.passed.incrementAndGet();
+            return true;
+        }
+
+        final OverflowPolicy overflow = IngressRateLimiter.policy;
+        if (overflow == OverflowPolicy.SAMPLE && bucket.sample()) {
+            bucket.sampled.incrementAndGet();
+            return true;
+        }
+        bucket.dropped.incrementAndGet();
+        if (overflow == OverflowPolicy.DROP_RULE && type == OFType.PACKET_IN) {
+            this.installDropRule(channel, m);
+        }
+        return false;
+    }
+
+    /*
+     * Drops traffic from the packet-in's source MAC on its ingress port for a
+     * few seconds, at most one rule per source at a time. The rule goes out
+     * through the physical switch like any other flow mod.
+     */
+    private void installDropRule(final Channel channel, final OVXMessage m) {
+        final SwitchChannelHandler handler = channel.getPipeline().get(
+                SwitchChannelHandler.class);
+        if (handler == null || !(handler.sw instanceof PhysicalSwitch)) {
+            return;
+        }
+        final PhysicalSwitch psw = (PhysicalSwitch) handler.sw;
+        final OFPacketIn pi = (OFPacketIn) m.getOFMessage();
+        final byte[] data = pi.getData();
+        if (data == null || data.length < 12) {
+            return;
+        }
+        final OFPort inPort;
+        if (pi.getVersion() == OFVersion.OF_10) {
+            inPort = pi.getInPort();
+        } else {
+            inPort = pi.getMatch().get(MatchField.IN_PORT);
+        }
+        if (inPort == null) {
+            return;
+        }
+        final MacAddress src = MacAddress.of(Arrays.copyOfRange(data, 6, 12));
+
+        final long now = System.nanoTime();
+        final String key = inPort.getPortNumber() + "/" + src.getLong();
+        final Long expiry = this.dropRuleExpiry.get(key);
+        if (expiry != null && expiry - now > 0) {
+            return;
+        }
+        final Iterator<Long> it = this.dropRuleExpiry.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() - now <= 0) {
+                it.remove();
+            }
+        }
+        this.dropRuleExpiry.put(key,
+                now + TimeUnit.SECONDS.toNanos(DROP_RULE_TIMEOUT));
+
+        final OFFactory factory = OFFactories.getFactory(pi.getVersion());
+        final Match match = factory.buildMatch()
+                .setExact(MatchField.IN_PORT, inPort)
+                .setExact(MatchField.ETH_SRC, src)
+                .build();
+        // no actions: matching packets are dropped
+        final OFFlowAdd rule = factory.buildFlowAdd()
+                .setMatch(match)
+                .setPriority(DROP_RULE_PRIORITY)
+                .setHardTimeout(DROP_RULE_TIMEOUT)
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .build();
+        psw.sendMsg(new OVXMessage(rule), psw);
+        this.dropRules.incrementAndGet();
+        log.warn("Packet-in storm from {} on port {} of {}; dropping for {}s",
+                src, inPort, channel.getRemoteAddress(), DROP_RULE_TIMEOUT);
+    }
+}
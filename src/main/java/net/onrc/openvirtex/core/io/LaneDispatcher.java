@@ -0,0 +1,446 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.messages.OVXMessage;
+import net.onrc.openvirtex.messages.OVXMessageUtil;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Hands switch channel events over to the pipeline executor through
+ * separate lanes, so keepalives and topology events are not stuck behind
+ * a backlog of packet-ins.
+ *
+ * Each channel has one queue per lane; events of a channel are processed in
+ * order within a lane, but lanes progress independently. Executor threads
+ * pick the next queue to serve by weighted round robin over the lanes.
+ * Until the handshake of a channel is complete, all of its messages go
+ * through the CONTROL lane, in the order they arrived. The TOPOLOGY and DATA
+ * lanes are bounded, but only packet-ins are ever dropped when they are full;
+ * port status and flow removed messages always get in. Channel state events
+ * always go through the CONTROL lane.
+ *
+ * Lane tasks reach the executor as plain runnables, out of reach of its
+ * memory accounting, so the dispatcher applies backpressure itself: once a
+ * channel has more messages waiting over all of its lanes than the channel
+ * backlog, reads from the channel are suspended until half of them are done.
+ */
+@Sharable
+public class LaneDispatcher implements ChannelUpstreamHandler, Runnable {
+
+    private static Logger log = LogManager.getLogger(LaneDispatcher.class
+            .getName());
+
+    /**
+     * Default maximum number of messages waiting in a bounded lane, past
+     * which packet-ins are dropped.
+     */
+    public static final int DEFAULT_LANE_CAPACITY = 10000;
+    /**
+     * Default maximum number of messages of one channel waiting over all
+     * lanes, past which reads from the channel are suspended.
+     */
+    public static final int DEFAULT_CHANNEL_BACKLOG = 20000;
+    /*
+     * Maximum number of events taken from one channel queue per turn.
+     */
+    private static final int EVENTS_PER_TURN = 16;
+
+    /**
+     * Dispatch lanes, highest priority first.
+     */
+    public enum Lane {
+        /** Keepalives, handshake, errors and replies to OVX requests. */
+        CONTROL(8, false),
+        /** LLDP packet-ins and port status. */
+        TOPOLOGY(4, true),
+        /** Packet-ins and flow removed messages bound for controllers. */
+        DATA(2, true),
+        /** Statistics replies and anything else. */
+        STATS(1, false);
+
+        private final int weight;
+        private final boolean bounded;
+
+        Lane(final int weight, final boolean bounded) {
+            this.weight = weight;
+            this.bounded = bounded;
+        }
+    }
+
+    private static final Lane[] LANES = Lane.values();
+    /*
+     * Weighted round robin order: each lane appears as often as its weight,
+     * interleaved so that lower priority lanes are not served in bursts.
+     */
+    private static final Lane[] SCHEDULE = LaneDispatcher.buildSchedule();
+
+    private static volatile int laneCapacity = DEFAULT_LANE_CAPACITY;
+    private static volatile int channelBacklog = DEFAULT_CHANNEL_BACKLOG;
+    private static final AtomicLong SUSPENDED = new AtomicLong();
+
+    private static final AtomicInteger[] DEPTH = new AtomicInteger[LANES.length];
+    private static final AtomicLong[] PROCESSED = new AtomicLong[LANES.length];
+    private static final AtomicLong[] DROPPED = new AtomicLong[LANES.length];
+
+    static {
+        for (int i = 0; i < LANES.length; i++) {
+            DEPTH[i] = new AtomicInteger();
+            PROCESSED[i] = new AtomicLong();
+            DROPPED[i] = new AtomicLong();
+        }
+    }
+
+    private final Executor executor;
+    private final AtomicInteger cursor = new AtomicInteger();
+    // channel queues with pending events, per lane
+    private final List<ConcurrentLinkedQueue<LaneQueue>> ready;
+
+    /**
+     * Messages of one channel waiting over all lanes.
+     */
+    private static final class Backlog {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean suspended = new AtomicBoolean(false);
+    }
+
+    /**
+     * Events of one channel waiting in one lane.
+     */
+    private static final class LaneQueue {
+        private final ChannelHandlerContext ctx;
+        private final Lane lane;
+        private final Backlog backlog;
+        private final ConcurrentLinkedQueue<ChannelEvent> events = new ConcurrentLinkedQueue<ChannelEvent>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private LaneQueue(final ChannelHandlerContext ctx, final Lane lane,
+                          final Backlog backlog) {
+            this.ctx = ctx;
+            this.lane = lane;
+            this.backlog = backlog;
+        }
+    }
+
+    /**
+     * Creates a dispatcher running channel events on the given executor.
+     *
+     * @param executor the pipeline executor
+     */
+    public LaneDispatcher(final Executor executor) {
+        this.executor = executor;
+        this.ready = new ArrayList<ConcurrentLinkedQueue<LaneQueue>>(
+                LANES.length);
+        for (int i = 0; i < LANES.length; i++) {
+            this.ready.add(new ConcurrentLinkedQueue<LaneQueue>());
+        }
+    }
+
+    /**
+     * Sets the maximum number of messages waiting in each bounded lane, and
+     * of one channel over all lanes.
+     *
+     * @param capacity the lane capacity; 0 leaves lanes unbounded
+     * @param backlog the channel backlog; 0 never suspends reads
+     */
+    public static void configure(final int capacity, final int backlog) {
+        LaneDispatcher.laneCapacity = Math.max(0, capacity);
+        LaneDispatcher.channelBacklog = Math.max(0, backlog);
+    }
+
+    /**
+     * Gets the depth and throughput of every lane.
+     *
+     * @return map of lane names to their counters
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        for (final Lane lane : LANES) {
+            final int i = lane.ordinal();
+            final Map<String, Object> counters = new HashMap<String, Object>();
+            counters.put("depth", DEPTH[i].get());
+            counters.put("processed", PROCESSED[i].get());
+            counters.put("dropped", DROPPED[i].get());
+            counters.put("weight", lane.weight);
+            stats.put(lane.name(), counters);
+        }
+        stats.put("capacity", LaneDispatcher.laneCapacity);
+        stats.put("backlog", LaneDispatcher.channelBacklog);
+        stats.put("suspended", SUSPENDED.get());
+        return stats;
+    }
+
+    /**
+     * Gets the lane a message is dispatched through.
+     *
+     * @param m the message
+     * @return the lane
+     */
+    public static Lane laneOf(final OVXMessage m) {
+        switch (m.getType()) {
+            case PACKET_IN:
+                return OVXMessageUtil.isLLDPPacketIn(m) ? Lane.TOPOLOGY
+                        : Lane.DATA;
+            case PORT_STATUS:
+                return Lane.TOPOLOGY;
+            case FLOW_REMOVED:
+                return Lane.DATA;
+            case STATS_REPLY:
+            case QUEUE_GET_CONFIG_REPLY:
+            case EXPERIMENTER:
+                return Lane.STATS;
+            default:
+                return Lane.CONTROL;
+        }
+    }
+
+    @Override
+    public void handleUpstream(final ChannelHandlerContext ctx,
+                               final ChannelEvent e) throws Exception {
+        final LaneQueue[] queues = LaneDispatcher.getQueues(ctx);
+
+        if (!(e instanceof MessageEvent)
+                || !(((MessageEvent) e).getMessage() instanceof List)) {
+            this.enqueue(queues[Lane.CONTROL.ordinal()], e, 1);
+            return;
+        }
+
+        final MessageEvent me = (MessageEvent) e;
+        @SuppressWarnings("unchecked")
+        final List<OVXMessage> msglist = (List<OVXMessage>) me.getMessage();
+        final OFChannelHandler handler = ctx.getPipeline().get(
+                OFChannelHandler.class);
+        if (handler == null || !handler.isHandShakeComplete()) {
+            // the handshake runs one message at a time, in order
+            this.enqueue(queues[Lane.CONTROL.ordinal()], e, msglist.size());
+            return;
+        }
+
+        final List<List<OVXMessage>> split = new ArrayList<List<OVXMessage>>(
+                LANES.length);
+        for (int i = 0; i < LANES.length; i++) {
+            split.add(null);
+        }
+        for (final OVXMessage m : msglist) {
+            final int i = LaneDispatcher.laneOf(m).ordinal();
+            if (split.get(i) == null) {
+                split.set(i, new ArrayList<OVXMessage>());
+            }
+            split.get(i).add(m);
+        }
+        for (int i = 0; i < LANES.length; i++) {
+            if (split.get(i) == null) {
+                continue;
+            }
+            final List<OVXMessage> admitted = LaneDispatcher.admit(LANES[i],
+                    split.get(i));
+            if (admitted.isEmpty()) {
+                continue;
+            }
+            final ChannelEvent sub = admitted.size() == msglist.size() ? e
+                    : new UpstreamMessageEvent(me.getChannel(), admitted,
+                            me.getRemoteAddress());
+            this.enqueue(queues[i], sub, admitted.size());
+        }
+    }
+
+    /*
+     * Drops the packet-ins of a batch that would take a bounded lane over
+     * its capacity. Anything else gets in regardless: a lost flow removed or
+     * port status leaves OVX out of step with the switch.
+     */
+    private static List<OVXMessage> admit(final Lane lane,
+                                          final List<OVXMessage> msgs) {
+        final int i = lane.ordinal();
+        final int capacity = LaneDispatcher.laneCapacity;
+        if (!lane.bounded || capacity == 0
+                || DEPTH[i].get() + msgs.size() <= capacity) {
+            return msgs;
+        }
+        final List<OVXMessage> kept = new ArrayList<OVXMessage>(msgs.size());
+        for (final OVXMessage m : msgs) {
+            if (m.getType() != OFType.PACKET_IN) {
+                kept.add(m);
+            }
+        }
+        DROPPED[i].addAndGet(msgs.size() - kept.size());
+        return kept;
+    }
+
+    private static synchronized LaneQueue[] getQueues(
+            final ChannelHandlerContext ctx) {
+        LaneQueue[] queues = (LaneQueue[]) ctx.getAttachment();
+        if (queues == null) {
+            queues = new LaneQueue[LANES.length];
+            final Backlog backlog = new Backlog();
+            for (final Lane lane : LANES) {
+                queues[lane.ordinal()] = new LaneQueue(ctx, lane, backlog);
+            }
+            ctx.setAttachment(queues);
+        }
+        return queues;
+    }
+
+    private void enqueue(final LaneQueue q, final ChannelEvent e,
+                         final int count) {
+        DEPTH[q.lane.ordinal()].addAndGet(count);
+        final int pending = q.backlog.pending.addAndGet(count);
+        q.events.add(e);
+        final int limit = LaneDispatcher.channelBacklog;
+        if (limit > 0 && pending > limit
+                && q.backlog.suspended.compareAndSet(false, true)) {
+            SUSPENDED.incrementAndGet();
+            q.ctx.getChannel().setReadable(false);
+        }
+        if (q.scheduled.compareAndSet(false, true)) {
+            this.schedule(q);
+        }
+    }
+
+    /*
+     * Every queue put on a ready list is matched by exactly one run() task,
+     * so a task always finds some queue to serve. A rejected queue is taken
+     * back off its ready list, unless a task already got to it, so that the
+     * next event of the lane schedules it again.
+     */
+    private void schedule(final LaneQueue q) {
+        this.ready.get(q.lane.ordinal()).add(q);
+        try {
+            this.executor.execute(this);
+        } catch (final RejectedExecutionException ex) {
+            log.error("Could not dispatch {} events: executor rejected task",
+                    q.lane);
+            if (this.ready.get(q.lane.ordinal()).remove(q)) {
+                q.scheduled.set(false);
+            }
+        }
+    }
+
+    /*
+     * Resumes reads from a suspended channel once half of its backlog is
+     * done. Whoever suspended the channel had more than the backlog waiting,
+     * so some task always gets here afterwards.
+     */
+    private static void resume(final LaneQueue q, final int pending) {
+        if (pending <= LaneDispatcher.channelBacklog / 2
+                && q.backlog.suspended.compareAndSet(true, false)) {
+            q.ctx.getChannel().setReadable(true);
+        }
+    }
+
+    @Override
+    public void run() {
+        final LaneQueue q = this.next();
+        if (q == null) {
+            return;
+        }
+
+        final int i = q.lane.ordinal();
+        int pending = q.backlog.pending.get();
+        for (int n = 0; n < EVENTS_PER_TURN; n++) {
+            final ChannelEvent e = q.events.poll();
+            if (e == null) {
+                break;
+            }
+            final int count = e instanceof MessageEvent
+                    && ((MessageEvent) e).getMessage() instanceof List
+                    ? ((List<?>) ((MessageEvent) e).getMessage()).size() : 1;
+            try {
+                q.ctx.sendUpstream(e);
+            } catch (final Exception ex) {
+                Channels.fireExceptionCaught(q.ctx.getChannel(), ex);
+            } finally {
+                DEPTH[i].addAndGet(-count);
+                PROCESSED[i].addAndGet(count);
+                pending = q.backlog.pending.addAndGet(-count);
+            }
+        }
+        if (q.backlog.suspended.get()) {
+            LaneDispatcher.resume(q, pending);
+        }
+
+        if (!q.events.isEmpty()) {
+            // let other channels and lanes have a turn
+            this.schedule(q);
+            return;
+        }
+        q.scheduled.set(false);
+        if (!q.events.isEmpty() && q.scheduled.compareAndSet(false, true)) {
+            this.schedule(q);
+        }
+    }
+
+    /*
+     * Takes the ready queue of the lane whose turn it is, falling back to
+     * the other lanes in priority order.
+     */
+    private LaneQueue next() {
+        final int turn = (this.cursor.getAndIncrement() & Integer.MAX_VALUE)
+                % SCHEDULE.length;
+        LaneQueue q = this.ready.get(SCHEDULE[turn].ordinal()).poll();
+        for (int i = 0; q == null && i < LANES.length; i++) {
+            q = this.ready.get(i).poll();
+        }
+        return q;
+    }
+
+    private static Lane[] buildSchedule() {
+        int total = 0;
+        for (final Lane lane : LANES) {
+            total += lane.weight;
+        }
+        // smooth weighted round robin
+        final Lane[] schedule = new Lane[total];
+        final int[] current = new int[LANES.length];
+        for (int s = 0; s < total; s++) {
+            int best = 0;
+            for (int i = 0; i < LANES.length; i++) {
+                current[i] += LANES[i].weight;
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            schedule[s] = LANES[best];
+        }
+        return schedule;
+    }
+}
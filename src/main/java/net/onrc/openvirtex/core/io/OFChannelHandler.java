@@ -28,7 +28,7 @@ import org.jboss.netty.handler.timeout.IdleStateAwareChannelHandler;
 public abstract class OFChannelHandler extends IdleStateAwareChannelHandler {
 
     @SuppressWarnings("rawtypes")
-    protected Switch sw;
+    protected volatile Switch sw;
     protected Channel channel;
     protected OpenVirteXController ctrl;
 
@@ -0,0 +1,423 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelLocal;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+
+/**
+ * Per-channel outbound queue that coalesces OpenFlow messages.
+ *
+ * Messages written while a channel handler processes an inbound event are
+ * held until the event completes; messages written from any other thread
+ * (timers, API calls) are held for at most the configured delay. Either way
+ * they reach OVXMessageEncoder as a single list, so one virtual flow mod
+ * expanding into several physical ones costs one buffer and one socket write
+ * per switch instead of one per message.
+ *
+ * Delayed flushes run on one of a set of flusher threads, as many as the
+ * I/O workers Netty starts by default, and each channel always uses the
+ * same one. Netty 3.2 offers no way to run a task on the I/O worker of a
+ * channel, so this keeps the flushes of one channel on one thread without
+ * making all channels wait on each other.
+ */
+public final class OVXChannelWriter implements Runnable {
+
+    private static Logger log = LogManager.getLogger(OVXChannelWriter.class
+            .getName());
+
+    /**
+     * Default maximum number of messages written in one flush.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    /**
+     * Default time (in milliseconds) a message written outside of an inbound
+     * event waits for company before being flushed.
+     */
+    public static final int DEFAULT_MAX_DELAY = 1;
+
+    /*
+     * Number of flusher threads, the default I/O worker count of Netty.
+     */
+    private static final int FLUSHERS = Runtime.getRuntime()
+            .availableProcessors() * 2;
+
+    /*
+     * Upper bounds of the flush size histogram buckets.
+     */
+    private static final int[] BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128,
+            Integer.MAX_VALUE};
+
+    private static volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private static volatile long maxDelay = DEFAULT_MAX_DELAY;
+
+    private static final AtomicLong TOTAL_FLUSHES = new AtomicLong();
+    private static final AtomicLong TOTAL_MESSAGES = new AtomicLong();
+    private static final AtomicLongArray TOTAL_HISTOGRAM = new AtomicLongArray(
+            BUCKETS.length);
+
+    private static final ChannelLocal<OVXChannelWriter> WRITERS = new ChannelLocal<OVXChannelWriter>();
+
+    private static final ThreadLocal<EventScope> SCOPE = new ThreadLocal<EventScope>() {
+        @Override
+        protected EventScope initialValue() {
+            return new EventScope();
+        }
+    };
+
+    // started with the class, so channels pick theirs without locking
+    private static final ScheduledExecutorService[] FLUSHER = new ScheduledExecutorService[FLUSHERS];
+
+    static {
+        for (int i = 0; i < FLUSHERS; i++) {
+            final String name = "ovx-write-flusher-" + i;
+            FLUSHER[i] = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, name);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+    }
+
+    private final Channel channel;
+    private final ConcurrentLinkedQueue<Object> queue;
+    private final AtomicInteger pending;
+    private final AtomicBoolean scheduled;
+    private final AtomicLong flushes;
+    private final AtomicLong messages;
+    private final AtomicLongArray histogram;
+
+    /**
+     * Messages written by the current thread while it handles an inbound
+     * event. Writers touched during the event are flushed when it ends.
+     */
+    private static final class EventScope {
+        private int depth = 0;
+        private final List<OVXChannelWriter> dirty = new ArrayList<OVXChannelWriter>();
+
+        private void mark(final OVXChannelWriter writer) {
+            if (!this.dirty.contains(writer)) {
+                this.dirty.add(writer);
+            }
+        }
+    }
+
+    private OVXChannelWriter(final Channel channel) {
+        this.channel = channel;
+        this.queue = new ConcurrentLinkedQueue<Object>();
+        this.pending = new AtomicInteger();
+        this.scheduled = new AtomicBoolean(false);
+        this.flushes = new AtomicLong();
+        this.messages = new AtomicLong();
+        this.histogram = new AtomicLongArray(BUCKETS.length);
+    }
+
+    /**
+     * Sets the batching parameters for all channels.
+     *
+     * @param batchSize the maximum number of messages written per flush
+     * @param delay the maximum time (in milliseconds) a message written
+     *            outside of an inbound event is held; 0 flushes immediately
+     */
+    public static void configure(final int batchSize, final long delay) {
+        OVXChannelWriter.maxBatchSize = Math.max(1, batchSize);
+        OVXChannelWriter.maxDelay = Math.max(0, delay);
+        log.info("Outbound batching: max {} messages, max {} ms delay",
+                OVXChannelWriter.maxBatchSize, OVXChannelWriter.maxDelay);
+    }
+
+    /**
+     * Gets the writer associated with the given channel, creating it if
+     * needed.
+     *
+     * @param channel the channel
+     * @return the channel writer
+     */
+    public static OVXChannelWriter getWriter(final Channel channel) {
+        OVXChannelWriter writer = WRITERS.get(channel);
+        if (writer == null) {
+            final OVXChannelWriter created = new OVXChannelWriter(channel);
+            writer = WRITERS.setIfAbsent(channel, created);
+            if (writer == null) {
+                writer = created;
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Queues a message for the given channel.
+     *
+     * @param channel the channel
+     * @param msg the message
+     */
+    public static void write(final Channel channel, final OFMessage msg) {
+        if (channel == null || msg == null) {
+            return;
+        }
+        OVXChannelWriter.getWriter(channel).enqueue(msg);
+    }
+
+    /**
+     * Queues an already encoded frame for the given channel, so messages
+     * relayed or answered from their raw bytes need not be decoded.
+     *
+     * @param channel the channel
+     * @param frame the complete OpenFlow frame
+     */
+    public static void write(final Channel channel, final ChannelBuffer frame) {
+        if (channel == null || frame == null) {
+            return;
+        }
+        OVXChannelWriter.getWriter(channel).enqueue(frame);
+    }
+
+    /**
+     * Queues a list of messages for the given channel, preserving order.
+     *
+     * @param channel the channel
+     * @param msgs the messages
+     */
+    public static void write(final Channel channel, final List<OFMessage> msgs) {
+        if (channel == null) {
+            return;
+        }
+        final OVXChannelWriter writer = OVXChannelWriter.getWriter(channel);
+        for (final OFMessage msg : msgs) {
+            if (msg != null) {
+                writer.enqueue(msg);
+            }
+        }
+    }
+
+    /**
+     * Marks the beginning of an inbound event on the current thread.
+     * Messages written until the matching {@link #endEvent()} are held and
+     * flushed together.
+     */
+    public static void beginEvent() {
+        SCOPE.get().depth++;
+    }
+
+    /**
+     * Marks the end of an inbound event on the current thread and flushes
+     * every channel written to during the event.
+     */
+    public static void endEvent() {
+        final EventScope scope = SCOPE.get();
+        if (--scope.depth > 0) {
+            return;
+        }
+        scope.depth = 0;
+        if (scope.dirty.isEmpty()) {
+            return;
+        }
+        final List<OVXChannelWriter> writers = new ArrayList<OVXChannelWriter>(
+                scope.dirty);
+        scope.dirty.clear();
+        for (final OVXChannelWriter writer : writers) {
+            writer.flush();
+        }
+    }
+
+    private void enqueue(final Object msg) {
+        this.queue.add(msg);
+        if (this.pending.incrementAndGet() >= OVXChannelWriter.maxBatchSize) {
+            this.flush();
+            return;
+        }
+        final EventScope scope = SCOPE.get();
+        if (scope.depth > 0) {
+            scope.mark(this);
+        } else if (OVXChannelWriter.maxDelay <= 0) {
+            this.flush();
+        } else if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                OVXChannelWriter.getFlusher(this.channel).schedule(this,
+                        OVXChannelWriter.maxDelay, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException e) {
+                // shutting down; do not hold the messages back
+                this.scheduled.set(false);
+                this.flush();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        this.scheduled.set(false);
+        this.flush();
+    }
+
+    /**
+     * Writes all queued messages to the channel, at most the configured batch
+     * size per write. Messages queued for a closed channel are discarded.
+     */
+    public synchronized void flush() {
+        if (this.pending.get() == 0) {
+            return;
+        }
+        if (!this.channel.isOpen()) {
+            this.queue.clear();
+            this.pending.set(0);
+            return;
+        }
+        final int batchSize = OVXChannelWriter.maxBatchSize;
+        List<Object> batch = new ArrayList<Object>(Math.min(
+                this.pending.get(), batchSize));
+        Object msg;
+        while ((msg = this.queue.poll()) != null) {
+            this.pending.decrementAndGet();
+            batch.add(msg);
+            if (batch.size() >= batchSize) {
+                this.writeBatch(batch);
+                batch = new ArrayList<Object>(Math.min(
+                        Math.max(this.pending.get(), 1), batchSize));
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(final List<Object> batch) {
+        this.channel.write(batch);
+        final int size = batch.size();
+        final int bucket = OVXChannelWriter.bucketOf(size);
+        this.flushes.incrementAndGet();
+        this.messages.addAndGet(size);
+        this.histogram.incrementAndGet(bucket);
+        TOTAL_FLUSHES.incrementAndGet();
+        TOTAL_MESSAGES.addAndGet(size);
+        TOTAL_HISTOGRAM.incrementAndGet(bucket);
+    }
+
+    private static int bucketOf(final int size) {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (size <= BUCKETS[i]) {
+                return i;
+            }
+        }
+        return BUCKETS.length - 1;
+    }
+
+    private static ScheduledExecutorService getFlusher(final Channel channel) {
+        final int id = channel.getId() & Integer.MAX_VALUE;
+        return FLUSHER[id % FLUSHERS];
+    }
+
+    /**
+     * Stops the flusher threads. Pending delayed flushes are dropped, and
+     * messages written afterwards are flushed right away.
+     */
+    public static void shutDown() {
+        for (final ScheduledExecutorService flusher : FLUSHER) {
+            flusher.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the number of flushes done on this channel.
+     *
+     * @return the number of flushes
+     */
+    public long getFlushCount() {
+        return this.flushes.get();
+    }
+
+    /**
+     * Gets the number of messages written on this channel.
+     *
+     * @return the number of messages
+     */
+    public long getMessageCount() {
+        return this.messages.get();
+    }
+
+    /**
+     * Gets the number of messages currently waiting to be flushed.
+     *
+     * @return the queue depth
+     */
+    public int getPendingCount() {
+        return this.pending.get();
+    }
+
+    /**
+     * Gets the batching statistics of this channel.
+     *
+     * @return map of counter names to values
+     */
+    public Map<String, Object> getStatistics() {
+        return OVXChannelWriter.toStatistics(this.flushes.get(),
+                this.messages.get(), this.histogram);
+    }
+
+    /**
+     * Gets the batching statistics aggregated over all channels.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getGlobalStatistics() {
+        return OVXChannelWriter.toStatistics(TOTAL_FLUSHES.get(),
+                TOTAL_MESSAGES.get(), TOTAL_HISTOGRAM);
+    }
+
+    private static Map<String, Object> toStatistics(final long flushCount,
+            final long messageCount, final AtomicLongArray hist) {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("flushes", flushCount);
+        stats.put("messages", messageCount);
+        stats.put("avgMessagesPerFlush", flushCount == 0 ? 0.0
+                : (double) messageCount / flushCount);
+        final Map<String, Long> sizes = new HashMap<String, Long>();
+        for (int i = 0; i < BUCKETS.length; i++) {
+            final String key = i == BUCKETS.length - 1 ? ">"
+                    + BUCKETS[i - 1] : "<=" + BUCKETS[i];
+            sizes.put(key, hist.get(i));
+        }
+        stats.put("messagesPerFlush", sizes);
+        return stats;
+    }
+
+}
@@ -20,7 +20,10 @@
 package net.onrc.openvirtex.core.io;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 //import net.onrc.openvirtex.messages.OVXMessageFactory;
 
@@ -37,6 +40,10 @@ import org.projectfloodlight.openflow.protocol.*;
 /**
  * Decode an openflow message from a netty Channel.
  *
+ * In lazy mode only the 8-byte OpenFlow header is read; each frame is copied
+ * out of the cumulation buffer and handed over undecoded, and the loxi
+ * message is built the first time a handler needs its fields.
+ *
  * @author alshabib
  */
 public class OVXMessageDecoder extends FrameDecoder {
@@ -44,6 +51,38 @@ public class OVXMessageDecoder extends FrameDecoder {
     public static int MINIMUM_LENGTH = 8;
     Logger log = LogManager.getLogger(OVXMessageDecoder.class.getName());
 
+    private static volatile boolean lazy = true;
+
+    private static final AtomicLong FRAMES = new AtomicLong();
+    private static final AtomicLong LAZY_FRAMES = new AtomicLong();
+
+    /**
+     * Sets the decoding mode for all channels.
+     *
+     * @param lazyDecode true to defer the full parse of each message until
+     *            it is accessed
+     */
+    public static void configure(final boolean lazyDecode) {
+        OVXMessageDecoder.lazy = lazyDecode;
+    }
+
+    /**
+     * Gets the decoder statistics.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final long lazyFrames = LAZY_FRAMES.get();
+        stats.put("lazy", OVXMessageDecoder.lazy);
+        stats.put("frames", FRAMES.get());
+        stats.put("lazyFrames", lazyFrames);
+        stats.put("deferredParses", OVXMessage.getDeferredParseCount());
+        stats.put("skippedParses",
+                lazyFrames - OVXMessage.getDeferredParseCount());
+        return stats;
+    }
+
     @Override
     protected Object decode(final ChannelHandlerContext ctx,
                             final Channel channel, final ChannelBuffer buffer) throws Exception {
@@ -58,8 +97,38 @@ public class OVXMessageDecoder extends FrameDecoder {
 
         final List<OVXMessage> msglist = new ArrayList<OVXMessage>();
         OFMessage msg = null;
+        final boolean lazyDecode = OVXMessageDecoder.lazy;
 
         while (buffer.readableBytes() >= MINIMUM_LENGTH) {
+            if (lazyDecode) {
+                final int start = buffer.readerIndex();
+                final int length = buffer.getUnsignedShort(start + 2);
+                if (length < MINIMUM_LENGTH) {
+                    // let loxi report the malformed header
+                    buffer.markReaderIndex();
+                    reader.readFrom(buffer);
+                    buffer.resetReaderIndex();
+                    break;
+                }
+                if (buffer.readableBytes() < length) {
+                    break;
+                }
+                final OFVersion version = OVXMessageDecoder.toOFVersion(buffer
+                        .getByte(start));
+                final OFType type = version == null ? null : OVXMessageUtil
+                        .toOFType(version, buffer.getByte(start + 1));
+                if (OVXMessageUtil.isDeferrable(type)) {
+                    // FrameDecoder reuses its cumulation buffer, so the frame
+                    // must be copied rather than sliced
+                    final ChannelBuffer frame = buffer.readBytes(length);
+                    msglist.add(OVXMessageUtil.toOVXMessage(frame, version,
+                            type));
+                    FRAMES.incrementAndGet();
+                    LAZY_FRAMES.incrementAndGet();
+                    continue;
+                }
+            }
+
             buffer.markReaderIndex();
             msg = reader.readFrom(buffer);
 
@@ -70,6 +139,7 @@ public class OVXMessageDecoder extends FrameDecoder {
                 //this.log.info(msg.toString());
                 OVXMessage ovxmsg = OVXMessageUtil.toOVXMessage(msg);
                 msglist.add(ovxmsg);
+                FRAMES.incrementAndGet();
             }
         }
 
@@ -81,4 +151,15 @@ public class OVXMessageDecoder extends FrameDecoder {
         //return null;
         return msglist;
     }
+
+    private static OFVersion toOFVersion(final byte wireVersion) {
+        switch (wireVersion) {
+            case 1:
+                return OFVersion.OF_10;
+            case 4:
+                return OFVersion.OF_13;
+            default:
+                return null;
+        }
+    }
 }
@@ -19,7 +19,10 @@
  */
 package net.onrc.openvirtex.core.io;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -33,12 +36,63 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 /**
  * encode an openflow message into a netty Channel.
  *
+ * In EXACT mode (the default) a batch is first serialized into a per-thread
+ * scratch buffer that is reused across flushes, and then copied once into a
+ * buffer of exactly the batch's wire length. Loxi messages do not expose
+ * their length without being serialized, so this replaces the repeated
+ * grow-and-copy of a fresh dynamic buffer with a single copy. DYNAMIC mode
+ * keeps the previous behavior.
+ *
  * @author alshabib
  */
 public class OVXMessageEncoder extends OneToOneEncoder {
 
     Logger log = LogManager.getLogger(OVXMessageEncoder.class.getName());
 
+    /**
+     * Buffer allocation strategy used when encoding a batch.
+     */
+    public enum EncodeMode {
+        /** Serialize into a fresh dynamic buffer. */
+        DYNAMIC,
+        /** Serialize into a reused scratch buffer, then copy to exact size. */
+        EXACT
+    }
+
+    /*
+     * Initial capacity of the scratch buffers, and the capacity above which a
+     * scratch buffer is dropped instead of being kept for reuse.
+     */
+    private static final int SCRATCH_INITIAL_SIZE = 1 << 12;
+    private static final int SCRATCH_MAX_SIZE = 1 << 20;
+
+    private static volatile EncodeMode mode = EncodeMode.EXACT;
+    private static volatile boolean direct = false;
+
+    private static final AtomicLong FLUSHES = new AtomicLong();
+    private static final AtomicLong BYTES = new AtomicLong();
+    private static final AtomicLong MAX_BYTES = new AtomicLong();
+    private static final AtomicLong RESIZES = new AtomicLong();
+
+    private static final ThreadLocal<ChannelBuffer> SCRATCH = new ThreadLocal<ChannelBuffer>() {
+        @Override
+        protected ChannelBuffer initialValue() {
+            return ChannelBuffers.dynamicBuffer(SCRATCH_INITIAL_SIZE);
+        }
+    };
+
+    /**
+     * Sets the encoding mode for all channels.
+     *
+     * @param encodeMode the buffer allocation strategy
+     * @param useDirect true if EXACT mode should emit direct buffers
+     */
+    public static void configure(final EncodeMode encodeMode,
+                                 final boolean useDirect) {
+        OVXMessageEncoder.mode = encodeMode;
+        OVXMessageEncoder.direct = useDirect;
+    }
+
     @Override
     protected Object encode(final ChannelHandlerContext ctx,
                             final Channel channel, final Object msg) throws Exception {
@@ -46,31 +100,102 @@ public class OVXMessageEncoder extends OneToOneEncoder {
             return msg;
         }
 
-        @SuppressWarnings("unchecked")
-        final List<OFMessage> msglist = (List<OFMessage>) msg;
-        /*int size = 0;
-        for (final OFMessage ofm : msglist) {
-            size += ofm.getLengthU();
+        final List<?> msglist = (List<?>) msg;
+
+        final ChannelBuffer buf;
+        if (OVXMessageEncoder.mode == EncodeMode.EXACT) {
+            buf = this.encodeExact(msglist);
+        } else {
+            buf = this.encodeDynamic(msglist);
         }
 
-        final ChannelBuffer buf = ChannelBuffers.buffer(size);
+        OVXMessageEncoder.record(buf.readableBytes());
+        return buf;
+    }
 
-        for (final OFMessage ofm : msglist) {
+    private ChannelBuffer encodeDynamic(final List<?> msglist) {
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        int capacity = buf.capacity();
 
-            ofm.writeTo(buf);
+        for (Object ofm : msglist) {
+            if (ofm != null) {
+                OVXMessageEncoder.writeTo(ofm, buf);
+                if (buf.capacity() != capacity) {
+                    capacity = buf.capacity();
+                    RESIZES.incrementAndGet();
+                }
+            }
+        }
+        return buf;
+    }
 
-        }*/
-        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+    private ChannelBuffer encodeExact(final List<?> msglist) {
+        ChannelBuffer scratch = SCRATCH.get();
+        scratch.clear();
+        final int capacity = scratch.capacity();
 
-        for (OFMessage ofm : msglist) {
+        for (Object ofm : msglist) {
             if (ofm != null) {
-                //this.log.info(ofm.toString());
-
-                ofm.writeTo(buf);
+                OVXMessageEncoder.writeTo(ofm, scratch);
             }
         }
+        if (scratch.capacity() != capacity) {
+            RESIZES.incrementAndGet();
+        }
+
+        final int size = scratch.readableBytes();
+        final ChannelBuffer buf = OVXMessageEncoder.direct
+                ? ChannelBuffers.directBuffer(size)
+                : ChannelBuffers.buffer(size);
+        buf.writeBytes(scratch);
 
+        if (scratch.capacity() > SCRATCH_MAX_SIZE) {
+            // don't keep a buffer grown by an unusually large batch around
+            SCRATCH.remove();
+        }
         return buf;
     }
 
+    /*
+     * Writes a loxi message, or an already encoded frame relayed without
+     * being decoded.
+     */
+    private static void writeTo(final Object ofm, final ChannelBuffer buf) {
+        if (ofm instanceof ChannelBuffer) {
+            final ChannelBuffer frame = (ChannelBuffer) ofm;
+            buf.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+        } else {
+            ((OFMessage) ofm).writeTo(buf);
+        }
+    }
+
+    private static void record(final int size) {
+        FLUSHES.incrementAndGet();
+        BYTES.addAndGet(size);
+        long max = MAX_BYTES.get();
+        while (size > max && !MAX_BYTES.compareAndSet(max, size)) {
+            max = MAX_BYTES.get();
+        }
+    }
+
+    /**
+     * Gets the encoder counters aggregated over all channels.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final long flushes = FLUSHES.get();
+        final long bytes = BYTES.get();
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("mode", OVXMessageEncoder.mode.toString());
+        stats.put("direct", OVXMessageEncoder.direct);
+        stats.put("flushes", flushes);
+        stats.put("bytes", bytes);
+        stats.put("avgBytesPerFlush", flushes == 0 ? 0.0
+                : (double) bytes / flushes);
+        stats.put("maxBytesPerFlush", MAX_BYTES.get());
+        stats.put("resizes", RESIZES.get());
+        return stats;
+    }
+
 }
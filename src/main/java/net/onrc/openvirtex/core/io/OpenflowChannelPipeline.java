@@ -23,14 +23,13 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 
-import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 import org.jboss.netty.util.ExternalResourceReleasable;
 import org.jboss.netty.util.Timer;
 
 public abstract class OpenflowChannelPipeline implements
-        ChannelPipelineFactory, ExternalResourceReleasable {
+        ExternalResourceReleasable {
     protected OpenVirteXController ctrl;
     protected ThreadPoolExecutor pipelineExecutor;
     protected Timer timer;
@@ -28,14 +28,10 @@ import net.onrc.openvirtex.exceptions.ReconnectException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jboss.netty.bootstrap.ClientBootstrap;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
-import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.util.Timeout;
 import org.jboss.netty.util.Timer;
 import org.jboss.netty.util.TimerTask;
@@ -46,24 +42,24 @@ public class ReconnectHandler extends SimpleChannelHandler {
 
     static final ReconnectException EXCEPTION = new ReconnectException();
 
-    final ClientBootstrap bootstrap;
+    final ControllerConnector connector;
+    final InetSocketAddress remoteAddr;
     final Timer timer;
     volatile Timeout timeout;
     private final Integer maxBackOff;
 
     private final OVXSwitch sw;
 
-    private final ChannelGroup cg;
-
     public ReconnectHandler(final OVXSwitch sw,
-                            final ClientBootstrap bootstrap, final Timer timer,
-                            final int maxBackOff, final ChannelGroup cg) {
+                            final ControllerConnector connector,
+                            final InetSocketAddress remoteAddr, final Timer timer,
+                            final int maxBackOff) {
         super();
         this.sw = sw;
-        this.bootstrap = bootstrap;
+        this.connector = connector;
+        this.remoteAddr = remoteAddr;
         this.timer = timer;
         this.maxBackOff = maxBackOff;
-        this.cg = cg;
 
     }
 
@@ -77,11 +73,11 @@ public class ReconnectHandler extends SimpleChannelHandler {
         final int retry = this.sw.incrementBackOff();
         final Integer backOffTime = Math.min(1 << retry, this.maxBackOff);
 
-        this.timeout = this.timer.newTimeout(new ReconnectTimeoutTask(this.sw,
-                this.cg), backOffTime, TimeUnit.SECONDS);
+        this.timeout = this.timer.newTimeout(new ReconnectTimeoutTask(this.sw),
+                backOffTime, TimeUnit.SECONDS);
 
         this.log.error("Backing off {} for controller {}", backOffTime,
-                this.bootstrap.getOption("remoteAddress"));
+                this.remoteAddr);
         ctx.sendUpstream(e);
 
     }
@@ -114,39 +110,15 @@ public class ReconnectHandler extends SimpleChannelHandler {
     private final class ReconnectTimeoutTask implements TimerTask {
 
         OVXSwitch sw = null;
-        private final ChannelGroup cg;
 
-        public ReconnectTimeoutTask(final OVXSwitch sw, final ChannelGroup cg) {
+        public ReconnectTimeoutTask(final OVXSwitch sw) {
             this.sw = sw;
-            this.cg = cg;
         }
 
         @Override
         public void run(final Timeout timeout) throws Exception {
-
-            final InetSocketAddress remoteAddr = (InetSocketAddress) ReconnectHandler.this.bootstrap
-                    .getOption("remoteAddress");
-            final ChannelFuture cf = ReconnectHandler.this.bootstrap.connect();
-
-            cf.addListener(new ChannelFutureListener() {
-
-                @Override
-                public void operationComplete(final ChannelFuture e)
-                        throws Exception {
-                    if (e.isSuccess()) {
-                        ReconnectTimeoutTask.this.sw.setChannel(e.getChannel());
-                        ReconnectTimeoutTask.this.cg.add(e.getChannel());
-                    } else {
-                        ReconnectHandler.this.log
-                                .error("Failed to connect to controller {} for switch {}",
-                                        remoteAddr,
-                                        ReconnectTimeoutTask.this.sw
-                                                .getSwitchName());
-                    }
-
-                }
-            });
-
+            ReconnectHandler.this.connector.connect(this.sw,
+                    ReconnectHandler.this.remoteAddr);
         }
     }
 
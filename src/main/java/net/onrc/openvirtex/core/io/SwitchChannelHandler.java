@@ -28,20 +28,22 @@ package net.onrc.openvirtex.core.io;
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.RejectedExecutionException;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.HandshakeTimeoutException;
+import net.onrc.openvirtex.exceptions.MessageDecodeException;
 import net.onrc.openvirtex.exceptions.SwitchStateException;
 import net.onrc.openvirtex.messages.OVXMessage;
+import net.onrc.openvirtex.messages.OVXMessageUtil;
 import net.onrc.openvirtex.messages.OVXPortStatus;
 import net.onrc.openvirtex.messages.OVXSetConfig;
 import net.onrc.openvirtex.messages.statistics.OVXDescStatsReply;
-import net.onrc.openvirtex.packet.OVXLLDP;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -61,7 +63,8 @@ import org.projectfloodlight.openflow.protocol.*;
 public class SwitchChannelHandler extends OFChannelHandler {
 
     Logger log = LogManager.getLogger(SwitchChannelHandler.class.getName());
-    protected ArrayList<OVXPortStatus> pendingPortStatusMsg = null;
+    // Port status received during the handshake, replayed once the switch exists
+    protected ConcurrentLinkedQueue<OVXPortStatus> pendingPortStatusMsg = null;
 
     //Indicates the openflow version used by this switch
     protected OFVersion ofVersion;
@@ -71,11 +74,12 @@ public class SwitchChannelHandler extends OFChannelHandler {
 
 
     // needs to check if the handshake is complete
-    private ChannelState state;
+    // updated from the control lane, read from all lanes
+    private volatile ChannelState state;
 
     // Temporary storage for switch-features and port-description
-    private OFFeaturesReply featuresReply;
-    private List<OFPortDescStatsReply> portDescReplies = new ArrayList<>();
+    private volatile OFFeaturesReply featuresReply;
+    private List<OFPortDescStatsReply> portDescReplies = new CopyOnWriteArrayList<>();
 
     /*
      * Transaction ids to use during initialization
@@ -85,7 +89,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
     public SwitchChannelHandler(final OpenVirteXController ctrl) {
         this.ctrl = ctrl;
         this.state = ChannelState.INIT;
-        this.pendingPortStatusMsg = new ArrayList<OVXPortStatus>();
+        this.pendingPortStatusMsg = new ConcurrentLinkedQueue<OVXPortStatus>();
     }
 
     /*
@@ -342,7 +346,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 OFFlowMod fm = h.factory.buildFlowDelete()
                         .setMatch(h.factory.buildMatch().build())
                         .build();
-                h.channel.write(Collections.singletonList(fm));
+                OVXChannelWriter.write(h.channel, fm);
 
 
                 h.sw = new PhysicalSwitch(h.featuresReply.getDatapathId().getLong(), h.ofVersion);
@@ -365,10 +369,10 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 h.sw.setConnected(true);
                 h.sw.setChannel(h.channel);
 
-                for (final OVXPortStatus ps : h.pendingPortStatusMsg) {
+                OVXPortStatus ps;
+                while ((ps = h.pendingPortStatusMsg.poll()) != null) {
                     this.handlePortStatusMessage(h, ps);
                 }
-                h.pendingPortStatusMsg.clear();
                 h.sw.boot();
 
                  /*final OVXDescriptionStatistics description = new OVXDescriptionStatistics();
@@ -423,11 +427,10 @@ public class SwitchChannelHandler extends OFChannelHandler {
             void processOFMessage(final SwitchChannelHandler h,
                                   final OVXMessage m) throws IOException {
 
-                switch (m.getOFMessage().getType()) {
+                switch (m.getType()) {
                     case ECHO_REQUEST:
                         this.processOFEchoRequest(h, m);
                         break;
-                    case BARRIER_REPLY:
                     case ECHO_REPLY:
                         // do nothing but thank the switch
                         break;
@@ -439,6 +442,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                         h.featuresReply = (OFFeaturesReply)m.getOFMessage();
                         h.sw.setFeaturesReply(h.featuresReply);
                         break;
+                    case BARRIER_REPLY:
                     case ERROR:
                     case FLOW_REMOVED:
                     case GET_CONFIG_REPLY:
@@ -514,7 +518,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                                                final OVXMessage m, final String details) {
             return String.format("Switch: [%s], State: [%s], received: [%s]"
                             + ", details: %s", h.getSwitchInfoString(),
-                    this.toString(), m.getOFMessage().getType().toString(), details);
+                    this.toString(), m.getType().toString(), details);
         }
 
         /**
@@ -625,7 +629,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
         void processOFMessage(final SwitchChannelHandler h, final OVXMessage m)
                 throws IOException {
 
-             switch (m.getOFMessage().getType()) {
+             switch (m.getType()) {
                 case HELLO:
                     //h.log.info("HELLO");
                     this.processOFHello(h, m);
@@ -747,11 +751,16 @@ public class SwitchChannelHandler extends OFChannelHandler {
             reply.setPayload(m.getPayload());
             reply.setLengthU(m.getLengthU());
             h.channel.write(Collections.singletonList(reply));*/
+            if (!m.isDecoded()) {
+                OVXChannelWriter.write(h.channel,
+                        OVXMessageUtil.makeRawEchoReply(m.getRawMessage()));
+                return;
+            }
             OFEchoReply reply = h.factory.buildEchoReply()
                     .setXid(((OFEchoRequest)m.getOFMessage()).getXid())
                     .setData(((OFEchoRequest)m.getOFMessage()).getData())
                     .build();
-            h.channel.write(Collections.singletonList(reply));
+            OVXChannelWriter.write(h.channel, reply);
         }
 
         /**
@@ -964,7 +973,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
 
         this.log.info("Sending OF_13 Hello to {}", channel.getRemoteAddress());
 
-        this.channel.write(Collections.singletonList(ofHello));
+        OVXChannelWriter.write(this.channel, ofHello);
     }
 
     // to send FeaturesRequest after HELLO message
@@ -974,7 +983,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 .setXid(handshakeTransactionIds--)
                 .build();
 
-        this.channel.write(Collections.singletonList(freq));
+        OVXChannelWriter.write(this.channel, freq);
     }
 
     /**
@@ -1009,7 +1018,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 .build();
         msglist.add(gcr);
 
-        this.channel.write(msglist);
+        OVXChannelWriter.write(this.channel, msglist);
     }
 
     protected void sendHandshakeDescriptionStatsRequest() throws IOException {
@@ -1018,7 +1027,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
                 .setXid(handshakeTransactionIds--)
                 .build();
 
-        this.channel.write(Collections.singletonList(dreq));
+        OVXChannelWriter.write(this.channel, dreq);
 
     }
 
@@ -1028,7 +1037,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
         OFMessage m = this.factory.buildEchoRequest().build();
         log.debug("Sending Echo Request on idle channel: {}",
                 e.getChannel().getPipeline().getLast().toString());
-        e.getChannel().write(Collections.singletonList(m));
+        OVXChannelWriter.write(e.getChannel(), m);
     }
 
     @Override
@@ -1039,54 +1048,59 @@ public class SwitchChannelHandler extends OFChannelHandler {
          * Pass all messages to the handlers, except LLDP which we send straight
          * to the topology controller.
          *
-         * This should be implemented with a token bucket in order to rate limit
-         * the connections a little.
+         * Messages have already been rate limited by IngressRateLimiter, ahead
+         * of the pipeline executor.
          */
         if (e.getMessage() instanceof List) {
 
             @SuppressWarnings("unchecked")
             final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
 
-            for (final OVXMessage ofm : msglist) {
-                try {
-
-                    switch (ofm.getOFMessage().getType()) {
-                        case PACKET_IN:
-                            //this.log.info("PACKET_IN");
-
-                            OFPacketIn temp = (OFPacketIn)(ofm.getOFMessage());
-                            final byte[] data = temp.getData();
+            OVXChannelWriter.beginEvent();
+            try {
+                this.processMessageList(ctx, msglist);
+            } finally {
+                OVXChannelWriter.endEvent();
+            }
+        } else {
+            this.log.info("Message is not List");
+            Channels.fireExceptionCaught(this.channel, new AssertionError(
+                    "Message received from Channel is not a list"));
+        }
+    }
 
-                            //this.log.info(temp.getData().toString());
+    private void processMessageList(final ChannelHandlerContext ctx,
+                                    final List<OVXMessage> msglist) {
+        for (final OVXMessage ofm : msglist) {
+            try {
 
-                            if (OVXLLDP.isLLDP(data)) {
-                                if (this.sw != null) {
-                                    //this.log.info("PACKET_IN - handleLLDP");
-                                    PhysicalNetwork.getInstance().handleLLDP(ofm, this.sw);
-                                } else {
-                                    this.log.warn("Switch has not connected yet; dropping LLDP for now");
-                                }
-                                break;
+                switch (ofm.getType()) {
+                    case PACKET_IN:
+                        //this.log.info("PACKET_IN");
+
+                        if (OVXMessageUtil.isLLDPPacketIn(ofm)) {
+                            if (this.sw != null) {
+                                //this.log.info("PACKET_IN - handleLLDP");
+                                PhysicalNetwork.getInstance().handleLLDP(ofm, this.sw);
+                            } else {
+                                this.log.warn("Switch has not connected yet; dropping LLDP for now");
                             }
-
-                        default:
-                            // Process all non-packet-ins
-                            //this.log.info("Not PACKET_IN - " + ofm.toString());
-                            this.state.processOFMessage(this, ofm);
                             break;
-                    }
+                        }
 
-                } catch (final Exception ex) {
-                    // We are the last handler in the stream, so run the
-                    // exception through the channel again by passing in
-                    // ctx.getChannel().
-                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
+                    default:
+                        // Process all non-packet-ins
+                        //this.log.info("Not PACKET_IN - " + ofm.toString());
+                        this.state.processOFMessage(this, ofm);
+                        break;
                 }
+
+            } catch (final Exception ex) {
+                // We are the last handler in the stream, so run the
+                // exception through the channel again by passing in
+                // ctx.getChannel().
+                Channels.fireExceptionCaught(ctx.getChannel(), ex);
             }
-        } else {
-            this.log.info("Message is not List");
-            Channels.fireExceptionCaught(this.channel, new AssertionError(
-                    "Message received from Channel is not a list"));
         }
     }
 
@@ -1120,7 +1134,8 @@ public class SwitchChannelHandler extends OFChannelHandler {
                     this.getSwitchInfoString());
 
             ctx.getChannel().close();
-        } else if (e.getCause() instanceof OFParseError) {
+        } else if (e.getCause() instanceof OFParseError
+                || e.getCause() instanceof MessageDecodeException) {
             this.log.error(
                     "Disconnecting switch {} due to message parse failure",
                     this.getSwitchInfoString());
@@ -1147,7 +1162,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
         OFPortDescStatsRequest preq = this.factory.buildPortDescStatsRequest()
                 .setXid(handshakeTransactionIds--)
                 .build();
-        this.channel.write(Collections.singletonList(preq));
+        OVXChannelWriter.write(this.channel, preq);
     }
 
     /*
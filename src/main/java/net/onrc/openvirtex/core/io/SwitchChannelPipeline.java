@@ -27,16 +27,17 @@ import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 
-public class SwitchChannelPipeline extends OpenflowChannelPipeline {
+public class SwitchChannelPipeline extends OpenflowChannelPipeline implements
+        ChannelPipelineFactory {
 
     Logger log = LogManager.getLogger(SwitchChannelPipeline.class.getName());
 
-    private ExecutionHandler eh = null;
+    private LaneDispatcher dispatcher = null;
 
     public SwitchChannelPipeline(
             final OpenVirteXController openVirteXController,
@@ -47,7 +48,7 @@ public class SwitchChannelPipeline extends OpenflowChannelPipeline {
         this.timer = PhysicalNetwork.getTimer();
         this.idleHandler = new IdleStateHandler(this.timer, 20, 25, 0);
         this.readTimeoutHandler = new ReadTimeoutHandler(this.timer, 30);
-        this.eh = new ExecutionHandler(this.pipelineExecutor);
+        this.dispatcher = new LaneDispatcher(this.pipelineExecutor);
 
         //this.log.info("SwitchChannelPipeline created");
     }
@@ -65,7 +66,8 @@ public class SwitchChannelPipeline extends OpenflowChannelPipeline {
         pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
                 handler, this.timer, 15));
 
-        pipeline.addLast("pipelineExecutor", eh);
+        pipeline.addLast("ratelimiter", new IngressRateLimiter());
+        pipeline.addLast("pipelineExecutor", this.dispatcher);
         pipeline.addLast("handler", handler);
         return pipeline;
     }
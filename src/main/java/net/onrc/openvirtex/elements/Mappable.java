@@ -31,6 +31,7 @@ import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.exceptions.AddressMappingException;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
@@ -52,6 +53,24 @@ public interface Mappable {
      */
     public void addIP(PhysicalIPAddress physicalIP, OVXIPAddress virtualIP);
 
+    /**
+     * Gets the physical IP address of a virtual IP address of a virtual
+     * network, mapping it to the next free physical IP address of the
+     * network first if it has none.
+     *
+     * @param tenantId
+     *            the ID representing a virtual network
+     * @param virtualIP
+     *            the IP address used within the virtual network
+     * @return the physical IP address
+     * @throws NetworkMappingException
+     *             if the virtual network does not exist
+     * @throws IndexOutOfBoundException
+     *             if the virtual network has no physical IP address left
+     */
+    public int getOrAllocatePhysicalIP(int tenantId, int virtualIP)
+            throws NetworkMappingException, IndexOutOfBoundException;
+
     /**
      * Create the mapping between PhysicalSwithes and a VirtualSwitch. This
      * function takes in a list of physicalSwitches and adds to the OVXMap
@@ -120,6 +139,13 @@ public interface Mappable {
     public OVXIPAddress getVirtualIP(PhysicalIPAddress ip)
             throws AddressMappingException;
 
+    /**
+     *
+     * @param physicalIP
+     * @return Virtual IP address associated with physical IP
+     */
+    public int getVirtualIP(int physicalIP) throws AddressMappingException;
+
     /**
      * Get the virtualSwitch which has been specified by the physicalSwitch and
      * tenantId.
@@ -303,6 +329,13 @@ public interface Mappable {
      */
     public boolean hasVirtualIP(PhysicalIPAddress ip);
 
+    /**
+     * @param physicalIP
+     *            The physical IP address
+     * @return true if a mapping exists
+     */
+    public boolean hasVirtualIP(int physicalIP);
+
     /**
      * Checks if the MAC address exists in the map.
      *
@@ -20,9 +20,11 @@
 package net.onrc.openvirtex.elements;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -31,25 +33,28 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.elements.address.IPRewrite;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.address.TenantIPMap;
+import net.onrc.openvirtex.elements.datapath.FlowModCache;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PacketInCache;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.exceptions.AddressMappingException;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import net.onrc.openvirtex.routing.SwitchRoute;
+import net.onrc.openvirtex.util.ConcurrentLongIntMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.RadixTree;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
 import org.projectfloodlight.openflow.types.MacAddress;
 
 
@@ -59,6 +64,8 @@ import org.projectfloodlight.openflow.types.MacAddress;
 public class OVXMap implements Mappable {
     private static Logger log = LogManager.getLogger(OVXMap.class.getName());
     private static AtomicReference<OVXMap> mapInstance = new AtomicReference<>();
+    // returned by the MAC map for unmapped addresses; tenant IDs are positive
+    private static final int NO_TENANT = -1;
 
     private ConcurrentHashMap<OVXSwitch, ArrayList<PhysicalSwitch>> virtualSwitchMap;
     private ConcurrentHashMap<PhysicalSwitch, ConcurrentHashMap<Integer, OVXSwitch>> physicalSwitchMap;
@@ -67,9 +74,11 @@ public class OVXMap implements Mappable {
     private ConcurrentHashMap<SwitchRoute, ArrayList<PhysicalLink>> routetoPhyLinkMap;
     private ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, Set<SwitchRoute>>> phyLinktoRouteMap;
     private ConcurrentHashMap<Integer, OVXNetwork> networkMap;
-    private RadixTree<OVXIPAddress> physicalIPMap;
-    private RadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>> virtualIPMap;
-    private RadixTree<Integer> macMap;
+    // IP address mappings of each tenant, indexed by tenant ID
+    private volatile TenantIPMap[] ipMaps;
+    private final Object ipMapsLock = new Object();
+    // MAC addresses, as longs, to tenant IDs
+    private ConcurrentLongIntMap macMap;
 
     /**
      * Creates a new map instance, by initializing all mapping data structures.
@@ -82,12 +91,8 @@ public class OVXMap implements Mappable {
         this.routetoPhyLinkMap = new ConcurrentHashMap<SwitchRoute, ArrayList<PhysicalLink>>();
         this.phyLinktoRouteMap = new ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, Set<SwitchRoute>>>();
         this.networkMap = new ConcurrentHashMap<Integer, OVXNetwork>();
-        this.physicalIPMap = new ConcurrentRadixTree<OVXIPAddress>(
-                new DefaultCharArrayNodeFactory());
-        this.virtualIPMap = new ConcurrentRadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>>(
-                new DefaultCharArrayNodeFactory());
-        this.macMap = new ConcurrentRadixTree<Integer>(
-                new DefaultCharArrayNodeFactory());
+        this.ipMaps = new TenantIPMap[0];
+        this.macMap = new ConcurrentLongIntMap();
     }
 
     /**
@@ -126,6 +131,8 @@ public class OVXMap implements Mappable {
         for (final PhysicalSwitch physicalSwitch : physicalSwitches) {
             this.addSwitch(physicalSwitch, virtualSwitch);
         }
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
     }
 
     /**
@@ -158,6 +165,7 @@ public class OVXMap implements Mappable {
         for (final PhysicalLink physicalLink : physicalLinks) {
             this.addLink(physicalLink, virtualLink);
         }
+        FlowModCache.invalidate();
     }
 
     /**
@@ -177,10 +185,6 @@ public class OVXMap implements Mappable {
         this.addVirtualLink(virtualLink, physicalLink);
     }
 
-    public Iterable<CharSequence> getAllKeys() {
-        return this.virtualIPMap.getClosestKeys("");
-    }
-
     /**
      * This is the generic function which takes as arguments the
      * PhysicalIPAddress and the OVXIPAddress. This will add the value into both
@@ -195,44 +199,113 @@ public class OVXMap implements Mappable {
     @Override
     public void addIP(final PhysicalIPAddress physicalIP,
                       final OVXIPAddress virtualIP) {
-        this.addPhysicalIP(physicalIP, virtualIP);
-        this.addVirtualIP(virtualIP, physicalIP);
+        this.getOrCreateIPMap(virtualIP.getTenantId()).put(virtualIP.getIp(),
+                physicalIP.getIp());
+    }
+
+    @Override
+    public int getOrAllocatePhysicalIP(final int tenantId, final int virtualIP)
+            throws NetworkMappingException, IndexOutOfBoundException {
+        final TenantIPMap ips = this.getOrCreateIPMap(tenantId);
+        final int physicalIP = ips.getPhysicalIP(virtualIP);
+        if (physicalIP != 0) {
+            return physicalIP;
+        }
+        return this.allocatePhysicalIP(tenantId, ips, virtualIP)
+                .getPhysicalIP();
     }
 
     /**
-     * This function will create a map indexed on the key PhysicalIPAddress with
-     * value OVXIPAddress.
+     * Gets the mapping of a virtual IP address of a virtual network with its
+     * prebuilt rewriting actions, mapping the address to the next free
+     * physical IP address of the network first if it has none.
      *
-     * @param physicalIP
-     *            refers to the PhysicalIPAddress which is created using the
-     *            tenant id and virtualIP
-     * @param virtualIP
-     *            the IP address used within the VirtualNetwork
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @return the rewrite
+     * @throws NetworkMappingException if the virtual network does not exist
+     * @throws IndexOutOfBoundException if the virtual network has no
+     *             physical IP address left
      */
-    private void addPhysicalIP(final PhysicalIPAddress physicalIP,
-                               final OVXIPAddress virtualIP) {
-        this.physicalIPMap.put(physicalIP.toString(), virtualIP);
+    public IPRewrite getOrAllocateRewrite(final int tenantId,
+                                          final int virtualIP)
+            throws NetworkMappingException, IndexOutOfBoundException {
+        final TenantIPMap ips = this.getOrCreateIPMap(tenantId);
+        final IPRewrite rewrite = ips.getRewrite(virtualIP);
+        if (rewrite != null) {
+            return rewrite;
+        }
+        return this.allocatePhysicalIP(tenantId, ips, virtualIP);
     }
 
     /**
-     * Creates a map indexed on the key OVXIPAddress with
-     * value a ConcurrentHashMap mapping the tenant id to the PhysicalIPAddress.
+     * Gets the mapping of a virtual IP address of a virtual network with its
+     * prebuilt rewriting actions.
      *
-     * @param virtualIP
-     *            the IP address used within the VirtualNetwork
-     * @param physicalIP
-     *            refers to the PhysicalIPAddress which is created using the
-     *            tenant id and virtualIP
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @return the rewrite, or null if the address is not mapped
      */
-    private void addVirtualIP(final OVXIPAddress virtualIP,
-                              final PhysicalIPAddress physicalIP) {
-        ConcurrentHashMap<Integer, PhysicalIPAddress> ipMap = this.virtualIPMap
-                .getValueForExactKey(virtualIP.toString());
-        if (ipMap == null) {
-            ipMap = new ConcurrentHashMap<Integer, PhysicalIPAddress>();
-            this.virtualIPMap.put(virtualIP.toString(), ipMap);
+    public IPRewrite getRewrite(final int tenantId, final int virtualIP) {
+        final TenantIPMap ips = this.getIPMap(tenantId);
+        return ips == null ? null : ips.getRewrite(virtualIP);
+    }
+
+    private IPRewrite allocatePhysicalIP(final int tenantId,
+                                         final TenantIPMap ips,
+                                         final int virtualIP)
+            throws NetworkMappingException, IndexOutOfBoundException {
+        synchronized (ips) {
+            IPRewrite rewrite = ips.getRewrite(virtualIP);
+            if (rewrite == null) {
+                final int physicalIP = this.getVirtualNetwork(tenantId)
+                        .nextIP();
+                log.info("Adding IP mapping {} -> {} for tenant {}",
+                        new OVXIPAddress(tenantId, virtualIP),
+                        new PhysicalIPAddress(physicalIP), tenantId);
+                rewrite = ips.put(virtualIP, physicalIP);
+            }
+            return rewrite;
+        }
+    }
+
+    /**
+     * Gets a copy of the IP address mappings of a virtual network.
+     *
+     * @param tenantId the tenant ID
+     * @return map of virtual to physical IP addresses
+     */
+    public Map<Integer, Integer> getPhysicalIPs(final int tenantId) {
+        final TenantIPMap ips = this.getIPMap(tenantId);
+        return ips == null ? Collections.<Integer, Integer>emptyMap() : ips
+                .getPhysicalIPs();
+    }
+
+    /*
+     * The IP address maps are indexed by tenant ID, which is bounded by the
+     * number of virtual networks, so that they are found without boxing it.
+     */
+    private TenantIPMap getIPMap(final int tenantId) {
+        final TenantIPMap[] maps = this.ipMaps;
+        return tenantId >= 0 && tenantId < maps.length ? maps[tenantId] : null;
+    }
+
+    private TenantIPMap getOrCreateIPMap(final int tenantId) {
+        TenantIPMap ips = this.getIPMap(tenantId);
+        if (ips != null) {
+            return ips;
+        }
+        synchronized (this.ipMapsLock) {
+            TenantIPMap[] maps = this.ipMaps;
+            if (tenantId < maps.length && maps[tenantId] != null) {
+                return maps[tenantId];
+            }
+            maps = Arrays.copyOf(maps, Math.max(maps.length, tenantId + 1));
+            ips = new TenantIPMap();
+            maps[tenantId] = ips;
+            this.ipMaps = maps;
+            return ips;
         }
-        ipMap.put(virtualIP.getTenantId(), physicalIP);
     }
 
     /**
@@ -339,7 +412,8 @@ public class OVXMap implements Mappable {
 
     @Override
     public void addMAC(final MacAddress mac, final Integer tenantId) {
-        this.macMap.put(mac.toString(), tenantId);
+        this.macMap.put(mac.getLong(), tenantId);
+        PacketInCache.invalidate();
     }
 
     @Override
@@ -352,6 +426,7 @@ public class OVXMap implements Mappable {
         for (PhysicalLink l : physicalLinks) {
             this.addLinktoRoute(l, route);
         }
+        FlowModCache.invalidate();
     }
 
     /**
@@ -397,27 +472,34 @@ public class OVXMap implements Mappable {
     @Override
     public PhysicalIPAddress getPhysicalIP(final OVXIPAddress ip,
                                            final Integer tenantId) throws AddressMappingException {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(ip.toString());
+        final TenantIPMap ips = this.getIPMap(tenantId);
         if (ips == null) {
             throw new AddressMappingException(ip, PhysicalIPAddress.class);
         }
-        PhysicalIPAddress pip = ips.get(tenantId);
-        if (pip == null) {
+        final int pip = ips.getPhysicalIP(ip.getIp());
+        if (pip == 0) {
             throw new AddressMappingException(tenantId, PhysicalIPAddress.class);
         }
-        return pip;
+        return new PhysicalIPAddress(pip);
     }
 
     @Override
     public OVXIPAddress getVirtualIP(final PhysicalIPAddress ip)
             throws AddressMappingException {
-        OVXIPAddress vip = this.physicalIPMap
-                .getValueForExactKey(ip.toString());
-        if (vip == null) {
-            throw new AddressMappingException(ip, OVXIPAddress.class);
+        final int tenantId = PhysicalIPAddress.getTenantId(ip.getIp());
+        return new OVXIPAddress(tenantId, this.getVirtualIP(ip.getIp()));
+    }
+
+    @Override
+    public int getVirtualIP(final int physicalIP)
+            throws AddressMappingException {
+        final TenantIPMap ips = this.getIPMap(PhysicalIPAddress
+                .getTenantId(physicalIP));
+        if (ips == null || !ips.hasVirtualIP(physicalIP)) {
+            throw new AddressMappingException(new PhysicalIPAddress(
+                    physicalIP), OVXIPAddress.class);
         }
-        return vip;
+        return ips.getVirtualIP(physicalIP);
     }
 
     /**
@@ -538,12 +620,12 @@ public class OVXMap implements Mappable {
 
     @Override
     public Integer getMAC(final MacAddress mac) throws AddressMappingException {
-        Integer macint = this.macMap.getValueForExactKey(mac.toString());       //origin mac.toStringNoColon()
-        if (macint == null) {
+        final int tenantId = this.macMap.get(mac.getLong(), NO_TENANT);
+        if (tenantId == NO_TENANT) {
             throw new AddressMappingException("Given Key " + mac
                     + " not mapped to any values");
         }
-        return macint;
+        return tenantId;
     }
 
     @Override
@@ -563,6 +645,8 @@ public class OVXMap implements Mappable {
         if (this.networkMap.get(tenantId) != null) {
             this.networkMap.remove(tenantId);
         }
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
     }
 
     /**
@@ -583,6 +667,7 @@ public class OVXMap implements Mappable {
             }
             this.virtualLinkMap.remove(virtualLink);
         }
+        FlowModCache.invalidate();
     }
 
     @Override
@@ -595,6 +680,7 @@ public class OVXMap implements Mappable {
         this.removePhysicalLink(rmap, this.routetoPhyLinkMap, physicalLink);
         this.physicalLinkMap.remove(physicalLink);
         this.phyLinktoRouteMap.remove(physicalLink);
+        FlowModCache.invalidate();
     }
 
     /**
@@ -634,22 +720,20 @@ public class OVXMap implements Mappable {
             }
             this.virtualSwitchMap.remove(virtualSwitch);
         }
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
     }
 
     @Override
     public void removeVirtualIPs(int tenantId) {
-        ArrayList<String> physicalIPs = new ArrayList<String>();
-        for (ConcurrentHashMap<Integer, PhysicalIPAddress> map : virtualIPMap
-                .getValuesForKeysStartingWith("")) {
-            if (map.containsKey(tenantId)) {
-                physicalIPs.add(map.get(tenantId).toString());
-                map.remove(tenantId);
+        synchronized (this.ipMapsLock) {
+            if (tenantId >= 0 && tenantId < this.ipMaps.length) {
+                final TenantIPMap[] maps = this.ipMaps.clone();
+                maps[tenantId] = null;
+                this.ipMaps = maps;
             }
         }
-
-        for (String physicalIP : physicalIPs) {
-            physicalIPMap.remove(physicalIP);
-        }
+        FlowModCache.invalidate();
     }
 
     /**
@@ -658,7 +742,9 @@ public class OVXMap implements Mappable {
      * @param mac the MAC address
      */
     public void removeMAC(final MacAddress mac) {
-        this.macMap.remove(mac.toString());
+        this.macMap.remove(mac.getLong());
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
     }
 
     @Override
@@ -697,6 +783,7 @@ public class OVXMap implements Mappable {
             removeRoute(l, tid, route);
         }
         this.routetoPhyLinkMap.remove(route);
+        FlowModCache.invalidate();
     }
 
     /**
@@ -749,6 +836,8 @@ public class OVXMap implements Mappable {
             }
         }
         this.physicalSwitchMap.remove(physicalSwitch);
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
     }
 
     // Below: helper functions needed to avoid using error exception for flow control
@@ -762,14 +851,20 @@ public class OVXMap implements Mappable {
      * @return true if the mapping exists, false otherwise
      */
     public boolean hasPhysicalIP(OVXIPAddress vip, Integer tenantId) {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(vip.toString());
-        return (ips != null) && (ips.get(tenantId) != null);
+        final TenantIPMap ips = this.getIPMap(tenantId);
+        return (ips != null) && (ips.getPhysicalIP(vip.getIp()) != 0);
     }
 
     @Override
     public boolean hasVirtualIP(PhysicalIPAddress ip) {
-        return this.physicalIPMap.getValueForExactKey(ip.toString()) != null;
+        return this.hasVirtualIP(ip.getIp());
+    }
+
+    @Override
+    public boolean hasVirtualIP(final int physicalIP) {
+        final TenantIPMap ips = this.getIPMap(PhysicalIPAddress
+                .getTenantId(physicalIP));
+        return (ips != null) && ips.hasVirtualIP(physicalIP);
     }
 
     /**
@@ -779,7 +874,21 @@ public class OVXMap implements Mappable {
      * @return true if the MAC is registered, false otherwise
      */
     public boolean hasMAC(MacAddress mac) {
-        return this.macMap.getValueForExactKey(mac.toString()) != null;
+        return this.macMap.containsKey(mac.getLong());
+    }
+
+    /**
+     * Gets a copy of the MAC address to tenant ID mappings.
+     *
+     * @return map of MAC addresses to tenant IDs
+     */
+    public Map<MacAddress, Integer> getMACs() {
+        final Map<MacAddress, Integer> macs = new HashMap<MacAddress, Integer>();
+        for (Map.Entry<Long, Integer> entry : this.macMap.snapshot()
+                .entrySet()) {
+            macs.put(MacAddress.of(entry.getKey()), entry.getValue());
+        }
+        return macs;
     }
 
     /**
@@ -22,20 +22,16 @@ package net.onrc.openvirtex.elements.address;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.messages.OVXMessageUtil;
 import net.onrc.openvirtex.messages.actions.OVXActionSetNwSrc;
 import net.onrc.openvirtex.messages.actions.OVXActionSetNwDst;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 
-import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
-import net.onrc.openvirtex.exceptions.AddressMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import org.projectfloodlight.openflow.protocol.OFFactories;
-import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.protocol.action.*;
 import org.projectfloodlight.openflow.protocol.match.Match;
@@ -58,192 +54,139 @@ public final class IPMapper {
     private IPMapper() {
     }
 
-    public static Integer getPhysicalIp(Integer tenantId, Integer virtualIP) {
-
-        final Mappable map = OVXMap.getInstance();
-        final OVXIPAddress vip = new OVXIPAddress(tenantId, virtualIP);
+    /**
+     * Gets the physical IP address of a virtual IP address of a tenant,
+     * allocating one if it has none.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @return the physical IP address, or 0 if none could be allocated
+     */
+    public static int getPhysicalIp(final Integer tenantId, final int virtualIP) {
         try {
-            PhysicalIPAddress pip;
-            if (map.hasPhysicalIP(vip, tenantId)) {
-                pip = map.getPhysicalIP(vip, tenantId);
-
-                log.debug("tenantId[" + tenantId + "] has " + vip.toString()
-                + " -> " + pip.toString());
-
-            } else {
-                pip = new PhysicalIPAddress(map.getVirtualNetwork(tenantId)
-                        .nextIP());
-                log.info("Adding IP mapping {} -> {} for tenant {}", vip, pip,
-                        tenantId);
-                map.addIP(pip, vip);
-            }
-            return pip.getIp();
+            return OVXMap.getInstance().getOrAllocatePhysicalIP(tenantId,
+                    virtualIP);
         } catch (IndexOutOfBoundException e) {
             log.error(
                     "No available physical IPs for virtual ip {} in tenant {}",
-                    vip, tenantId);
+                    new OVXIPAddress(tenantId, virtualIP), tenantId);
         } catch (NetworkMappingException e) {
             log.error(e);
-        } catch (AddressMappingException e) {
-            log.error("Inconsistency in Physical-Virtual mapping : {}", e);
         }
         return 0;
     }
 
-    public static synchronized Match rewriteMatch(final Integer tenantId, final Match match) {
-        Match temp = match.createBuilder().build();
-
-        if(match.get(MatchField.IPV4_SRC) != null)
-        {
-            temp = OVXMessageUtil.updateMatch(temp,
-                    temp.createBuilder()
-                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
-                            .setExact(MatchField.IPV4_SRC,
-                                    IPv4Address.of(getPhysicalIp(tenantId, match.get(MatchField.IPV4_SRC).getInt())))
-                            .build());
+    /**
+     * Rewrites the IPv4 addresses of a match to the physical addresses of the
+     * tenant. Takes no lock unless a physical address has to be allocated,
+     * in which case only allocations for the same tenant are serialized.
+     *
+     * @param tenantId the tenant ID
+     * @param match the virtual match
+     * @return the physical match
+     */
+    public static Match rewriteMatch(final Integer tenantId, final Match match) {
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (src == null && dst == null) {
+            return match;
         }
-
-        if(match.get(MatchField.IPV4_DST) != null)
-        {
-            temp = OVXMessageUtil.updateMatch(temp,
-                    temp.createBuilder()
-                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
-                            .setExact(MatchField.IPV4_DST,
-                                    IPv4Address.of(getPhysicalIp(tenantId, match.get(MatchField.IPV4_DST).getInt())))
-                    .build());
+        final Match.Builder builder = match.createBuilder()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4);
+        if (src != null) {
+            builder.setExact(MatchField.IPV4_SRC,
+                    IPv4Address.of(getPhysicalIp(tenantId, src.getInt())));
         }
-        return temp;
-    }
-
-
-    public static List<OFAction> prependRewriteActions(final Integer tenantId,
-                                                       final Match match) {
-        if(match.getVersion() == OFVersion.OF_10)
-            return prependRewriteActionsVer10(tenantId, match);
-        else
-            return prependRewriteActionsVer13(tenantId, match);
-
-
+        if (dst != null) {
+            builder.setExact(MatchField.IPV4_DST,
+                    IPv4Address.of(getPhysicalIp(tenantId, dst.getInt())));
+        }
+        return builder.build();
     }
 
-    public static List<OFAction> prependRewriteActionsVer13(final Integer tenantId,
-                                                            final Match match) {
-        final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFFactory factory = OFFactories.getFactory(match.getVersion());
 
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if ( match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetField ofActionSetField  = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Src(IPv4Address.of(
-                                getPhysicalIp(tenantId,
-                                        match.get(MatchField.IPV4_SRC).getInt()))))
-                        .build();
-                actions.add(ofActionSetField);
-            }
+    /**
+     * Gets the action rewriting the source or destination address of a
+     * packet from a virtual IP address of a tenant to its physical IP
+     * address, allocating one if it has none. The action is prebuilt when
+     * the mapping is created.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @param source true for the source address, false for the destination
+     * @param version the OpenFlow version of the action
+     * @return the action
+     */
+    public static OFAction getRewriteAction(final Integer tenantId,
+                                            final int virtualIP,
+                                            final boolean source,
+                                            final OFVersion version) {
+        try {
+            return OVXMap.getInstance().getOrAllocateRewrite(tenantId,
+                    virtualIP).getRewriteAction(version, source);
+        } catch (IndexOutOfBoundException e) {
+            log.error(
+                    "No available physical IPs for virtual ip {} in tenant {}",
+                    new OVXIPAddress(tenantId, virtualIP), tenantId);
+        } catch (NetworkMappingException e) {
+            log.error(e);
         }
+        return IPRewrite.buildAction(OFFactories.getFactory(version), source,
+                0);
+    }
 
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetField ofActionSetField = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Dst(IPv4Address.of(
-                                getPhysicalIp(tenantId,
-                                        match.get(MatchField.IPV4_DST).getInt()))))
-                        .build();
-                actions.add(ofActionSetField);
-            }
+    /**
+     * Gets the action rewriting the source or destination address of a
+     * packet back to a virtual IP address of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @param source true for the source address, false for the destination
+     * @param version the OpenFlow version of the action
+     * @return the action
+     */
+    public static OFAction getUnRewriteAction(final Integer tenantId,
+                                              final int virtualIP,
+                                              final boolean source,
+                                              final OFVersion version) {
+        final IPRewrite rewrite = OVXMap.getInstance().getRewrite(tenantId,
+                virtualIP);
+        if (rewrite == null) {
+            return IPRewrite.buildAction(OFFactories.getFactory(version),
+                    source, virtualIP);
         }
-        return actions;
+        return rewrite.getUnRewriteAction(version, source);
     }
 
-
-    public static List<OFAction> prependRewriteActionsVer10(final Integer tenantId,
+    public static List<OFAction> prependRewriteActions(final Integer tenantId,
                                                        final Match match) {
         final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFActions action = OFFactories.getFactory(match.getVersion()).actions();
-
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if ( match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetNwSrc ofActionSetNwSrc = action.buildSetNwSrc()
-                        .setNwAddr(IPv4Address.of(getPhysicalIp(tenantId,
-                                match.get(MatchField.IPV4_SRC).getInt())))
-                        .build();
-                //final OVXActionSetNwSrc srcAct = new OVXActionSetNwSrc(ofActionSetNwSrc);
-                actions.add(ofActionSetNwSrc);
-            }
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        if (src != null && src.getInt() != 0) {
+            actions.add(getRewriteAction(tenantId, src.getInt(), true,
+                    match.getVersion()));
         }
-
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetNwDst ofActionSetNwDst = action.buildSetNwDst()
-                        .setNwAddr(IPv4Address.of(getPhysicalIp(tenantId,
-                                match.get(MatchField.IPV4_DST).getInt())))
-                        .build();
-                //final OVXActionSetNwDst dstAct = new OVXActionSetNwDst(ofActionSetNwDst);
-                actions.add(ofActionSetNwDst);
-            }
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (dst != null && dst.getInt() != 0) {
+            actions.add(getRewriteAction(tenantId, dst.getInt(), false,
+                    match.getVersion()));
         }
         return actions;
     }
 
-    public static List<OFAction> prependUnRewriteActions(final Match match) {
-        if(match.getVersion() == OFVersion.OF_10)
-            return prependUnRewriteActionsVer10(match);
-        else
-            return prependUnRewriteActionsVer13(match);
-
-    }
-    public static List<OFAction> prependUnRewriteActionsVer13(final Match match) {
+    public static List<OFAction> prependUnRewriteActions(final Integer tenantId,
+                                                         final Match match) {
         final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFFactory factory = OFFactories.getFactory(match.getVersion());
-
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if(match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetField ofActionSetField  = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Src(match.get(MatchField.IPV4_SRC)))
-                        .build();
-                actions.add(ofActionSetField);
-            }
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        if (src != null && src.getInt() != 0) {
+            actions.add(getUnRewriteAction(tenantId, src.getInt(), true,
+                    match.getVersion()));
         }
-
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetField ofActionSetField  = factory.actions().buildSetField()
-                        .setField(factory.oxms().ipv4Dst(match.get(MatchField.IPV4_DST)))
-                        .build();
-                actions.add(ofActionSetField);
-            }
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (dst != null && dst.getInt() != 0) {
+            actions.add(getUnRewriteAction(tenantId, dst.getInt(), false,
+                    match.getVersion()));
         }
         return actions;
     }
-
-    public static List<OFAction> prependUnRewriteActionsVer10(final Match match) {
-        final List<OFAction> actions = new LinkedList<OFAction>();
-
-        OFActions action = OFFactories.getFactory(match.getVersion()).actions();
-
-
-        if (match.get(MatchField.IPV4_SRC) != null) {
-            if(match.get(MatchField.IPV4_SRC).getInt() != 0) {
-                OFActionSetNwSrc ofActionSetNwSrc = action.buildSetNwSrc()
-                        .setNwAddr(match.get(MatchField.IPV4_SRC))
-                        .build();
-//                final OVXActionSetNwSrc srcAct = new OVXActionSetNwSrc(ofActionSetNwSrc);
-                actions.add(ofActionSetNwSrc);
-            }
-        }
-
-        if (match.get(MatchField.IPV4_DST) != null) {
-            if(match.get(MatchField.IPV4_DST).getInt() != 0) {
-                OFActionSetNwDst ofActionSetNwDst = action.buildSetNwDst()
-                        .setNwAddr(match.get(MatchField.IPV4_DST))
-                        .build();
-//                final OVXActionSetNwDst dstAct = new OVXActionSetNwDst(ofActionSetNwDst);
-                actions.add(ofActionSetNwDst);
-            }
-        }
-         return actions;
-    }
 }
@@ -0,0 +1,133 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.IPv4Address;
+
+/**
+ * The mapping of a virtual IP address of a tenant to its physical IP
+ * address, with the actions rewriting a packet's source or destination
+ * address from one to the other built once, for OpenFlow 1.0 and 1.3, when
+ * the mapping is created. Loxi actions are immutable, so they are shared by
+ * every flow mod and packet-out that uses them.
+ */
+public final class IPRewrite {
+
+    private static final int SRC = 0;
+    private static final int DST = 1;
+    private static final int UNREWRITE = 2;
+
+    private final int virtualIP;
+    private final int physicalIP;
+    // set nw src/dst to the physical, then to the virtual address
+    private final OFAction[] actions10;
+    private final OFAction[] actions13;
+
+    IPRewrite(final int virtualIP, final int physicalIP) {
+        this.virtualIP = virtualIP;
+        this.physicalIP = physicalIP;
+        this.actions10 = this.buildActions(OFFactories
+                .getFactory(OFVersion.OF_10));
+        this.actions13 = this.buildActions(OFFactories
+                .getFactory(OFVersion.OF_13));
+    }
+
+    private OFAction[] buildActions(final OFFactory factory) {
+        return new OFAction[] {
+                IPRewrite.buildAction(factory, true, this.physicalIP),
+                IPRewrite.buildAction(factory, false, this.physicalIP),
+                IPRewrite.buildAction(factory, true, this.virtualIP),
+                IPRewrite.buildAction(factory, false, this.virtualIP)};
+    }
+
+    public int getVirtualIP() {
+        return this.virtualIP;
+    }
+
+    public int getPhysicalIP() {
+        return this.physicalIP;
+    }
+
+    /**
+     * Gets the action setting the source or destination address of a packet
+     * to the physical IP address.
+     *
+     * @param version the OpenFlow version of the action
+     * @param source true for the source address, false for the destination
+     * @return the action
+     */
+    public OFAction getRewriteAction(final OFVersion version,
+                                     final boolean source) {
+        return this.getAction(version, source ? SRC : DST, this.physicalIP);
+    }
+
+    /**
+     * Gets the action setting the source or destination address of a packet
+     * back to the virtual IP address.
+     *
+     * @param version the OpenFlow version of the action
+     * @param source true for the source address, false for the destination
+     * @return the action
+     */
+    public OFAction getUnRewriteAction(final OFVersion version,
+                                       final boolean source) {
+        return this.getAction(version, UNREWRITE + (source ? SRC : DST),
+                this.virtualIP);
+    }
+
+    private OFAction getAction(final OFVersion version, final int index,
+                               final int ip) {
+        switch (version) {
+            case OF_10:
+                return this.actions10[index];
+            case OF_13:
+                return this.actions13[index];
+            default:
+                return IPRewrite.buildAction(OFFactories.getFactory(version),
+                        (index & 1) == SRC, ip);
+        }
+    }
+
+    /**
+     * Builds an action setting the source or destination IPv4 address of a
+     * packet.
+     *
+     * @param factory the factory of the OpenFlow version of the action
+     * @param source true for the source address, false for the destination
+     * @param ip the address
+     * @return the action
+     */
+    public static OFAction buildAction(final OFFactory factory,
+                                       final boolean source, final int ip) {
+        final IPv4Address address = IPv4Address.of(ip);
+        if (factory.getVersion() == OFVersion.OF_10) {
+            return source ? factory.actions().buildSetNwSrc()
+                    .setNwAddr(address).build() : factory.actions()
+                    .buildSetNwDst().setNwAddr(address).build();
+        }
+        return factory.actions().buildSetField()
+                .setField(source ? factory.oxms().ipv4Src(address) : factory
+                        .oxms().ipv4Dst(address)).build();
+    }
+}
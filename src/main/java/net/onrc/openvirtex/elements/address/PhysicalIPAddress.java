@@ -32,7 +32,18 @@ public class PhysicalIPAddress extends IPAddress {
     }
 
     public Integer getTenantId() {
-        return ip >> (32 - OpenVirteXController.getInstance()
+        return PhysicalIPAddress.getTenantId(this.ip);
+    }
+
+    /**
+     * Gets the ID of the tenant a physical IP address was allocated to,
+     * which is held in its upper bits.
+     *
+     * @param ip the physical IP address
+     * @return the tenant ID
+     */
+    public static int getTenantId(final int ip) {
+        return ip >>> (32 - OpenVirteXController.getInstance()
                 .getNumberVirtualNets());
     }
 
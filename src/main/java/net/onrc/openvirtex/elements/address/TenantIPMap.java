@@ -0,0 +1,141 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.onrc.openvirtex.util.ConcurrentLongIntMap;
+
+/**
+ * The mappings between the virtual IP addresses of a tenant and the physical
+ * IP addresses standing for them, in both directions, keyed by the addresses
+ * as primitive ints. Lookups take no lock and do not allocate.
+ *
+ * Physical IP addresses are never 0, as they hold the tenant ID in their
+ * upper bits, so 0 stands for an unmapped virtual IP address.
+ *
+ * Each mapping also has its {@link IPRewrite}, holding the prebuilt address
+ * rewriting actions; it is found through a slot index kept by virtual IP
+ * address, so looking it up does not allocate either. The rewrites go away
+ * with the map when the tenant's addresses are unmapped.
+ */
+public final class TenantIPMap {
+
+    private static final long UNSIGNED = 0xffffffffL;
+
+    // virtual to physical
+    private final ConcurrentLongIntMap physicalIPs = new ConcurrentLongIntMap();
+    // physical to virtual
+    private final ConcurrentLongIntMap virtualIPs = new ConcurrentLongIntMap();
+    // virtual to index in rewrites
+    private final ConcurrentLongIntMap slots = new ConcurrentLongIntMap();
+    private volatile AtomicReferenceArray<IPRewrite> rewrites = new AtomicReferenceArray<IPRewrite>(
+            16);
+    // guarded by this
+    private int nextSlot;
+
+    /**
+     * Gets the physical IP address of a virtual IP address.
+     *
+     * @param virtualIP the virtual IP address
+     * @return the physical IP address, or 0 if it is not mapped
+     */
+    public int getPhysicalIP(final int virtualIP) {
+        return this.physicalIPs.get(virtualIP & UNSIGNED, 0);
+    }
+
+    /**
+     * Checks if a physical IP address is mapped.
+     *
+     * @param physicalIP the physical IP address
+     * @return true if the physical IP address is mapped
+     */
+    public boolean hasVirtualIP(final int physicalIP) {
+        return this.virtualIPs.containsKey(physicalIP & UNSIGNED);
+    }
+
+    /**
+     * Gets the virtual IP address of a mapped physical IP address.
+     *
+     * @param physicalIP the physical IP address
+     * @return the virtual IP address, or 0 if it is not mapped
+     */
+    public int getVirtualIP(final int physicalIP) {
+        return this.virtualIPs.get(physicalIP & UNSIGNED, 0);
+    }
+
+    /**
+     * Gets the mapping of a virtual IP address with its rewriting actions.
+     *
+     * @param virtualIP the virtual IP address
+     * @return the rewrite, or null if the address is not mapped
+     */
+    public IPRewrite getRewrite(final int virtualIP) {
+        final int slot = this.slots.get(virtualIP & UNSIGNED, -1);
+        return slot < 0 ? null : this.rewrites.get(slot);
+    }
+
+    /**
+     * Maps a virtual IP address to a physical IP address, in both
+     * directions, and builds the actions rewriting one to the other.
+     *
+     * @param virtualIP the virtual IP address
+     * @param physicalIP the physical IP address
+     * @return the rewrite
+     */
+    public synchronized IPRewrite put(final int virtualIP, final int physicalIP) {
+        final IPRewrite rewrite = new IPRewrite(virtualIP, physicalIP);
+        int slot = this.slots.get(virtualIP & UNSIGNED, -1);
+        if (slot < 0) {
+            slot = this.nextSlot++;
+            if (slot == this.rewrites.length()) {
+                final AtomicReferenceArray<IPRewrite> grown = new AtomicReferenceArray<IPRewrite>(
+                        slot * 2);
+                for (int i = 0; i < slot; i++) {
+                    grown.set(i, this.rewrites.get(i));
+                }
+                this.rewrites = grown;
+            }
+        }
+        this.rewrites.set(slot, rewrite);
+        this.slots.put(virtualIP & UNSIGNED, slot);
+        // the reverse mapping first, so packets to the physical IP address
+        // can be translated once flows are installed with it
+        this.virtualIPs.put(physicalIP & UNSIGNED, virtualIP);
+        this.physicalIPs.put(virtualIP & UNSIGNED, physicalIP);
+        return rewrite;
+    }
+
+    /**
+     * Gets a copy of the mappings.
+     *
+     * @return map of virtual to physical IP addresses
+     */
+    public Map<Integer, Integer> getPhysicalIPs() {
+        final Map<Integer, Integer> ips = new HashMap<Integer, Integer>();
+        for (Map.Entry<Long, Integer> entry : this.physicalIPs.snapshot()
+                .entrySet()) {
+            ips.put(entry.getKey().intValue(), entry.getValue());
+        }
+        return ips;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Implements barriers sent by controllers to a virtual switch.
+ *
+ * A virtual barrier is answered once every physical switch the virtual
+ * switch has sent messages to since the previous barrier has answered a
+ * barrier of its own, and once the flow installs started before it and
+ * still held back by {@link FlowInstaller} have been sent. Replies are sent
+ * in the order the barriers were received. If the physical switches do not
+ * reply within the install timeout, the virtual barrier is answered anyway.
+ */
+public class BarrierAggregator {
+
+    private static Logger log = LogManager.getLogger(BarrierAggregator.class
+            .getName());
+
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final AtomicLong LOCAL = new AtomicLong();
+    private static final AtomicLong FANNED_OUT = new AtomicLong();
+    private static final AtomicLong TIMED_OUT = new AtomicLong();
+
+    private final OVXSwitch vsw;
+    // physical switches sent messages since the last barrier was fanned out
+    private final Set<PhysicalSwitch> touched = Collections
+            .newSetFromMap(new ConcurrentHashMap<PhysicalSwitch, Boolean>());
+
+    // guarded by this
+    private final Deque<Pending> barriers = new ArrayDeque<Pending>();
+    private final TreeSet<Long> installs = new TreeSet<Long>();
+    private long nextInstall = 0;
+
+    /**
+     * A virtual barrier waiting to be answered.
+     */
+    private final class Pending implements TimerTask {
+        private final Runnable reply;
+        // installs with a lower ticket must have been sent first
+        private final long installMark;
+        private boolean fannedOut = false;
+        private boolean done = false;
+        private int remaining;
+        private int[] xids;
+        private List<PhysicalSwitch> switches;
+        private Timeout timer;
+
+        private Pending(final Runnable reply, final long installMark) {
+            this.reply = reply;
+            this.installMark = installMark;
+        }
+
+        @Override
+        public void run(final Timeout t) {
+            synchronized (BarrierAggregator.this) {
+                if (this.done) {
+                    return;
+                }
+                TIMED_OUT.incrementAndGet();
+                log.warn("Barrier replies from {} for virtual switch {} not "
+                        + "received in time, answering barrier anyway",
+                        this.switches, BarrierAggregator.this.vsw
+                                .getSwitchName());
+                for (int i = 0; i < this.xids.length; i++) {
+                    if (this.xids[i] >= 0) {
+                        this.switches.get(i).cancelBarrier(this.xids[i]);
+                    }
+                }
+                this.done = true;
+                BarrierAggregator.this.advance();
+            }
+        }
+    }
+
+    /**
+     * Creates the barrier state of a virtual switch.
+     *
+     * @param vsw the virtual switch
+     */
+    public BarrierAggregator(final OVXSwitch vsw) {
+        this.vsw = vsw;
+    }
+
+    /**
+     * Records that a message was sent to a physical switch on behalf of the
+     * virtual switch.
+     *
+     * @param psw the physical switch
+     */
+    public void touch(final PhysicalSwitch psw) {
+        this.touched.add(psw);
+    }
+
+    /**
+     * Records that a flow install was deferred until barrier replies arrive.
+     *
+     * @return a ticket to pass to {@link #installDone(long)}
+     */
+    public synchronized long installStarted() {
+        final long ticket = this.nextInstall++;
+        this.installs.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Records that a deferred flow install has been sent.
+     *
+     * @param ticket the ticket returned by {@link #installStarted()}
+     */
+    public synchronized void installDone(final long ticket) {
+        this.installs.remove(ticket);
+        this.advance();
+    }
+
+    /**
+     * Handles a barrier from a controller.
+     *
+     * @param reply sends the barrier reply to the controller
+     */
+    public synchronized void barrier(final Runnable reply) {
+        REQUESTS.incrementAndGet();
+        this.barriers.add(new Pending(reply, this.nextInstall));
+        this.advance();
+    }
+
+    /*
+     * Fans out the barriers whose installs have been sent, then answers the
+     * completed barriers at the head of the queue.
+     */
+    private void advance() {
+        final long oldest = this.installs.isEmpty() ? Long.MAX_VALUE
+                : this.installs.first();
+        for (final Pending p : this.barriers) {
+            if (p.installMark > oldest) {
+                // later barriers wait too, to keep the replies in order
+                break;
+            }
+            if (!p.fannedOut) {
+                this.fanOut(p);
+            }
+        }
+        while (!this.barriers.isEmpty() && this.barriers.peek().done) {
+            final Pending p = this.barriers.poll();
+            if (p.timer != null) {
+                p.timer.cancel();
+            }
+            try {
+                p.reply.run();
+            } catch (final RuntimeException e) {
+                log.error("Could not send barrier reply for virtual switch {}: {}",
+                        this.vsw.getSwitchName(), e);
+            }
+        }
+    }
+
+    private void fanOut(final Pending p) {
+        p.fannedOut = true;
+        p.switches = new ArrayList<PhysicalSwitch>(this.touched);
+        this.touched.removeAll(p.switches);
+        p.xids = new int[p.switches.size()];
+        if (p.switches.isEmpty()) {
+            LOCAL.incrementAndGet();
+            p.done = true;
+            return;
+        }
+        FANNED_OUT.incrementAndGet();
+        p.timer = PhysicalNetwork.getTimer().newTimeout(p,
+                FlowInstaller.getTimeout(), TimeUnit.MILLISECONDS);
+        p.remaining = p.switches.size();
+        for (int i = 0; i < p.xids.length; i++) {
+            p.xids[i] = p.switches.get(i).sendBarrier(new Runnable() {
+                @Override
+                public void run() {
+                    BarrierAggregator.this.arrived(p);
+                }
+            });
+            if (p.xids[i] < 0) {
+                // not connected; nothing to wait for
+                p.remaining--;
+            }
+        }
+        if (p.remaining == 0) {
+            p.done = true;
+        }
+    }
+
+    private synchronized void arrived(final Pending p) {
+        if (!p.done && --p.remaining == 0) {
+            p.done = true;
+            this.advance();
+        }
+    }
+
+    /**
+     * Gets the barrier counters aggregated over all virtual switches.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("requests", REQUESTS.get());
+        stats.put("local", LOCAL.get());
+        stats.put("fannedOut", FANNED_OUT.get());
+        stats.put("timedOut", TIMED_OUT.get());
+        return stats;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpDscp;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFValueType;
+import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.TransportPort;
+import org.projectfloodlight.openflow.types.VlanPcp;
+
+/**
+ * A match reduced to the fields flow entries are compared on: a bitmask of
+ * the fields that are set, and their values and masks packed into longs.
+ * Built once per match, so comparing flow entries neither allocates nor
+ * goes through {@link Match#get} again.
+ *
+ * Two compiled matches are equal if their matches set the same fields to
+ * the same values and masks. Unlike {@link Match#equals}, this ignores
+ * whatever an OF1.0 match carries in the fields it wildcards.
+ */
+public final class CompiledMatch {
+
+    /**
+     * Fields a match is compiled on; bit i of {@link #getPresent()} stands
+     * for FIELDS[i].
+     */
+    static final MatchField<?>[] FIELDS = {MatchField.IN_PORT,
+            MatchField.ETH_DST, MatchField.ETH_SRC, MatchField.ETH_TYPE,
+            MatchField.VLAN_VID, MatchField.VLAN_PCP, MatchField.IP_PROTO,
+            MatchField.IP_DSCP, MatchField.IPV4_DST, MatchField.IPV4_SRC,
+            MatchField.TCP_DST, MatchField.TCP_SRC};
+
+    private static final long EXACT = -1L;
+
+    private final Match match;
+    private final int present;
+    private final long[] values = new long[FIELDS.length];
+    private final long[] masks = new long[FIELDS.length];
+    private final int hash;
+
+    private CompiledMatch(final Match match) {
+        this.match = match;
+        int bits = 0;
+        for (int i = 0; i < FIELDS.length; i++) {
+            final OFValueType<?> value = match.get(FIELDS[i]);
+            if (value == null) {
+                continue;
+            }
+            bits |= 1 << i;
+            this.values[i] = CompiledMatch.pack(i, value);
+            this.masks[i] = match.isPartiallyMasked(FIELDS[i]) ? CompiledMatch
+                    .pack(i, match.getMasked(FIELDS[i]).getMask()) : EXACT;
+        }
+        this.present = bits;
+        int h = bits;
+        for (int i = 0; i < FIELDS.length; i++) {
+            h = 31 * h + (int) (this.values[i] ^ this.values[i] >>> 32);
+            h = 31 * h + (int) (this.masks[i] ^ this.masks[i] >>> 32);
+        }
+        this.hash = h;
+    }
+
+    /**
+     * Compiles a match.
+     *
+     * @param match the match
+     * @return the compiled match
+     */
+    public static CompiledMatch of(final Match match) {
+        return new CompiledMatch(match);
+    }
+
+    private static long pack(final int field, final Object value) {
+        switch (field) {
+            case 0:
+                return ((OFPort) value).getPortNumber();
+            case 1:
+            case 2:
+                return ((MacAddress) value).getLong();
+            case 3:
+                return ((EthType) value).getValue();
+            case 4:
+                return ((OFVlanVidMatch) value).getRawVid();
+            case 5:
+                return ((VlanPcp) value).getValue();
+            case 6:
+                return ((IpProtocol) value).getIpProtocolNumber();
+            case 7:
+                return ((IpDscp) value).getDscpValue();
+            case 8:
+            case 9:
+                return ((IPv4Address) value).getInt();
+            default:
+                return ((TransportPort) value).getPort();
+        }
+    }
+
+    /**
+     * Gets the original match.
+     *
+     * @return the match
+     */
+    public Match getMatch() {
+        return this.match;
+    }
+
+    /**
+     * Gets the fields that are set, one bit per compiled field.
+     *
+     * @return the presence bitmask
+     */
+    public int getPresent() {
+        return this.present;
+    }
+
+    /**
+     * Gets the packed value of a field.
+     *
+     * @param field the index of the field
+     * @return the value, 0 if the field is not set
+     */
+    long getValue(final int field) {
+        return this.values[field];
+    }
+
+    /**
+     * Checks whether this match and another set the given fields to the same
+     * values. Masks are not taken into account, as in
+     * {@link OVXFlowEntry#compare}.
+     *
+     * @param other the other match
+     * @param fields bitmask of the fields to check
+     * @return true if all fields have the same value
+     */
+    public boolean agrees(final CompiledMatch other, final int fields) {
+        for (int bits = fields; bits != 0; bits &= bits - 1) {
+            final int i = Integer.numberOfTrailingZeros(bits);
+            if (this.values[i] != other.values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether this match and another set the same fields to the same
+     * values and masks. Necessary, but not sufficient, for the matches to be
+     * equal: fields that are not compiled are not compared.
+     *
+     * @param other the other match
+     * @return true if the compiled fields are identical
+     */
+    public boolean sameFields(final CompiledMatch other) {
+        if (this.present != other.present || !this.agrees(other, this.present)) {
+            return false;
+        }
+        for (int bits = this.present; bits != 0; bits &= bits - 1) {
+            final int i = Integer.numberOfTrailingZeros(bits);
+            if (this.masks[i] != other.masks[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the fields set by the matches that are not compiled
+     * are also set to the same values and masks. Wildcarded fields are not
+     * reported by {@link Match#getMatchFields()}, so their contents are
+     * never looked at.
+     */
+    private boolean sameOtherFields(final CompiledMatch other) {
+        int count = 0;
+        for (final MatchField<?> field : this.match.getMatchFields()) {
+            if (CompiledMatch.isCompiled(field)) {
+                continue;
+            }
+            count++;
+            if (!CompiledMatch.sameField(this.match, other.match, field)) {
+                return false;
+            }
+        }
+        for (final MatchField<?> field : other.match.getMatchFields()) {
+            if (!CompiledMatch.isCompiled(field)) {
+                count--;
+            }
+        }
+        return count == 0;
+    }
+
+    private static boolean isCompiled(final MatchField<?> field) {
+        for (final MatchField<?> compiled : FIELDS) {
+            if (compiled == field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <F extends OFValueType<F>> boolean sameField(
+            final Match a, final Match b, final MatchField<F> field) {
+        if (a.isPartiallyMasked(field) || b.isPartiallyMasked(field)) {
+            return a.isPartiallyMasked(field) && b.isPartiallyMasked(field)
+                    && a.getMasked(field).equals(b.getMasked(field));
+        }
+        final F value = a.get(field);
+        return value != null && value.equals(b.get(field));
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CompiledMatch)) {
+            return false;
+        }
+        final CompiledMatch other = (CompiledMatch) obj;
+        return this.hash == other.hash && this.sameFields(other)
+                && this.sameOtherFields(other);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocates the physical cookies of the flow entries of a tenant. A cookie
+ * holds the tenant ID in its upper 32 bits and a flow ID in its lower 32
+ * bits; flow IDs are unique across all virtual switches of the tenant, as
+ * their flows can share physical switches.
+ *
+ * Flow IDs of deleted entries are recycled through a bounded ring, oldest
+ * first, and new ones are taken from a counter once the ring is empty. The
+ * ring is a lock-free multi-producer multi-consumer queue of primitive ints
+ * (each slot carries a sequence number telling producers and consumers
+ * whose turn it is), so neither allocating nor freeing takes a lock or
+ * boxes. Flow ID 0 is never allocated.
+ */
+public final class CookieAllocator {
+
+    /**
+     * Value returned by {@link #allocate()} when all flow IDs are in use.
+     */
+    public static final long EXHAUSTED = -1;
+
+    private static final long MAX_ID = 0xffffffffL;
+    private static final int RING_SIZE = 1 << 12;
+    private static final int MASK = RING_SIZE - 1;
+
+    private static final ConcurrentHashMap<Integer, CookieAllocator> TENANTS = new ConcurrentHashMap<Integer, CookieAllocator>();
+
+    private static final AtomicLong TOTAL_ALLOCATED = new AtomicLong();
+    private static final AtomicLong TOTAL_RECYCLED = new AtomicLong();
+    private static final AtomicLong TOTAL_DROPPED = new AtomicLong();
+    private static final AtomicLong TOTAL_EXHAUSTED = new AtomicLong();
+
+    private final int tenantId;
+    private final long prefix;
+    private final AtomicLong next = new AtomicLong(1);
+    // ring of freed flow IDs
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+    private final int[] ids = new int[RING_SIZE];
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private final AtomicLong freed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    private CookieAllocator(final int tenantId) {
+        this.tenantId = tenantId;
+        this.prefix = (long) tenantId << 32;
+        for (int i = 0; i < RING_SIZE; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Gets the allocator of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @return the allocator
+     */
+    public static CookieAllocator getInstance(final int tenantId) {
+        CookieAllocator allocator = TENANTS.get(tenantId);
+        if (allocator == null) {
+            final CookieAllocator created = new CookieAllocator(tenantId);
+            allocator = TENANTS.putIfAbsent(tenantId, created);
+            if (allocator == null) {
+                allocator = created;
+            }
+        }
+        return allocator;
+    }
+
+    /**
+     * Drops the allocator of a tenant that has been removed, so that a tenant
+     * reusing its ID starts afresh.
+     *
+     * @param tenantId the tenant ID
+     */
+    public static void remove(final int tenantId) {
+        TENANTS.remove(tenantId);
+    }
+
+    /**
+     * Allocates a cookie.
+     *
+     * @return the cookie, or {@link #EXHAUSTED} if all flow IDs are in use
+     */
+    public long allocate() {
+        final long recycled = this.poll();
+        if (recycled != EXHAUSTED) {
+            this.recycled.incrementAndGet();
+            TOTAL_RECYCLED.incrementAndGet();
+            return this.prefix | recycled;
+        }
+        final long id = this.next.getAndIncrement();
+        if (id > MAX_ID) {
+            // keep the counter from wrapping into allocated IDs
+            this.next.set(MAX_ID + 1);
+            this.exhausted.incrementAndGet();
+            TOTAL_EXHAUSTED.incrementAndGet();
+            return EXHAUSTED;
+        }
+        this.allocated.incrementAndGet();
+        TOTAL_ALLOCATED.incrementAndGet();
+        return this.prefix | id;
+    }
+
+    /**
+     * Frees a cookie allocated by this allocator, once the entry it named
+     * has been removed. Must be called at most once per allocation.
+     *
+     * @param cookie the cookie
+     */
+    public void free(final long cookie) {
+        final int id = (int) cookie;
+        if (id == 0 || (cookie & ~MAX_ID) != this.prefix) {
+            return;
+        }
+        this.freed.incrementAndGet();
+        if (!this.offer(id)) {
+            // ring full; the ID is not reused
+            this.dropped.incrementAndGet();
+            TOTAL_DROPPED.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the cookie that never names an entry of this tenant, for flow
+     * mods that do not refer to a stored entry.
+     *
+     * @return the placeholder cookie
+     */
+    public long getPlaceholder() {
+        return this.prefix;
+    }
+
+    private boolean offer(final int id) {
+        long pos = this.tail.get();
+        for (;;) {
+            final int slot = (int) (pos & MASK);
+            final long diff = this.sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.ids[slot] = id;
+                    // publishes the ID to consumers
+                    this.sequences.set(slot, pos + 1);
+                    return true;
+                }
+                pos = this.tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = this.tail.get();
+            }
+        }
+    }
+
+    private long poll() {
+        long pos = this.head.get();
+        for (;;) {
+            final int slot = (int) (pos & MASK);
+            final long diff = this.sequences.get(slot) - (pos + 1);
+            if (diff == 0) {
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    final long id = this.ids[slot] & MAX_ID;
+                    // hands the slot back to producers
+                    this.sequences.set(slot, pos + RING_SIZE);
+                    return id;
+                }
+                pos = this.head.get();
+            } else if (diff < 0) {
+                return EXHAUSTED;
+            } else {
+                pos = this.head.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the allocation counters of this tenant.
+     *
+     * @return map of counter names to values
+     */
+    public Map<String, Object> getTenantStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final long allocated = this.allocated.get();
+        final long recycled = this.recycled.get();
+        stats.put("allocated", allocated);
+        stats.put("recycled", recycled);
+        stats.put("freed", this.freed.get());
+        stats.put("dropped", this.dropped.get());
+        stats.put("exhausted", this.exhausted.get());
+        stats.put("inUse", allocated + recycled - this.freed.get());
+        return stats;
+    }
+
+    /**
+     * Gets the allocation counters aggregated over all tenants, and those
+     * of each current tenant by tenant ID.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final Map<String, Object> tenants = new HashMap<String, Object>();
+        for (final CookieAllocator allocator : TENANTS.values()) {
+            tenants.put(String.valueOf(allocator.tenantId),
+                    allocator.getTenantStatistics());
+        }
+        stats.put("tenants", tenants);
+        stats.put("allocated", TOTAL_ALLOCATED.get());
+        stats.put("recycled", TOTAL_RECYCLED.get());
+        stats.put("dropped", TOTAL_DROPPED.get());
+        stats.put("exhausted", TOTAL_EXHAUSTED.get());
+        return stats;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+
+/**
+ * Tuple space classifier over the entries of a flow table.
+ *
+ * Entries are grouped into tuples by priority and by which of the fields of
+ * their {@link CompiledMatch} they set; within a tuple they are
+ * hashed on the values of those fields. An entry is disjoint from a match iff
+ * they set some common field to different values, so the entries of a tuple
+ * whose fields are all set by the match are found with a single probe, and
+ * for other tuples only the distinct value combinations are visited rather
+ * than every entry. Values are kept packed in primitive keys, and probes
+ * reuse a single key, so queries do not box.
+ */
+public class FlowClassifier {
+
+    // tuples keyed by priority and field mask
+    private final Map<Long, Tuple> tuples = new HashMap<Long, Tuple>();
+    // lookup key, guarded by this
+    private final Key probe = new Key(new long[CompiledMatch.FIELDS.length]);
+
+    /**
+     * Entries with the same priority that set the same fields.
+     */
+    private static final class Tuple {
+        private final int priority;
+        private final int mask;
+        // cookies keyed by the values of the fields in the mask
+        private final Map<Key, Set<Long>> buckets = new HashMap<Key, Set<Long>>();
+
+        private Tuple(final int priority, final int mask) {
+            this.priority = priority;
+            this.mask = mask;
+        }
+    }
+
+    /**
+     * The values of the fields of a tuple, in field order, with their hash
+     * computed once.
+     */
+    private static final class Key {
+        private final long[] values;
+        private int length;
+        private int hash;
+
+        private Key(final long[] values) {
+            this.values = values;
+        }
+
+        /*
+         * Sets the key to the values of the fields in the mask.
+         */
+        private Key project(final CompiledMatch match, final int mask) {
+            int pos = 0;
+            int h = 1;
+            for (int bits = mask; bits != 0; bits &= bits - 1) {
+                final long value = match.getValue(Integer
+                        .numberOfTrailingZeros(bits));
+                this.values[pos++] = value;
+                h = 31 * h + (int) (value ^ value >>> 32);
+            }
+            this.length = pos;
+            this.hash = h;
+            return this;
+        }
+
+        private Key copy() {
+            final Key key = new Key(Arrays.copyOf(this.values, this.length));
+            key.length = this.length;
+            key.hash = this.hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            if (this.hash != other.hash || this.length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < this.length; i++) {
+                if (this.values[i] != other.values[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Adds a flow entry.
+     *
+     * @param fm the flow mod
+     * @param cookie the cookie the flow mod is stored under
+     */
+    public synchronized void add(final OVXFlowMod fm, final long cookie) {
+        final OFFlowMod flowMod = fm.getFlowMod();
+        final CompiledMatch match = fm.getCompiledMatch();
+        final int mask = match.getPresent();
+        final Long id = FlowClassifier.tupleId(flowMod.getPriority(), mask);
+        Tuple tuple = this.tuples.get(id);
+        if (tuple == null) {
+            tuple = new Tuple(flowMod.getPriority(), mask);
+            this.tuples.put(id, tuple);
+        }
+        final Key key = this.probe.project(match, mask);
+        Set<Long> cookies = tuple.buckets.get(key);
+        if (cookies == null) {
+            cookies = new HashSet<Long>();
+            tuple.buckets.put(key.copy(), cookies);
+        }
+        cookies.add(cookie);
+    }
+
+    /**
+     * Removes a flow entry.
+     *
+     * @param fm the flow mod, as it was added
+     * @param cookie the cookie the flow mod is stored under
+     */
+    public synchronized void remove(final OVXFlowMod fm, final long cookie) {
+        final OFFlowMod flowMod = fm.getFlowMod();
+        final CompiledMatch match = fm.getCompiledMatch();
+        final int mask = match.getPresent();
+        final Long id = FlowClassifier.tupleId(flowMod.getPriority(), mask);
+        final Tuple tuple = this.tuples.get(id);
+        if (tuple == null) {
+            return;
+        }
+        final Key key = this.probe.project(match, mask);
+        final Set<Long> cookies = tuple.buckets.get(key);
+        if (cookies != null && cookies.remove(cookie) && cookies.isEmpty()) {
+            tuple.buckets.remove(key);
+            if (tuple.buckets.isEmpty()) {
+                this.tuples.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Removes all flow entries.
+     */
+    public synchronized void clear() {
+        this.tuples.clear();
+    }
+
+    /**
+     * Gets the entries with the given priority that are not disjoint from a
+     * match, i.e. the entries a CHECK_OVERLAP flow mod conflicts with.
+     *
+     * @param match the match
+     * @param priority the priority
+     * @return the cookies of the overlapping entries
+     */
+    public synchronized List<Long> getOverlapping(final CompiledMatch match,
+                                                  final int priority) {
+        final List<Long> found = new ArrayList<Long>();
+        for (final Tuple tuple : this.tuples.values()) {
+            if (tuple.priority == priority) {
+                this.collect(tuple, match, found);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the entries a non-strict operation on a match may apply to: the
+     * entries that are not disjoint from the match and that set the same
+     * fields or more fields than it, as required by
+     * {@link OVXFlowEntry#compare} to report them as equal. Candidates still
+     * have to be confirmed with compare.
+     *
+     * @param match the match
+     * @return the cookies of the candidate entries
+     */
+    public synchronized List<Long> getCandidates(final CompiledMatch match) {
+        final int mask = match.getPresent();
+        final List<Long> found = new ArrayList<Long>();
+        for (final Tuple tuple : this.tuples.values()) {
+            if (tuple.mask == mask
+                    || Integer.bitCount(tuple.mask & ~mask) > Integer
+                            .bitCount(mask & ~tuple.mask)) {
+                this.collect(tuple, match, found);
+            }
+        }
+        return found;
+    }
+
+    /*
+     * Adds the entries of a tuple that agree with the match on every field
+     * both set.
+     */
+    private void collect(final Tuple tuple, final CompiledMatch match,
+                         final List<Long> found) {
+        final int mask = match.getPresent();
+        if ((tuple.mask & ~mask) == 0) {
+            final Set<Long> cookies = tuple.buckets.get(this.probe.project(
+                    match, tuple.mask));
+            if (cookies != null) {
+                found.addAll(cookies);
+            }
+            return;
+        }
+        final int common = tuple.mask & mask;
+        final Iterator<Map.Entry<Key, Set<Long>>> itr = tuple.buckets
+                .entrySet().iterator();
+        while (itr.hasNext()) {
+            final Map.Entry<Key, Set<Long>> bucket = itr.next();
+            if (FlowClassifier.agrees(bucket.getKey(), tuple.mask, match,
+                    common)) {
+                found.addAll(bucket.getValue());
+            }
+        }
+    }
+
+    private static boolean agrees(final Key key, final int mask,
+                                  final CompiledMatch match, final int common) {
+        int pos = 0;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            final int i = Integer.numberOfTrailingZeros(bits);
+            if ((common & 1 << i) != 0
+                    && key.values[pos] != match.getValue(i)) {
+                return false;
+            }
+            pos++;
+        }
+        return true;
+    }
+
+    private static Long tupleId(final int priority, final int mask) {
+        return (long) priority << 32 | mask & 0xffffffffL;
+    }
+}
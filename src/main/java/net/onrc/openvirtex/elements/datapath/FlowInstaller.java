@@ -0,0 +1,386 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Orders the installation of the flow mods implementing a virtual flow
+ * across several physical switches.
+ *
+ * The flow mods for the intermediate hops of a virtual link or big switch
+ * route are sent first, and each switch they are sent to is added to the
+ * fence of the current thread. The flow mod for the ingress switch is then
+ * handed to {@link #release(OVXSwitch, Runnable)}, which sends a barrier request to
+ * every fenced switch and sends the ingress flow mod once all of them have
+ * replied, so packets are never forwarded onto a path that is not yet
+ * installed. Nothing blocks: the ingress flow mod is sent from the thread
+ * that receives the last barrier reply, or from the timer thread if the
+ * replies do not arrive in time.
+ *
+ * Flow mods of a virtual switch are sent in the order they were released:
+ * while an ingress flow mod is held back, flow mods released after it for the
+ * same virtual switch wait behind it, even if nothing fences them.
+ */
+public final class FlowInstaller {
+
+    private static Logger log = LogManager.getLogger(FlowInstaller.class
+            .getName());
+
+    /**
+     * Default time (in milliseconds) to wait for barrier replies before
+     * sending the ingress flow mod anyway.
+     */
+    public static final int DEFAULT_TIMEOUT = 1000;
+
+    /*
+     * Upper bounds (in milliseconds) of the install latency histogram
+     * buckets.
+     */
+    private static final long[] BUCKETS = {1, 5, 10, 50, 100, 500, 1000,
+            Long.MAX_VALUE};
+
+    private static volatile int timeout = DEFAULT_TIMEOUT;
+
+    private static final ThreadLocal<Set<PhysicalSwitch>> FENCE = new ThreadLocal<Set<PhysicalSwitch>>() {
+        @Override
+        protected Set<PhysicalSwitch> initialValue() {
+            return new LinkedHashSet<PhysicalSwitch>();
+        }
+    };
+
+    private static final AtomicLong IMMEDIATE = new AtomicLong();
+    private static final AtomicLong FENCED = new AtomicLong();
+    private static final AtomicLong TIMED_OUT = new AtomicLong();
+    private static final AtomicLong QUEUED = new AtomicLong();
+    private static final AtomicInteger PENDING = new AtomicInteger();
+    private static final AtomicLong LATENCY_TOTAL = new AtomicLong();
+    private static final AtomicLong LATENCY_MAX = new AtomicLong();
+    private static final AtomicLongArray HISTOGRAM = new AtomicLongArray(
+            BUCKETS.length);
+
+    private FlowInstaller() {
+    }
+
+    /**
+     * Sets the time to wait for barrier replies.
+     *
+     * @param timeoutMillis the timeout in milliseconds
+     */
+    public static void configure(final int timeoutMillis) {
+        FlowInstaller.timeout = Math.max(1, timeoutMillis);
+    }
+
+    /**
+     * Gets the time to wait for barrier replies.
+     *
+     * @return the timeout in milliseconds
+     */
+    public static int getTimeout() {
+        return FlowInstaller.timeout;
+    }
+
+    /**
+     * Records that flow mods were sent to a physical switch which must be in
+     * place before the next flow mod released by the current thread.
+     *
+     * @param psw the physical switch
+     */
+    public static void fence(final PhysicalSwitch psw) {
+        FENCE.get().add(psw);
+    }
+
+    /**
+     * Sends the flow mod of an intermediate hop of a virtual link or big
+     * switch route, and fences its switch. Barriers sent to the virtual
+     * switch afterwards also wait for the physical switch.
+     *
+     * @param vsw the virtual switch the flow mod is installed for
+     * @param psw the physical switch
+     * @param fm the flow mod
+     */
+    public static void send(final OVXSwitch vsw, final PhysicalSwitch psw,
+                            final OVXFlowMod fm) {
+        psw.sendMsg(fm, vsw);
+        FlowInstaller.fence(psw);
+        FlowModCache.recordSend(psw, fm.getFlowMod());
+    }
+
+    /**
+     * Forgets the switches fenced by the current thread, when no ingress
+     * flow mod follows them.
+     */
+    public static void clearFence() {
+        FENCE.get().clear();
+    }
+
+    /**
+     * Sends the first flow mod of a big switch route once the flow mods sent
+     * to the switches fenced by the current thread are in place; barriers
+     * sent to the big switch in the meantime are answered after it is sent.
+     *
+     * @param vsw the big switch the route belongs to
+     * @param psw the physical switch
+     * @param fm the flow mod; later changes to it are not sent
+     */
+    public static void release(final OVXSwitch vsw, final PhysicalSwitch psw,
+                               final OVXFlowMod fm) {
+        final OVXFlowMod first = new OVXFlowMod(fm.getFlowMod());
+        FlowModCache.recordRelease(psw, first.getFlowMod());
+        FlowInstaller.release(vsw, new Runnable() {
+            @Override
+            public void run() {
+                psw.sendMsg(first, vsw);
+            }
+        });
+    }
+
+    /**
+     * Sends a flow mod of a virtual switch once the flow mods sent to the
+     * switches fenced by the current thread are in place, and clears the
+     * fence. If no switch is fenced the flow mod is sent right away, unless
+     * flow mods released before it for the same virtual switch are still
+     * held back; it is then sent right after them. Barriers sent to the
+     * virtual switch in the meantime are answered after it is sent.
+     *
+     * @param vsw the virtual switch the flow mod is installed for
+     * @param send sends the flow mod; must not depend on state that changes
+     *            after this call
+     */
+    public static void release(final OVXSwitch vsw, final Runnable send) {
+        final Set<PhysicalSwitch> fence = FENCE.get();
+        final Sends sends = vsw.getSends();
+        if (fence.isEmpty()) {
+            IMMEDIATE.incrementAndGet();
+            sends.release(send);
+            return;
+        }
+        final List<PhysicalSwitch> switches = new ArrayList<PhysicalSwitch>(
+                fence);
+        fence.clear();
+        final Install install = new Install(vsw, send, switches);
+        sends.hold(install);
+        install.start();
+    }
+
+    /**
+     * Flow mods of a virtual switch released while an install is held back,
+     * in the order they were released.
+     */
+    static final class Sends {
+        // guarded by this
+        private final Deque<Step> steps = new ArrayDeque<Step>();
+
+        /*
+         * Sends right away if nothing is held back. Sending under the lock
+         * keeps a concurrent drain from being overtaken.
+         */
+        private synchronized void release(final Runnable send) {
+            if (this.steps.isEmpty()) {
+                send.run();
+                return;
+            }
+            QUEUED.incrementAndGet();
+            final Step step = new Step(send);
+            step.ready = true;
+            this.steps.add(step);
+        }
+
+        private synchronized void hold(final Step step) {
+            this.steps.add(step);
+        }
+
+        /*
+         * Marks a held back step as ready to go, and sends every step at the
+         * head of the queue that is.
+         */
+        private synchronized void ready(final Step step) {
+            step.ready = true;
+            while (!this.steps.isEmpty() && this.steps.peek().ready) {
+                this.steps.poll().sent();
+            }
+        }
+    }
+
+    /**
+     * A flow mod waiting in the queue of its virtual switch.
+     */
+    private static class Step {
+        private final Runnable send;
+        // guarded by the queue
+        private boolean ready = false;
+
+        private Step(final Runnable send) {
+            this.send = send;
+        }
+
+        protected void sent() {
+            try {
+                this.send.run();
+            } catch (final RuntimeException e) {
+                log.error("Could not install flow: {}", e);
+            }
+        }
+    }
+
+    /**
+     * An ingress flow mod waiting for barrier replies.
+     */
+    private static final class Install extends Step implements TimerTask {
+        private final OVXSwitch vsw;
+        private final long ticket;
+        private final List<PhysicalSwitch> switches;
+        private final int[] xids;
+        private final AtomicInteger remaining;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final long start = System.nanoTime();
+        private volatile Timeout timer;
+
+        private Install(final OVXSwitch vsw, final Runnable send,
+                        final List<PhysicalSwitch> switches) {
+            super(send);
+            this.vsw = vsw;
+            this.ticket = vsw.getBarrierAggregator().installStarted();
+            this.switches = switches;
+            this.xids = new int[switches.size()];
+            this.remaining = new AtomicInteger(switches.size());
+        }
+
+        private void start() {
+            PENDING.incrementAndGet();
+            this.timer = PhysicalNetwork.getTimer().newTimeout(this,
+                    FlowInstaller.timeout, TimeUnit.MILLISECONDS);
+            final Runnable arrival = new Runnable() {
+                @Override
+                public void run() {
+                    if (Install.this.remaining.decrementAndGet() == 0) {
+                        Install.this.complete(false);
+                    }
+                }
+            };
+            for (int i = 0; i < this.switches.size(); i++) {
+                this.xids[i] = this.switches.get(i).sendBarrier(arrival);
+                if (this.xids[i] < 0) {
+                    // not connected; nothing to wait for
+                    arrival.run();
+                }
+            }
+        }
+
+        @Override
+        public void run(final Timeout t) {
+            this.complete(true);
+        }
+
+        private void complete(final boolean timedOut) {
+            if (!this.done.compareAndSet(false, true)) {
+                return;
+            }
+            PENDING.decrementAndGet();
+            if (timedOut) {
+                TIMED_OUT.incrementAndGet();
+                for (int i = 0; i < this.switches.size(); i++) {
+                    if (this.xids[i] >= 0) {
+                        this.switches.get(i).cancelBarrier(this.xids[i]);
+                    }
+                }
+                log.warn("Barrier replies from {} not received within {} ms, "
+                        + "installing ingress flow anyway", this.switches,
+                        FlowInstaller.timeout);
+            } else {
+                this.timer.cancel();
+            }
+            FlowInstaller.record(System.nanoTime() - this.start);
+            this.vsw.getSends().ready(this);
+        }
+
+        @Override
+        protected void sent() {
+            try {
+                super.sent();
+            } finally {
+                this.vsw.getBarrierAggregator().installDone(this.ticket);
+            }
+        }
+    }
+
+    private static void record(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        FENCED.incrementAndGet();
+        LATENCY_TOTAL.addAndGet(nanos);
+        long max = LATENCY_MAX.get();
+        while (nanos > max && !LATENCY_MAX.compareAndSet(max, nanos)) {
+            max = LATENCY_MAX.get();
+        }
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (millis <= BUCKETS[i]) {
+                HISTOGRAM.incrementAndGet(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the install counters and the distribution of the time ingress
+     * flow mods waited for barrier replies.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final long fenced = FENCED.get();
+        stats.put("immediate", IMMEDIATE.get());
+        stats.put("fenced", fenced);
+        stats.put("timedOut", TIMED_OUT.get());
+        stats.put("queued", QUEUED.get());
+        stats.put("pending", PENDING.get());
+        stats.put("avgInstallMillis", fenced == 0 ? 0.0
+                : LATENCY_TOTAL.get() / 1e6 / fenced);
+        stats.put("maxInstallMillis", LATENCY_MAX.get() / 1e6);
+        final Map<String, Long> latencies = new HashMap<String, Long>();
+        for (int i = 0; i < BUCKETS.length; i++) {
+            final String key = i == BUCKETS.length - 1 ? ">"
+                    + BUCKETS[i - 1] + "ms" : "<=" + BUCKETS[i] + "ms";
+            latencies.put(key, HISTOGRAM.get(i));
+        }
+        stats.put("installLatency", latencies);
+        return stats;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXMessageUtil;
+
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.types.OFBufferId;
+
+/**
+ * Remembers how the flow mods a controller sent to a virtual switch were
+ * devirtualized, so that an identical flow mod sent again is installed by
+ * replaying the physical flow mods rather than by going through action
+ * virtualization, address and link rewriting again.
+ *
+ * While a flow mod is devirtualized, the physical flow mods it produces are
+ * recorded in order: the intermediate hops of virtual links and big switch
+ * routes ({@link FlowInstaller#send}), the first hops of routes
+ * ({@link FlowInstaller#release(OVXSwitch, PhysicalSwitch, OVXFlowMod)}) and the
+ * ingress flow mods. The plan is keyed by the virtual flow mod with its
+ * physical cookie, without XID and buffer ID, which are applied again on
+ * replay. Any change to the topology, port states or address mappings
+ * invalidates all plans.
+ */
+public class FlowModCache {
+
+    /**
+     * Default maximum number of plans kept per virtual switch.
+     */
+    public static final int DEFAULT_ENTRIES = 1024;
+
+    private static volatile int maxEntries = DEFAULT_ENTRIES;
+    // bumped on every change that can alter a devirtualization
+    private static final AtomicLong EPOCH = new AtomicLong();
+    private static final ThreadLocal<List<Step>> RECORDING = new ThreadLocal<List<Step>>();
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong STORED = new AtomicLong();
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+    private static final AtomicLong SAVED_NANOS = new AtomicLong();
+
+    // guarded by this
+    private final LinkedHashMap<OFFlowMod, Plan> plans = new LinkedHashMap<OFFlowMod, Plan>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<OFFlowMod, Plan> eldest) {
+            return this.size() > FlowModCache.maxEntries;
+        }
+    };
+
+    private enum Kind {
+        SEND, RELEASE, INGRESS
+    }
+
+    /**
+     * A physical flow mod sent while devirtualizing.
+     */
+    private static final class Step {
+        private final Kind kind;
+        private final PhysicalSwitch psw;
+        private final OVXPort inPort;
+        private final OFFlowMod fm;
+
+        private Step(final Kind kind, final PhysicalSwitch psw,
+                     final OVXPort inPort, final OFFlowMod fm) {
+            this.kind = kind;
+            this.psw = psw;
+            this.inPort = inPort;
+            this.fm = fm;
+        }
+    }
+
+    /**
+     * The physical flow mods a virtual flow mod was devirtualized to.
+     */
+    public static final class Plan {
+        private final long epoch;
+        private final long nanos;
+        private final List<Step> steps;
+
+        private Plan(final long epoch, final long nanos, final List<Step> steps) {
+            this.epoch = epoch;
+            this.nanos = nanos;
+            this.steps = steps;
+        }
+
+        /**
+         * Sends the physical flow mods again, in the order they were first
+         * sent.
+         *
+         * @param vsw the virtual switch
+         * @param xid the XID of the virtual flow mod
+         * @param bufferId the physical buffer ID to apply the ingress flow
+         *            mods to
+         */
+        public void replay(final OVXSwitch vsw, final int xid,
+                           final int bufferId) {
+            final long start = System.nanoTime();
+            for (final Step step : this.steps) {
+                switch (step.kind) {
+                    case SEND:
+                        FlowInstaller.send(vsw, step.psw,
+                                new OVXFlowMod(step.fm));
+                        break;
+                    case RELEASE:
+                        FlowInstaller.release(vsw, step.psw,
+                                new OVXFlowMod(step.fm));
+                        break;
+                    default:
+                        final OVXPort inPort = step.inPort;
+                        final OVXFlowMod ingress = new OVXFlowMod(step.fm
+                                .createBuilder().setXid(xid)
+                                .setBufferId(OFBufferId.of(bufferId)).build());
+                        OVXMessageUtil.translateXid(ingress, inPort);
+                        FlowInstaller.release(vsw, new Runnable() {
+                            @Override
+                            public void run() {
+                                vsw.sendSouth(ingress, inPort);
+                            }
+                        });
+                        break;
+                }
+            }
+            SAVED_NANOS.addAndGet(Math.max(0, this.nanos
+                    - (System.nanoTime() - start)));
+        }
+    }
+
+    /**
+     * Sets the number of plans kept per virtual switch.
+     *
+     * @param entries the number of plans, 0 to disable caching
+     */
+    public static void configure(final int entries) {
+        FlowModCache.maxEntries = Math.max(0, entries);
+    }
+
+    /**
+     * Invalidates the plans of all virtual switches, after a change to the
+     * topology, port states or address mappings.
+     */
+    public static void invalidate() {
+        EPOCH.incrementAndGet();
+        INVALIDATIONS.incrementAndGet();
+    }
+
+    /**
+     * Starts recording the physical flow mods sent by the current thread.
+     * Must be followed by {@link #stopRecording()}.
+     *
+     * @return the epoch to pass to {@link #store}
+     */
+    public static long startRecording() {
+        RECORDING.set(new ArrayList<Step>());
+        return EPOCH.get();
+    }
+
+    /**
+     * Stops recording the physical flow mods sent by the current thread,
+     * discarding them unless they were stored.
+     */
+    public static void stopRecording() {
+        RECORDING.remove();
+    }
+
+    static void recordSend(final PhysicalSwitch psw, final OFFlowMod fm) {
+        FlowModCache.record(new Step(Kind.SEND, psw, null, fm));
+    }
+
+    static void recordRelease(final PhysicalSwitch psw, final OFFlowMod fm) {
+        FlowModCache.record(new Step(Kind.RELEASE, psw, null, fm));
+    }
+
+    /**
+     * Records an ingress flow mod sent for a virtual port.
+     *
+     * @param inPort the virtual input port
+     * @param fm the ingress flow mod
+     */
+    public static void recordIngress(final OVXPort inPort, final OFFlowMod fm) {
+        FlowModCache.record(new Step(Kind.INGRESS, null, inPort, fm));
+    }
+
+    private static void record(final Step step) {
+        final List<Step> steps = RECORDING.get();
+        if (steps != null) {
+            steps.add(step);
+        }
+    }
+
+    /**
+     * Gets the plan of a virtual flow mod.
+     *
+     * @param key the virtual flow mod, with its physical cookie and without
+     *            XID and buffer ID
+     * @return the plan, or null if there is none or it is stale
+     */
+    public synchronized Plan lookup(final OFFlowMod key) {
+        final Plan plan = this.plans.get(key);
+        if (plan == null || plan.epoch != EPOCH.get()) {
+            if (plan != null) {
+                this.plans.remove(key);
+            }
+            MISSES.incrementAndGet();
+            return null;
+        }
+        HITS.incrementAndGet();
+        return plan;
+    }
+
+    /**
+     * Stores the physical flow mods recorded by the current thread as the
+     * plan of a virtual flow mod, unless the devirtualization raced with an
+     * invalidation.
+     *
+     * @param key the virtual flow mod, as passed to {@link #lookup}
+     * @param epoch the epoch returned by {@link #startRecording()}
+     * @param nanos the time the devirtualization took
+     */
+    public synchronized void store(final OFFlowMod key, final long epoch,
+                                   final long nanos) {
+        final List<Step> steps = RECORDING.get();
+        RECORDING.remove();
+        if (steps == null || FlowModCache.maxEntries == 0
+                || epoch != EPOCH.get()) {
+            return;
+        }
+        STORED.incrementAndGet();
+        this.plans.put(key, new Plan(epoch, nanos, Collections
+                .unmodifiableList(steps)));
+    }
+
+    /**
+     * Drops all plans of this virtual switch.
+     */
+    public synchronized void clear() {
+        this.plans.clear();
+    }
+
+    /**
+     * Gets the cache counters aggregated over all virtual switches.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final long hits = HITS.get();
+        final long lookups = hits + MISSES.get();
+        stats.put("hits", hits);
+        stats.put("misses", MISSES.get());
+        stats.put("stored", STORED.get());
+        stats.put("invalidations", INVALIDATIONS.get());
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+        stats.put("savedMillis", TimeUnit.NANOSECONDS.toMillis(SAVED_NANOS
+                .get()));
+        return stats;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.exceptions.SwitchMappingException;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXFlowRemoved;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+
+/**
+ * Limits the flow entries a tenant can hold, so that one tenant cannot fill
+ * the tables of the physical switches it shares with others.
+ *
+ * Two limits apply to each tenant: the number of flow entries in the tables
+ * of all its virtual switches, and the number of physical flow entries it
+ * holds on any one physical switch for its virtual flow entries, as
+ * recorded in the {@link FlowShadow} of the switch. The hops of virtual
+ * links are left out of the latter, as they name no entry that could be
+ * evicted. A flow mod adding an entry while a limit is reached first evicts
+ * the entries of its virtual switch that have been idle the longest, going
+ * by the packet counts of the periodic flow stats, among those idle for at
+ * least the configured time and, for a physical switch limit, installed on
+ * that switch. If there are not enough of them, nothing is evicted and the
+ * flow mod is refused with a TABLE_FULL error.
+ */
+public final class FlowQuota {
+
+    private static Logger log = LogManager.getLogger(FlowQuota.class
+            .getName());
+
+    /**
+     * Default number of flow entries per tenant, 0 for no limit.
+     */
+    public static final int DEFAULT_TENANT_FLOWS = 0;
+
+    /**
+     * Default number of flow entries per tenant on each physical switch, 0
+     * for no limit.
+     */
+    public static final int DEFAULT_SWITCH_FLOWS = 0;
+
+    /**
+     * Default time (in seconds) an entry must have been idle to be evicted,
+     * 0 to never evict.
+     */
+    public static final int DEFAULT_EVICT_IDLE = 0;
+
+    // entries evicted for one flow mod before it is refused
+    private static final int MAX_EVICTIONS = 8;
+    // OFPRR_IDLE_TIMEOUT, the same in OF1.0 and OF1.3
+    private static final short REASON_IDLE_TIMEOUT = 0;
+
+    private static volatile int tenantFlows = DEFAULT_TENANT_FLOWS;
+    private static volatile int switchFlows = DEFAULT_SWITCH_FLOWS;
+    private static volatile int evictIdle = DEFAULT_EVICT_IDLE;
+
+    private static final AtomicLong REFUSED = new AtomicLong();
+    private static final AtomicLong EVICTED = new AtomicLong();
+
+    private FlowQuota() {
+    }
+
+    /**
+     * Sets the flow limits.
+     *
+     * @param tenant the number of flow entries per tenant, 0 for no limit
+     * @param perSwitch the number of flow entries per tenant on each
+     *            physical switch, 0 for no limit
+     * @param idleSeconds the time an entry must have been idle to be
+     *            evicted, 0 to never evict
+     */
+    public static void configure(final int tenant, final int perSwitch,
+                                 final int idleSeconds) {
+        FlowQuota.tenantFlows = Math.max(0, tenant);
+        FlowQuota.switchFlows = Math.max(0, perSwitch);
+        FlowQuota.evictIdle = Math.max(0, idleSeconds);
+    }
+
+    /**
+     * Checks whether a flow mod adding an entry to a virtual switch is
+     * within the limits of its tenant, evicting idle entries to make room.
+     *
+     * @param vsw the virtual switch
+     * @param fm the flow mod
+     * @return true if the entry can be added
+     */
+    static boolean admit(final OVXSwitch vsw, final OVXFlowMod fm) {
+        final int tenant = FlowQuota.tenantFlows;
+        final int perSwitch = FlowQuota.switchFlows;
+        if (tenant == 0 && perSwitch == 0) {
+            return true;
+        }
+        final OVXFlowTable table = (OVXFlowTable) vsw.getFlowTable();
+        if (tenant > 0) {
+            final int over = FlowQuota.getTenantFlows(vsw) - tenant + 1;
+            if (over > 0 && !FlowQuota.makeRoom(vsw, table, null, over)) {
+                return FlowQuota.refuse(vsw, "the virtual network");
+            }
+        }
+        if (perSwitch > 0) {
+            for (final PhysicalSwitch psw : FlowQuota.getIngress(vsw, fm)) {
+                final int over = psw.getFlowShadow().getTenantFlows(
+                        vsw.getTenantId()) - perSwitch + 1;
+                if (over > 0 && !FlowQuota.makeRoom(vsw, table, psw, over)) {
+                    return FlowQuota.refuse(vsw, psw.getSwitchName());
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean refuse(final OVXSwitch vsw, final String full) {
+        REFUSED.incrementAndGet();
+        log.warn("Virtual network {} has reached its flow limit on {}; "
+                + "refusing flow mod for virtual switch {}",
+                vsw.getTenantId(), full, vsw.getSwitchName());
+        return false;
+    }
+
+    private static int getTenantFlows(final OVXSwitch vsw) {
+        try {
+            int flows = 0;
+            for (final OVXSwitch sw : vsw.getMap()
+                    .getVirtualNetwork(vsw.getTenantId()).getSwitches()) {
+                flows += sw.getFlowTable().getFlowTable().size();
+            }
+            return flows;
+        } catch (final NetworkMappingException e) {
+            return vsw.getFlowTable().getFlowTable().size();
+        }
+    }
+
+    /*
+     * The physical switches the entry is installed on: the one of its input
+     * port, or all those of the virtual switch if it has none.
+     */
+    private static List<PhysicalSwitch> getIngress(final OVXSwitch vsw,
+                                                   final OVXFlowMod fm) {
+        final OFPort inPort = fm.getFlowMod().getMatch()
+                .get(MatchField.IN_PORT);
+        if (inPort != null) {
+            final OVXPort port = vsw.getPort(inPort.getShortPortNumber());
+            if (port != null) {
+                return Collections.singletonList(port.getPhysicalPort()
+                        .getParentSwitch());
+            }
+        }
+        return FlowQuota.getPhysicalSwitches(vsw);
+    }
+
+    private static List<PhysicalSwitch> getPhysicalSwitches(final OVXSwitch vsw) {
+        try {
+            return vsw.getMap().getPhysicalSwitches(vsw);
+        } catch (final SwitchMappingException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /*
+     * Evicts the given number of entries of the virtual switch, the idlest
+     * first, among those that have been idle long enough and are installed
+     * on the full physical switch, or anywhere if full is null. Evicts
+     * nothing if there are not enough of them.
+     */
+    private static boolean makeRoom(final OVXSwitch vsw,
+                                    final OVXFlowTable table,
+                                    final PhysicalSwitch full,
+                                    final int count) {
+        final int idleSeconds = FlowQuota.evictIdle;
+        if (idleSeconds == 0 || count > MAX_EVICTIONS) {
+            return false;
+        }
+        final List<PhysicalSwitch> psws = full == null ? FlowQuota
+                .getPhysicalSwitches(vsw) : Collections.singletonList(full);
+        // the shortest idle time of each entry over the switches it is on
+        final Map<Long, Long> idle = new HashMap<Long, Long>();
+        for (final PhysicalSwitch psw : psws) {
+            for (final Long cookie : psw.getFlowShadow().getCookies(
+                    vsw.getTenantId())) {
+                if (!table.hasFlowMod(cookie)) {
+                    continue;
+                }
+                final long pswIdle = psw.getIdleMillis(cookie);
+                final Long known = idle.get(cookie);
+                if (pswIdle >= 0 && (known == null || pswIdle < known)) {
+                    idle.put(cookie, pswIdle);
+                }
+            }
+        }
+        final long minIdle = TimeUnit.SECONDS.toMillis(idleSeconds);
+        final long[] victims = new long[count];
+        final long[] victimIdle = new long[count];
+        int found = 0;
+        for (final Map.Entry<Long, Long> entry : idle.entrySet()) {
+            final long entryIdle = entry.getValue();
+            if (entryIdle < minIdle) {
+                continue;
+            }
+            // keeps the victims sorted by decreasing idle time
+            int i = found < count ? found++ : count;
+            while (i > 0 && victimIdle[i - 1] < entryIdle) {
+                if (i < count) {
+                    victims[i] = victims[i - 1];
+                    victimIdle[i] = victimIdle[i - 1];
+                }
+                i--;
+            }
+            if (i < count) {
+                victims[i] = entry.getKey();
+                victimIdle[i] = entryIdle;
+            }
+        }
+        if (found < count) {
+            return false;
+        }
+        final List<PhysicalSwitch> installed = FlowQuota
+                .getPhysicalSwitches(vsw);
+        for (final long victim : victims) {
+            FlowQuota.evict(vsw, table, installed, victim);
+        }
+        return true;
+    }
+
+    /*
+     * Deletes the physical entries of a flow on the switches of the virtual
+     * switch, which hold all of them but the hops of virtual links, then
+     * removes it from the table and tells the controller if it asked to be
+     * told. The switches report the deletes with reason DELETE, which
+     * OVXFlowRemoved ignores, so the cookie can be reused right away.
+     */
+    private static void evict(final OVXSwitch vsw, final OVXFlowTable table,
+                              final List<PhysicalSwitch> psws,
+                              final long cookie) {
+        for (final PhysicalSwitch psw : psws) {
+            for (final OFFlowMod fm : psw.getFlowShadow().getFlows(cookie)) {
+                psw.sendMsg(new OVXFlowMod(OFFactories
+                        .getFactory(fm.getVersion()).buildFlowDeleteStrict()
+                        .setMatch(fm.getMatch())
+                        .setPriority(fm.getPriority())
+                        .setOutPort(OFPort.ANY).build()), psw);
+            }
+        }
+        final OVXFlowMod victim = table.deleteFlowMod(cookie);
+        EVICTED.incrementAndGet();
+        if (victim == null) {
+            return;
+        }
+        log.info("Evicted idle flow {} from virtual switch {} of virtual network {}",
+                victim.getFlowMod().getMatch(), vsw.getSwitchName(),
+                vsw.getTenantId());
+        final OFFlowMod fm = victim.getFlowMod();
+        if (fm.getFlags().contains(OFFlowModFlags.SEND_FLOW_REM)) {
+            // OF1.0 and OF1.3 have no eviction reason; idle is the closest
+            final OFFlowRemoved.Builder fr = OFFactories
+                    .getFactory(vsw.getOfVersion()).buildFlowRemoved()
+                    .setCookie(fm.getCookie())
+                    .setPriority(fm.getPriority())
+                    .setMatch(fm.getMatch())
+                    .setReason(REASON_IDLE_TIMEOUT)
+                    .setIdleTimeout(fm.getIdleTimeout())
+                    .setHardTimeout(fm.getHardTimeout());
+            if (vsw.getOfVersion() != OFVersion.OF_10) {
+                fr.setTableId(TableId.ZERO);
+            }
+            vsw.sendMsg(new OVXFlowRemoved(fr.build()), vsw);
+        }
+    }
+
+    /**
+     * Gets the flow usage of a tenant against its limits.
+     *
+     * @param net the virtual network of the tenant
+     * @return map of usage names to values
+     */
+    public static Map<String, Object> getUsage(final OVXNetwork net) {
+        final Map<String, Object> usage = new HashMap<String, Object>();
+        final Set<PhysicalSwitch> psws = new LinkedHashSet<PhysicalSwitch>();
+        int flows = 0;
+        for (final OVXSwitch vsw : net.getSwitches()) {
+            flows += vsw.getFlowTable().getFlowTable().size();
+            psws.addAll(FlowQuota.getPhysicalSwitches(vsw));
+        }
+        usage.put("flows", flows);
+        usage.put("limit", FlowQuota.tenantFlows);
+        usage.put("evictIdleSeconds", FlowQuota.evictIdle);
+        final Map<String, Object> switches = new HashMap<String, Object>();
+        for (final PhysicalSwitch psw : psws) {
+            final Map<String, Object> sw = new HashMap<String, Object>();
+            sw.put("flows", psw.getFlowShadow().getTenantFlows(
+                    net.getTenantId()));
+            sw.put("limit", FlowQuota.switchFlows);
+            switches.put(psw.getSwitchName(), sw);
+        }
+        usage.put("switches", switches);
+        return usage;
+    }
+
+    /**
+     * Gets the quota counters aggregated over all tenants.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("refused", REFUSED.get());
+        stats.put("evicted", EVICTED.get());
+        return stats;
+    }
+}
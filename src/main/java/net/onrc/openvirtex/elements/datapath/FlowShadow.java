@@ -0,0 +1,556 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowModCommand;
+import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.protocol.instruction.OFInstruction;
+import org.projectfloodlight.openflow.protocol.instruction.OFInstructionApplyActions;
+import org.projectfloodlight.openflow.protocol.instruction.OFInstructionWriteActions;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * The tenant flows OVX wants installed on a physical switch, as it has sent
+ * them: every flow mod sent to the switch is applied to the shadow, whether
+ * it was generated for a virtual switch, a virtual link or a big switch
+ * route, and whether or not the switch is connected at the time.
+ *
+ * Entries are keyed by priority and match, as the switch keys them, and
+ * stored as ADD flow mods ready to be sent again. Only flows with a tenant
+ * cookie are kept; the flows OVX installs for itself are sent again on
+ * every connection anyway. The shadow outlives the connection of the
+ * switch, so after a reconnect it can be compared with a single flow stats
+ * dump and only the difference pushed.
+ *
+ * Flows with a timeout are sent with SEND_FLOW_REM, so that the shadow
+ * hears when they expire. The time each flow with a hard timeout was sent
+ * is kept: one whose hard timeout elapsed while the switch was away is
+ * dropped from the shadow on reconnect, and any other missing flow, which
+ * the switch may have lost with its table, is installed again with the
+ * hard timeout it had left.
+ *
+ * The flows of each tenant are also indexed by cookie, leaving out the flow
+ * ID 0 of the hops of virtual links, which name no virtual flow entry.
+ * Changes are serialized per switch; lookups take no lock.
+ */
+public class FlowShadow {
+
+    private static final AtomicLong RECONCILES = new AtomicLong();
+    private static final AtomicLong IN_SYNC = new AtomicLong();
+    private static final AtomicLong REINSTALLED = new AtomicLong();
+    private static final AtomicLong STALE = new AtomicLong();
+    private static final AtomicLong EXPIRED = new AtomicLong();
+
+    private final ConcurrentHashMap<Key, OFFlowMod> flows = new ConcurrentHashMap<Key, OFFlowMod>();
+    // When the flows with a hard timeout expire, in System.nanoTime(),
+    // guarded by this
+    private final Map<Key, Long> deadlines = new HashMap<Key, Long>();
+    // Whether the switch has been compared with the shadow since OVX started
+    private volatile boolean complete;
+    // Flows of each tenant with a flow ID, guarded by this for writes
+    private final ConcurrentHashMap<Integer, TenantFlows> tenants = new ConcurrentHashMap<Integer, TenantFlows>();
+
+    /**
+     * The flows of a tenant that name a virtual flow entry.
+     */
+    private static final class TenantFlows {
+        private final AtomicInteger count = new AtomicInteger();
+        private final ConcurrentHashMap<Long, Set<Key>> cookies = new ConcurrentHashMap<Long, Set<Key>>();
+    }
+
+    /**
+     * Identity of a flow entry on the switch. Matches are compared compiled,
+     * as OF1.0 matches read back from the switch may carry any value in
+     * wildcarded fields.
+     */
+    private static final class Key {
+        private final int priority;
+        private final CompiledMatch compiled;
+        private final int hash;
+
+        private Key(final int priority, final Match match) {
+            this.priority = priority;
+            this.compiled = CompiledMatch.of(match);
+            this.hash = 31 * priority + this.compiled.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.hash == other.hash && this.priority == other.priority
+                    && this.compiled.equals(other.compiled);
+        }
+    }
+
+    /**
+     * Gets the flow mod to send for one the shadow records: a tenant flow
+     * that can expire must be reported by the switch when it does.
+     *
+     * @param fm the flow mod
+     * @return the flow mod, with SEND_FLOW_REM set if it was needed
+     */
+    public static OFFlowMod track(final OFFlowMod fm) {
+        if (fm.getCommand() != OFFlowModCommand.ADD
+                || FlowShadow.getTenant(fm.getCookie()) == 0
+                || fm.getIdleTimeout() == 0 && fm.getHardTimeout() == 0
+                || fm.getFlags().contains(OFFlowModFlags.SEND_FLOW_REM)) {
+            return fm;
+        }
+        final Set<OFFlowModFlags> flags = EnumSet
+                .of(OFFlowModFlags.SEND_FLOW_REM);
+        flags.addAll(fm.getFlags());
+        return fm.createBuilder().setFlags(flags).build();
+    }
+
+    /**
+     * Applies a flow mod sent to the switch.
+     *
+     * @param fm the flow mod
+     */
+    public synchronized void record(final OFFlowMod fm) {
+        final Key key = new Key(fm.getPriority(), fm.getMatch());
+        switch (fm.getCommand()) {
+            case ADD:
+                final OFFlowMod replaced;
+                if (FlowShadow.getTenant(fm.getCookie()) != 0) {
+                    final OFFlowMod stored = fm.createBuilder()
+                            .setBufferId(OFBufferId.NO_BUFFER).build();
+                    replaced = this.flows.put(key, stored);
+                    if (replaced != null) {
+                        this.unindex(key, replaced);
+                    }
+                    this.index(key, stored);
+                    if (stored.getHardTimeout() != 0) {
+                        this.deadlines.put(key, System.nanoTime()
+                                + TimeUnit.SECONDS.toNanos(stored
+                                        .getHardTimeout()));
+                    } else {
+                        this.deadlines.remove(key);
+                    }
+                } else {
+                    // replaces whatever had the same priority and match
+                    replaced = this.flows.remove(key);
+                    if (replaced != null) {
+                        this.unindex(key, replaced);
+                        this.deadlines.remove(key);
+                    }
+                }
+                break;
+            case MODIFY_STRICT:
+                final OFFlowMod current = this.flows.get(key);
+                if (current != null && FlowShadow.selects(fm, current)) {
+                    this.flows.replace(key, current,
+                            FlowShadow.withActions(current, fm));
+                }
+                break;
+            case MODIFY:
+                for (final Map.Entry<Key, OFFlowMod> entry : this.flows
+                        .entrySet()) {
+                    if (FlowShadow.covers(key, entry.getKey())
+                            && FlowShadow.selects(fm, entry.getValue())) {
+                        this.flows.replace(entry.getKey(), entry.getValue(),
+                                FlowShadow.withActions(entry.getValue(), fm));
+                    }
+                }
+                break;
+            case DELETE_STRICT:
+                final OFFlowMod deleted = this.flows.get(key);
+                if (deleted != null && FlowShadow.selects(fm, deleted)
+                        && FlowShadow.outputsTo(deleted, fm.getOutPort())) {
+                    this.remove(key, deleted);
+                }
+                break;
+            case DELETE:
+                for (final Map.Entry<Key, OFFlowMod> entry : this.flows
+                        .entrySet()) {
+                    if (FlowShadow.covers(key, entry.getKey())
+                            && FlowShadow.selects(fm, entry.getValue())
+                            && FlowShadow.outputsTo(entry.getValue(),
+                                    fm.getOutPort())) {
+                        this.remove(entry.getKey(), entry.getValue());
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Applies a flow the switch reported as removed.
+     *
+     * @param fr the flow removed message
+     */
+    public synchronized void removed(final OFFlowRemoved fr) {
+        final Key key = new Key(fr.getPriority(), fr.getMatch());
+        final OFFlowMod current = this.flows.get(key);
+        if (current != null && current.getCookie().equals(fr.getCookie())) {
+            this.remove(key, current);
+        }
+    }
+
+    /**
+     * Removes the flows of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @param port the physical port to remove the flows of, i.e. the flows
+     *            matching on it or sending to it; 0 for all flows
+     * @return the removed flows
+     */
+    public synchronized List<OFFlowMod> removeTenant(final int tenantId,
+                                                     final short port) {
+        final List<OFFlowMod> removed = new ArrayList<OFFlowMod>();
+        for (final Map.Entry<Key, OFFlowMod> entry : this.flows.entrySet()) {
+            final OFFlowMod fm = entry.getValue();
+            if (FlowShadow.getTenant(fm.getCookie()) != tenantId) {
+                continue;
+            }
+            if (port != 0) {
+                final OFPort inPort = fm.getMatch().get(MatchField.IN_PORT);
+                if ((inPort == null || inPort.getShortPortNumber() != port)
+                        && !FlowShadow.outputsTo(fm, OFPort.of(port))) {
+                    continue;
+                }
+            }
+            if (this.remove(entry.getKey(), fm)) {
+                removed.add(fm);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the flows with a given cookie, whose flow ID is not 0.
+     *
+     * @param cookie the cookie
+     * @return the flows
+     */
+    public List<OFFlowMod> getFlows(final long cookie) {
+        final List<OFFlowMod> found = new ArrayList<OFFlowMod>();
+        final TenantFlows tenant = this.tenants.get((int) (cookie >> 32));
+        final Set<Key> keys = tenant == null ? null : tenant.cookies
+                .get(cookie);
+        if (keys == null) {
+            return found;
+        }
+        for (final Key key : keys) {
+            final OFFlowMod fm = this.flows.get(key);
+            if (fm != null && fm.getCookie().getValue() == cookie) {
+                found.add(fm);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the cookies of the flows of a tenant, whose flow ID is not 0.
+     *
+     * @param tenantId the tenant ID
+     * @return the cookies
+     */
+    public Set<Long> getCookies(final int tenantId) {
+        final TenantFlows tenant = this.tenants.get(tenantId);
+        if (tenant == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(tenant.cookies.keySet());
+    }
+
+    /**
+     * Gets the number of flows of a tenant that name a virtual flow entry,
+     * i.e. leaving out the hops of virtual links.
+     *
+     * @param tenantId the tenant ID
+     * @return the number of flows
+     */
+    public int getTenantFlows(final int tenantId) {
+        final TenantFlows tenant = this.tenants.get(tenantId);
+        return tenant == null ? 0 : tenant.count.get();
+    }
+
+    private boolean remove(final Key key, final OFFlowMod fm) {
+        if (this.flows.remove(key, fm)) {
+            this.unindex(key, fm);
+            this.deadlines.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    private void index(final Key key, final OFFlowMod fm) {
+        final long cookie = fm.getCookie().getValue();
+        if ((int) cookie == 0) {
+            return;
+        }
+        final int tenantId = (int) (cookie >> 32);
+        TenantFlows tenant = this.tenants.get(tenantId);
+        if (tenant == null) {
+            tenant = new TenantFlows();
+            this.tenants.put(tenantId, tenant);
+        }
+        Set<Key> keys = tenant.cookies.get(cookie);
+        if (keys == null) {
+            keys = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+            tenant.cookies.put(cookie, keys);
+        }
+        if (keys.add(key)) {
+            tenant.count.incrementAndGet();
+        }
+    }
+
+    private void unindex(final Key key, final OFFlowMod fm) {
+        final long cookie = fm.getCookie().getValue();
+        final TenantFlows tenant = this.tenants.get((int) (cookie >> 32));
+        final Set<Key> keys = tenant == null ? null : tenant.cookies
+                .get(cookie);
+        if (keys == null || !keys.remove(key)) {
+            return;
+        }
+        tenant.count.decrementAndGet();
+        if (keys.isEmpty()) {
+            tenant.cookies.remove(cookie);
+        }
+    }
+
+    /**
+     * Compares the shadow with the flows installed on the switch.
+     *
+     * @param installed the entries of a flow stats dump of the switch
+     * @return the flow mods that bring the switch in line with the shadow:
+     *         strict deletes for tenant flows the shadow does not have, and
+     *         adds for shadow flows missing or different on the switch, with
+     *         the hard timeout they have left, except for missing flows whose
+     *         hard timeout has elapsed, which are dropped from the shadow
+     */
+    public synchronized List<OFFlowMod> diff(
+            final List<OFFlowStatsEntry> installed) {
+        RECONCILES.incrementAndGet();
+        this.complete = true;
+        final Map<Key, OFFlowMod> missing = new HashMap<Key, OFFlowMod>(
+                this.flows);
+        final List<OFFlowMod> delta = new ArrayList<OFFlowMod>();
+        final long now = System.nanoTime();
+        for (final OFFlowStatsEntry entry : installed) {
+            final Key key = new Key(entry.getPriority(), entry.getMatch());
+            final OFFlowMod wanted = missing.remove(key);
+            if (wanted == null) {
+                if (FlowShadow.getTenant(entry.getCookie()) != 0) {
+                    STALE.incrementAndGet();
+                    final OFFactory factory = OFFactories.getFactory(entry
+                            .getVersion());
+                    delta.add(factory.buildFlowDeleteStrict()
+                            .setMatch(entry.getMatch())
+                            .setPriority(entry.getPriority())
+                            .setOutPort(OFPort.ANY).build());
+                }
+            } else if (!wanted.getCookie().equals(entry.getCookie())
+                    || !FlowShadow.sameActions(wanted, entry)) {
+                // an add replaces the entry with the same priority and match
+                REINSTALLED.incrementAndGet();
+                delta.add(this.reinstall(key, wanted, now));
+            } else {
+                IN_SYNC.incrementAndGet();
+            }
+        }
+        for (final Map.Entry<Key, OFFlowMod> entry : missing.entrySet()) {
+            final Long deadline = this.deadlines.get(entry.getKey());
+            if (deadline == null || deadline - now > 0) {
+                REINSTALLED.incrementAndGet();
+                delta.add(this.reinstall(entry.getKey(), entry.getValue(), now));
+            } else if (this.remove(entry.getKey(), entry.getValue())) {
+                EXPIRED.incrementAndGet();
+            }
+        }
+        return delta;
+    }
+
+    /*
+     * Gets the flow mod installing a flow of the shadow again, with the hard
+     * timeout it has left, rounded up to at least a second.
+     */
+    private OFFlowMod reinstall(final Key key, final OFFlowMod fm,
+                                final long now) {
+        final Long deadline = this.deadlines.get(key);
+        if (deadline == null) {
+            return fm;
+        }
+        final long left = (deadline - now + TimeUnit.SECONDS.toNanos(1) - 1)
+                / TimeUnit.SECONDS.toNanos(1);
+        return fm.createBuilder().setHardTimeout(
+                (int) Math.max(1, Math.min(left, fm.getHardTimeout()))).build();
+    }
+
+    /**
+     * Checks whether the shadow is known to hold every tenant flow on the
+     * switch, i.e. it has been compared with the switch since OVX started.
+     * Until then the switch may hold flows installed by an earlier run.
+     *
+     * @return true if the shadow has been reconciled with the switch
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Checks whether the shadow holds any flow.
+     *
+     * @return true if there are no flows
+     */
+    public boolean isEmpty() {
+        return this.flows.isEmpty();
+    }
+
+    /**
+     * Gets the number of flows in the shadow.
+     *
+     * @return the number of flows
+     */
+    public int size() {
+        return this.flows.size();
+    }
+
+    private static int getTenant(final U64 cookie) {
+        return (int) (cookie.getValue() >> 32);
+    }
+
+    /*
+     * Whether a non-strict operation on the match of key applies to the
+     * entry of other: the entry sets every field the match sets, to the same
+     * value. Masks are not taken into account, as in OVXFlowEntry#compare.
+     */
+    private static boolean covers(final Key key, final Key other) {
+        final CompiledMatch match = key.compiled;
+        final CompiledMatch entry = other.compiled;
+        return (match.getPresent() & ~entry.getPresent()) == 0
+                && entry.agrees(match, match.getPresent());
+    }
+
+    // the cookie mask of OF1.3 modify and delete
+    private static boolean selects(final OFFlowMod fm, final OFFlowMod entry) {
+        if (fm.getVersion() == OFVersion.OF_10) {
+            return true;
+        }
+        final long mask = fm.getCookieMask().getValue();
+        return (entry.getCookie().getValue() & mask) == (fm.getCookie()
+                .getValue() & mask);
+    }
+
+    private static boolean outputsTo(final OFFlowMod fm, final OFPort port) {
+        if (port == null || port.equals(OFPort.ANY)) {
+            return true;
+        }
+        if (fm.getVersion() == OFVersion.OF_10) {
+            return FlowShadow.outputsTo(fm.getActions(), port);
+        }
+        for (final OFInstruction inst : fm.getInstructions()) {
+            if (inst instanceof OFInstructionApplyActions
+                    && FlowShadow.outputsTo(
+                            ((OFInstructionApplyActions) inst).getActions(),
+                            port)) {
+                return true;
+            }
+            if (inst instanceof OFInstructionWriteActions
+                    && FlowShadow.outputsTo(
+                            ((OFInstructionWriteActions) inst).getActions(),
+                            port)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean outputsTo(final List<OFAction> actions,
+                                     final OFPort port) {
+        for (final OFAction action : actions) {
+            if (action instanceof OFActionOutput
+                    && ((OFActionOutput) action).getPort().equals(port)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static OFFlowMod withActions(final OFFlowMod entry,
+                                         final OFFlowMod fm) {
+        if (entry.getVersion() == OFVersion.OF_10) {
+            return entry.createBuilder().setActions(fm.getActions()).build();
+        }
+        return entry.createBuilder().setInstructions(fm.getInstructions())
+                .build();
+    }
+
+    private static boolean sameActions(final OFFlowMod fm,
+                                       final OFFlowStatsEntry entry) {
+        if (fm.getVersion() == OFVersion.OF_10) {
+            return fm.getActions().equals(entry.getActions());
+        }
+        return fm.getInstructions().equals(entry.getInstructions());
+    }
+
+    /**
+     * Gets the reconciliation counters aggregated over all switches.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("reconciles", RECONCILES.get());
+        stats.put("inSync", IN_SYNC.get());
+        stats.put("reinstalled", REINSTALLED.get());
+        stats.put("stale", STALE.get());
+        stats.put("expired", EXPIRED.get());
+        return stats;
+    }
+}
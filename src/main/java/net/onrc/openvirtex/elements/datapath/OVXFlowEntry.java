@@ -61,16 +61,13 @@ public class OVXFlowEntry implements Comparable<OVXFlowEntry> {
      * superset, subset, or equal to it. Required for non-strict matching and
      * overlap checking
      * <p>
-     * For each field, we first check wildcard equality. If both are equal, they
-     * are either 1 or 0. If 0, we further check for field equality. If the
-     * fields are not equal, the flow entries are considered disjoint and we
+     * For each field set by both matches, the values are compared. If the
+     * values are not equal, the flow entries are considered disjoint and we
      * exit comparison.
      * <p>
-     * If both wildcards are not equal, we check if one subsumes the other.
-     * <p>
-     * The result is tracked for each field in three ints - equality, superset,
-     * and subset. At the end, either 1) one of the ints are 0x3fffff, or 2)
-     * none are.
+     * Otherwise, the entry is a subset of the other match if it sets more of
+     * the remaining fields than the other match does, and a superset if not.
+     * Only the fields in {@link CompiledMatch} are compared.
      *
      * @param omatch
      *            The other FlowEntry to compare this one against.
@@ -79,187 +76,37 @@ public class OVXFlowEntry implements Comparable<OVXFlowEntry> {
      * @return Union enum representing the relationship
      */
     public int compare(Match omatch, boolean strict) {
-        Set<MatchField>[] intersect = new HashSet[3];
-        intersect[EQUAL] = new HashSet<MatchField>();
-        intersect[SUPERSET] = new HashSet<MatchField>();
-        intersect[SUBSET] = new HashSet<MatchField>();
-
-        Match tmatch = this.ovxFlowMod.getFlowMod().getMatch();
-
-        if(omatch.get(MatchField.IN_PORT) != null && tmatch.get(MatchField.IN_PORT) != null)
-        {
-            if(omatch.get(MatchField.IN_PORT).equals(tmatch.get(MatchField.IN_PORT)))
-            {
-                updateIntersect(intersect, MatchField.IN_PORT);
-            }else{
-                return DISJOINT;
-            }
-        }else{
-            findRelation(tmatch, omatch, MatchField.IN_PORT, intersect);
-        }
-
-        if(omatch.get(MatchField.ETH_DST) != null && tmatch.get(MatchField.ETH_DST) != null)
-        {
-            if(omatch.get(MatchField.ETH_DST).equals(tmatch.get(MatchField.ETH_DST)))
-            {
-                updateIntersect(intersect, MatchField.ETH_DST);
-            }else{
-                return DISJOINT;
-            }
-        }else {
-            findRelation(tmatch, omatch, MatchField.ETH_DST, intersect);
-        }
-
-        if(omatch.get(MatchField.ETH_SRC) != null && tmatch.get(MatchField.ETH_SRC) != null)
-        {
-            if(omatch.get(MatchField.ETH_SRC).equals(tmatch.get(MatchField.ETH_SRC)))
-            {
-                updateIntersect(intersect, MatchField.ETH_SRC);
-            }else{
-                return DISJOINT;
-            }
-        }else {
-            findRelation(tmatch, omatch, MatchField.ETH_SRC, intersect);
-        }
-
-        if(omatch.get(MatchField.ETH_TYPE) != null && tmatch.get(MatchField.ETH_TYPE) != null)
-        {
-            if(omatch.get(MatchField.ETH_TYPE).equals(tmatch.get(MatchField.ETH_TYPE)))
-            {
-                updateIntersect(intersect, MatchField.ETH_TYPE);
-            }else{
-                return DISJOINT;
-            }
-        }else{
-            findRelation(tmatch, omatch, MatchField.ETH_TYPE, intersect);
-        }
-
-        if(omatch.get(MatchField.VLAN_VID) != null && tmatch.get(MatchField.VLAN_VID) != null)
-        {
-            if(omatch.get(MatchField.VLAN_VID).equals(tmatch.get(MatchField.VLAN_VID)))
-            {
-                updateIntersect(intersect, MatchField.VLAN_VID);
-            }else{
-                return DISJOINT;
-            }
-        }else{
-            findRelation(tmatch, omatch, MatchField.VLAN_VID, intersect);
-        }
-
-        if(omatch.get(MatchField.VLAN_PCP) != null && tmatch.get(MatchField.VLAN_PCP) != null)
-        {
-            if(omatch.get(MatchField.VLAN_PCP).equals(tmatch.get(MatchField.VLAN_PCP)))
-            {
-                updateIntersect(intersect, MatchField.VLAN_PCP);
-            }else{
-                return DISJOINT;
-            }
-        }else{
-            findRelation(tmatch, omatch, MatchField.VLAN_PCP, intersect);
-        }
-
-        if(omatch.get(MatchField.IP_PROTO) != null && tmatch.get(MatchField.IP_PROTO) != null)
-        {
-            if(omatch.get(MatchField.IP_PROTO).equals(tmatch.get(MatchField.IP_PROTO)))
-            {
-                updateIntersect(intersect, MatchField.IP_PROTO);
-            }else{
-                return DISJOINT;
-            }
-        }else{
-            findRelation(tmatch, omatch, MatchField.IP_PROTO, intersect);
-        }
-
-        if(omatch.get(MatchField.IP_DSCP) != null && tmatch.get(MatchField.IP_DSCP) != null)
-        {
-            if(omatch.get(MatchField.IP_DSCP).equals(tmatch.get(MatchField.IP_DSCP)))
-            {
-                updateIntersect(intersect, MatchField.IP_DSCP);
-            }else{
-                return DISJOINT;
-            }
-        }else{
-            findRelation(tmatch, omatch, MatchField.IP_DSCP, intersect);
-        }
-
-        if(omatch.get(MatchField.IPV4_DST) != null && tmatch.get(MatchField.IPV4_DST) != null)
-        {
-            if(omatch.get(MatchField.IPV4_DST).equals(tmatch.get(MatchField.IPV4_DST)))
-            {
-                updateIntersect(intersect, MatchField.IPV4_DST);
-            }else{
-                return DISJOINT;
-            }
-        }else {
-            findRelation(tmatch, omatch, MatchField.IPV4_DST, intersect);
-        }
-
-        if(omatch.get(MatchField.IPV4_SRC) != null && tmatch.get(MatchField.IPV4_SRC) != null)
-        {
-            if(omatch.get(MatchField.IPV4_SRC).equals(tmatch.get(MatchField.IPV4_SRC)))
-            {
-                updateIntersect(intersect, MatchField.IPV4_SRC);
-            }else{
-                return DISJOINT;
-            }
-        }else {
-            findRelation(tmatch, omatch, MatchField.IPV4_SRC, intersect);
-        }
+        return this.compare(CompiledMatch.of(omatch), strict);
+    }
 
-        if(omatch.get(MatchField.TCP_DST) != null && tmatch.get(MatchField.TCP_DST) != null)
-        {
-            if(omatch.get(MatchField.TCP_DST).equals(tmatch.get(MatchField.TCP_DST)))
-            {
-                updateIntersect(intersect, MatchField.TCP_DST);
-            }else{
-                return DISJOINT;
-            }
-        }else {
-            findRelation(tmatch, omatch, MatchField.TCP_DST, intersect);
-        }
+    /**
+     * Compares this entry against a compiled match; see
+     * {@link #compare(Match, boolean)}. Does not allocate, so callers comparing
+     * one match against many entries should compile it once and use this.
+     *
+     * @param omatch the compiled match to compare this entry against
+     * @param strict whether FlowMod from which the match came was strict or not
+     * @return Union enum representing the relationship
+     */
+    public int compare(CompiledMatch omatch, boolean strict) {
+        CompiledMatch tmatch = this.ovxFlowMod.getCompiledMatch();
+        int tfields = tmatch.getPresent();
+        int ofields = omatch.getPresent();
 
-        if(omatch.get(MatchField.TCP_SRC) != null && tmatch.get(MatchField.TCP_SRC) != null)
-        {
-            if(omatch.get(MatchField.TCP_SRC).equals(tmatch.get(MatchField.TCP_SRC)))
-            {
-                updateIntersect(intersect, MatchField.TCP_SRC);
-            }else{
-                return DISJOINT;
-            }
-        }else {
-            findRelation(tmatch, omatch, MatchField.TCP_SRC, intersect);
+        if (!tmatch.agrees(omatch, tfields & ofields)) {
+            return DISJOINT;
         }
-
-
-        if(tmatch.equals(omatch)) {
+        if (tmatch.equals(omatch)) {
             return EQUAL;
-        }else if(intersect[SUBSET].size() > intersect[SUPERSET].size()) {
-            if(strict) {
+        }
+        if (Integer.bitCount(tfields & ~ofields) > Integer.bitCount(ofields & ~tfields)) {
+            if (strict) {
                 return SUBSET;
-            }else {
+            } else {
                 return EQUAL;
             }
-        }else{
-            return SUPERSET;
-        }
-    }
-
-    private void updateIntersect(Set<MatchField>[] intersect, MatchField field) {
-        intersect[EQUAL].add(field);
-        intersect[SUPERSET].add(field);
-        intersect[SUBSET].add(field);
-    }
-
-    private void findRelation(Match tmatch, Match omatch, MatchField field, Set<MatchField>[] intersect) {
-        if(tmatch.get(field) != null)
-        {
-            intersect[SUBSET].add(field);
-        }
-
-        if(omatch.get(field) != null)
-        {
-            intersect[SUPERSET].add(field);
         }
+        return SUPERSET;
     }
 
     /** @return original OFMatch */
@@ -21,7 +21,6 @@ package net.onrc.openvirtex.elements.datapath;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
@@ -32,6 +31,7 @@ import org.apache.logging.log4j.Logger;
 import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import org.projectfloodlight.openflow.protocol.*;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.U32;
@@ -50,19 +50,13 @@ public class OVXFlowTable implements FlowTable {
     protected ConcurrentHashMap<Long, OVXFlowMod> flowmodMap;
     // Reverse map of FlowMod hashcode to cookie
     protected ConcurrentHashMap<Integer, Long> cookieMap;
+    // Map of (priority, match) to cookie, for strict lookups
+    protected ConcurrentHashMap<FlowKey, Long> strictIndex;
+    // Entries grouped by wildcarded fields, for overlap and non-strict lookups
+    protected FlowClassifier classifier;
 
-    /**
-     * Temporary solution that should be replaced by something that doesn't
-     * fragment.
-     */
-    private AtomicInteger cookieCounter;
-
-    /**
-     * Stores previously used cookies so we only generate one when this list is
-     * empty.
-     */
-    private LinkedList<Long> freeList;
-    private static final int FREELIST_SIZE = 1024;
+    // Cookies of the tenant, shared with its other virtual switches
+    private final CookieAllocator cookies;
 
     /* statistics per specs */
     protected int activeEntries;
@@ -79,9 +73,10 @@ public class OVXFlowTable implements FlowTable {
     public OVXFlowTable(OVXSwitch vsw) {
         this.flowmodMap = new ConcurrentHashMap<Long, OVXFlowMod>();
         this.cookieMap = new ConcurrentHashMap<Integer, Long>();
-        this.cookieCounter = new AtomicInteger(1);
-        this.freeList = new LinkedList<Long>();
+        this.strictIndex = new ConcurrentHashMap<FlowKey, Long>();
+        this.classifier = new FlowClassifier();
         this.vswitch = vsw;
+        this.cookies = CookieAllocator.getInstance(vsw.getTenantId());
 
          /* initialise stats */
         this.activeEntries = 0;
@@ -155,21 +150,28 @@ public class OVXFlowTable implements FlowTable {
                     psw.cleanUpTenant(this.vswitch.getTenantId(),
                             OFPort.ANY.getShortPortNumber());
                 }
-                this.flowmodMap.clear();
-                this.cookieMap.clear();
+                for (final Long cookie : this.flowmodMap.keySet()) {
+                    this.deleteFlowMod(cookie);
+                }
                 return false;
+            } else if (strict) {
+                final Long cookie = this.lookupStrict(fm);
+                if (cookie != null) {
+                    this.deleteFlowMod(cookie);
+                }
+                return true;
             } else {
-                // remove matching flow entries, and let FlowMod be sent down((OFFlowMod)fm.getOFMessage()).getMatch()
-                Iterator<Map.Entry<Long, OVXFlowMod>> itr = this.flowmodMap
-                        .entrySet().iterator();
+                // remove matching flow entries, and let FlowMod be sent down
+                final CompiledMatch match = fm.getCompiledMatch();
                 OVXFlowEntry fe = new OVXFlowEntry();
-                while (itr.hasNext()) {
-                    Map.Entry<Long, OVXFlowMod> entry = itr.next();
-                    fe.setOVXFlowMod(entry.getValue());
-                    int overlap = fe.compare(fm.getFlowMod().getMatch(), strict);
-                    if (overlap == OVXFlowEntry.EQUAL) {
-                        this.cookieMap.remove(entry.getValue().hashCode());
-                        itr.remove();
+                for (Long cookie : this.classifier.getCandidates(match)) {
+                    OVXFlowMod fmod = this.flowmodMap.get(cookie);
+                    if (fmod == null) {
+                        continue;
+                    }
+                    fe.setOVXFlowMod(fmod);
+                    if (fe.compare(match, false) == OVXFlowEntry.EQUAL) {
+                        this.deleteFlowMod(cookie);
                     }
                 }
                 return true;
@@ -194,26 +196,14 @@ public class OVXFlowTable implements FlowTable {
         //this.log.info(fm.getOFMessage().toString());
 
 
-        if (fm.getFlowMod().getFlags().contains(OFFlowModFlags.CHECK_OVERLAP)){
-            //System.out.println(" OFPFF_CHECK_OVERLAP");
-
+        if (fm.getFlowMod().getFlags().contains(OFFlowModFlags.CHECK_OVERLAP)) {
+            final CompiledMatch match = fm.getCompiledMatch();
             OVXFlowEntry fe = new OVXFlowEntry();
-            for (OVXFlowMod fmod : this.flowmodMap.values()) {
-
-                fe.setOVXFlowMod(fmod);
-                int res = fe.compare(fm.getFlowMod().getMatch(), false);
-
-                //System.out.println("------------------------");
-                //System.out.println(res);
-
-                //System.out.println(fm.getFlowMod().getPriority() + " " + fe.getPriority());
-
-//                this.log.info("res : " + res);
-                if ((res != OVXFlowEntry.DISJOINT)
-                        & (fm.getFlowMod().getPriority() == fe.getPriority())) {
-
-                    //System.out.println("true");
-
+            for (Long cookie : this.classifier.getOverlapping(match,
+                    fm.getFlowMod().getPriority())) {
+                OVXFlowMod fmod = this.flowmodMap.get(cookie);
+                if (fmod != null && fe.setOVXFlowMod(fmod).compare(match,
+                        false) != OVXFlowEntry.DISJOINT) {
                     this.vswitch.sendMsg(OVXMessageUtil.makeErrorMsg(
                             OFFlowModFailedCode.OVERLAP, fm),
                             this.vswitch);
@@ -234,55 +224,50 @@ public class OVXFlowTable implements FlowTable {
     private boolean doFlowModModify(OVXFlowMod fm) {
         log.debug("doFlowModModify");
 
-        OVXFlowEntry fe = new OVXFlowEntry();
-        int res;
-        for (Map.Entry<Long, OVXFlowMod> fmod : this.flowmodMap.entrySet()) {
-            fe.setOVXFlowMod(fmod.getValue());
-
-            log.debug(" FlowEntry [" + U32.of(fe.getOVXFlowMod().hashCode()).toString() + "]");
-
-            log.debug("OVXFlowMod [" + U32.of(fm.hashCode()).toString() + "]");
-
-            res = fe.compare(fm.getFlowMod().getMatch(), true);
-            //System.out.println("res = " + res);
-
-            //replace table entry that strictly matches with given FlowMod.
-            if (res == OVXFlowEntry.EQUAL) {
-                //System.out.println("res == OVXFlowEntry2.EQUAL");
-
-                long c = fmod.getKey();
-                //System.out.println("replacing equivalent FlowEntry [cookie={}]");
-                //log.info("replacing equivalent FlowEntry Cookie={}", U64.of(c).toString());
-                OVXFlowMod old = this.flowmodMap.get(c);
-
-                if(old!=null)
-                    log.debug("remove old FlowMod [" + U32.of(old.hashCode()).toString() +"]");
-
+        //replace table entry that strictly matches with given FlowMod.
+        final Long c = this.lookupStrict(fm);
+        if (c != null) {
+            OVXFlowMod old = this.flowmodMap.get(c);
+            if (old != null) {
+                log.debug("remove old FlowMod [" + U32.of(old.hashCode()).toString() + "]");
                 this.cookieMap.remove(old.hashCode());
-                this.addFlowMod(fm, c);
-                // return cookie to pool and use the previous cookie
-                return true;
-            }else{
-                //System.out.println("res != OVXFlowEntry2.EQUAL");
             }
+            this.addFlowMod(fm, c);
+            // return cookie to pool and use the previous cookie
+            return true;
         }
         /* make a new cookie, add FlowMod */
         //System.out.println("make a new cookie, add FlowMod");
         //System.out.println("Cookie = " + this.getCookie());
 
+        if (!FlowQuota.admit(this.vswitch, fm)) {
+            this.vswitch.sendMsg(OVXMessageUtil.makeErrorMsg(
+                    OFFlowModFailedCode.TABLE_FULL, fm), this.vswitch);
+            return false;
+        }
         long newc = this.getCookie();
+        if (newc == CookieAllocator.EXHAUSTED) {
+            log.error("Out of cookies for virtual network {}; rejecting flow mod",
+                    this.vswitch.getTenantId());
+            this.vswitch.sendMsg(OVXMessageUtil.makeErrorMsg(
+                    OFFlowModFailedCode.TABLE_FULL, fm), this.vswitch);
+            return false;
+        }
         log.debug("make a new [cookie={}]", U64.of(newc).toString());
 
-        this.addFlowMod(fm.clone(), newc);
+        // fm is the caller's copy, kept as the entry
+        this.addFlowMod(fm, newc);
         return true;
     }
 
 
     /**
-     * Gets a copy of the FlowMod out of the flow table without removing it.
+     * Gets the FlowMod out of the flow table without removing it. Entries
+     * are immutable, so the stored FlowMod is returned as is; use
+     * {@link OVXFlowMod#clone()} to derive a modified one.
      *
      * @param cookie the physical cookie
-     * @return a clone of the stored FlowMod
+     * @return the stored FlowMod
      * @throws MappingException if the cookie is not found
      */
     public OVXFlowMod getFlowMod(Long cookie) throws MappingException {
@@ -290,7 +275,7 @@ public class OVXFlowTable implements FlowTable {
         if (fm == null) {
             throw new MappingException(cookie, OVXFlowMod.class);
         }
-        return fm.clone();
+        return fm;
     }
 
     /**
@@ -306,7 +291,8 @@ public class OVXFlowTable implements FlowTable {
     /**
      * Gets a new cookie.
      *
-     * @return the cookie
+     * @return the cookie, or {@link CookieAllocator#EXHAUSTED} if the tenant
+     *         has run out of cookies
      */
     public long getCookie() {
         return this.generateCookie();
@@ -316,37 +302,26 @@ public class OVXFlowTable implements FlowTable {
      * Gets a cookie based on the given flow mod.
      *
      * @param flowmod the flow mod
-     * @param cflag TODO
-     * @return the cookie
+     * @param cflag whether to look up the entry that strictly matches the
+     *            flow mod, when the path of a virtual link or big switch
+     *            route it outputs to is switched
+     * @return the cookie, or the placeholder cookie of the tenant if the
+     *         flow mod is not stored in the table
      */
     public final long getCookie(OVXFlowMod flowmod, Boolean cflag) {
 
         if (cflag) {
-            long cookie = this.getCookie();
-            OVXFlowEntry fe = new OVXFlowEntry();
-            int res;
-            for (Map.Entry<Long, OVXFlowMod> fmod : this.flowmodMap.entrySet()) {
-                fe.setOVXFlowMod(fmod.getValue());
-                res = fe.compare(flowmod.getFlowMod().getMatch(), true);
-                // replace table entry that strictly matches with given FlowMod.
-                if (res == OVXFlowEntry.EQUAL) {
-                    long c = fmod.getKey();
-                    log.info(
-                            "replacing equivalent FlowEntry with new [cookie={}->{}]",
-                            U64.of(c).toString(),
-                            U64.of(cookie).toString());
-                    OVXFlowMod old = this.flowmodMap.get(c);
-                    this.cookieMap.remove(old.hashCode());
-                    this.flowmodMap.remove(c);
-                    this.addFlowMod(flowmod, cookie);
-                    // return cookie to pool and use the previous cookie
-                    return cookie;
-                }
+            // the entry keeps its cookie: the physical ingress flow, which
+            // is not sent again on a path switch, still carries it
+            final Long c = this.lookupStrict(flowmod);
+            if (c != null) {
+                return c;
             }
         }
         Long cookie = this.cookieMap.get(flowmod.hashCode());
         if (cookie == null) {
-            cookie = this.getCookie();
+            // not stored, so there is no entry for a new cookie to name
+            cookie = this.cookies.getPlaceholder();
         }
         log.debug("getCookie Cookie = " + U64.of(cookie).toString());
         log.debug("HashCode = " + U32.of(flowmod.hashCode()).toString());
@@ -367,11 +342,52 @@ public class OVXFlowTable implements FlowTable {
         log.debug("HashCode = " + U32.of(flowmod.getFlowMod().hashCode()).toString());
         log.debug(flowmod.getFlowMod().toString());
 
-        this.flowmodMap.put(cookie, flowmod);
+        OVXFlowMod old = this.flowmodMap.put(cookie, flowmod.freeze());
+        if (old != null) {
+            this.classifier.remove(old, cookie);
+        }
         this.cookieMap.put(flowmod.hashCode(), cookie);
+        this.strictIndex.put(new FlowKey(flowmod), cookie);
+        this.classifier.add(flowmod, cookie);
         return cookie;
     }
 
+    /**
+     * Gets the cookie of the entry with the same priority and match as the
+     * given FlowMod, without scanning the table.
+     *
+     * @param fm the flow mod
+     * @return the cookie, or null if there is no such entry
+     */
+    private Long lookupStrict(final OVXFlowMod fm) {
+        final FlowKey key = new FlowKey(fm);
+        final Long cookie = this.strictIndex.get(key);
+        if (cookie == null) {
+            return null;
+        }
+        // the entry may have been replaced under the same cookie
+        final OVXFlowMod current = this.flowmodMap.get(cookie);
+        if (current != null && key.equals(new FlowKey(current))) {
+            return cookie;
+        }
+        this.strictIndex.remove(key, cookie);
+        return null;
+    }
+
+    /*
+     * Removes the entry stored under the given cookie from all maps, without
+     * freeing the cookie.
+     */
+    private OVXFlowMod removeFlowMod(final long cookie) {
+        final OVXFlowMod ret = this.flowmodMap.remove(cookie);
+        if (ret != null) {
+            this.cookieMap.remove(ret.hashCode());
+            this.strictIndex.remove(new FlowKey(ret), cookie);
+            this.classifier.remove(ret, cookie);
+        }
+        return ret;
+    }
+
     /**
      * Deletes the flow mod associated with the given cookie.
      *
@@ -379,39 +395,29 @@ public class OVXFlowTable implements FlowTable {
      * @return the flow mod
      */
     public OVXFlowMod deleteFlowMod(final Long cookie) {
-        synchronized (this.freeList) {
-            if (this.freeList.size() <= OVXFlowTable.FREELIST_SIZE) {
-                // add/return cookie to freelist IF list is below FREELIST_SIZE
-                this.freeList.add(cookie);
-            } else {
-                // remove head element, then add
-                this.freeList.remove();
-                this.freeList.add(cookie);
-            }
-            OVXFlowMod ret = this.flowmodMap.remove(cookie);
-            if (ret != null) {
-                this.cookieMap.remove(ret.hashCode());
-            }
-            return ret;
+        final OVXFlowMod ret = this.removeFlowMod(cookie);
+        if (ret != null) {
+            // only the caller that removed the entry frees its cookie
+            this.cookies.free(cookie);
         }
+        return ret;
     }
 
     /**
-     * Fetches a usable cookie for FlowMod storage. If no cookies are available,
-     * generate a new physical cookie from the OVXSwitch tenant ID and
-     * OVXSwitch-unique cookie counter.
+     * Fetches a usable cookie for FlowMod storage from the cookies of the
+     * tenant, which are never handed out twice while in use.
      *
-     * @return a physical cookie
+     * @return a physical cookie, or {@link CookieAllocator#EXHAUSTED}
      */
     private long generateCookie() {
-        try {
-            return this.freeList.remove();
-        } catch (final NoSuchElementException e) {
-            // none in queue - generate new cookie
-            // TODO double-check that there's no duplicate in ovxFlowMod map.
-            final int cookie = this.cookieCounter.getAndIncrement();
-            return (long) this.vswitch.getTenantId() << 32 | cookie;
-        }
+        return this.cookies.allocate();
+    }
+
+    /*
+     * Gets the cookies of the entries in the table.
+     */
+    Set<Long> getCookies() {
+        return Collections.unmodifiableSet(this.flowmodMap.keySet());
     }
 
     /**
@@ -437,4 +443,42 @@ public class OVXFlowTable implements FlowTable {
         return Collections.unmodifiableCollection(this.flowmodMap.values());
     }
 
+    /**
+     * Key identifying a flow entry for strict operations: two FlowMods refer
+     * to the same entry iff they have the same priority and match. Matches
+     * are compared field by field on their compiled form, since loxi Match
+     * equality also compares whatever an OF1.0 match holds in the fields it
+     * wildcards.
+     */
+    protected static final class FlowKey {
+        private final int priority;
+        private final CompiledMatch match;
+        private final int hash;
+
+        FlowKey(final OVXFlowMod fm) {
+            this.priority = fm.getFlowMod().getPriority();
+            this.match = fm.getCompiledMatch();
+            this.hash = 31 * this.priority + this.match.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FlowKey)) {
+                return false;
+            }
+            final FlowKey other = (FlowKey) obj;
+            return this.hash == other.hash
+                    && this.priority == other.priority
+                    && this.match.equals(other.match);
+        }
+    }
+
 }
@@ -24,6 +24,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.io.OVXChannelWriter;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.db.DBManager;
 import net.onrc.openvirtex.elements.Persistable;
@@ -51,7 +52,6 @@ import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.MacAddress;
 import org.projectfloodlight.openflow.types.OFPort;
-import org.projectfloodlight.openflow.util.LRULinkedHashMap;
 
 /**
  * The base virtual switch.
@@ -75,9 +75,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
     protected OVXSwitchCapabilities capabilities;
     // The backoff counter for this switch when unconnected
     private AtomicInteger backOffCounter = null;
-    protected LRULinkedHashMap<Integer, OVXPacketIn> bufferMap;
-
-    private AtomicInteger bufferId = null;
+    protected final PacketBufferStore bufferStore;
     private final BitSetIndex portCounter;
     protected FlowTable flowTable;
     // Used to save which channel the message came in on
@@ -88,6 +86,12 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
      * the current role of a controller.
      */
     private final RoleManager roleMan;
+    // Barriers from controllers waiting for the physical switches
+    private final BarrierAggregator barriers;
+    // Flow mods held back by FlowInstaller, in release order
+    private final FlowInstaller.Sends sends;
+    // How identical flow mods were devirtualized before
+    private final FlowModCache flowModCache;
 
     //private OFFeaturesReply ofFeaturesReply;
 
@@ -105,12 +109,13 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         this.capabilities = new OVXSwitchCapabilities();
         this.backOffCounter = new AtomicInteger();
         this.resetBackOff();
-        this.bufferMap = new LRULinkedHashMap<Integer, OVXPacketIn>(
-                OVXSwitch.bufferDimension);
+        this.bufferStore = new PacketBufferStore(OVXSwitch.bufferDimension);
         this.portCounter = new BitSetIndex(IndexType.PORT_ID);
-        this.bufferId = new AtomicInteger(1);
         this.flowTable = new OVXFlowTable(this);
         this.roleMan = new RoleManager();
+        this.barriers = new BarrierAggregator(this);
+        this.sends = new FlowInstaller.Sends();
+        this.flowModCache = new FlowModCache();
         this.channelMux = new XidTranslator<Channel>();
     }
 
@@ -492,22 +497,54 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
      * @param pktIn the packet_in
      * @return the buffer ID
      */
-    public synchronized int addToBufferMap(final OVXPacketIn pktIn) {
-        // TODO: this isn't thread safe... fix it
-        this.bufferId.compareAndSet(OVXSwitch.bufferDimension, 0);
-        this.bufferMap.put(this.bufferId.get(), new OVXPacketIn(pktIn));
-        return this.bufferId.getAndIncrement();
+    public int addToBufferMap(final OVXPacketIn pktIn) {
+        return this.bufferStore.add(pktIn);
     }
 
     /**
      * Gets a packet_in from a given buffer ID.
      *
      * @param bufId the buffer ID
-     * @return packet_in packet
+     * @return packet_in packet, or null if unknown or expired
+     */
+    public OVXPacketIn getFromBufferMap(final int bufId) {
+        return this.bufferStore.get(bufId);
+    }
+
+    /**
+     * Gets the barrier state of this switch.
+     *
+     * @return the barrier aggregator
+     */
+    public BarrierAggregator getBarrierAggregator() {
+        return this.barriers;
+    }
+
+    /**
+     * Gets the flow mods of this switch held back by the flow installer.
+     *
+     * @return the queue of held back flow mods
+     */
+    FlowInstaller.Sends getSends() {
+        return this.sends;
+    }
+
+    /**
+     * Gets the devirtualized flow mod cache of this switch.
+     *
+     * @return the flow mod cache
      */
-    public OVXPacketIn getFromBufferMap(final Integer bufId) {
+    public FlowModCache getFlowModCache() {
+        return this.flowModCache;
+    }
 
-        return this.bufferMap.get(bufId);
+    /**
+     * Gets the hit, miss and eviction counters of the packet buffer.
+     *
+     * @return map of counter names to values
+     */
+    public Map<String, Object> getBufferStatistics() {
+        return this.bufferStore.getStatistics();
     }
 
     /**
@@ -656,11 +693,12 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
      *
      * @param cookie
      *            the physical cookie
-     * @return the virtual flow mod
+     * @return the virtual flow mod, shared with the flow table and not to
+     *         be modified
      * @throws MappingException if the cookie is not found
      */
     public OVXFlowMod getFlowMod(final Long cookie) throws MappingException {
-        return this.flowTable.getFlowMod(cookie).clone();
+        return this.flowTable.getFlowMod(cookie);
     }
 
     /**
@@ -768,7 +806,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
                 .setCode(OFBadRequestCode.EPERM)
                 .build();
 
-        channel.write(Collections.singletonList(e));
+        OVXChannelWriter.write(channel, e);
     }
 
     /**
@@ -802,7 +840,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
                 .setRole(tempRole)
                 .build();
 
-        channel.write(Collections.singletonList(ofRoleReply));
+        OVXChannelWriter.write(channel, ofRoleReply);
     }
 
     /**
@@ -0,0 +1,257 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.messages.OVXPacketIn;
+
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+
+/**
+ * Packet-ins buffered by a virtual switch, waiting for the controller to
+ * refer to them by buffer ID in a PACKET_OUT or FLOW_MOD.
+ *
+ * Buffer IDs are taken from a sequence and stored in a ring of slots indexed
+ * by their low bits; the higher bits act as a generation, so an ID whose slot
+ * has since been reused no longer matches the slot's tag and misses instead
+ * of returning someone else's packet. Slots are claimed with a CAS on their
+ * tag, so neither adding nor looking up takes a lock, and lookups do not
+ * allocate. Besides the ring size, the store is bounded by the bytes of
+ * packet data it holds: the oldest packets are dropped to make room.
+ */
+public class PacketBufferStore {
+
+    /**
+     * Default maximum bytes of packet data held per virtual switch.
+     */
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    /**
+     * Default time (in milliseconds) a buffered packet stays usable.
+     */
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    // per-entry cost on top of the packet data
+    private static final int ENTRY_OVERHEAD = 64;
+    // slot tags; buffer IDs are never negative
+    private static final int EMPTY = -1;
+    private static final int BUSY = -2;
+
+    private static volatile int maxBytes = DEFAULT_MAX_BYTES;
+    private static volatile long timeoutNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_TIMEOUT);
+
+    private static final AtomicLong TOTAL_HITS = new AtomicLong();
+    private static final AtomicLong TOTAL_MISSES = new AtomicLong();
+    private static final AtomicLong TOTAL_EXPIRED = new AtomicLong();
+    private static final AtomicLong TOTAL_EVICTED = new AtomicLong();
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicIntegerArray tags;
+    private final OVXPacketIn[] packets;
+    private final int[] sizes;
+    private final long[] stamps;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * Creates a store with the given number of slots.
+     *
+     * @param slots the number of slots, rounded up to a power of two
+     */
+    public PacketBufferStore(final int slots) {
+        this.capacity = Integer.highestOneBit(Math.max(2, slots) * 2 - 1);
+        this.mask = this.capacity - 1;
+        this.tags = new AtomicIntegerArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            this.tags.set(i, EMPTY);
+        }
+        this.packets = new OVXPacketIn[this.capacity];
+        this.sizes = new int[this.capacity];
+        this.stamps = new long[this.capacity];
+    }
+
+    /**
+     * Sets the limits applied to every store.
+     *
+     * @param bytesPerSwitch maximum bytes of packet data per store
+     * @param timeout time (in milliseconds) a buffered packet stays usable
+     */
+    public static void configure(final int bytesPerSwitch, final int timeout) {
+        PacketBufferStore.maxBytes = Math.max(0, bytesPerSwitch);
+        PacketBufferStore.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math
+                .max(0, timeout));
+    }
+
+    /**
+     * Buffers a packet-in.
+     *
+     * @param pktIn the packet-in, as received from the physical switch
+     * @return the buffer ID
+     */
+    public int add(final OVXPacketIn pktIn) {
+        final OFPacketIn pi = pktIn.getPacketIn();
+        final int size = (pi.getData() == null ? 0 : pi.getData().length)
+                + ENTRY_OVERHEAD;
+        this.makeRoom(size);
+
+        final long seq = this.head.getAndIncrement();
+        final int id = (int) (seq & Integer.MAX_VALUE);
+        final int slot = id & this.mask;
+
+        int tag;
+        do {
+            tag = this.tags.get(slot);
+        } while (tag == BUSY || !this.tags.compareAndSet(slot, tag, BUSY));
+        if (tag != EMPTY) {
+            this.release(slot);
+        }
+
+        // keep the packet-in as received; the caller goes on to rewrite it
+        this.packets[slot] = new OVXPacketIn(pi);
+        this.sizes[slot] = size;
+        this.stamps[slot] = System.nanoTime();
+        this.bytes.addAndGet(size);
+        // publishes the slot contents
+        this.tags.set(slot, id);
+        return id;
+    }
+
+    /**
+     * Gets a buffered packet-in.
+     *
+     * @param id the buffer ID
+     * @return the packet-in, or null if the ID is unknown, stale or expired
+     */
+    public OVXPacketIn get(final int id) {
+        if (id < 0) {
+            return null;
+        }
+        final int slot = id & this.mask;
+        if (this.tags.get(slot) != id) {
+            this.count(this.misses, TOTAL_MISSES);
+            return null;
+        }
+        final OVXPacketIn pktIn = this.packets[slot];
+        final long stamp = this.stamps[slot];
+        // overwritten while reading
+        if (this.tags.get(slot) != id) {
+            this.count(this.misses, TOTAL_MISSES);
+            return null;
+        }
+        if (System.nanoTime() - stamp > PacketBufferStore.timeoutNanos) {
+            this.count(this.expired, TOTAL_EXPIRED);
+            return null;
+        }
+        this.count(this.hits, TOTAL_HITS);
+        return pktIn;
+    }
+
+    /*
+     * Drops the oldest packets until the new one fits in the byte budget.
+     */
+    private void makeRoom(final int size) {
+        final long limit = PacketBufferStore.maxBytes;
+        while (this.bytes.get() + size > limit) {
+            final long t = this.tail.get();
+            final long h = this.head.get();
+            if (t >= h) {
+                return;
+            }
+            // slots older than one lap have been overwritten already
+            final long next = Math.max(t, h - this.capacity);
+            if (!this.tail.compareAndSet(t, next + 1)) {
+                continue;
+            }
+            final int id = (int) (next & Integer.MAX_VALUE);
+            final int slot = id & this.mask;
+            if (this.tags.compareAndSet(slot, id, BUSY)) {
+                this.release(slot);
+                this.tags.set(slot, EMPTY);
+            }
+        }
+    }
+
+    // caller holds the slot (tag set to BUSY)
+    private void release(final int slot) {
+        this.bytes.addAndGet(-this.sizes[slot]);
+        this.packets[slot] = null;
+        this.count(this.evicted, TOTAL_EVICTED);
+    }
+
+    private void count(final AtomicLong counter, final AtomicLong total) {
+        counter.incrementAndGet();
+        total.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of slots, advertised to controllers as n_buffers.
+     *
+     * @return the number of slots
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Gets the counters of this store.
+     *
+     * @return map of counter names to values
+     */
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = PacketBufferStore.toStatistics(
+                this.hits.get(), this.misses.get(), this.expired.get(),
+                this.evicted.get());
+        stats.put("bytes", this.bytes.get());
+        return stats;
+    }
+
+    /**
+     * Gets the counters aggregated over all stores.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getGlobalStatistics() {
+        return PacketBufferStore.toStatistics(TOTAL_HITS.get(),
+                TOTAL_MISSES.get(), TOTAL_EXPIRED.get(), TOTAL_EVICTED.get());
+    }
+
+    private static Map<String, Object> toStatistics(final long hitCount,
+            final long missCount, final long expiredCount,
+            final long evictedCount) {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("expired", expiredCount);
+        stats.put("evicted", evictedCount);
+        return stats;
+    }
+}
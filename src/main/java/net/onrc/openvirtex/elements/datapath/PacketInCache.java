@@ -0,0 +1,175 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+/**
+ * Remembers which tenant, virtual switch and virtual port the packet-ins
+ * a physical switch receives on an edge port from a given source MAC
+ * address belong to, so that packet-ins from known hosts are classified
+ * without going through the MAC, switch and port mappings.
+ *
+ * The cache is direct-mapped: the input port and source MAC are packed into
+ * a long which selects a single slot, and an entry is replaced by the next
+ * one landing in its slot. Lookups and stores take no lock. Any change to
+ * the MAC mappings, virtual ports, port states or tenants invalidates the
+ * entries of all switches.
+ */
+public final class PacketInCache {
+
+    private static final int SLOTS = 1 << 10;
+    private static final int MASK = SLOTS - 1;
+
+    // bumped on every change that can alter a classification
+    private static final AtomicLong EPOCH = new AtomicLong();
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong STORED = new AtomicLong();
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+
+    private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<Entry>(
+            SLOTS);
+
+    /**
+     * The virtual network elements a packet-in was classified to.
+     */
+    public static final class Entry {
+        private final long key;
+        private final long epoch;
+        private final int tenantId;
+        private final OVXSwitch vsw;
+        private final OVXPort port;
+
+        private Entry(final long key, final long epoch, final int tenantId,
+                      final OVXSwitch vsw, final OVXPort port) {
+            this.key = key;
+            this.epoch = epoch;
+            this.tenantId = tenantId;
+            this.vsw = vsw;
+            this.port = port;
+        }
+
+        public int getTenantId() {
+            return this.tenantId;
+        }
+
+        public OVXSwitch getSwitch() {
+            return this.vsw;
+        }
+
+        public OVXPort getPort() {
+            return this.port;
+        }
+    }
+
+    /**
+     * Invalidates the entries of all physical switches, after a change to
+     * the MAC mappings, virtual ports, port states or tenants.
+     */
+    public static void invalidate() {
+        EPOCH.incrementAndGet();
+        INVALIDATIONS.incrementAndGet();
+    }
+
+    /**
+     * Gets the current epoch, to be read before resolving a packet-in that
+     * is then passed to {@link #store}.
+     *
+     * @return the epoch
+     */
+    public static long getEpoch() {
+        return EPOCH.get();
+    }
+
+    /**
+     * Gets the classification of packet-ins received on a port from a
+     * source MAC address.
+     *
+     * @param inPort the physical input port
+     * @param ethSrc the source MAC address
+     * @return the entry, or null if there is none or it is stale
+     */
+    public Entry lookup(final short inPort, final long ethSrc) {
+        final long key = PacketInCache.key(inPort, ethSrc);
+        final Entry entry = this.slots.get(PacketInCache.slot(key));
+        if (entry == null || entry.key != key || entry.epoch != EPOCH.get()) {
+            MISSES.incrementAndGet();
+            return null;
+        }
+        HITS.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Stores the classification of packet-ins received on a port from a
+     * source MAC address, unless it raced with an invalidation.
+     *
+     * @param inPort the physical input port
+     * @param ethSrc the source MAC address
+     * @param epoch the epoch read before the classification was resolved
+     * @param tenantId the tenant ID
+     * @param vsw the virtual switch
+     * @param port the virtual input port
+     */
+    public void store(final short inPort, final long ethSrc, final long epoch,
+                      final int tenantId, final OVXSwitch vsw,
+                      final OVXPort port) {
+        if (epoch != EPOCH.get()) {
+            return;
+        }
+        final long key = PacketInCache.key(inPort, ethSrc);
+        this.slots.set(PacketInCache.slot(key), new Entry(key, epoch,
+                tenantId, vsw, port));
+        STORED.incrementAndGet();
+    }
+
+    private static long key(final short inPort, final long ethSrc) {
+        return (long) (0xffff & inPort) << 48 | ethSrc & 0xffffffffffffL;
+    }
+
+    private static int slot(final long key) {
+        final long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32 ^ h) & MASK;
+    }
+
+    /**
+     * Gets the cache counters aggregated over all physical switches.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getStatistics() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        final long hits = HITS.get();
+        final long lookups = hits + MISSES.get();
+        stats.put("hits", hits);
+        stats.put("misses", MISSES.get());
+        stats.put("stored", STORED.get());
+        stats.put("invalidations", INVALIDATIONS.get());
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+        return stats;
+    }
+}
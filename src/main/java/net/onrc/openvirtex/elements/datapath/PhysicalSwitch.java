@@ -19,12 +19,17 @@
  */
 package net.onrc.openvirtex.elements.datapath;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.core.io.IngressRateLimiter;
+import net.onrc.openvirtex.core.io.OVXChannelWriter;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
@@ -41,15 +46,30 @@ import org.apache.logging.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.OFGroup;
 import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
 
 public class PhysicalSwitch extends Switch<PhysicalPort> {
     private static Logger log = LogManager.getLogger(PhysicalSwitch.class.getName());
+    // Selects the tenant ID bits of a physical flow cookie
+    private static final long TENANT_COOKIE_MASK = 0xffffffff00000000L;
 
         // The Xid mapper
     private final XidTranslator<OVXSwitch> translator;
+    // Barriers sent by OVX itself, by XID, with what to run on reply
+    private final ConcurrentHashMap<Integer, Runnable> barriers;
+    // The flows OVX wants installed, kept across reconnects
+    private final FlowShadow shadow;
+    // Tenant, virtual switch and port of packet-ins from known hosts
+    private final PacketInCache packetInCache;
+    // XID of the flow stats request the shadow is reconciled with, -1 if none
+    private int reconcileXid = -1;
+    private final List<OFFlowStatsEntry> reconcileEntries;
     private StatisticsManager statsMan = null;
 
     private AtomicReference<Map<Short, OFPortStatsEntry>> portStats;
@@ -58,6 +78,9 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     //private AtomicReference<Map<Integer, List<OVXFlowStatisticsReply>>> flowStats;
 
     private AtomicReference<Map<Integer, List<OFFlowStatsEntry>>> flowStats;
+    // Packet count of each tenant flow at the last flow stats, and the time
+    // (in milliseconds) it last changed
+    private AtomicReference<Map<Long, long[]>> flowActivity;
 
     class DeregAction implements Runnable {
 
@@ -99,8 +122,14 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     public PhysicalSwitch(final long switchId, OFVersion ofv) {
         super(switchId);
         this.translator = new XidTranslator<OVXSwitch>();
+        this.barriers = new ConcurrentHashMap<Integer, Runnable>();
+        this.shadow = PhysicalNetwork.getInstance().getFlowShadow(switchId);
+        this.packetInCache = new PacketInCache();
+        this.reconcileEntries = new ArrayList<OFFlowStatsEntry>();
         this.portStats = new AtomicReference<Map<Short, OFPortStatsEntry>>();
         this.flowStats = new AtomicReference<Map<Integer, List<OFFlowStatsEntry>>>();
+        this.flowActivity = new AtomicReference<Map<Long, long[]>>(
+                Collections.<Long, long[]>emptyMap());
 
         this.setOfVersion(ofv);
 
@@ -147,6 +176,7 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         PhysicalSwitch.log.info("Switch disconnected {} ",
                 this.featuresReply.getDatapathId());
         this.statsMan.stop();
+        this.barriers.clear();
         this.channel.disconnect();
         this.map.removePhysicalSwitch(this);
     }
@@ -184,6 +214,7 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         if (result) {
             PhysicalNetwork pnet = PhysicalNetwork.getInstance();
             pnet.removePort(pnet.getDiscoveryManager(this.getSwitchId()), port);
+            PacketInCache.invalidate();
         }
         return result;
     }
@@ -205,6 +236,10 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         //for OVS new version
         sendDefaultFlowsAdd();
 
+        if (!this.shadow.isEmpty()) {
+            this.requestReconcile();
+        }
+
         return true;
     }
 
@@ -282,8 +317,18 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
 
     @Override
     public void sendMsg(final OVXMessage msg, final OVXSendMsg from) {
+        OFMessage out = msg.getOFMessage();
+        if (out instanceof OFFlowMod) {
+            // what should be installed, even if it cannot be sent right now
+            out = FlowShadow.track((OFFlowMod) out);
+            this.shadow.record((OFFlowMod) out);
+        }
         if ((this.channel.isOpen()) && (this.isConnected)) {
-            this.channel.write(Collections.singletonList(msg.getOFMessage()));
+            OVXChannelWriter.write(this.channel, out);
+            if (from instanceof OVXSwitch) {
+                // a later barrier to the virtual switch must cover this
+                ((OVXSwitch) from).getBarrierAggregator().touch(this);
+            }
         }
     }
 
@@ -334,6 +379,118 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         return pair;
     }
 
+    /**
+     * Sends a barrier request to this switch. Its XID is taken from the
+     * same space as translated XIDs, so it cannot be mistaken for the reply
+     * to a tenant's barrier.
+     *
+     * @param onReply run when the switch replies to the barrier
+     * @return the XID of the barrier, or -1 if the switch is not connected
+     *         and onReply will never run
+     */
+    public int sendBarrier(final Runnable onReply) {
+        if (this.channel == null || !this.channel.isOpen() || !this.isConnected) {
+            return -1;
+        }
+        final int xid = this.translator.translate(0, null);
+        this.barriers.put(xid, onReply);
+        OVXChannelWriter.write(this.channel, this.ofFactory
+                .buildBarrierRequest().setXid(xid).build());
+        return xid;
+    }
+
+    /**
+     * Stops waiting for the reply to a barrier sent by
+     * {@link #sendBarrier(Runnable)}.
+     *
+     * @param xid the XID of the barrier
+     */
+    public void cancelBarrier(final int xid) {
+        this.barriers.remove(xid);
+    }
+
+    /**
+     * Handles a barrier reply from this switch.
+     *
+     * @param xid the XID of the reply
+     * @return true if the barrier was sent by {@link #sendBarrier(Runnable)}
+     */
+    public boolean barrierReplied(final int xid) {
+        final Runnable onReply = this.barriers.remove(xid);
+        if (onReply == null) {
+            return false;
+        }
+        this.translator.untranslate(xid);
+        onReply.run();
+        return true;
+    }
+
+    /**
+     * Gets the flows OVX wants installed on this switch.
+     *
+     * @return the flow shadow
+     */
+    public FlowShadow getFlowShadow() {
+        return this.shadow;
+    }
+
+    /**
+     * Gets the classification cache of the packet-ins from this switch.
+     *
+     * @return the packet-in cache
+     */
+    public PacketInCache getPacketInCache() {
+        return this.packetInCache;
+    }
+
+    /*
+     * Asks for the flows installed on the switch, to compare them with the
+     * shadow once the switch has reconnected.
+     */
+    private synchronized void requestReconcile() {
+        this.reconcileXid = this.translator.translate(0, null);
+        this.reconcileEntries.clear();
+        log.info("Reconciling {} flows with switch {}", this.shadow.size(),
+                this.getSwitchName());
+        OVXChannelWriter.write(this.channel, this.ofFactory
+                .buildFlowStatsRequest()
+                .setXid(this.reconcileXid)
+                .setMatch(this.ofFactory.matchWildcardAll())
+                .setOutPort(OFPort.ANY)
+                .setTableId(TableId.ALL)
+                .build());
+    }
+
+    /**
+     * Handles a flow stats reply to the request sent on reconnect, and
+     * pushes the flows that are missing or stale on the switch once the
+     * last part has been received.
+     *
+     * @param msg the flow stats reply
+     * @return true if the reply was for the reconciliation request
+     */
+    public synchronized boolean reconcile(final OVXStatisticsReply msg) {
+        final OFFlowStatsReply reply = (OFFlowStatsReply) msg.getOFMessage();
+        if (this.reconcileXid < 0 || (int) reply.getXid() != this.reconcileXid) {
+            return false;
+        }
+        this.reconcileEntries.addAll(reply.getEntries());
+        if (reply.getFlags().contains(OFStatsReplyFlags.REPLY_MORE)) {
+            return true;
+        }
+        this.translator.untranslate(this.reconcileXid);
+        this.reconcileXid = -1;
+        final List<OFFlowMod> delta = this.shadow.diff(this.reconcileEntries);
+        log.info("Switch {} has {} flows, pushing {} flow mods to match the "
+                + "{} expected", this.getSwitchName(),
+                this.reconcileEntries.size(), delta.size(), this.shadow.size());
+        this.reconcileEntries.clear();
+        for (final OFFlowMod fm : delta) {
+            this.sendMsg(new OVXFlowMod(fm), this);
+        }
+        return true;
+    }
+
     public void setPortStatistics(Map<Short, OFPortStatsEntry> stats) {
         this.portStats.set(stats);
     }
@@ -341,7 +498,52 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     public void setFlowStatistics(
             Map<Integer, List<OFFlowStatsEntry>> stats) {
         this.flowStats.set(stats);
+        if (stats != null) {
+            this.updateFlowActivity(stats);
+        }
+    }
 
+    private void updateFlowActivity(
+            final Map<Integer, List<OFFlowStatsEntry>> stats) {
+        // a big switch can hold several entries with the same cookie
+        final Map<Long, Long> packets = new HashMap<Long, Long>();
+        for (final Map.Entry<Integer, List<OFFlowStatsEntry>> tenant : stats
+                .entrySet()) {
+            if (tenant.getKey() == 0) {
+                continue;
+            }
+            for (final OFFlowStatsEntry entry : tenant.getValue()) {
+                final long cookie = entry.getCookie().getValue();
+                final Long count = packets.get(cookie);
+                packets.put(cookie, (count == null ? 0 : count)
+                        + entry.getPacketCount().getValue());
+            }
+        }
+        final long now = System.currentTimeMillis();
+        final Map<Long, long[]> previous = this.flowActivity.get();
+        final Map<Long, long[]> activity = new HashMap<Long, long[]>();
+        for (final Map.Entry<Long, Long> entry : packets.entrySet()) {
+            final long[] last = previous.get(entry.getKey());
+            if (last != null && last[0] == entry.getValue()) {
+                activity.put(entry.getKey(), last);
+            } else {
+                activity.put(entry.getKey(), new long[] {entry.getValue(), now});
+            }
+        }
+        this.flowActivity.set(activity);
+    }
+
+    /**
+     * Gets the time since a flow last matched a packet, as far as the flow
+     * stats tell.
+     *
+     * @param cookie the cookie of the flow
+     * @return the idle time in milliseconds, or -1 if the flow was not in
+     *         the last flow stats
+     */
+    public long getIdleMillis(final long cookie) {
+        final long[] last = this.flowActivity.get().get(cookie);
+        return last == null ? -1 : System.currentTimeMillis() - last[1];
     }
 
     public List<OFFlowStatsEntry> getFlowStats(int tid) {
@@ -360,8 +562,71 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         return null;
     }
 
+    /**
+     * Gets the ingress rate limiting counters of this switch.
+     *
+     * @return map of counter names to values, or null if not connected
+     */
+    public Map<String, Object> getIngressStatistics() {
+        return IngressRateLimiter.getStatistics(this.channel);
+    }
+
+    /**
+     * Removes the flows of a tenant from this switch. OF1.3 switches are
+     * sent deletes selecting the tenant by cookie mask; OF1.0 has no cookie
+     * mask, so one strict delete is sent per flow in the shadow. If the
+     * shadow has not been reconciled with the switch yet, the switch may
+     * hold flows of the tenant it does not know of, so they are also looked
+     * up with a flow stats request as before.
+     *
+     * @param tenantId the tenant ID
+     * @param port the port to remove the flows of, i.e. the flows matching
+     *            on it or sending to it; 0 or ANY for all flows
+     */
     public void cleanUpTenant(Integer tenantId, Short port) {
-        this.statsMan.cleanUpTenant(tenantId, port);
+        if (port == OFPort.ANY.getShortPortNumber()) {
+            port = 0;
+        }
+        if (this.getOfVersion() != OFVersion.OF_10) {
+            // the tenant ID is in the upper half of the cookie
+            final U64 cookie = U64.of((long) tenantId << 32);
+            if (port == 0) {
+                this.sendTenantDelete(cookie, this.ofFactory.matchWildcardAll(),
+                        OFPort.ANY);
+            } else {
+                this.sendTenantDelete(cookie, this.ofFactory.matchWildcardAll(),
+                        OFPort.of(port));
+                this.sendTenantDelete(cookie, this.ofFactory.buildMatch()
+                        .setExact(MatchField.IN_PORT, OFPort.of(port))
+                        .build(), OFPort.ANY);
+            }
+            return;
+        }
+        // the shadow knows what the tenant has installed, no need to ask
+        for (final OFFlowMod fm : this.shadow.removeTenant(tenantId, port)) {
+            final OFFlowDeleteStrict ofFlowDeleteStrict = ofFactory
+                    .buildFlowDeleteStrict()
+                    .setMatch(fm.getMatch())
+                    .setPriority(fm.getPriority())
+                    .setOutPort(OFPort.ANY)
+                    .build();
+            this.sendMsg(new OVXFlowMod(ofFlowDeleteStrict), this);
+        }
+        if (!this.shadow.isComplete()) {
+            this.statsMan.cleanUpTenant(tenantId, port);
+        }
+    }
+
+    private void sendTenantDelete(U64 cookie, Match match, OFPort outPort) {
+        OFFlowDelete ofFlowDelete = ofFactory.buildFlowDelete()
+                .setCookie(cookie)
+                .setCookieMask(U64.of(TENANT_COOKIE_MASK))
+                .setMatch(match)
+                .setOutPort(outPort)
+                .setOutGroup(OFGroup.ANY)
+                .setTableId(TableId.ALL)
+                .build();
+        this.sendMsg(new OVXFlowMod(ofFlowDelete), this);
     }
 
     public void removeFlowMods(OVXStatisticsReply msg) {
@@ -19,48 +19,173 @@
  */
 package net.onrc.openvirtex.elements.datapath;
 
-import org.projectfloodlight.openflow.util.LRULinkedHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Based on Flowvisor XidTranslator by capveg.
+ *
+ * Translated XIDs are handed out sequentially and stored in a fixed ring of
+ * slots indexed by the low bits of the XID, so a new XID overwrites the one
+ * issued MAX_SIZE requests earlier. Each slot is tagged with the full XID it
+ * holds; a lookup whose tag does not match has been evicted. Slots are
+ * claimed with a CAS on their tag, so no lock is taken.
  */
 public class XidTranslator<T> {
 
     static final int MIN_XID = 256;
-    static final int INIT_SIZE = 1 << 10;
     static final int MAX_SIZE = 1 << 14; // must be larger than the max lifetime
                                          // of an XID * rate of
                                          // mesgs/sec
-    int nextID;
-    LRULinkedHashMap<Integer, XidPair<T>> xidMap;
+    private static final int MASK = XidTranslator.MAX_SIZE - 1;
+    // slot tags; real XIDs are never below MIN_XID
+    private static final int EMPTY = 0;
+    private static final int BUSY = -1;
+
+    private static final AtomicLong TOTAL_TRANSLATED = new AtomicLong();
+    private static final AtomicLong TOTAL_EVICTED = new AtomicLong();
+    private static final AtomicLong TOTAL_MISSES = new AtomicLong();
+
+    private final AtomicInteger nextID;
+    private final AtomicIntegerArray tags;
+    private final AtomicIntegerArray answered;
+    private final int[] xids;
+    private final Object[] switches;
 
+    private final AtomicLong translated;
+    private final AtomicLong evicted;
+    private final AtomicLong misses;
 
     public XidTranslator() {
-        this.nextID = XidTranslator.MIN_XID;
-        this.xidMap = new LRULinkedHashMap<Integer, XidPair<T>>(
-                XidTranslator.INIT_SIZE, XidTranslator.MAX_SIZE);
+        this(XidTranslator.MIN_XID);
+    }
+
+    /**
+     * Creates a translator handing out XIDs from the given one.
+     *
+     * @param firstXid the first XID, at least MIN_XID
+     */
+    XidTranslator(final int firstXid) {
+        this.nextID = new AtomicInteger(firstXid);
+        this.tags = new AtomicIntegerArray(XidTranslator.MAX_SIZE);
+        this.answered = new AtomicIntegerArray(XidTranslator.MAX_SIZE);
+        this.xids = new int[XidTranslator.MAX_SIZE];
+        this.switches = new Object[XidTranslator.MAX_SIZE];
+        this.translated = new AtomicLong();
+        this.evicted = new AtomicLong();
+        this.misses = new AtomicLong();
     }
 
     /**
      * Recovers the source of the message transaction by Xid.
      *
      * @param xid
-     * @return
+     * @return the original XID and source, or null if unknown or evicted
      */
+    @SuppressWarnings("unchecked")
     public XidPair<T> untranslate(final int xid) {
-        return this.xidMap.get(Integer.valueOf(xid));
+        final int slot = xid & XidTranslator.MASK;
+        if (xid < XidTranslator.MIN_XID || this.tags.get(slot) != xid) {
+            this.miss();
+            return null;
+        }
+        final int orig = this.xids[slot];
+        final T sw = (T) this.switches[slot];
+        // overwritten while reading
+        if (this.tags.get(slot) != xid) {
+            this.miss();
+            return null;
+        }
+        this.answered.lazySet(slot, 1);
+        return new XidPair<T>(orig, sw);
     }
 
     /**
      * @return the new Xid for the message.
      */
     public int translate(final int xid, final T sw) {
-        final int ret = this.nextID++;
-        if (this.nextID < XidTranslator.MIN_XID) {
-            this.nextID = XidTranslator.MIN_XID;
+        final int ret = this.nextXid();
+        final int slot = ret & XidTranslator.MASK;
+
+        int tag;
+        do {
+            tag = this.tags.get(slot);
+        } while (tag == XidTranslator.BUSY
+                || !this.tags.compareAndSet(slot, tag, XidTranslator.BUSY));
+        if (tag != XidTranslator.EMPTY && this.answered.get(slot) == 0) {
+            this.evicted.incrementAndGet();
+            TOTAL_EVICTED.incrementAndGet();
         }
-        this.xidMap.put(Integer.valueOf(ret), new XidPair<T>(xid, sw));
+
+        this.xids[slot] = xid;
+        this.switches[slot] = sw;
+        this.answered.set(slot, 0);
+        // publishes the slot contents
+        this.tags.set(slot, ret);
+
+        this.translated.incrementAndGet();
+        TOTAL_TRANSLATED.incrementAndGet();
         return ret;
     }
 
+    private int nextXid() {
+        while (true) {
+            final int cur = this.nextID.get();
+            final int next = cur + 1 < XidTranslator.MIN_XID ? XidTranslator.MIN_XID
+                    : cur + 1;
+            if (this.nextID.compareAndSet(cur, next)) {
+                return cur;
+            }
+        }
+    }
+
+    private void miss() {
+        this.misses.incrementAndGet();
+        TOTAL_MISSES.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of translations overwritten before any reply was
+     * untranslated through them. A growing count means the XID window is
+     * too small for the request rate.
+     *
+     * @return the number of entries evicted before reply
+     */
+    public long getEvictedCount() {
+        return this.evicted.get();
+    }
+
+    /**
+     * Gets the translation counters of this translator.
+     *
+     * @return map of counter names to values
+     */
+    public Map<String, Object> getStatistics() {
+        return XidTranslator.toStatistics(this.translated.get(),
+                this.evicted.get(), this.misses.get());
+    }
+
+    /**
+     * Gets the translation counters aggregated over all translators.
+     *
+     * @return map of counter names to values
+     */
+    public static Map<String, Object> getGlobalStatistics() {
+        return XidTranslator.toStatistics(TOTAL_TRANSLATED.get(),
+                TOTAL_EVICTED.get(), TOTAL_MISSES.get());
+    }
+
+    private static Map<String, Object> toStatistics(final long translatedCount,
+            final long evictedCount, final long missCount) {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("capacity", XidTranslator.MAX_SIZE);
+        stats.put("translated", translatedCount);
+        stats.put("evictedBeforeReply", evictedCount);
+        stats.put("misses", missCount);
+        return stats;
+    }
+
 }
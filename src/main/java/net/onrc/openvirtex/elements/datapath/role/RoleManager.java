@@ -25,6 +25,7 @@ import java.util.Map;
 
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.core.io.OVXChannelWriter;
 import net.onrc.openvirtex.exceptions.UnknownRoleException;
 
 import org.apache.logging.log4j.LogManager;
@@ -193,7 +194,7 @@ public class RoleManager {
 //        log.info("checkAndSend");
         if (canReceive(c, m)) {
             if (c != null && c.isOpen()) {
-                c.write(Collections.singletonList(m));
+                OVXChannelWriter.write(c, m);
             }
         }
 
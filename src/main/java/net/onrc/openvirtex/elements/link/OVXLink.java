@@ -35,6 +35,7 @@ import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
+import net.onrc.openvirtex.elements.datapath.FlowInstaller;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
@@ -290,6 +291,8 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                             );
 
                             this.generateLinkFMs(fm, flowId);
+                            // the ingress flow mod is already in place
+                            FlowInstaller.clearFence();
 
                         } catch (IndexOutOfBoundException e) {
                             log.error(
@@ -440,8 +443,9 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                         .build()
                 );
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                // the ingress flow mod waits for this one to be in place
+                FlowInstaller.send(this.getSrcSwitch(), phyLink.getSrcPort()
+                        .getParentSwitch(), fm);
                 this.log.debug(
                         "Sending virtual link intermediate fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getSwitchName(),
@@ -449,13 +453,6 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
             }
             outPort = phyLink.getDstPort();
         }
-        // TODO: With POX we need to put a timeout between this flows and the
-        // first flow mod. Check how to solve.
-        try {
-            Thread.sleep(5);
-        } catch (final InterruptedException e) {
-            log.warn("Timeout interrupted; might be a problem if you are running POX.");
-        }
     }
 
     /**
@@ -229,6 +229,9 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         // remove the network from the Map
         OVXMap.getInstance().removeVirtualIPs(this.tenantId);
         OVXMap.getInstance().removeNetwork(this);
+        // switches that are down or no longer mapped kept the tenant's flows
+        PhysicalNetwork.getInstance().purgeTenant(this.tenantId);
+        CookieAllocator.remove(this.tenantId);
         OpenVirteXController.getTenantCounter().releaseIndex(this.tenantId);
     }
 
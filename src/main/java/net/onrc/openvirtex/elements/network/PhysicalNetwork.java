@@ -53,6 +53,8 @@ public final class PhysicalNetwork extends
     private static PhysicalNetwork instance;
     private ArrayList<Uplink> uplinkList;
     private final ConcurrentHashMap<Long, SwitchDiscoveryManager> discoveryManager;
+    // kept across reconnects of the switches
+    private final ConcurrentHashMap<Long, FlowShadow> flowShadows;
     private static HashedWheelTimer timer;
     private static Logger log = LogManager.getLogger(PhysicalNetwork.class.getName());
 
@@ -60,6 +62,7 @@ public final class PhysicalNetwork extends
         PhysicalNetwork.log.info("Starting network discovery...");
         // PhysicalNetwork.timer = new HashedWheelTimer();
         this.discoveryManager = new ConcurrentHashMap<Long, SwitchDiscoveryManager>();
+        this.flowShadows = new ConcurrentHashMap<Long, FlowShadow>();
     }
 
     public static PhysicalNetwork getInstance() {
@@ -269,4 +272,36 @@ public final class PhysicalNetwork extends
         return this.discoveryManager.get(dpid);
     }
 
+    /**
+     * Gets the flow shadow of the given switch, which outlives its
+     * connections.
+     *
+     * @param dpid the datapath ID
+     * @return the flow shadow
+     */
+    public FlowShadow getFlowShadow(long dpid) {
+        FlowShadow shadow = this.flowShadows.get(dpid);
+        if (shadow == null) {
+            final FlowShadow created = new FlowShadow();
+            shadow = this.flowShadows.putIfAbsent(dpid, created);
+            if (shadow == null) {
+                shadow = created;
+            }
+        }
+        return shadow;
+    }
+
+    /**
+     * Forgets the flows of a tenant in the flow shadows of all switches,
+     * including those that are disconnected, so that they are not reinstalled
+     * when the switches reconnect.
+     *
+     * @param tenantId the tenant ID
+     */
+    public void purgeTenant(int tenantId) {
+        for (final FlowShadow shadow : this.flowShadows.values()) {
+            shadow.removeTenant(tenantId, (short) 0);
+        }
+    }
+
 }
@@ -24,8 +24,10 @@ import java.util.*;
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.db.DBManager;
 
+import net.onrc.openvirtex.elements.datapath.FlowModCache;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PacketInCache;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.messages.OVXPortStatus;
@@ -225,6 +227,7 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
     public void register() {
         this.parentSwitch.addPort(this);
         this.physicalPort.setOVXPort(this);
+        PacketInCache.invalidate();
         if (this.parentSwitch.isActive()) {
             sendStatusMsg(OFPortReason.ADD);
             this.parentSwitch.generateFeaturesReply();
@@ -276,6 +279,8 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
             return;
         }
         this.isActive = true;
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
 
         this.state.clear();
         if(this.factory.getVersion() == OFVersion.OF_10)
@@ -297,6 +302,8 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
             return;
         }
         this.isActive = false;
+        FlowModCache.invalidate();
+        PacketInCache.invalidate();
 
         this.state.clear();
         this.state.add(OFPortState.LINK_DOWN);
@@ -384,6 +391,7 @@ public class OVXPort extends Port<OVXSwitch, OVXLink> implements Persistable {
     public void unMap() {
         this.parentSwitch.removePort(this.portNumber);
         this.physicalPort.removeOVXPort(this);
+        PacketInCache.invalidate();
     }
 
     /**
@@ -40,7 +40,9 @@ public class OVXBarrierReply extends OVXMessage implements Virtualizable {
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-       // this.log.info("virtualize");
-
+        if (!sw.barrierReplied((int) this.getOFMessage().getXid())) {
+            this.log.debug("Ignoring unsolicited barrier reply from {}",
+                    sw.getSwitchName());
+        }
     }
 }
@@ -22,7 +22,10 @@ package net.onrc.openvirtex.messages;
 import java.util.*;
 
 import net.onrc.openvirtex.elements.address.IPMapper;
+import net.onrc.openvirtex.elements.datapath.CompiledMatch;
 import net.onrc.openvirtex.elements.datapath.FlowTable;
+import net.onrc.openvirtex.elements.datapath.FlowInstaller;
+import net.onrc.openvirtex.elements.datapath.FlowModCache;
 import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
@@ -37,7 +40,6 @@ import org.projectfloodlight.openflow.protocol.action.OFAction;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.projectfloodlight.openflow.protocol.action.OFActionSetField;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
@@ -50,15 +52,56 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
     private final List<OFAction> approvedActions = new LinkedList<OFAction>();
 
     private long ovxCookie = -1;
+    // match compiled for flow table comparisons, rebuilt if the match changes
+    private volatile CompiledMatch compiledMatch = null;
+    // set once the flow mod is stored in a flow table and shared with readers
+    private volatile boolean frozen = false;
 
     public OVXFlowMod(OFMessage msg) {
         super(msg);
     }
 
+    @Override
+    public void setOFMessage(OFMessage msg) {
+        if (this.frozen) {
+            throw new IllegalStateException(
+                    "Flow table entries are immutable; modify a clone");
+        }
+        super.setOFMessage(msg);
+    }
+
+    /**
+     * Makes this flow mod immutable, so that it can be handed to readers
+     * without copying. Changes are made to a {@link #clone()} instead.
+     *
+     * @return this flow mod
+     */
+    public OVXFlowMod freeze() {
+        this.frozen = true;
+        return this;
+    }
+
     public OFFlowMod getFlowMod() {
         return (OFFlowMod)this.getOFMessage();
     }
 
+    /**
+     * Gets the match of this FlowMod compiled for comparison against flow
+     * table entries. Compiled on first use and cached until the match is
+     * replaced.
+     *
+     * @return the compiled match
+     */
+    public CompiledMatch getCompiledMatch() {
+        final Match match = this.getFlowMod().getMatch();
+        CompiledMatch compiled = this.compiledMatch;
+        if (compiled == null || compiled.getMatch() != match) {
+            compiled = CompiledMatch.of(match);
+            this.compiledMatch = compiled;
+        }
+        return compiled;
+    }
+
     @Override
     public void devirtualize(final OVXSwitch sw) {
         //this.log.info("devirtualize");
@@ -76,11 +119,13 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
 
         this.sw = sw;
         FlowTable ft = this.sw.getFlowTable();
+        FlowInstaller.clearFence();
 
         int bufferId = OFBufferId.NO_BUFFER.getInt();
-        if (sw.getFromBufferMap(this.getFlowMod().getBufferId().getInt()) != null) {
-            bufferId = ((OFPacketIn)sw.getFromBufferMap(this.getFlowMod().getBufferId().getInt()).getOFMessage())
-                    .getBufferId().getInt();
+        final OVXPacketIn cause = sw.getFromBufferMap(this.getFlowMod()
+                .getBufferId().getInt());
+        if (cause != null) {
+            bufferId = cause.getPacketIn().getBufferId().getInt();
         }
         //OFMatch에서 inport의 기본값은 0으로 설정되기 때문, 그러나 OpenFlowj에서는 MatchField가 존재하지 않으면
         //필드 자체가 없기 때문에 inport값을 알 수 없다.
@@ -115,6 +160,43 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                 .build()
         );
 
+        final int xid = (int) this.getFlowMod().getXid();
+        // a flow mod identical to one already devirtualized is replayed
+        final FlowModCache cache = sw.getFlowModCache();
+        final OFFlowMod key = pflag
+                && this.getFlowMod().getCommand() == OFFlowModCommand.ADD
+                ? this.getFlowMod().createBuilder().setXid(0)
+                        .setBufferId(OFBufferId.NO_BUFFER).build() : null;
+        if (key == null) {
+            this.devirtualizeActions(ovxMatch, inport, bufferId, pflag);
+            return;
+        }
+        final FlowModCache.Plan plan = cache.lookup(key);
+        if (plan != null) {
+            plan.replay(sw, xid, bufferId);
+            return;
+        }
+        final long epoch = FlowModCache.startRecording();
+        final long start = System.nanoTime();
+        try {
+            if (this.devirtualizeActions(ovxMatch, inport, bufferId, pflag)) {
+                cache.store(key, epoch, System.nanoTime() - start);
+            }
+        } finally {
+            FlowModCache.stopRecording();
+        }
+    }
+
+    /*
+     * Virtualizes the actions and sends the flow mod south for each input
+     * port. Returns false if the flow mod was dropped.
+     */
+    private boolean devirtualizeActions(final OVXMatch ovxMatch,
+                                        final short inport, final int bufferId,
+                                        final boolean pflag) {
+        final OVXSwitch sw = this.sw;
+        final FlowTable ft = sw.getFlowTable();
+
         for (final OFAction act : this.getFlowMod().getActions()) {
             try {
                 OVXAction action2 = OVXActionUtil.wrappingOVXAction(act);
@@ -126,15 +208,15 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                         act, e.getMessage());
                 ft.deleteFlowMod(ovxCookie);
                 sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
-                return;
+                return false;
             } catch (final DroppedMessageException e) {
                 this.log.debug("Dropping ovxFlowMod {} {}", this.getOFMessage().toString(), e);
                 ft.deleteFlowMod(ovxCookie);
                 // TODO perhaps send error message to controller
-                return;
+                return false;
             } catch (final NullPointerException e) {
                 this.log.debug("Action {} could not be supported", act);
-                return;
+                return false;
             }
         }
 
@@ -156,12 +238,12 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                         "Unknown virtual port id {}; dropping ovxFlowMod {}",
                         inport, this);
                 sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFFlowModFailedCode.EPERM, this), sw);
-                return;
+                return false;
             }
         } else {
             prepAndSendSouth(ovxInPort, pflag);
         }
-
+        return true;
     }
 
     public void modifyMatch(Match match)
@@ -172,7 +254,7 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
         );
     }
 
-    private void prepAndSendSouth(OVXPort inPort, boolean pflag) {
+    private void prepAndSendSouth(final OVXPort inPort, boolean pflag) {
         if (!inPort.isActive()) {
             log.warn("Virtual network {}: port {} on switch {} is down.",
                     sw.getTenantId(), inPort.getPortNumber(),
@@ -267,68 +349,54 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
 
         if (pflag) {
 
-            if(!this.getFlowMod().getFlags().contains(OFFlowModFlags.SEND_FLOW_REM))
-                this.getFlowMod().getFlags().add(OFFlowModFlags.SEND_FLOW_REM);
+            if (!this.getFlowMod().getFlags().contains(OFFlowModFlags.SEND_FLOW_REM)) {
+                // the message may be shared with the flow table entry
+                final Set<OFFlowModFlags> flags = EnumSet
+                        .of(OFFlowModFlags.SEND_FLOW_REM);
+                flags.addAll(this.getFlowMod().getFlags());
+                this.setOFMessage(this.getFlowMod().createBuilder()
+                        .setFlags(flags).build());
+            }
 
-            sw.sendSouth(this, inPort);
+            // sent once the flow mods of the links and routes it outputs to
+            // are in place; this is rewritten again for the next port
+            final OVXSwitch vsw = this.sw;
+            final OVXFlowMod ingress = new OVXFlowMod(this.getFlowMod());
+            FlowModCache.recordIngress(inPort, ingress.getFlowMod());
+            FlowInstaller.release(vsw, new Runnable() {
+                @Override
+                public void run() {
+                    vsw.sendSouth(ingress, inPort);
+                }
+            });
         }
     }
 
     private void prependRewriteActions() {
-        if(this.getOFMessage().getVersion() == OFVersion.OF_10)
-            prependRewriteActionsVer10();
-        else
-            prependRewriteActionsVer13();
-
-    }
-
-    private void prependRewriteActionsVer13() {
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_SRC) != null) {
-            OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
-                    .setField(this.factory.oxms().ipv4Src(IPv4Address.of(
-                            IPMapper.getPhysicalIp(
-                                    sw.getTenantId(),
-                                    this.getFlowMod().getMatch().get(MatchField.IPV4_SRC).getInt()))))
-                    .build();
-            this.approvedActions.add(0, ofActionSetField);
-        }
-
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_DST) != null) {
-            OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
-                    .setField(this.factory.oxms().ipv4Dst(IPv4Address.of(
-                            IPMapper.getPhysicalIp(
-                                    sw.getTenantId(),
-                                    this.getFlowMod().getMatch().get(MatchField.IPV4_DST).getInt()))))
-                    .build();
-            this.approvedActions.add(0, ofActionSetField);
-        }
-    }
-
-    private void prependRewriteActionsVer10() {
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_SRC) != null) {
-            OFAction action = this.factory.actions().buildSetNwSrc()
-                            .setNwAddr(IPv4Address.of(
-                                    IPMapper.getPhysicalIp(
-                                            sw.getTenantId(),
-                                            this.getFlowMod().getMatch().get(MatchField.IPV4_SRC).getInt())))
-                            .build();
-
-            this.approvedActions.add(0, action);
+        final Match match = this.getFlowMod().getMatch();
+        final OFVersion version = this.getOFMessage().getVersion();
+        if (match.get(MatchField.IPV4_SRC) != null) {
+            this.approvedActions.add(0, IPMapper.getRewriteAction(
+                    sw.getTenantId(), match.get(MatchField.IPV4_SRC).getInt(),
+                    true, version));
         }
 
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_DST) != null) {
-            OFAction action = this.factory.actions().buildSetNwDst()
-                            .setNwAddr(IPv4Address.of(
-                                    IPMapper.getPhysicalIp(sw.getTenantId(),
-                                            this.getFlowMod().getMatch().get(MatchField.IPV4_DST).getInt())))
-                            .build();
-
-            this.approvedActions.add(0, action);
+        if (match.get(MatchField.IPV4_DST) != null) {
+            this.approvedActions.add(0, IPMapper.getRewriteAction(
+                    sw.getTenantId(), match.get(MatchField.IPV4_DST).getInt(),
+                    false, version));
         }
     }
 
+    /**
+     * Gets a modifiable copy of this flow mod. Loxi messages are immutable,
+     * so the copy shares the message rather than rebuilding it.
+     *
+     * @return the copy
+     */
     public OVXFlowMod clone() {
-        OVXFlowMod flowMod = new OVXFlowMod(this.getOFMessage().createBuilder().build());
+        final OVXFlowMod flowMod = new OVXFlowMod(this.getOFMessage());
+        flowMod.compiledMatch = this.compiledMatch;
         return flowMod;
     }
 
@@ -33,6 +33,9 @@ public class OVXFlowRemoved extends OVXMessage implements Virtualizable {
 
     Logger log = LogManager.getLogger(OVXFlowRemoved.class.getName());
 
+    // OFPRR_DELETE, the same in OF1.0 and OF1.3
+    private static final short REASON_DELETE = 2;
+
     public OVXFlowRemoved(OFMessage msg) {
 
         super(msg);
@@ -46,6 +49,17 @@ public class OVXFlowRemoved extends OVXMessage implements Virtualizable {
     public void virtualize(final PhysicalSwitch sw) {
         //this.log.info("virtualize");
 
+        if (this.getFlowRemoved().getReason() == REASON_DELETE) {
+            /*
+             * Only OVX deletes flows, and it applied the delete to the shadow
+             * and the flow table when it sent it. The cookie may have been
+             * reused for a new flow since, which must not be removed.
+             */
+            return;
+        }
+
+        sw.getFlowShadow().removed(this.getFlowRemoved());
+
         long thisCookie = this.getFlowRemoved().getCookie().getValue();
 
 
@@ -19,14 +19,30 @@
  */
 package net.onrc.openvirtex.messages;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.onrc.openvirtex.exceptions.MessageDecodeException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFType;
+import org.projectfloodlight.openflow.protocol.OFVersion;
 
 public class OVXMessage {
-    private OFMessage msg;
+    private static final AtomicLong DEFERRED_PARSES = new AtomicLong();
+
+    // Volatile so that a thread seeing raw cleared also sees the decoded msg
+    private volatile OFMessage msg;
     public OFFactory factory;
 
+    // Undecoded frame of a lazily decoded message; null once decoded
+    private volatile ChannelBuffer raw = null;
+    private OFVersion rawVersion = null;
+    private OFType rawType = null;
+
     public OVXMessage(OFMessage msg) {
         this.msg = msg;
 
@@ -36,23 +52,116 @@ public class OVXMessage {
 
     public void setOFMessage(OFMessage msg) {
         this.msg = msg;
+        this.raw = null;
 
         if(msg != null)
             this.factory = OFFactories.getFactory(msg.getVersion());
     }
 
+    /**
+     * Defers decoding of this message: the given frame is only parsed into
+     * a loxi message the first time {@link #getOFMessage()} is called.
+     *
+     * @param frame the complete OpenFlow frame, header included
+     * @param version the version read from the header
+     * @param type the type read from the header
+     */
+    public void setRawMessage(ChannelBuffer frame, OFVersion version, OFType type) {
+        this.msg = null;
+        this.raw = frame;
+        this.rawVersion = version;
+        this.rawType = type;
+        this.factory = OFFactories.getFactory(version);
+    }
+
     public OFMessage getOFMessage() {
+        if (this.raw != null) {
+            this.decode();
+        }
         return this.msg;
     }
 
+    /**
+     * Gets the undecoded frame of this message.
+     *
+     * @return the frame, or null if the message has been decoded
+     */
+    public ChannelBuffer getRawMessage() {
+        return this.raw;
+    }
+
+    /**
+     * Checks if the loxi message has been built.
+     *
+     * @return true if decoded, false if only the header has been read
+     */
+    public boolean isDecoded() {
+        return this.raw == null;
+    }
+
+    /**
+     * Gets the message type without decoding the message.
+     *
+     * @return the message type
+     */
+    public OFType getType() {
+        return this.raw != null ? this.rawType : this.msg.getType();
+    }
+
+    /**
+     * Gets the message version without decoding the message.
+     *
+     * @return the OpenFlow version
+     */
+    public OFVersion getVersion() {
+        return this.raw != null ? this.rawVersion : this.msg.getVersion();
+    }
+
+    /**
+     * Gets the transaction ID without decoding the message.
+     *
+     * @return the transaction ID
+     */
+    public long getXid() {
+        final ChannelBuffer frame = this.raw;
+        return frame != null ? frame.getUnsignedInt(frame.readerIndex() + 4)
+                : this.msg.getXid();
+    }
+
+    /**
+     * Gets the number of lazily decoded messages that were eventually parsed.
+     *
+     * @return the number of deferred parses
+     */
+    public static long getDeferredParseCount() {
+        return DEFERRED_PARSES.get();
+    }
+
+    private synchronized void decode() {
+        if (this.raw == null) {
+            return;
+        }
+        try {
+            this.msg = OFFactories.getGenericReader().readFrom(this.raw.duplicate());
+        } catch (OFParseError e) {
+            throw new MessageDecodeException(e);
+        }
+        if (this.msg == null) {
+            throw new MessageDecodeException("Truncated " + this.rawType
+                    + " message");
+        }
+        this.raw = null;
+        DEFERRED_PARSES.incrementAndGet();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 97;
         int result = 1;
         result = prime * result
-                + (this.msg.getType() == null ? 0 : this.msg.getType().hashCode());
-        result = prime * result + this.msg.getVersion().getWireVersion();
-        result = prime * result + (int)this.msg.getXid();
+                + (this.getType() == null ? 0 : this.getType().hashCode());
+        result = prime * result + this.getVersion().getWireVersion();
+        result = prime * result + (int)this.getXid();
         return result;
     }
 }
@@ -25,6 +25,8 @@ import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.XidPair;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
+import net.onrc.openvirtex.packet.OVXLLDP;
+import net.onrc.openvirtex.packet.PacketHeaders;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -35,8 +37,6 @@ import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 
-import java.nio.ByteBuffer;
-
 
 /**
  * Utility class for OVX messages. Implements methods
@@ -47,6 +47,32 @@ public final class OVXMessageUtil {
 
     private static Logger log = LogManager.getLogger(OVXMessageUtil.class.getName());
 
+    /*
+     * Message types indexed by their wire type code.
+     */
+    private static final OFType[] WIRE_TYPES_VER10 = {
+        OFType.HELLO, OFType.ERROR, OFType.ECHO_REQUEST, OFType.ECHO_REPLY,
+        OFType.EXPERIMENTER, OFType.FEATURES_REQUEST, OFType.FEATURES_REPLY,
+        OFType.GET_CONFIG_REQUEST, OFType.GET_CONFIG_REPLY, OFType.SET_CONFIG,
+        OFType.PACKET_IN, OFType.FLOW_REMOVED, OFType.PORT_STATUS,
+        OFType.PACKET_OUT, OFType.FLOW_MOD, OFType.PORT_MOD,
+        OFType.STATS_REQUEST, OFType.STATS_REPLY, OFType.BARRIER_REQUEST,
+        OFType.BARRIER_REPLY, OFType.QUEUE_GET_CONFIG_REQUEST,
+        OFType.QUEUE_GET_CONFIG_REPLY
+    };
+    private static final OFType[] WIRE_TYPES_VER13 = {
+        OFType.HELLO, OFType.ERROR, OFType.ECHO_REQUEST, OFType.ECHO_REPLY,
+        OFType.EXPERIMENTER, OFType.FEATURES_REQUEST, OFType.FEATURES_REPLY,
+        OFType.GET_CONFIG_REQUEST, OFType.GET_CONFIG_REPLY, OFType.SET_CONFIG,
+        OFType.PACKET_IN, OFType.FLOW_REMOVED, OFType.PORT_STATUS,
+        OFType.PACKET_OUT, OFType.FLOW_MOD, OFType.GROUP_MOD, OFType.PORT_MOD,
+        OFType.TABLE_MOD, OFType.STATS_REQUEST, OFType.STATS_REPLY,
+        OFType.BARRIER_REQUEST, OFType.BARRIER_REPLY,
+        OFType.QUEUE_GET_CONFIG_REQUEST, OFType.QUEUE_GET_CONFIG_REPLY,
+        OFType.ROLE_REQUEST, OFType.ROLE_REPLY, OFType.GET_ASYNC_REQUEST,
+        OFType.GET_ASYNC_REPLY, OFType.SET_ASYNC, OFType.METER_MOD
+    };
+
     /**
      * Overrides default constructor to no-op private constructor.
      * Required by checkstyle.
@@ -286,7 +312,27 @@ public final class OVXMessageUtil {
     }
 
     public static OVXMessage toOVXMessage(OFMessage omsg) {
-        switch(omsg.getType()){
+        return toOVXMessage(omsg.getType(), omsg);
+    }
+
+    /**
+     * Wraps a frame into the OVX message class matching its type, without
+     * decoding it. The loxi message is built on first access.
+     *
+     * @param frame the complete OpenFlow frame
+     * @param version the version read from the header
+     * @param type the type read from the header
+     * @return the lazily decoded OVX message
+     */
+    public static OVXMessage toOVXMessage(final ChannelBuffer frame,
+                                          final OFVersion version, final OFType type) {
+        final OVXMessage msg = toOVXMessage(type, null);
+        msg.setRawMessage(frame, version, type);
+        return msg;
+    }
+
+    private static OVXMessage toOVXMessage(OFType type, OFMessage omsg) {
+        switch(type){
             case HELLO:
                 return new OVXHello(omsg);
             case BARRIER_REPLY:
@@ -334,194 +380,108 @@ public final class OVXMessageUtil {
             case ROLE_REPLY:
                 return new OVXRoleReply(omsg);
             default:
-                log.info("toOVXMessage " + omsg.toString());
+                log.info("toOVXMessage " + (omsg == null ? type : omsg.toString()));
                 return new OVXMessage(omsg);
         }
     }
 
-    public static Match loadFromPacket(final byte[] packetData, final short inputPort, OFVersion ofVersion) {
-        //packetData은 PacketIn으로 올라온 패킷(Ethernet+IP/ICMP+TCP/UCP)형태임 여기서 MAC주소등등의 정보를 Match로 저장한다.
-        short scratch;
-        int transportOffset = 34;
-        final ByteBuffer packetDataBB = ByteBuffer.wrap(packetData);
-
-        final int limit = packetDataBB.limit();
-
-        OFFactory ofFactory = OFFactories.getFactory(ofVersion);
-
-        Match tempMatch = ofFactory.buildMatch().build();
-
-        tempMatch = updateMatch(tempMatch,
-                tempMatch.createBuilder()
-                        .setExact(MatchField.IN_PORT, OFPort.of(inputPort))
-                        .build());
-
-        //log.info("1 = " + tempMatch.toString());
-
-        assert limit >= 14;
-        // dl dst
-
-        byte[] dataLayerDestination = new byte[6];
-        packetDataBB.get(dataLayerDestination);
-        // dl src
-        byte[] dataLayerSource = new byte[6];
-        packetDataBB.get(dataLayerSource);
-        // dl type
-        short dataLayerType = packetDataBB.getShort();
-
-        tempMatch = updateMatch(tempMatch,
-                tempMatch.createBuilder()
-                        .setExact(MatchField.ETH_SRC, MacAddress.of(dataLayerSource))
-                        .setExact(MatchField.ETH_DST, MacAddress.of(dataLayerDestination))
-                        .build());
-
-//        log.info("2 = " + tempMatch.toString());
-
-        short dataLayerVirtualLan;
-        byte dataLayerVirtualLanPriorityCodePoint;
-
-        if (dataLayerType != (short) 0x8100) { // need cast to avoid
-            // signed
-            // bug
-            dataLayerVirtualLan = (short) 0xffff;
-            dataLayerVirtualLanPriorityCodePoint = (byte) 0;
+    /**
+     * Gets the message type for a wire type code, as found in byte 1 of the
+     * OpenFlow header.
+     *
+     * @param version the OpenFlow version
+     * @param wireType the wire type code
+     * @return the message type, or null if unknown
+     */
+    public static OFType toOFType(final OFVersion version, final byte wireType) {
+        final OFType[] types;
+        if (version == OFVersion.OF_10) {
+            types = WIRE_TYPES_VER10;
+        } else if (version == OFVersion.OF_13) {
+            types = WIRE_TYPES_VER13;
         } else {
-            // has vlan tag
-            scratch = packetDataBB.getShort();
-            dataLayerVirtualLan = ((short) (0xfff & scratch));
-            dataLayerVirtualLanPriorityCodePoint = (byte) ((0xe000 & scratch) >> 13);
-            dataLayerType = packetDataBB.getShort();
-
-            tempMatch = updateMatch(tempMatch,
-                    tempMatch.createBuilder()
-                            .setExact(MatchField.VLAN_VID, OFVlanVidMatch.ofRawVid(dataLayerVirtualLan))
-                            .setExact(MatchField.VLAN_PCP, VlanPcp.of(dataLayerVirtualLanPriorityCodePoint))
-                            .build());
+            return null;
         }
+        if (wireType < 0 || wireType >= types.length) {
+            return null;
+        }
+        return types[wireType];
+    }
 
-        byte networkTypeOfService = 0;
-        byte networkProtocol = 0;
-        int networkSource;
-        int networkDestination;
-        int transportSource = 0;
-        int transportDestination = 0;
-
-        switch (dataLayerType) {
-            case 0x0800:
-                // ipv4
-                // check packet length
-                scratch = packetDataBB.get();
-                scratch = (short) (0xf & scratch);
-                transportOffset = packetDataBB.position() - 1 + scratch * 4;
-                // nw tos (dscp)
-                scratch = packetDataBB.get();
-                networkTypeOfService = (byte) ((0xfc & scratch) >> 2);
-                // nw protocol
-                packetDataBB.position(packetDataBB.position() + 7);
-                networkProtocol = packetDataBB.get();
-                // nw src
-                packetDataBB.position(packetDataBB.position() + 2);
-                networkSource = packetDataBB.getInt();
-                // nw dst
-                networkDestination = packetDataBB.getInt();
-                packetDataBB.position(transportOffset);
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.ETH_TYPE, EthType.of(dataLayerType))
-                                .setExact(MatchField.IPV4_SRC, IPv4Address.of(networkSource))
-                                .setExact(MatchField.IPV4_DST, IPv4Address.of(networkDestination))
-                                .setExact(MatchField.IP_DSCP, IpDscp.of(networkTypeOfService))
-                                .build());
-
-                //log.info("IPV4_SRC " + IPv4Address.of(networkSource).toString());
-                //log.info("IPV4_DST " + IPv4Address.of(networkDestination).toString());
-
-
-                break;
-            case 0x0806:
-                // arp
-                final int arpPos = packetDataBB.position();
-                // opcode
-                scratch = packetDataBB.getShort(arpPos + 6);
-                networkProtocol = (byte) (0xff & scratch);
-
-                scratch = packetDataBB.getShort(arpPos + 2);
-                // if ipv4 and addr len is 4
-                if (scratch == 0x800 && packetDataBB.get(arpPos + 5) == 4) {
-                    // nw src
-                    networkSource = packetDataBB.getInt(arpPos + 14);
-                    // nw dst
-                    networkDestination = packetDataBB.getInt(arpPos + 24);
-                } else {
-                    networkSource = 0;
-                    networkDestination = 0;
-                }
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.ETH_TYPE, EthType.of(dataLayerType))
-                                .setExact(MatchField.ARP_SPA, IPv4Address.of(networkSource))
-                                .setExact(MatchField.ARP_TPA, IPv4Address.of(networkDestination))
-                                .build());
+    /**
+     * Checks if messages of the given type can be wrapped before they are
+     * decoded. Statistics messages pick their handler from the decoded body
+     * when constructed, so they are always parsed up front.
+     *
+     * @param type the message type
+     * @return true if decoding can be deferred
+     */
+    public static boolean isDeferrable(final OFType type) {
+        return type != null && type != OFType.STATS_REQUEST
+                && type != OFType.STATS_REPLY;
+    }
 
-//                log.info("ARP_SPA " + IPv4Address.of(networkSource).toString());
-//                log.info("ARP_TPA " + IPv4Address.of(networkDestination).toString());
-                break;
+    /**
+     * Gets the offset of the packet data within an undecoded PACKET_IN frame.
+     *
+     * @param frame the PACKET_IN frame
+     * @param version the OpenFlow version
+     * @return the offset relative to the frame's reader index, or -1 if the
+     *         frame is too short
+     */
+    public static int getPacketInDataOffset(final ChannelBuffer frame,
+                                            final OFVersion version) {
+        final int start = frame.readerIndex();
+        final int length = frame.readableBytes();
+        if (version == OFVersion.OF_10) {
+            // header(8) + buffer_id(4) + total_len(2) + in_port(2) + reason(1) + pad(1)
+            return length >= 18 ? 18 : -1;
         }
+        // header(8) + buffer_id(4) + total_len(2) + reason(1) + table_id(1) + cookie(8)
+        if (length < 28) {
+            return -1;
+        }
+        final int matchLength = frame.getUnsignedShort(start + 26);
+        // match padded to 8 bytes, followed by 2 bytes of padding
+        final int offset = 24 + ((matchLength + 7) / 8) * 8 + 2;
+        return offset <= length ? offset : -1;
+    }
 
-//        log.info("3 = " + tempMatch.toString());
-
-        switch (networkProtocol) {
-            case 0x01:
-                // icmp
-                // type
-                transportSource = U8.f(packetDataBB.get());
-                // code
-                transportDestination = U8.f(packetDataBB.get());
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.IP_PROTO,IpProtocol.of(networkProtocol))
-                                .build());
-                break;
-            case 0x06:
-                // tcp
-                // tcp src
-                transportSource = U16.f(packetDataBB.getShort());
-                // tcp dest
-                transportDestination = U16.f(packetDataBB.getShort());
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.IP_PROTO,IpProtocol.of(networkProtocol))
-                                .setExact(MatchField.TCP_SRC, TransportPort.of(transportSource))
-                                .setExact(MatchField.TCP_DST, TransportPort.of(transportDestination))
-                                .build());
-                break;
-            case 0x11:
-                // udp
-                // udp src
-                transportSource = U16.f(packetDataBB.getShort());
-                // udp dest
-                transportDestination = U16.f(packetDataBB.getShort());
-
-                //log.info("UDP SRC port = " + TransportPort.of(transportSource) + "[" + transportSource + "]");
-                //log.info("UDP DST port = " + TransportPort.of(transportDestination) + "[" + transportDestination + "]");
-
-
-                tempMatch = updateMatch(tempMatch,
-                        tempMatch.createBuilder()
-                                .setExact(MatchField.IP_PROTO,IpProtocol.of(networkProtocol))
-                                .setExact(MatchField.TCP_SRC, TransportPort.of(transportSource))
-                                .setExact(MatchField.TCP_DST, TransportPort.of(transportDestination))
-                                .build());
-                break;
+    /**
+     * Checks if a packet-in carries an LLDP packet, reading the raw frame if
+     * the message has not been decoded.
+     *
+     * @param msg the PACKET_IN message
+     * @return true if the packet is LLDP, false otherwise
+     */
+    public static boolean isLLDPPacketIn(final OVXMessage msg) {
+        final ChannelBuffer raw = msg.getRawMessage();
+        if (raw != null) {
+            return OVXLLDP.isLLDP(raw,
+                    getPacketInDataOffset(raw, msg.getVersion()));
         }
+        return OVXLLDP.isLLDP(((OFPacketIn) msg.getOFMessage()).getData());
+    }
 
-//        log.info("4 = " + tempMatch.toString());
+    /**
+     * Builds the echo reply frame for an undecoded echo request, echoing its
+     * xid and payload.
+     *
+     * @param request the ECHO_REQUEST frame
+     * @return the ECHO_REPLY frame
+     */
+    public static ChannelBuffer makeRawEchoReply(final ChannelBuffer request) {
+        final ChannelBuffer reply = request.copy();
+        // ECHO_REPLY has wire type 3 in every supported version
+        reply.setByte(reply.readerIndex() + 1, 3);
+        return reply;
+    }
 
-       return tempMatch;
+    public static Match loadFromPacket(final byte[] packetData, final short inputPort, OFVersion ofVersion) {
+        //packetData은 PacketIn으로 올라온 패킷(Ethernet+IP/ICMP+TCP/UCP)형태임 여기서 MAC주소등등의 정보를 Match로 저장한다.
+        final PacketHeaders headers = new PacketHeaders();
+        headers.parse(packetData);
+        return headers.toMatch(inputPort, ofVersion);
     }
 
     public static Match updateMatch(Match tmatch, Match omatch) {
@@ -24,9 +24,10 @@ import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PacketInCache;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.XidPair;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -47,14 +48,31 @@ import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
-import org.projectfloodlight.openflow.util.HexString;
 
 public class OVXPacketIn extends OVXMessage implements Virtualizable {
 
     private final Logger log = LogManager.getLogger(OVXPacketIn.class.getName());
+    // one parser per thread, reused for every packet-in it virtualizes
+    private static final ThreadLocal<PacketHeaders> HEADERS = new ThreadLocal<PacketHeaders>() {
+        @Override
+        protected PacketHeaders initialValue() {
+            return new PacketHeaders();
+        }
+    };
+
     private PhysicalPort port = null;
     private OVXPort ovxPort = null;
     private Integer tenantId = null;
+    /*
+     * State of the packet-in being virtualized, applied to it in one go when
+     * it is sent to the controller.
+     */
+    private PacketHeaders headers;
+    private byte[] data;
+    private boolean dataChanged = false;
+    private Integer xid = null;
+    private short physicalInport;
+    private short inport;
 
     public OVXPacketIn(final OVXPacketIn pktIn) {
 
@@ -118,96 +136,104 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-        //this.log.info("virtualize");
-        //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
+        final OFPacketIn pi = this.getPacketIn();
+        this.headers = HEADERS.get();
+        this.data = pi.getData();
+        if (!this.headers.parse(this.data)) {
+            this.log.debug("PacketIn {} is too short to hold an Ethernet frame; "
+                    + "dropping", this);
+            return;
+        }
 
         //OF_1.3일 경우 PACKET_IN으로 오는 데이터에 Ethernet Trailer가 붙어서 오는데 이 패킷을 OVX가
         // ONOS로 전송하면 ONOS는 그부분을 실제 데이터로 인식하여 UDP의 length로 포함되어 PACKET_OUT으로 내려보낸다.
         // 그러나 checksum은 그대로 이기 때문에 Destination에서 Receive를 하지 못하는 문제가 생긴다.
         // 이것을 해결하고자 Data에서 Trailer를 삭제하는 루틴을 구현한것
-        Ethernet eth2 = new Ethernet();
-        eth2.deserialize(this.getPacketIn().getData(), 0, this.getPacketIn().getData().length);
-
-        if(eth2.getPayload() instanceof IPv4) {
-            IPv4 ip = (IPv4)eth2.getPayload();
-            if (ip.isTruncated()) {
-                ByteBuffer bb = ByteBuffer.wrap(this.getPacketIn().getData());
-                byte[] temp = new byte[bb.limit()-ip.getTrimLength()];
-                bb.get(temp, 0, temp.length);
-                this.setOFMessage(this.getPacketIn().createBuilder().setData(temp).build());
-            }
+        if (this.headers.getFrameLength() < this.data.length) {
+            this.data = Arrays.copyOf(this.data, this.headers.getFrameLength());
+            this.dataChanged = true;
         }
 
-        OVXSwitch vSwitch = OVXMessageUtil.untranslateXid(this, sw);
+        OVXSwitch vSwitch = null;
+        final XidPair<OVXSwitch> pair = sw.untranslate(this);
+        if (pair != null) {
+            vSwitch = pair.getSwitch();
+            this.xid = pair.getXid();
+        }
 
         /*
          * Fetching port from the physical switch
          */
 
-        short inport;// = ((OFPacketIn) this.getOFMessage()).getInPort().getShortPortNumber();
-        if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
-            inport = this.getPacketIn().getInPort().getShortPortNumber();
-        }else{
-            if(this.getPacketIn().getMatch().get(MatchField.IN_PORT) != null)
-                inport = this.getPacketIn().getMatch().get(MatchField.IN_PORT).getShortPortNumber();
+        if (pi.getVersion() == OFVersion.OF_10) {
+            this.physicalInport = pi.getInPort().getShortPortNumber();
+        } else {
+            if (pi.getMatch().get(MatchField.IN_PORT) != null)
+                this.physicalInport = pi.getMatch().get(MatchField.IN_PORT).getShortPortNumber();
             else
-                inport = 0;
+                this.physicalInport = 0;
         }
+        this.inport = this.physicalInport;
 
-        this.log.debug("inport = " + inport);
+        this.log.debug("inport = " + this.inport);
 
-        port = sw.getPort(inport);
+        port = sw.getPort(this.inport);
 
         Mappable map = sw.getMap();
 
-        Match match = OVXMessageUtil.loadFromPacket(
-                this.getPacketIn().getData(),
-                inport,
-                sw.getOfVersion());
+        if (this.port.isEdge()) {
+            final PacketInCache cache = sw.getPacketInCache();
+            final PacketInCache.Entry cached = cache.lookup(
+                    this.physicalInport, this.headers.getEthSrcLong());
+            if (cached != null) {
+                this.tenantId = cached.getTenantId();
+                if (vSwitch == null) {
+                    vSwitch = cached.getSwitch();
+                }
+                this.ovxPort = cached.getPort();
+            } else {
+                final long epoch = PacketInCache.getEpoch();
+                this.tenantId = this.fetchTenantId(map, true);
 
-        this.log.debug(match.toString());
+                if (this.tenantId == null) {
+                    this.log.debug(
+                            "PacketIn {} does not belong to any virtual network; "
+                                    + "dropping and installing a temporary drop rule",
+                            this);
+                    this.installDropRule(sw);
+                    return;
+                }
 
-        if (this.port.isEdge()) {
-            this.tenantId = this.fetchTenantId(match, map, true);
-
-            if (this.tenantId == null) {
-                this.log.debug(
-                        "PacketIn {} does not belong to any virtual network; "
-                                + "dropping and installing a temporary drop rule",
-                        this);
-                this.installDropRule(sw, match);
-                return;
+                /*
+                 * Checks on vSwitch and the virtual port done in swndPkt.
+                 */
+                final OVXSwitch mapped = this.fetchOVXSwitch(sw, null, map);
+                if (vSwitch == null) {
+                    vSwitch = mapped;
+                }
+                this.ovxPort = this.port.getOVXPort(this.tenantId, 0);
+                if (mapped != null && this.ovxPort != null) {
+                    cache.store(this.physicalInport,
+                            this.headers.getEthSrcLong(), epoch,
+                            this.tenantId, mapped, this.ovxPort);
+                }
             }
-
-            /*
-             * Checks on vSwitch and the virtual port done in swndPkt.
-             */
-            vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
-            this.ovxPort = this.port.getOVXPort(this.tenantId, 0);
-            this.sendPkt(vSwitch, match, sw);
-            this.learnHostIP(match, map);
-            this.learnAddresses(match);
+            this.sendPkt(vSwitch, sw);
+            this.learnHostIP(map);
+            this.learnAddresses();
             this.log.debug("Edge PacketIn {} sent to virtual network {}", this.getOFMessage().toString(),
                     this.tenantId);
             return;
         }
 
-        if (match.get(MatchField.ETH_TYPE) == EthType.IPv4
-                || match.get(MatchField.ETH_TYPE) == EthType.ARP) {
-
-            PhysicalIPAddress srcIP = new PhysicalIPAddress(
-                    match.get(MatchField.IPV4_SRC).getInt()
-            );
+        if (this.headers.isIPv4() || this.headers.isArp()) {
 
-            PhysicalIPAddress dstIP = new PhysicalIPAddress(
-                    match.get(MatchField.IPV4_DST).getInt()
-            );
+            final int srcIP = this.headers.getNetworkSource();
 
-            Ethernet eth = new Ethernet();
-            eth.deserialize(this.getPacketIn().getData(), 0, this.getPacketIn().getData().length);
+            final int dstIP = this.headers.getNetworkDestination();
 
-            OVXLinkUtils lUtils = new OVXLinkUtils(eth.getSourceMAC(),
-                    eth.getDestinationMAC());
+            OVXLinkUtils lUtils = new OVXLinkUtils(this.headers.getEthSrc(),
+                    this.headers.getEthDst());
 
             if (lUtils.isValid()) {
                 OVXPort srcPort = port.getOVXPort(lUtils.getTenantId(),
@@ -216,11 +242,11 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                 if (srcPort == null) {
                     this.log.debug(
                             "Virtual Src Port Unknown: {}, port {} with this match {}; dropping packet",
-                            sw.getName(), match.get(MatchField.IN_PORT).getShortPortNumber(), match);
+                            sw.getName(), this.physicalInport, this.getMatch(sw));
                     return;
                 }
 
-                this.setInport(srcPort.getPortNumber());
+                this.inport = srcPort.getPortNumber();
 
                 OVXLink link;
                 try {
@@ -244,14 +270,8 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                                 .getVirtualNetwork(this.ovxPort.getTenantId())
                                 .getFlowManager()
                                 .getFlowValues(lUtils.getFlowId());
-                        eth.setSourceMACAddress(macList.get(0).getBytes())
-                                .setDestinationMACAddress(macList.get(1).getBytes());
-                        match = OVXMessageUtil.updateMatch(match, match.createBuilder()
-                                .setExact(MatchField.ETH_SRC, eth.getSourceMAC())
-                                .setExact(MatchField.ETH_DST, eth.getDestinationMAC())
-                                .build()
-                        );
-
+                        this.headers.setMacs(this.getWritableData(),
+                                macList.get(0), macList.get(1));
                     } catch (NetworkMappingException e) {
                         log.warn(e);
                     }
@@ -262,78 +282,93 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                 }
             }
 
-            if (match.get(MatchField.ETH_TYPE) == EthType.ARP) {
+            if (this.headers.isArp()) {
                 // ARP packet
-                final ARP arp = (ARP) eth.getPayload();
-                this.tenantId = this.fetchTenantId(match, map, true);
+                this.tenantId = this.fetchTenantId(map, true);
 
                 try {
                     if (map.hasVirtualIP(srcIP)) {
-                        arp.setSenderProtocolAddress(map.getVirtualIP(srcIP)
-                                .getIp());
+                        this.headers.setNetworkSource(this.getWritableData(),
+                                map.getVirtualIP(srcIP));
                     }
                     if (map.hasVirtualIP(dstIP)) {
-                        arp.setTargetProtocolAddress(map.getVirtualIP(dstIP)
-                                .getIp());
+                        this.headers.setNetworkDestination(this.getWritableData(),
+                                map.getVirtualIP(dstIP));
                     }
                 } catch (AddressMappingException e) {
                     log.warn("Inconsistency in OVXMap? : {}", e);
                 }
-            }else if (match.get(MatchField.ETH_TYPE) == EthType.IPv4) {
+            } else {
                 try {
-                    final IPv4 ip = (IPv4) eth.getPayload();
-                    ip.setDestinationAddress(map.getVirtualIP(dstIP).getIp());
-                    ip.setSourceAddress(map.getVirtualIP(srcIP).getIp());
+                    this.headers.setNetworkDestination(this.getWritableData(),
+                            map.getVirtualIP(dstIP));
+                    this.headers.setNetworkSource(this.getWritableData(),
+                            map.getVirtualIP(srcIP));
                     // TODO: Incorporate below into fetchTenantId
                     if (this.tenantId == null) {
-                        this.tenantId = dstIP.getTenantId();
+                        this.tenantId = PhysicalIPAddress.getTenantId(dstIP);
                     }
                 } catch (AddressMappingException e) {
                     log.warn("Could not rewrite IP fields : {}", e);
                 }
-            } else {
-                this.log.info("{} handling not yet implemented; dropping",
-                        match.get(MatchField.ETH_TYPE).toString());
-                this.installDropRule(sw, match);
-                return;
             }
 
-            this.setOFMessage(this.getPacketIn().createBuilder()
-                    .setData(eth.serialize())
-                    .build()
-            );
-
             vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
 
-            this.sendPkt(vSwitch, match, sw);
+            this.sendPkt(vSwitch, sw);
             this.log.info("IPv4 PacketIn {} sent to virtual network {}", this,
                     this.tenantId);
             return;
         }
 
-        this.tenantId = this.fetchTenantId(match, map, true);
+        this.tenantId = this.fetchTenantId(map, true);
         if (this.tenantId == null) {
             this.log.debug(
                     "PacketIn {} does not belong to any virtual network; "
                             + "dropping and installing a temporary drop rule",
                     this);
-            this.installDropRule(sw, match);
+            this.installDropRule(sw);
             return;
         }
         vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
 
-        this.sendPkt(vSwitch, match, sw);
+        this.sendPkt(vSwitch, sw);
         this.log.info("Layer2 PacketIn {} sent to virtual network {}", this.getOFMessage(),
                 this.tenantId);
     }
 
-    private void learnHostIP(Match match, Mappable map) {
-        if(match.get(MatchField.IPV4_SRC) != null) {
+    /**
+     * Gets the frame to rewrite, copying it the first time so that the
+     * physical packet-in is left as it was received.
+     *
+     * @return the frame
+     */
+    private byte[] getWritableData() {
+        if (!this.dataChanged) {
+            this.data = this.data.clone();
+            this.dataChanged = true;
+        }
+        return this.data;
+    }
+
+    /**
+     * Gets the match of the frame as received on the physical port, with
+     * the addresses rewritten so far. Only built when needed.
+     *
+     * @param sw the physical switch
+     * @return the match
+     */
+    private Match getMatch(final PhysicalSwitch sw) {
+        return this.headers.toMatch(this.physicalInport, sw.getOfVersion());
+    }
+
+    private void learnHostIP(Mappable map) {
+        if (this.hasNetworkSource()) {
             try {
                 OVXNetwork vnet = map.getVirtualNetwork(this.tenantId);
                 Host host = vnet.getHost(ovxPort);
                 if (host != null) {
-                    host.setIPAddress(match.get(MatchField.IPV4_SRC).getInt());
+                    host.setIPAddress(this.headers.getNetworkSource());
                 } else {
                     log.warn("Host not found on virtual port {}", ovxPort);
                 }
@@ -347,83 +382,91 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         }
     }
 
-    private void sendPkt(final OVXSwitch vSwitch, final Match match,
-                         final PhysicalSwitch sw) {
+    /**
+     * Sends the packet-in to the controller of the virtual switch. The
+     * virtual packet-in is built once, from the physical one with the
+     * untranslated XID, the virtual buffer ID, the virtual input port and
+     * the rewritten frame.
+     */
+    private void sendPkt(final OVXSwitch vSwitch, final PhysicalSwitch sw) {
         if (vSwitch == null || !vSwitch.isActive()) {
             this.log.warn(
                     "Controller for virtual network {} has not yet connected "
                             + "or is down", this.tenantId);
-            this.installDropRule(sw, match);
+            this.installDropRule(sw);
             return;
         }
 
-        this.setOFMessage(this.getPacketIn().createBuilder()
-                .setBufferId(OFBufferId.of(vSwitch.addToBufferMap(this)))
-                .build()
-        );
-
-        short inport;
-        if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
-            inport = this.getPacketIn().getInPort().getShortPortNumber();
-        }else{
-            if(this.getPacketIn().getMatch().get(MatchField.IN_PORT) != null)
-                inport = this.getPacketIn().getMatch().get(MatchField.IN_PORT).getShortPortNumber();
-            else
-                inport = 0;
-        }
+        final OFPacketIn pi = this.getPacketIn();
+        // the buffer keeps the physical buffer ID along with the frame
+        // as the controller sees it
+        final int bufferId = vSwitch.addToBufferMap(this.dataChanged
+                ? new OVXPacketIn(pi.createBuilder().setData(this.data).build())
+                : this);
 
         if (this.port != null && this.ovxPort != null
                 && this.ovxPort.isActive()) {
-
-            //this.log.info("before-----------------------------------------------------");
-            //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
-
-            this.setInport(this.ovxPort.getPortNumber());
-
-            if((this.getPacketIn().getData() != null)
-                && (vSwitch.getMissSendLen() != OVXSetConfig.MSL_FULL)) {
-
-                this.setOFMessage(this.getPacketIn().createBuilder()
-                        .setData(Arrays.copyOf(
-                                this.getPacketIn().getData(),
-                                U16.f(vSwitch.getMissSendLen())))
-                        .build()
-                );
+            final OFPacketIn.Builder builder = pi.createBuilder()
+                    .setBufferId(OFBufferId.of(bufferId));
+            if (this.xid != null) {
+                builder.setXid(this.xid);
+            }
+            if (pi.getVersion() == OFVersion.OF_10) {
+                builder.setInPort(OFPort.of(this.ovxPort.getPortNumber()));
+            } else {
+                Match temp = pi.getMatch();
+                builder.setMatch(OVXMessageUtil.updateMatch(temp, temp
+                        .createBuilder()
+                        .setExact(MatchField.IN_PORT,
+                                OFPort.of(this.ovxPort.getPortNumber()))
+                        .build()));
             }
 
-            //this.log.info("after------------------------------------------------------");
-            //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
+            byte[] out = this.data;
+            if (out != null
+                    && vSwitch.getMissSendLen() != OVXSetConfig.MSL_FULL
+                    && out.length > U16.f(vSwitch.getMissSendLen())) {
+                out = Arrays.copyOf(out, U16.f(vSwitch.getMissSendLen()));
+            }
+            if (out != pi.getData()) {
+                builder.setData(out);
+            }
 
+            this.setOFMessage(builder.build());
             vSwitch.sendMsg(this, sw);
-        }else if (this.port == null) {
-            log.error("The port {} doesn't belong to the physical switch {}", inport, sw.getName());
-        }else if (this.ovxPort == null || !this.ovxPort.isActive()) {
+        } else if (this.port == null) {
+            log.error("The port {} doesn't belong to the physical switch {}", this.inport, sw.getName());
+        } else if (this.ovxPort == null || !this.ovxPort.isActive()) {
             log.error(
                     "Virtual port associated to physical port {} in physical switch {} for "
                             + "virtual network {} is not defined or inactive",
-                    inport, sw.getName(), this.tenantId);
+                    this.inport, sw.getName(), this.tenantId);
         }
     }
 
-
-
-    private void learnAddresses(final Match match) {
-        if(match.get(MatchField.ETH_TYPE) == EthType.IPv4
-            || match.get(MatchField.ETH_TYPE) == EthType.ARP) {
-            if(match.get(MatchField.IPV4_SRC) != null) {
-                IPMapper.getPhysicalIp(this.tenantId, match.get(MatchField.IPV4_SRC).getInt());
-            }
-
-            if(match.get(MatchField.IPV4_DST) != null) {
-                IPMapper.getPhysicalIp(this.tenantId, match.get(MatchField.IPV4_DST).getInt());
+    private void learnAddresses() {
+        if (this.hasNetworkSource()) {
+            IPMapper.getPhysicalIp(this.tenantId, this.headers.getNetworkSource());
+            if (this.headers.getNetworkDestination() != 0) {
+                IPMapper.getPhysicalIp(this.tenantId,
+                        this.headers.getNetworkDestination());
             }
         }
     }
 
-    private void installDropRule(final PhysicalSwitch sw, final Match match) {
+    /*
+     * IPv4 packets, and ARP packets other than probes, carry the address of
+     * their sender.
+     */
+    private boolean hasNetworkSource() {
+        return (this.headers.isIPv4() || this.headers.isArp())
+                && this.headers.getNetworkSource() != 0;
+    }
+
+    private void installDropRule(final PhysicalSwitch sw) {
         final OVXFlowMod fm = new OVXFlowMod(
                 this.factory.buildFlowModify()
-                        .setMatch(match)
+                        .setMatch(this.getMatch(sw))
                         .setBufferId(this.getPacketIn().getBufferId())
                         .setHardTimeout(1)
                         .build()
@@ -432,9 +475,8 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         sw.sendMsg(fm, sw);
     }
 
-    private Integer fetchTenantId(final Match match, final Mappable map,
-                                  final boolean useMAC) {
-        MacAddress mac = match.get(MatchField.ETH_SRC);
+    private Integer fetchTenantId(final Mappable map, final boolean useMAC) {
+        MacAddress mac = this.headers.getEthSrc();
         if (useMAC && map.hasMAC(mac)) {
             try {
                 return map.getMAC(mac);
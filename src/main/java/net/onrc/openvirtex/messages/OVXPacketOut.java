@@ -191,51 +191,19 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
     }
 
     private void prependRewriteActions(final OVXSwitch sw) {
-        if(this.getOFMessage().getVersion() == OFVersion.OF_10)
-            prependRewriteActionsVer10(sw);
-        else
-            prependRewriteActionsVer13(sw);
-    }
-
-    private void prependRewriteActionsVer13(final OVXSwitch sw) {
-        if(this.match.get(MatchField.IPV4_SRC) != null) {
-            OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
-                    .setField(this.factory.oxms().ipv4Src(
-                            IPv4Address.of(
-                                    IPMapper.getPhysicalIp(
-                                            sw.getTenantId(),
-                                            this.match.get(MatchField.IPV4_SRC).getInt()))))
-                    .build();
-            this.approvedActions.add(0, ofActionSetField);
-        }
-
-        if(this.match.get(MatchField.IPV4_DST) != null) {
-            OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
-                    .setField(this.factory.oxms().ipv4Dst(
-                            IPv4Address.of(
-                                    IPMapper.getPhysicalIp(
-                                            sw.getTenantId(),
-                                            this.match.get(MatchField.IPV4_DST).getInt()))))
-                    .build();
-            this.approvedActions.add(0, ofActionSetField);
-        }
-    }
-
-    private void prependRewriteActionsVer10(final OVXSwitch sw) {
-        if(this.match.get(MatchField.IPV4_SRC) != null) {
-            OFActionSetNwSrc srcAct = this.factory.actions().buildSetNwSrc()
-                    .setNwAddr(IPv4Address.of(IPMapper.getPhysicalIp(sw.getTenantId(),
-                            this.match.get(MatchField.IPV4_SRC).getInt())))
-                    .build();
-            this.approvedActions.add(0, srcAct);
+        final OFVersion version = this.getOFMessage().getVersion();
+        if (this.match.get(MatchField.IPV4_SRC) != null) {
+            this.approvedActions.add(0, IPMapper.getRewriteAction(
+                    sw.getTenantId(),
+                    this.match.get(MatchField.IPV4_SRC).getInt(), true,
+                    version));
         }
 
-        if(this.match.get(MatchField.IPV4_DST) != null) {
-            OFActionSetNwDst dstAct = this.factory.actions().buildSetNwDst()
-                    .setNwAddr(IPv4Address.of(IPMapper.getPhysicalIp(sw.getTenantId(),
-                            this.match.get(MatchField.IPV4_DST).getInt())))
-                    .build();
-            this.approvedActions.add(0, dstAct);
+        if (this.match.get(MatchField.IPV4_DST) != null) {
+            this.approvedActions.add(0, IPMapper.getRewriteAction(
+                    sw.getTenantId(),
+                    this.match.get(MatchField.IPV4_DST).getInt(), false,
+                    version));
         }
     }
 
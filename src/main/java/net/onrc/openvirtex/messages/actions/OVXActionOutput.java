@@ -104,17 +104,16 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
         if (match.isFlowMod()) {
             final OVXFlowMod fm;
             try {
-                fm = sw.getFlowMod(match.getCookie());
+                fm = new OVXFlowMod(sw.getFlowMod(match.getCookie())
+                        .getFlowMod().createBuilder()
+                        .setCookie(U64.of(match.getCookie()))
+                        .build()
+                );
             } catch (MappingException e) {
                 log.warn("FlowMod not found in our FlowTable");
                 return;
             }
 
-            fm.setOFMessage(fm.getFlowMod().createBuilder()
-                    .setCookie(U64.of(match.getCookie()))
-                    .build()
-            );
-
             for (final OVXPort outPort : outPortList) {
                 Integer linkId = 0;
                 Integer flowId = 0;
@@ -198,7 +197,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             // in the flowMod. Change it.
                             //log.info("prependUnRewriteActions1");
                             approvedActions.addAll(
-                                    IPMapper.prependUnRewriteActions(match.getMatch())
+                                    IPMapper.prependUnRewriteActions(sw.getTenantId(),
+                                            match.getMatch())
                             );
                         } else {
                             /*
@@ -236,7 +236,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                              */
                             //log.info("prependUnRewriteActions2");
                             approvedActions.addAll(
-                                    IPMapper.prependUnRewriteActions(match.getMatch())
+                                    IPMapper.prependUnRewriteActions(sw.getTenantId(),
+                                            match.getMatch())
                             );
                             // rewrite the OFMatch with the values of the link
                             final OVXPort dstPort = vnet
@@ -380,7 +381,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                     throwException = false;
                     //log.info("prependUnRewriteActions3");
                     approvedActions.addAll(
-                            IPMapper.prependUnRewriteActions(match.getMatch())
+                            IPMapper.prependUnRewriteActions(sw.getTenantId(),
+                                    match.getMatch())
                     );
 
                     OFAction tempAction = ofFactory.actions().buildOutput()
@@ -68,6 +68,10 @@ public class OVXFlowStatsReply extends OVXStatistics implements VirtualizableSta
         this.log.debug("virtualizeStatistic");
         this.log.debug(msg.getOFMessage().toString());
 
+        if (sw.reconcile(msg)) {
+            return;
+        }
+
         if (msg.getOFMessage().getXid() != 0) {
             sw.removeFlowMods(msg);
             return;
@@ -25,6 +25,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 import net.onrc.openvirtex.elements.datapath.DPIDandPort;
 import net.onrc.openvirtex.elements.datapath.Switch;
@@ -313,6 +314,45 @@ public class OVXLLDP extends LLDP {
 
     }
 
+    /**
+     * Checks if the Ethernet frame starting at the given offset of an
+     * undecoded OpenFlow message is LLDP, without copying it out.
+     *
+     * @param frame the buffer holding the packet
+     * @param offset offset of the Ethernet header, relative to the buffer's
+     *            reader index
+     * @return true if packet is LLDP, false otherwise
+     */
+    public static boolean isLLDP(final ChannelBuffer frame, final int offset) {
+        if (frame == null || offset < 0
+                || frame.readableBytes() - offset < MINIMUM_LLDP_SIZE) {
+            return false;
+        }
+        final int start = frame.readerIndex() + offset;
+
+        if (!(OVXLLDP.matches(frame, start, OVXLLDP.LLDP_NICIRA)
+                || OVXLLDP.matches(frame, start, OVXLLDP.LLDP_MULTICAST)
+                || OVXLLDP.matches(frame, start, OVXLLDP.BDDP_MULTICAST))) {
+            return false;
+        }
+
+        short etherType = frame.getShort(start + ETHERTYPE_OFFSET);
+        if (etherType == ETHERTYPE_VLAN) {
+            etherType = frame.getShort(start + ETHERTYPE_OFFSET + 4);
+        }
+        return etherType == Ethernet.TYPE_LLDP || etherType == Ethernet.TYPE_BSN;
+    }
+
+    private static boolean matches(final ChannelBuffer frame, final int start,
+                                   final byte[] mac) {
+        for (int i = 0; i < mac.length; i++) {
+            if (frame.getByte(start + i) != mac[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Checks if packet has size of OVX-generated LLDP, and correctness of two
      * organizationally specific TLVs that use ON.Lab's OUI. Assumes packet is
@@ -0,0 +1,329 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+
+package net.onrc.openvirtex.packet;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpDscp;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.TransportPort;
+import org.projectfloodlight.openflow.types.VlanPcp;
+
+/**
+ * The header fields of a frame, read in a single pass over its bytes
+ * without deserializing it into {@link Ethernet} and its payloads. An
+ * instance can be reused for any number of frames.
+ *
+ * Besides the fields OVX matches on, it tells where the frame ends if the
+ * switch sent it with an Ethernet trailer, and rewrites MAC and network
+ * addresses in place.
+ */
+public final class PacketHeaders {
+
+    private static final int ETH_HEADER = 14;
+
+    private int length;
+    private long ethDst;
+    private long ethSrc;
+    private short vlan;
+    private byte vlanPcp;
+    private boolean tagged;
+    private short ethType;
+    private int l3Offset;
+    private boolean hasNetwork;
+    private byte nwTos;
+    private byte nwProto;
+    private int nwSrc;
+    private int nwDst;
+    // offset of the network source address in the frame, -1 if none
+    private int nwSrcOffset;
+    private boolean hasTransport;
+    private int tpSrc;
+    private int tpDst;
+    private int frameLength;
+
+    /**
+     * Reads the headers of a frame.
+     *
+     * @param data the frame
+     * @return false if the frame is too short to hold an Ethernet header
+     */
+    public boolean parse(final byte[] data) {
+        this.length = data == null ? 0 : data.length;
+        this.frameLength = this.length;
+        this.tagged = false;
+        this.hasNetwork = false;
+        this.hasTransport = false;
+        this.nwTos = 0;
+        this.nwProto = 0;
+        this.nwSrc = 0;
+        this.nwDst = 0;
+        this.nwSrcOffset = -1;
+        if (this.length < ETH_HEADER) {
+            return false;
+        }
+        this.ethDst = PacketHeaders.getMac(data, 0);
+        this.ethSrc = PacketHeaders.getMac(data, 6);
+        this.ethType = PacketHeaders.getShort(data, 12);
+        int pos = ETH_HEADER;
+        if (this.ethType == (short) 0x8100 && this.length >= pos + 4) {
+            final short tci = PacketHeaders.getShort(data, pos);
+            this.tagged = true;
+            this.vlan = (short) (0xfff & tci);
+            this.vlanPcp = (byte) ((0xe000 & tci) >> 13);
+            this.ethType = PacketHeaders.getShort(data, pos + 2);
+            pos += 4;
+        }
+        this.l3Offset = pos;
+        int transportOffset = pos;
+        switch (this.ethType) {
+            case 0x0800:
+                if (this.length < pos + 20) {
+                    break;
+                }
+                this.hasNetwork = true;
+                transportOffset = pos + (0xf & data[pos]) * 4;
+                this.nwTos = (byte) ((0xfc & data[pos + 1]) >> 2);
+                this.nwProto = data[pos + 9];
+                this.nwSrcOffset = pos + 12;
+                this.nwSrc = PacketHeaders.getInt(data, pos + 12);
+                this.nwDst = PacketHeaders.getInt(data, pos + 16);
+                final int totalLength = 0xffff & PacketHeaders.getShort(data,
+                        pos + 2);
+                if (totalLength >= 20 && pos + totalLength < this.length) {
+                    // padded by the switch; the trailer is not part of it
+                    this.frameLength = pos + totalLength;
+                }
+                break;
+            case 0x0806:
+                if (this.length < pos + 8) {
+                    break;
+                }
+                this.hasNetwork = true;
+                // nw proto holds the low byte of the opcode, as in OF1.0
+                this.nwProto = data[pos + 7];
+                if (PacketHeaders.getShort(data, pos + 2) == 0x800
+                        && data[pos + 4] == 6 && data[pos + 5] == 4
+                        && this.length >= pos + 28) {
+                    this.nwSrcOffset = pos + 14;
+                    this.nwSrc = PacketHeaders.getInt(data, pos + 14);
+                    this.nwDst = PacketHeaders.getInt(data, pos + 24);
+                }
+                break;
+            default:
+                break;
+        }
+        switch (this.nwProto) {
+            case 0x01:
+                this.hasTransport = this.length >= transportOffset + 2;
+                if (this.hasTransport) {
+                    // icmp type and code
+                    this.tpSrc = 0xff & data[transportOffset];
+                    this.tpDst = 0xff & data[transportOffset + 1];
+                }
+                break;
+            case 0x06:
+            case 0x11:
+                this.hasTransport = this.length >= transportOffset + 4;
+                if (this.hasTransport) {
+                    this.tpSrc = 0xffff & PacketHeaders.getShort(data,
+                            transportOffset);
+                    this.tpDst = 0xffff & PacketHeaders.getShort(data,
+                            transportOffset + 2);
+                }
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Builds the match of the frame, as received on the given port.
+     *
+     * @param inPort the input port
+     * @param version the OpenFlow version of the match
+     * @return the match
+     */
+    public Match toMatch(final short inPort, final OFVersion version) {
+        final Match.Builder builder = OFFactories.getFactory(version)
+                .buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(inPort));
+        if (this.length < ETH_HEADER) {
+            return builder.build();
+        }
+        builder.setExact(MatchField.ETH_SRC, MacAddress.of(this.ethSrc))
+                .setExact(MatchField.ETH_DST, MacAddress.of(this.ethDst));
+        if (this.tagged) {
+            builder.setExact(MatchField.VLAN_VID,
+                    OFVlanVidMatch.ofRawVid(this.vlan))
+                    .setExact(MatchField.VLAN_PCP, VlanPcp.of(this.vlanPcp));
+        }
+        if (this.hasNetwork) {
+            builder.setExact(MatchField.ETH_TYPE, EthType.of(this.ethType));
+            if (this.isIPv4()) {
+                builder.setExact(MatchField.IPV4_SRC, IPv4Address.of(this.nwSrc))
+                        .setExact(MatchField.IPV4_DST, IPv4Address.of(this.nwDst))
+                        .setExact(MatchField.IP_DSCP, IpDscp.of(this.nwTos));
+            } else {
+                builder.setExact(MatchField.ARP_SPA, IPv4Address.of(this.nwSrc))
+                        .setExact(MatchField.ARP_TPA, IPv4Address.of(this.nwDst));
+            }
+        }
+        if (this.hasTransport) {
+            builder.setExact(MatchField.IP_PROTO, IpProtocol.of(this.nwProto));
+            if (this.nwProto != 0x01) {
+                // UDP ports too go in the TCP fields
+                builder.setExact(MatchField.TCP_SRC, TransportPort.of(this.tpSrc))
+                        .setExact(MatchField.TCP_DST, TransportPort.of(this.tpDst));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Rewrites the MAC addresses of a frame and of these headers.
+     *
+     * @param data the frame these headers were read from
+     * @param src the source MAC address
+     * @param dst the destination MAC address
+     */
+    public void setMacs(final byte[] data, final MacAddress src,
+                        final MacAddress dst) {
+        this.ethSrc = src.getLong();
+        this.ethDst = dst.getLong();
+        System.arraycopy(dst.getBytes(), 0, data, 0, 6);
+        System.arraycopy(src.getBytes(), 0, data, 6, 6);
+    }
+
+    /**
+     * Rewrites the IPv4 or ARP source address of a frame and of these
+     * headers. Checksums are left as they are.
+     *
+     * @param data the frame these headers were read from
+     * @param ip the source address
+     */
+    public void setNetworkSource(final byte[] data, final int ip) {
+        if (this.nwSrcOffset >= 0) {
+            this.nwSrc = ip;
+            PacketHeaders.putInt(data, this.nwSrcOffset, ip);
+        }
+    }
+
+    /**
+     * Rewrites the IPv4 or ARP destination address of a frame and of these
+     * headers. Checksums are left as they are.
+     *
+     * @param data the frame these headers were read from
+     * @param ip the destination address
+     */
+    public void setNetworkDestination(final byte[] data, final int ip) {
+        if (this.nwSrcOffset >= 0) {
+            this.nwDst = ip;
+            // the target address follows the sender hardware address in ARP
+            PacketHeaders.putInt(data, this.nwSrcOffset
+                    + (this.isIPv4() ? 4 : 10), ip);
+        }
+    }
+
+    public MacAddress getEthSrc() {
+        return MacAddress.of(this.ethSrc);
+    }
+
+    /**
+     * @return the source MAC address in the lower 48 bits
+     */
+    public long getEthSrcLong() {
+        return this.ethSrc;
+    }
+
+    public MacAddress getEthDst() {
+        return MacAddress.of(this.ethDst);
+    }
+
+    public boolean isIPv4() {
+        return this.hasNetwork && this.ethType == 0x0800;
+    }
+
+    public boolean isArp() {
+        return this.hasNetwork && this.ethType == 0x0806;
+    }
+
+    /**
+     * @return the IPv4 or ARP source address, 0 if none
+     */
+    public int getNetworkSource() {
+        return this.nwSrc;
+    }
+
+    /**
+     * @return the IPv4 or ARP destination address, 0 if none
+     */
+    public int getNetworkDestination() {
+        return this.nwDst;
+    }
+
+    /**
+     * @return the ethertype, after the VLAN tag if there is one
+     */
+    public short getEthType() {
+        return this.ethType;
+    }
+
+    /**
+     * @return the length of the frame without the Ethernet trailer a switch
+     *         may have added
+     */
+    public int getFrameLength() {
+        return this.frameLength;
+    }
+
+    private static short getShort(final byte[] data, final int pos) {
+        return (short) ((data[pos] & 0xff) << 8 | data[pos + 1] & 0xff);
+    }
+
+    private static int getInt(final byte[] data, final int pos) {
+        return (data[pos] & 0xff) << 24 | (data[pos + 1] & 0xff) << 16
+                | (data[pos + 2] & 0xff) << 8 | data[pos + 3] & 0xff;
+    }
+
+    private static long getMac(final byte[] data, final int pos) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            mac = mac << 8 | data[pos + i] & 0xff;
+        }
+        return mac;
+    }
+
+    private static void putInt(final byte[] data, final int pos, final int value) {
+        data[pos] = (byte) (value >>> 24);
+        data[pos + 1] = (byte) (value >>> 16);
+        data[pos + 2] = (byte) (value >>> 8);
+        data[pos + 3] = (byte) value;
+    }
+}
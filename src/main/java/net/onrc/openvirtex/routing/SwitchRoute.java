@@ -275,7 +275,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
 
                         OVXFlowMod fm = fe.clone();
 
-                        fe.setOFMessage(fe.getFlowMod().createBuilder()
+                        fm.setOFMessage(fm.getFlowMod().createBuilder()
                                 .setCookie(U64.of(((OVXFlowTable)this.getSrcPort().getParentSwitch().getFlowTable()).getCookie(fe, true)))
                                 .build()
                         );
@@ -284,6 +284,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
 
                         this.generateRouteFMs(fm);
                         this.generateFirstFM(fm);
+                        FlowInstaller.clearFence();
 
                     }
                 }
@@ -310,7 +311,8 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
         final LinkedList<OFAction> outActions = new LinkedList<OFAction>();
 
         if (this.getDstPort().isEdge()) {
-            outActions.addAll(IPMapper.prependUnRewriteActions(fm.getFlowMod().getMatch()));
+            outActions.addAll(IPMapper.prependUnRewriteActions(
+                    this.getTenantId(), fm.getFlowMod().getMatch()));
         } else {
             final OVXLink link = this.getDstPort().getLink().getOutLink();
             Integer linkId = link.getLinkId();
@@ -397,8 +399,8 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .setActions(actionList)
                         .build());
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                FlowInstaller.send(this.sw, phyLink.getSrcPort()
+                        .getParentSwitch(), fm);
                 SwitchRoute.log.debug(
                         "Sending big-switch route intermediate fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getName(), fm);
@@ -421,21 +423,14 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .setActions(outActions)
                         .build());
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                FlowInstaller.send(this.sw, phyLink.getSrcPort()
+                        .getParentSwitch(), fm);
                 SwitchRoute.log.debug("Sending big-switch route last fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getName(), fm);
             }
             outPort = phyLink.getDstPort();
         }
-
-        // TODO: With POX we need to put a timeout between this flows and the
-        // first flowMod. Check how to solve
-        try {
-            Thread.sleep(5);
-        } catch (final InterruptedException e1) {
-            SwitchRoute.log.warn("Timeout failed, might be a problem for POX controller: {}", e1);
-        }
+        // the first flow mod of the route is released once these are in place
     }
 
     /**
@@ -537,7 +532,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                 .setActions(approvedActions)
                 .build());
 
-        this.getSrcSwitch().sendMsg(fm, this.getSrcSwitch());
+        FlowInstaller.release(this.sw, this.getSrcSwitch(), fm);
         SwitchRoute.log.debug("Sending big-switch route first fm to sw {}: {}", this
                 .getSrcSwitch().getName(), fm);
     }
@@ -0,0 +1,222 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Map from non-negative longs to ints, stored in primitive arrays with open
+ * addressing and linear probing, so that neither lookups nor updates box.
+ *
+ * Reads take no lock: they probe the current table, whose slots are read
+ * with volatile semantics. Writes are serialized. A new key has its value
+ * written before its key, so a reader that finds the key sees its value. A
+ * removed key leaves a tombstone that is only reclaimed when the table is
+ * rebuilt, so a slot never changes keys while a reader may be looking at
+ * it.
+ */
+public final class ConcurrentLongIntMap {
+
+    private static final long FREE = 0;
+    private static final long TOMBSTONE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The slots of the map. Keys are stored plus one, to tell them apart
+     * from free slots and tombstones.
+     */
+    private static final class Table {
+        private final AtomicLongArray keys;
+        private final AtomicIntegerArray values;
+        private final int mask;
+
+        private Table(final int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    // guarded by this
+    private int size;
+    // live keys and tombstones, guarded by this
+    private int used;
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key the key
+     * @param missing the value to return if the key is not mapped
+     * @return the value, or missing
+     */
+    public int get(final long key, final int missing) {
+        final Table t = this.table;
+        final long stored = key + 1;
+        for (int i = ConcurrentLongIntMap.slot(key, t.mask);; i = i + 1 & t.mask) {
+            final long k = t.keys.get(i);
+            if (k == stored) {
+                return t.values.get(i);
+            }
+            if (k == FREE) {
+                return missing;
+            }
+        }
+    }
+
+    /**
+     * Checks if a key is mapped.
+     *
+     * @param key the key
+     * @return true if the key is mapped
+     */
+    public boolean containsKey(final long key) {
+        final Table t = this.table;
+        final long stored = key + 1;
+        for (int i = ConcurrentLongIntMap.slot(key, t.mask);; i = i + 1 & t.mask) {
+            final long k = t.keys.get(i);
+            if (k == stored) {
+                return true;
+            }
+            if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Maps a key to a value, replacing its previous value if any.
+     *
+     * @param key the key, must not be negative
+     * @param value the value
+     */
+    public synchronized void put(final long key, final int value) {
+        if (key < 0 || key == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Key must be non-negative: "
+                    + key);
+        }
+        if (this.used + 1 > this.table.keys.length() / 3 * 2) {
+            this.rebuild();
+        }
+        final Table t = this.table;
+        final long stored = key + 1;
+        for (int i = ConcurrentLongIntMap.slot(key, t.mask);; i = i + 1 & t.mask) {
+            final long k = t.keys.get(i);
+            if (k == stored) {
+                t.values.set(i, value);
+                return;
+            }
+            if (k == FREE) {
+                // the value is visible to any reader that sees the key
+                t.values.set(i, value);
+                t.keys.set(i, stored);
+                this.size++;
+                this.used++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key the key
+     * @return true if the key was mapped
+     */
+    public synchronized boolean remove(final long key) {
+        final Table t = this.table;
+        final long stored = key + 1;
+        for (int i = ConcurrentLongIntMap.slot(key, t.mask);; i = i + 1 & t.mask) {
+            final long k = t.keys.get(i);
+            if (k == stored) {
+                t.keys.set(i, TOMBSTONE);
+                this.size--;
+                return true;
+            }
+            if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of mapped keys.
+     *
+     * @return the number of keys
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets a copy of the mappings, consistent with the writes done so far.
+     *
+     * @return map of keys to values
+     */
+    public synchronized Map<Long, Integer> snapshot() {
+        final Table t = this.table;
+        final Map<Long, Integer> copy = new HashMap<Long, Integer>(
+                this.size * 2);
+        for (int i = 0; i < t.keys.length(); i++) {
+            final long k = t.keys.get(i);
+            if (k != FREE && k != TOMBSTONE) {
+                copy.put(k - 1, t.values.get(i));
+            }
+        }
+        return copy;
+    }
+
+    /*
+     * Copies the live keys to a new table with room to grow, dropping the
+     * tombstones. Readers keep probing the old table until the new one is
+     * published.
+     */
+    private void rebuild() {
+        final Table old = this.table;
+        int capacity = MIN_CAPACITY;
+        while (capacity < (this.size + 1) * 3) {
+            capacity <<= 1;
+        }
+        final Table t = new Table(capacity);
+        for (int i = 0; i < old.keys.length(); i++) {
+            final long k = old.keys.get(i);
+            if (k == FREE || k == TOMBSTONE) {
+                continue;
+            }
+            int j = ConcurrentLongIntMap.slot(k - 1, t.mask);
+            while (t.keys.get(j) != FREE) {
+                j = j + 1 & t.mask;
+            }
+            t.values.set(j, old.values.get(i));
+            t.keys.set(j, k);
+        }
+        this.used = this.size;
+        this.table = t;
+    }
+
+    private static int slot(final long key, final int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Throughput of devirtualizing the IPv4 addresses of flow mod matches, as
+ * done for every flow mod sent to a non-edge port, by 1 to 8 threads
+ * standing for the client and server worker threads (--ct/--st). Flow mods
+ * of several tenants are rewritten concurrently, with their addresses
+ * already mapped, so rewriting should scale with the threads.
+ *
+ * Run with
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=DevirtualizeBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DevirtualizeBenchmark {
+
+    private static final int TENANTS = 8;
+    private static final int MATCHES = 1 << 10;
+
+    /**
+     * The virtual networks and the matches of their flow mods.
+     */
+    @State(Scope.Benchmark)
+    public static class Tenants {
+        private final int[] tenantIds = new int[MATCHES];
+        private final Match[] matches = new Match[MATCHES];
+
+        @Setup(Level.Trial)
+        public void mapAddresses() throws Exception {
+            // networks take their address space from the controller settings
+            new OpenVirteXController(new CmdLineSettings());
+            OVXMap.reset();
+            for (int tenantId = 1; tenantId <= TENANTS; tenantId++) {
+                OVXMap.getInstance().addNetwork(new OVXNetwork(tenantId,
+                        new ArrayList<String>(), new OVXIPAddress("10.0.0.0",
+                                tenantId), (short) 16));
+            }
+            final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+            for (int i = 0; i < MATCHES; i++) {
+                this.tenantIds[i] = 1 + i % TENANTS;
+                this.matches[i] = factory.buildMatch()
+                        .setExact(MatchField.IN_PORT, OFPort.of(1 + i % 4))
+                        .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                        .setExact(MatchField.IPV4_SRC,
+                                IPv4Address.of(0x0a000000 + i / TENANTS % 64))
+                        .setExact(MatchField.IPV4_DST,
+                                IPv4Address.of(0x0a000000 + i / TENANTS))
+                        .build();
+                IPMapper.rewriteMatch(this.tenantIds[i], this.matches[i]);
+            }
+        }
+    }
+
+    /**
+     * The next flow mod a thread rewrites.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void spread() {
+            // threads start on different tenants
+            this.next = (int) Thread.currentThread().getId() * 37;
+        }
+    }
+
+    private static Match rewrite(final Tenants tenants, final Cursor cursor) {
+        final int i = cursor.next++ & MATCHES - 1;
+        return IPMapper.rewriteMatch(tenants.tenantIds[i], tenants.matches[i]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Match threads1(final Tenants tenants, final Cursor cursor) {
+        return DevirtualizeBenchmark.rewrite(tenants, cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Match threads2(final Tenants tenants, final Cursor cursor) {
+        return DevirtualizeBenchmark.rewrite(tenants, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Match threads4(final Tenants tenants, final Cursor cursor) {
+        return DevirtualizeBenchmark.rewrite(tenants, cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Match threads8(final Tenants tenants, final Cursor cursor) {
+        return DevirtualizeBenchmark.rewrite(tenants, cursor);
+    }
+}
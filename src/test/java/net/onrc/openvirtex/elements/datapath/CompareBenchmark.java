@@ -0,0 +1,141 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TransportPort;
+
+/**
+ * Throughput of {@link OVXFlowEntry#compare} between stored entries and the
+ * matches of incoming flow mods, on OF1.0 and OF1.3 matches shaped like
+ * those of reactive L2/L3 forwarding: some exact on MACs, some on the IPv4
+ * 5-tuple, some wildcarding most fields.
+ *
+ * Run with
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=CompareBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompareBenchmark {
+
+    private static final int SIZE = 1 << 10;
+
+    @Param({"OF_10", "OF_13"})
+    private String version;
+
+    private OVXFlowEntry[] entries;
+    private Match[] matches;
+    private CompiledMatch[] compiled;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void buildMatches() {
+        final OFFactory factory = OFFactories.getFactory(OFVersion
+                .valueOf(this.version));
+        final Random random = new Random(1);
+        this.entries = new OVXFlowEntry[SIZE];
+        this.matches = new Match[SIZE];
+        this.compiled = new CompiledMatch[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            this.entries[i] = new OVXFlowEntry(new OVXFlowMod(factory
+                    .buildFlowAdd()
+                    .setMatch(CompareBenchmark.match(factory, random))
+                    .build()), i);
+            this.matches[i] = CompareBenchmark.match(factory, random);
+            this.compiled[i] = CompiledMatch.of(this.matches[i]);
+        }
+    }
+
+    /*
+     * Builds a match over few hosts, so that compared matches agree on some
+     * fields and differ on others.
+     */
+    private static Match match(final OFFactory factory, final Random random) {
+        final Match.Builder builder = factory.buildMatch();
+        final int host = random.nextInt(16);
+        final int peer = random.nextInt(16);
+        switch (random.nextInt(3)) {
+        case 0:
+            builder.setExact(MatchField.IN_PORT, OFPort.of(1 + host % 4))
+                    .setExact(MatchField.ETH_SRC, MacAddress.of(host))
+                    .setExact(MatchField.ETH_DST, MacAddress.of(peer));
+            break;
+        case 1:
+            builder.setExact(MatchField.IN_PORT, OFPort.of(1 + host % 4))
+                    .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_SRC,
+                            IPv4Address.of(0x0a000000 + host))
+                    .setExact(MatchField.IPV4_DST,
+                            IPv4Address.of(0x0a000000 + peer))
+                    .setExact(MatchField.IP_PROTO, IpProtocol.TCP)
+                    .setExact(MatchField.TCP_DST,
+                            TransportPort.of(80 + random.nextInt(2)));
+            break;
+        default:
+            builder.setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_DST,
+                            IPv4Address.of(0x0a000000 + peer));
+            break;
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public int compareCompiled() {
+        final int i = this.next++ & SIZE - 1;
+        return this.entries[i].compare(this.compiled[i], false);
+    }
+
+    @Benchmark
+    public int compareMatch() {
+        final int i = this.next++ & SIZE - 1;
+        return this.entries[i].compare(this.matches[i], false);
+    }
+}
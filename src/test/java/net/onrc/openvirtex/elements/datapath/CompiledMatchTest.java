@@ -0,0 +1,118 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import junit.framework.TestCase;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TransportPort;
+
+/**
+ * Tests the equality of {@link CompiledMatch}, which keys strict flow table
+ * lookups.
+ */
+public class CompiledMatchTest extends TestCase {
+
+    private static final OFFactory OF10 = OFFactories
+            .getFactory(OFVersion.OF_10);
+    private static final OFFactory OF13 = OFFactories
+            .getFactory(OFVersion.OF_13);
+
+    /*
+     * Reads back an OF1.0 flow mod carrying the match, with bytes written
+     * into the wildcarded eth_src field, as a switch or controller may.
+     */
+    private static Match withGarbage(final Match match) throws Exception {
+        final OFFlowMod fm = OF10.buildFlowAdd().setMatch(match).build();
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        fm.writeTo(buf);
+        // the match starts after the 8 byte header; eth_src is at offset 6
+        for (int i = 14; i < 20; i++) {
+            buf.setByte(i, 0xab);
+        }
+        return ((OFFlowMod) OF10.getReader().readFrom(buf)).getMatch();
+    }
+
+    public void testWildcardedFieldsIgnored() throws Exception {
+        final Match clean = OF10.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(1))
+                .build();
+        final Match dirty = CompiledMatchTest.withGarbage(clean);
+        // loxi compares the raw fields, garbage included
+        assertFalse(clean.equals(dirty));
+
+        final CompiledMatch a = CompiledMatch.of(clean);
+        final CompiledMatch b = CompiledMatch.of(dirty);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    public void testCompiledFieldsCompared() {
+        final CompiledMatch a = CompiledMatch.of(OF13.buildMatch()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IPV4_SRC, IPv4Address.of("10.0.0.1"))
+                .build());
+        final CompiledMatch b = CompiledMatch.of(OF13.buildMatch()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IPV4_SRC, IPv4Address.of("10.0.0.2"))
+                .build());
+        final CompiledMatch masked = CompiledMatch.of(OF13.buildMatch()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setMasked(MatchField.IPV4_SRC, IPv4Address.of("10.0.0.1"),
+                        IPv4Address.of("255.255.255.0"))
+                .build());
+        assertFalse(a.equals(b));
+        assertFalse(a.equals(masked));
+        assertEquals(masked, CompiledMatch.of(masked.getMatch()));
+    }
+
+    public void testOtherFieldsCompared() {
+        // UDP ports are not compiled, but still tell entries apart
+        final CompiledMatch a = CompiledMatch.of(CompiledMatchTest.udp(53));
+        final CompiledMatch b = CompiledMatch.of(CompiledMatchTest.udp(67));
+        final CompiledMatch none = CompiledMatch.of(OF13.buildMatch()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IP_PROTO, IpProtocol.UDP)
+                .build());
+        assertFalse(a.equals(b));
+        assertFalse(a.equals(none));
+        assertFalse(none.equals(a));
+        assertEquals(a, CompiledMatch.of(CompiledMatchTest.udp(53)));
+    }
+
+    private static Match udp(final int port) {
+        return OF13.buildMatch()
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IP_PROTO, IpProtocol.UDP)
+                .setExact(MatchField.UDP_DST, TransportPort.of(port))
+                .build();
+    }
+}
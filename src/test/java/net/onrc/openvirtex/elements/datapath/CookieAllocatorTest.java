@@ -0,0 +1,119 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cookie allocation of {@link CookieAllocator}.
+ */
+public class CookieAllocatorTest extends TestCase {
+
+    private static final int TENANT = 17;
+
+    @Override
+    protected void tearDown() {
+        CookieAllocator.remove(TENANT);
+    }
+
+    public void testCookiesCarryTenant() {
+        final CookieAllocator allocator = CookieAllocator.getInstance(TENANT);
+        assertSame(allocator, CookieAllocator.getInstance(TENANT));
+        final long cookie = allocator.allocate();
+        assertEquals(TENANT, (int) (cookie >>> 32));
+        assertTrue((int) cookie != 0);
+        assertTrue(cookie != allocator.getPlaceholder());
+    }
+
+    public void testFreedCookiesRecycled() {
+        final CookieAllocator allocator = CookieAllocator.getInstance(TENANT);
+        final long first = allocator.allocate();
+        final long second = allocator.allocate();
+        allocator.free(first);
+        // cookies of other tenants and the placeholder are ignored
+        allocator.free(CookieAllocator.getInstance(TENANT + 1).allocate());
+        allocator.free(allocator.getPlaceholder());
+        CookieAllocator.remove(TENANT + 1);
+
+        assertEquals(first, allocator.allocate());
+        final long third = allocator.allocate();
+        assertTrue(third != first && third != second);
+        assertEquals(3L, allocator.getTenantStatistics().get("inUse"));
+    }
+
+    public void testUniqueUnderConcurrentAllocateFree() throws Exception {
+        final CookieAllocator allocator = CookieAllocator.getInstance(TENANT);
+        final ConcurrentHashMap<Long, Integer> live = new ConcurrentHashMap<Long, Integer>();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int owner = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Random random = new Random(owner);
+                    final List<Long> held = new ArrayList<Long>();
+                    try {
+                        start.await();
+                        for (int i = 0; i < 100000; i++) {
+                            if (held.isEmpty() || random.nextInt(3) != 0) {
+                                final long cookie = allocator.allocate();
+                                final Integer other = live.putIfAbsent(cookie,
+                                        owner);
+                                if (other != null) {
+                                    failure.compareAndSet(null, "cookie "
+                                            + cookie + " held by " + other
+                                            + " given to " + owner);
+                                    return;
+                                }
+                                held.add(cookie);
+                            } else {
+                                // the entry is removed before its cookie is freed
+                                final long cookie = held.remove(random
+                                        .nextInt(held.size()));
+                                live.remove(cookie);
+                                allocator.free(cookie);
+                            }
+                        }
+                    } catch (final InterruptedException e) {
+                        failure.compareAndSet(null, e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertNull(failure.get(), failure.get());
+        assertEquals((long) live.size(),
+                allocator.getTenantStatistics().get("inUse"));
+        assertTrue((Long) allocator.getTenantStatistics().get("recycled") > 0);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Tests the lookups of {@link FlowClassifier} against a linear scan of the
+ * entries with {@link OVXFlowEntry#compare}.
+ */
+public class FlowClassifierTest extends TestCase {
+
+    private static final OFFactory OF10 = OFFactories
+            .getFactory(OFVersion.OF_10);
+
+    private final Random random = new Random(42);
+    private final FlowClassifier classifier = new FlowClassifier();
+    private final List<OVXFlowEntry> entries = new ArrayList<OVXFlowEntry>();
+
+    /*
+     * Builds a match over a small value space, so random matches often
+     * overlap, with each field set or wildcarded at random.
+     */
+    private Match randomMatch() {
+        final Match.Builder builder = OF10.buildMatch();
+        if (this.random.nextBoolean()) {
+            builder.setExact(MatchField.IN_PORT,
+                    OFPort.of(1 + this.random.nextInt(3)));
+        }
+        if (this.random.nextBoolean()) {
+            builder.setExact(MatchField.ETH_DST,
+                    MacAddress.of(1 + this.random.nextInt(2)));
+        }
+        if (this.random.nextBoolean()) {
+            builder.setExact(MatchField.ETH_TYPE, EthType.IPv4);
+            if (this.random.nextBoolean()) {
+                builder.setExact(MatchField.IPV4_SRC,
+                        IPv4Address.of(0x0a000001 + this.random.nextInt(2)));
+            }
+        }
+        return builder.build();
+    }
+
+    private OVXFlowMod randomFlowMod() {
+        return new OVXFlowMod(OF10.buildFlowAdd()
+                .setPriority(1 + this.random.nextInt(2))
+                .setMatch(this.randomMatch()).build());
+    }
+
+    private void add(final int count) {
+        for (int i = 0; i < count; i++) {
+            final long cookie = this.entries.size();
+            final OVXFlowEntry entry = new OVXFlowEntry(
+                    this.randomFlowMod(), cookie);
+            this.entries.add(entry);
+            this.classifier.add(entry.getOVXFlowMod(), cookie);
+        }
+    }
+
+    /*
+     * The entries a non-strict operation applies to, by linear scan.
+     */
+    private Set<Long> scanEqual(final CompiledMatch match) {
+        final Set<Long> found = new HashSet<Long>();
+        for (final OVXFlowEntry entry : this.entries) {
+            if (entry != null
+                    && entry.compare(match, false) == OVXFlowEntry.EQUAL) {
+                found.add(entry.getNewCookie());
+            }
+        }
+        return found;
+    }
+
+    /*
+     * The entries a CHECK_OVERLAP flow mod conflicts with, by linear scan.
+     */
+    private Set<Long> scanOverlapping(final CompiledMatch match,
+                                      final int priority) {
+        final Set<Long> found = new HashSet<Long>();
+        for (final OVXFlowEntry entry : this.entries) {
+            if (entry != null && entry.getPriority() == priority
+                    && entry.compare(match, false) != OVXFlowEntry.DISJOINT) {
+                found.add(entry.getNewCookie());
+            }
+        }
+        return found;
+    }
+
+    private Set<Long> confirm(final List<Long> candidates,
+                              final CompiledMatch match) {
+        final Set<Long> found = new HashSet<Long>();
+        for (final Long cookie : candidates) {
+            if (this.entries.get(cookie.intValue()).compare(match, false)
+                    == OVXFlowEntry.EQUAL) {
+                found.add(cookie);
+            }
+        }
+        return found;
+    }
+
+    private void checkQueries(final int count) {
+        for (int i = 0; i < count; i++) {
+            final CompiledMatch match = CompiledMatch.of(this.randomMatch());
+            final List<Long> candidates = this.classifier.getCandidates(match);
+            assertEquals(candidates.size(),
+                    new HashSet<Long>(candidates).size());
+            assertEquals(this.scanEqual(match),
+                    this.confirm(candidates, match));
+
+            final int priority = 1 + this.random.nextInt(2);
+            final List<Long> overlapping = this.classifier.getOverlapping(
+                    match, priority);
+            assertEquals(overlapping.size(),
+                    new HashSet<Long>(overlapping).size());
+            assertEquals(this.scanOverlapping(match, priority),
+                    new HashSet<Long>(overlapping));
+        }
+    }
+
+    public void testMatchesLinearScan() {
+        this.add(200);
+        this.checkQueries(500);
+    }
+
+    public void testMatchesLinearScanAfterRemove() {
+        this.add(200);
+        // remove every other entry, keeping the list indexed by cookie;
+        // a removed entry returned as a candidate fails in confirm
+        for (int i = 0; i < this.entries.size(); i += 2) {
+            final OVXFlowEntry entry = this.entries.get(i);
+            this.classifier.remove(entry.getOVXFlowMod(), entry.getNewCookie());
+            this.entries.set(i, null);
+        }
+        this.checkQueries(500);
+    }
+
+    public void testEmptyAfterClear() {
+        this.add(50);
+        this.classifier.clear();
+        this.entries.clear();
+        this.checkQueries(50);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Tests the reconciliation of {@link FlowShadow} with the flows of a
+ * switch.
+ */
+public class FlowShadowTest extends TestCase {
+
+    private static final OFFactory OF10 = OFFactories
+            .getFactory(OFVersion.OF_10);
+    private static final long COOKIE = 1L << 32 | 5;
+
+    private final FlowShadow shadow = new FlowShadow();
+
+    private static OFFlowMod add(final int port, final int idleTimeout,
+                                 final int hardTimeout) {
+        return OF10.buildFlowAdd()
+                .setCookie(U64.of(COOKIE))
+                .setPriority(10)
+                .setMatch(OF10.buildMatch()
+                        .setExact(MatchField.IN_PORT, OFPort.of(port))
+                        .build())
+                .setIdleTimeout(idleTimeout)
+                .setHardTimeout(hardTimeout)
+                .setActions(Collections.<OFAction>singletonList(OF10
+                        .actions().output(OFPort.of(port + 1), 0xffff)))
+                .build();
+    }
+
+    private static OFFlowStatsEntry entry(final OFFlowMod fm,
+                                          final Match match) {
+        return OF10.buildFlowStatsEntry()
+                .setCookie(fm.getCookie())
+                .setPriority(fm.getPriority())
+                .setMatch(match)
+                .setActions(fm.getActions())
+                .build();
+    }
+
+    public void testMissingFlowsReinstalled() {
+        final OFFlowMod idle = FlowShadowTest.add(1, 10, 0);
+        final OFFlowMod hard = FlowShadowTest.add(2, 0, 100);
+        this.shadow.record(idle);
+        this.shadow.record(hard);
+
+        // the switch came back with an empty table
+        final List<OFFlowMod> delta = this.shadow.diff(Collections
+                .<OFFlowStatsEntry>emptyList());
+        assertEquals(2, delta.size());
+        assertEquals(2, this.shadow.size());
+        for (final OFFlowMod fm : delta) {
+            if (fm.getMatch().equals(idle.getMatch())) {
+                assertEquals(10, fm.getIdleTimeout());
+                assertEquals(0, fm.getHardTimeout());
+            } else {
+                // what is left of the hard timeout, not a fresh one
+                assertTrue(fm.getHardTimeout() > 0);
+                assertTrue(fm.getHardTimeout() <= 100);
+            }
+        }
+    }
+
+    public void testElapsedHardTimeoutDropped() throws Exception {
+        this.shadow.record(FlowShadowTest.add(1, 0, 1));
+        Thread.sleep(1100);
+        assertTrue(this.shadow.diff(Collections
+                .<OFFlowStatsEntry>emptyList()).isEmpty());
+        assertTrue(this.shadow.isEmpty());
+    }
+
+    public void testWildcardedFieldsIgnored() throws Exception {
+        final OFFlowMod fm = FlowShadowTest.add(1, 0, 0);
+        this.shadow.record(fm);
+
+        // the switch reports the match with bytes in the wildcarded eth_src
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        fm.writeTo(buf);
+        for (int i = 14; i < 20; i++) {
+            buf.setByte(i, 0xab);
+        }
+        final Match dirty = ((OFFlowMod) OF10.getReader().readFrom(buf))
+                .getMatch();
+        assertFalse(dirty.equals(fm.getMatch()));
+
+        assertTrue(this.shadow.diff(Collections.singletonList(FlowShadowTest
+                .entry(fm, dirty))).isEmpty());
+        assertEquals(1, this.shadow.size());
+    }
+}
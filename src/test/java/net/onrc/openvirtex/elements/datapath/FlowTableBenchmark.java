@@ -0,0 +1,110 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Time to fill the flow table of a virtual switch with distinct flows, the
+ * way a controller pushes its table: each ADD is checked against the
+ * entries already there for one with the same priority and match.
+ *
+ * Run with
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=FlowTableBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlowTableBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int flows;
+
+    private OFFlowMod[] flowMods;
+    private OVXFlowTable table;
+
+    @Setup(Level.Trial)
+    public void buildFlowMods() {
+        // switches take their index sizes from the controller settings
+        new OpenVirteXController(new CmdLineSettings());
+        final OFFactory factory = OFFactories.getFactory(OFVersion.OF_10);
+        this.flowMods = new OFFlowMod[this.flows];
+        for (int i = 0; i < this.flows; i++) {
+            final OFAction output = factory.actions().buildOutput()
+                    .setPort(OFPort.of(1 + i % 4)).setMaxLen(0xffff).build();
+            this.flowMods[i] = factory.buildFlowAdd()
+                    .setPriority(100 + i % 8)
+                    .setMatch(factory.buildMatch()
+                            .setExact(MatchField.IN_PORT, OFPort.of(1 + i % 4))
+                            .setExact(MatchField.ETH_SRC, MacAddress.of(0x0a0000000000L + i))
+                            .setExact(MatchField.ETH_DST, MacAddress.of(0x0b0000000000L + i / 2))
+                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                            .setExact(MatchField.IPV4_SRC, IPv4Address.of(0x0a000000 + i))
+                            .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a800000 + i / 2))
+                            .build())
+                    .setActions(Collections.singletonList(output))
+                    .build();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyTable() {
+        this.table = new OVXFlowTable(new OVXSingleSwitch(1L, 1));
+    }
+
+    @Benchmark
+    public OVXFlowTable insert() {
+        for (final OFFlowMod fm : this.flowMods) {
+            this.table.handleFlowMods(new OVXFlowMod(fm));
+        }
+        return this.table;
+    }
+}
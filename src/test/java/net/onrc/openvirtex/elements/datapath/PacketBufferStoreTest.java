@@ -0,0 +1,169 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Tests the packet-in ring of {@link PacketBufferStore}.
+ */
+public class PacketBufferStoreTest extends TestCase {
+
+    // bytes a buffered packet costs besides its data
+    private static final int OVERHEAD = 64;
+
+    @Override
+    protected void tearDown() {
+        PacketBufferStore.configure(PacketBufferStore.DEFAULT_MAX_BYTES,
+                PacketBufferStore.DEFAULT_TIMEOUT);
+    }
+
+    private static OVXPacketIn packetIn(final int size, final int seed) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, (byte) seed);
+        return new OVXPacketIn(data, (short) 1, OFVersion.OF_10);
+    }
+
+    private static byte[] dataOf(final OVXPacketIn pktIn) {
+        return pktIn.getPacketIn().getData();
+    }
+
+    public void testAddGet() {
+        final PacketBufferStore store = new PacketBufferStore(16);
+        final int id1 = store.add(packetIn(60, 1));
+        final int id2 = store.add(packetIn(60, 2));
+        assertTrue(id1 != id2);
+        assertEquals(1, dataOf(store.get(id1))[0]);
+        assertEquals(2, dataOf(store.get(id2))[0]);
+        // a packet-out may refer to the same buffer again
+        assertEquals(2, dataOf(store.get(id2))[0]);
+        assertEquals(3L, store.getStatistics().get("hits"));
+    }
+
+    public void testCapacityRoundedUp() {
+        assertEquals(16, new PacketBufferStore(16).getCapacity());
+        assertEquals(32, new PacketBufferStore(17).getCapacity());
+        assertEquals(2, new PacketBufferStore(0).getCapacity());
+    }
+
+    public void testUnknownIds() {
+        final PacketBufferStore store = new PacketBufferStore(16);
+        final int id = store.add(packetIn(60, 1));
+        assertNull(store.get(id + 1));
+        assertNull(store.get(-1));
+        assertEquals(1L, store.getStatistics().get("misses"));
+    }
+
+    public void testStaleIdAfterSlotReuse() {
+        final PacketBufferStore store = new PacketBufferStore(4);
+        final int stale = store.add(packetIn(60, 1));
+        for (int i = 0; i < store.getCapacity() - 1; i++) {
+            store.add(packetIn(60, 2));
+        }
+        assertNotNull(store.get(stale));
+        // lands in the slot of the first packet, with another generation
+        final int reused = store.add(packetIn(60, 3));
+        assertEquals(stale & store.getCapacity() - 1, reused
+                & store.getCapacity() - 1);
+        assertNull(store.get(stale));
+        assertEquals(3, dataOf(store.get(reused))[0]);
+        assertEquals(1L, store.getStatistics().get("evicted"));
+    }
+
+    public void testByteLimitDropsOldest() {
+        PacketBufferStore.configure(3 * (100 + OVERHEAD),
+                PacketBufferStore.DEFAULT_TIMEOUT);
+        final PacketBufferStore store = new PacketBufferStore(64);
+        final int[] ids = new int[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = store.add(packetIn(100, i));
+        }
+        assertNull(store.get(ids[0]));
+        assertNull(store.get(ids[1]));
+        for (int i = 2; i < ids.length; i++) {
+            assertEquals(i, dataOf(store.get(ids[i]))[0]);
+        }
+        assertEquals(3L * (100 + OVERHEAD), store.getStatistics().get("bytes"));
+        assertEquals(2L, store.getStatistics().get("evicted"));
+    }
+
+    public void testBytesReleasedOnSlotReuse() {
+        final PacketBufferStore store = new PacketBufferStore(4);
+        for (int i = 0; i < 3 * store.getCapacity(); i++) {
+            store.add(packetIn(100, i));
+        }
+        assertEquals((long) store.getCapacity() * (100 + OVERHEAD), store
+                .getStatistics().get("bytes"));
+    }
+
+    public void testExpiry() throws InterruptedException {
+        PacketBufferStore.configure(PacketBufferStore.DEFAULT_MAX_BYTES, 1);
+        final PacketBufferStore store = new PacketBufferStore(16);
+        final int id = store.add(packetIn(60, 1));
+        Thread.sleep(20);
+        assertNull(store.get(id));
+        assertEquals(1L, store.getStatistics().get("expired"));
+    }
+
+    public void testConcurrentAddGet() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 2000;
+        // large enough that no slot is reused
+        final PacketBufferStore store = new PacketBufferStore(threads
+                * perThread);
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    final int[] ids = new int[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = store.add(packetIn(60, seed));
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        final OVXPacketIn pktIn = store.get(ids[i]);
+                        if (pktIn == null || dataOf(pktIn)[0] != seed) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals((long) threads * perThread * (60 + OVERHEAD), store
+                .getStatistics().get("bytes"));
+    }
+}
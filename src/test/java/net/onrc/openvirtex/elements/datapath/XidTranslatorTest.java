@@ -0,0 +1,140 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the XID ring of {@link XidTranslator}.
+ */
+public class XidTranslatorTest extends TestCase {
+
+    public void testTranslateUntranslate() {
+        final XidTranslator<String> translator = new XidTranslator<String>();
+        final int xid1 = translator.translate(7, "a");
+        final int xid2 = translator.translate(7, "b");
+        assertTrue(xid1 >= XidTranslator.MIN_XID);
+        assertTrue(xid1 != xid2);
+
+        final XidPair<String> pair = translator.untranslate(xid2);
+        assertEquals(7, pair.getXid());
+        assertEquals("b", pair.getSwitch());
+        assertEquals("a", translator.untranslate(xid1).getSwitch());
+        // multipart replies untranslate the same XID again
+        assertEquals("b", translator.untranslate(xid2).getSwitch());
+    }
+
+    public void testUnknownXids() {
+        final XidTranslator<String> translator = new XidTranslator<String>();
+        final int xid = translator.translate(1, "a");
+        assertNull(translator.untranslate(xid + 1));
+        assertNull(translator.untranslate(0));
+        assertNull(translator.untranslate(-xid));
+        assertEquals(3L, translator.getStatistics().get("misses"));
+    }
+
+    public void testEvictionAfterOneLap() {
+        final XidTranslator<String> translator = new XidTranslator<String>();
+        final int first = translator.translate(1, "first");
+        final int answered = translator.translate(2, "answered");
+        assertNotNull(translator.untranslate(answered));
+        for (int i = 2; i < XidTranslator.MAX_SIZE; i++) {
+            translator.translate(i, "filler");
+        }
+        // the ring is full but nothing has been overwritten yet
+        assertEquals("first", translator.untranslate(first).getSwitch());
+        assertEquals(0, translator.getEvictedCount());
+
+        // the next two XIDs reuse the slots of the first two
+        final int next = translator.translate(0, "next");
+        assertEquals(first & XidTranslator.MAX_SIZE - 1,
+                next & XidTranslator.MAX_SIZE - 1);
+        translator.translate(0, "next");
+        assertNull(translator.untranslate(first));
+        assertNull(translator.untranslate(answered));
+        assertEquals("next", translator.untranslate(next).getSwitch());
+        // the first was untranslated just before being overwritten
+        assertEquals(0, translator.getEvictedCount());
+
+        for (int i = 0; i < XidTranslator.MAX_SIZE; i++) {
+            translator.translate(i, "filler");
+        }
+        // all but the one answered were overwritten unanswered
+        assertEquals(XidTranslator.MAX_SIZE - 1, translator.getEvictedCount());
+    }
+
+    public void testWraparound() {
+        final XidTranslator<String> translator = new XidTranslator<String>(
+                Integer.MAX_VALUE - 1);
+        final int last = translator.translate(1, "a");
+        final int max = translator.translate(2, "b");
+        final int wrapped = translator.translate(3, "c");
+        assertEquals(Integer.MAX_VALUE - 1, last);
+        assertEquals(Integer.MAX_VALUE, max);
+        // never negative nor below the XIDs OVX keeps for itself
+        assertEquals(XidTranslator.MIN_XID, wrapped);
+        assertEquals(XidTranslator.MIN_XID + 1, translator.translate(4, "d"));
+
+        assertEquals(1, translator.untranslate(last).getXid());
+        assertEquals(2, translator.untranslate(max).getXid());
+        assertEquals("c", translator.untranslate(wrapped).getSwitch());
+    }
+
+    public void testConcurrentTranslations() throws InterruptedException {
+        final XidTranslator<Integer> translator = new XidTranslator<Integer>();
+        final int threads = 4;
+        // all together they stay within the ring, so nothing is evicted
+        final int perThread = XidTranslator.MAX_SIZE / threads;
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Integer owner = t;
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    final int[] xids = new int[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        xids[i] = translator.translate(i, owner);
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        final XidPair<Integer> pair = translator
+                                .untranslate(xids[i]);
+                        if (pair == null || pair.getXid() != i
+                                || !owner.equals(pair.getSwitch())) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(0, translator.getEvictedCount());
+    }
+}
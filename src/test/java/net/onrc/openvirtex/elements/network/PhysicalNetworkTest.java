@@ -0,0 +1,79 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.network;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.onrc.openvirtex.elements.datapath.FlowShadow;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Tests the flow shadows kept by {@link PhysicalNetwork}.
+ */
+public class PhysicalNetworkTest extends TestCase {
+
+    private static final OFFactory OF10 = OFFactories
+            .getFactory(OFVersion.OF_10);
+
+    private static OFFlowMod add(final int tenantId, final int port) {
+        return OF10.buildFlowAdd()
+                .setCookie(U64.of((long) tenantId << 32 | port))
+                .setPriority(10)
+                .setMatch(OF10.buildMatch()
+                        .setExact(MatchField.IN_PORT, OFPort.of(port))
+                        .build())
+                .setActions(Collections.<OFAction>singletonList(OF10
+                        .actions().output(OFPort.of(port + 1), 0xffff)))
+                .build();
+    }
+
+    @Override
+    protected void tearDown() {
+        PhysicalNetwork.reset();
+    }
+
+    public void testPurgeTenantFromUnmappedSwitches() {
+        // no switch is connected, as when the tenant's switches went down
+        final PhysicalNetwork net = PhysicalNetwork.getInstance();
+        final FlowShadow first = net.getFlowShadow(1);
+        final FlowShadow second = net.getFlowShadow(2);
+        first.record(PhysicalNetworkTest.add(7, 1));
+        first.record(PhysicalNetworkTest.add(8, 2));
+        second.record(PhysicalNetworkTest.add(7, 3));
+        second.record(PhysicalNetworkTest.add(7, 4));
+
+        net.purgeTenant(7);
+
+        assertEquals(0, first.getTenantFlows(7));
+        assertEquals(0, second.getTenantFlows(7));
+        assertEquals(1, first.getTenantFlows(8));
+        assertEquals(1, first.size());
+        assertTrue(second.isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ConcurrentLongIntMap} against a {@link HashMap}.
+ */
+public class ConcurrentLongIntMapTest extends TestCase {
+
+    private static final int MISSING = -1;
+
+    private static void check(final Map<Long, Integer> expected,
+                              final ConcurrentLongIntMap map,
+                              final long[] keys) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map.snapshot());
+        for (final long key : keys) {
+            final Integer value = expected.get(key);
+            assertEquals(value != null, map.containsKey(key));
+            assertEquals(value == null ? MISSING : value.intValue(),
+                    map.get(key, MISSING));
+        }
+    }
+
+    public void testPutRemoveReput() {
+        final Random random = new Random(7);
+        // MAC-sized keys, few enough that removed keys are put again
+        final long[] keys = new long[500];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong() & 0xffffffffffffL;
+        }
+        keys[0] = 0;
+        final Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        final ConcurrentLongIntMap map = new ConcurrentLongIntMap();
+        for (int round = 0; round < 200; round++) {
+            // growing, then shrinking, then growing again forces rebuilds
+            // both to grow and to reclaim tombstones
+            final int puts = round % 40 < 20 ? 3 : 1;
+            for (int i = 0; i < 50; i++) {
+                final long key = keys[random.nextInt(keys.length)];
+                if (random.nextInt(puts + 1) != 0) {
+                    final int value = random.nextInt();
+                    expected.put(key, value);
+                    map.put(key, value);
+                } else {
+                    assertEquals(expected.remove(key) != null, map.remove(key));
+                }
+            }
+            ConcurrentLongIntMapTest.check(expected, map, keys);
+        }
+    }
+
+    public void testNegativeKeysRejected() {
+        final ConcurrentLongIntMap map = new ConcurrentLongIntMap();
+        try {
+            map.put(-1, 1);
+            fail("negative key accepted");
+        } catch (final IllegalArgumentException e) {
+            assertEquals(0, map.size());
+        }
+    }
+
+    public void testReadersSeeKeysAcrossRebuilds() throws Exception {
+        final ConcurrentLongIntMap map = new ConcurrentLongIntMap();
+        final long pinned = 0x0a0000000001L;
+        map.put(pinned, 42);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    final int value = map.get(pinned, MISSING);
+                    if (value != 42) {
+                        failure.compareAndSet(null, "read " + value);
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (long key = 1; key <= 200000; key++) {
+            map.put(key, (int) key);
+            if (key % 3 == 0) {
+                map.remove(key - 1);
+            }
+        }
+        running.set(false);
+        reader.join();
+        assertNull(failure.get(), failure.get());
+        assertEquals(42, map.get(pinned, MISSING));
+    }
+}
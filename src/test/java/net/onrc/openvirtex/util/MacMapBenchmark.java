@@ -0,0 +1,110 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
+import com.googlecode.concurrenttrees.radix.RadixTree;
+import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
+
+/**
+ * Cost of the MAC ownership lookup an edge packet-in makes (hasMAC, then
+ * getMAC) with one million hosts mapped, on the long keyed map OVXMap uses
+ * and on the radix tree keyed by MAC strings it used before.
+ *
+ * Run with
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=MacMapBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class MacMapBenchmark {
+
+    private static final int NO_TENANT = -1;
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"1000000"})
+    private int hosts;
+
+    private ConcurrentLongIntMap longMap;
+    private RadixTree<Integer> radixTree;
+    // looked up in turn; one in eight is not mapped
+    private MacAddress[] lookups;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void fillMaps() {
+        final Random random = new Random(1);
+        final MacAddress[] macs = new MacAddress[this.hosts];
+        this.longMap = new ConcurrentLongIntMap();
+        this.radixTree = new ConcurrentRadixTree<Integer>(
+                new DefaultCharArrayNodeFactory());
+        for (int i = 0; i < this.hosts; i++) {
+            macs[i] = MacAddress.of(random.nextLong() & 0xffffffffffffL);
+            final int tenantId = 1 + i % 64;
+            this.longMap.put(macs[i].getLong(), tenantId);
+            this.radixTree.put(macs[i].toString(), tenantId);
+        }
+        this.lookups = new MacAddress[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            this.lookups[i] = i % 8 == 0 ? MacAddress.of(random.nextLong()
+                    & 0xffffffffffffL) : macs[random.nextInt(this.hosts)];
+        }
+    }
+
+    @Benchmark
+    public int longMap() {
+        final MacAddress mac = this.lookups[this.next++ & LOOKUPS - 1];
+        if (!this.longMap.containsKey(mac.getLong())) {
+            return NO_TENANT;
+        }
+        return this.longMap.get(mac.getLong(), NO_TENANT);
+    }
+
+    @Benchmark
+    public int radixTree() {
+        final MacAddress mac = this.lookups[this.next++ & LOOKUPS - 1];
+        if (this.radixTree.getValueForExactKey(mac.toString()) == null) {
+            return NO_TENANT;
+        }
+        final Integer tenantId = this.radixTree.getValueForExactKey(mac
+                .toString());
+        return tenantId == null ? NO_TENANT : tenantId;
+    }
+}